@@ -2,6 +2,7 @@ package com.mentesme.builder.api;
 
 import com.mentesme.builder.model.*;
 import com.mentesme.builder.service.GoogleTranslationService;
+import com.mentesme.builder.service.MetroIntegrationService;
 import com.mentesme.builder.service.MetroLookupRepository;
 import com.mentesme.builder.service.QuestionnairePublishService;
 import com.mentesme.builder.service.XmlGenerationService;
@@ -21,17 +22,20 @@ public class BuilderController {
     private static final Logger log = LoggerFactory.getLogger(BuilderController.class);
 
     private final MetroLookupRepository metroLookup;
+    private final MetroIntegrationService metroIntegrationService;
     private final QuestionnairePublishService publishService;
     private final GoogleTranslationService translationService;
     private final XmlGenerationService xmlGenerationService;
 
     public BuilderController(
             MetroLookupRepository metroLookup,
+            MetroIntegrationService metroIntegrationService,
             QuestionnairePublishService publishService,
             GoogleTranslationService translationService,
             XmlGenerationService xmlGenerationService
     ) {
         this.metroLookup = metroLookup;
+        this.metroIntegrationService = metroIntegrationService;
         this.publishService = publishService;
         this.translationService = translationService;
         this.xmlGenerationService = xmlGenerationService;
@@ -121,6 +125,15 @@ public class BuilderController {
         return new XmlPreviewResponse(questionnaireNl, questionnaireEn, reportNl, reportEn, warnings);
     }
 
+    // ─────────────────────────────────────────────────────────────
+    // Integration preview (SQL rendered from the publish plan, test database)
+    // ─────────────────────────────────────────────────────────────
+
+    @PostMapping("/integration/preview")
+    public IntegrationPreviewResponse integrationPreview(@Valid @RequestBody AssessmentBuildRequest request) {
+        return metroIntegrationService.generatePreview(request, metroLookup);
+    }
+
     // ─────────────────────────────────────────────────────────────
     // Assessment build (DEPRECATED)
     // ─────────────────────────────────────────────────────────────
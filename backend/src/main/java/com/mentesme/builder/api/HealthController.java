@@ -1,8 +1,8 @@
 package com.mentesme.builder.api;
 
+import com.mentesme.builder.service.ScoreRecalculationService;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
@@ -19,52 +19,20 @@ public class HealthController {
 
     private final JdbcTemplate jdbcTemplate;
     private final DataSource dataSource;
+    private final ScoreRecalculationService scoreRecalculationService;
 
     public HealthController(
             @Qualifier("metroJdbcTemplate") JdbcTemplate jdbcTemplate,
-            @Qualifier("metroDataSource") DataSource dataSource) {
+            @Qualifier("metroDataSource") DataSource dataSource,
+            ScoreRecalculationService scoreRecalculationService) {
         this.jdbcTemplate = jdbcTemplate;
         this.dataSource = dataSource;
+        this.scoreRecalculationService = scoreRecalculationService;
     }
 
-    @DeleteMapping("/api/db-cleanup")
-    public Map<String, Object> cleanupQuestionnaires(@RequestParam int fromId, @RequestParam int toId) {
-        Map<String, Object> result = new LinkedHashMap<>();
-        if (toId - fromId > 100) {
-            result.put("error", "Range too large (max 100)");
-            return result;
-        }
-
-        // Drop competence_questions triggers to avoid 10s/row recalculation
-        jdbcTemplate.execute("DROP TRIGGER IF EXISTS recalculate_user_competence_scores_on_insert_2");
-        jdbcTemplate.execute("DROP TRIGGER IF EXISTS recalculate_user_competence_scores_on_update_2");
-        jdbcTemplate.execute("DROP TRIGGER IF EXISTS recalculate_user_competence_scores_on_delete_2");
-
-        // Cascade delete in correct FK order
-        int d1 = jdbcTemplate.update("DELETE it FROM item_translations it INNER JOIN questionnaire_items qi ON qi.itemId = it.itemId WHERE qi.questionnaireId BETWEEN ? AND ?", fromId, toId);
-        int d2 = jdbcTemplate.update("DELETE ci FROM competence_items ci INNER JOIN questionnaire_items qi ON qi.itemId = ci.itemId WHERE qi.questionnaireId BETWEEN ? AND ?", fromId, toId);
-        int d3 = jdbcTemplate.update("DELETE i FROM items i INNER JOIN questionnaire_items qi ON qi.itemId = i.id WHERE qi.questionnaireId BETWEEN ? AND ?", fromId, toId);
-        int d4 = jdbcTemplate.update("DELETE FROM questionnaire_items WHERE questionnaireId BETWEEN ? AND ?", fromId, toId);
-        int d5 = jdbcTemplate.update("DELETE FROM competence_questions WHERE questionnaireId BETWEEN ? AND ?", fromId, toId);
-        int d6 = jdbcTemplate.update("DELETE FROM group_questionnaires WHERE questionnaireId BETWEEN ? AND ?", fromId, toId);
-        int d7 = jdbcTemplate.update("DELETE FROM questionnaire_translations WHERE questionnaireId BETWEEN ? AND ?", fromId, toId);
-        int d8 = jdbcTemplate.update("DELETE FROM questionnaires WHERE id BETWEEN ? AND ?", fromId, toId);
-
-        // Recreate triggers
-        jdbcTemplate.execute("CREATE TRIGGER recalculate_user_competence_scores_on_insert_2 AFTER INSERT ON competence_questions FOR EACH ROW CALL metro.calculate_user_competence_scores_for_all_assessments()");
-        jdbcTemplate.execute("CREATE TRIGGER recalculate_user_competence_scores_on_update_2 AFTER UPDATE ON competence_questions FOR EACH ROW CALL metro.calculate_user_competence_scores_for_all_assessments()");
-        jdbcTemplate.execute("CREATE TRIGGER recalculate_user_competence_scores_on_delete_2 AFTER DELETE ON competence_questions FOR EACH ROW CALL metro.calculate_user_competence_scores_for_all_assessments()");
-
-        result.put("range", fromId + "-" + toId);
-        result.put("item_translations", d1);
-        result.put("competence_items", d2);
-        result.put("items", d3);
-        result.put("questionnaire_items", d4);
-        result.put("competence_questions", d5);
-        result.put("group_questionnaires", d6);
-        result.put("questionnaire_translations", d7);
-        result.put("questionnaires", d8);
-        return result;
+    @GetMapping("/api/db-score-recalculation")
+    public Map<String, Object> scoreRecalculationStatus() {
+        return scoreRecalculationService.status();
     }
 
     @GetMapping("/api/db-questionnaires")
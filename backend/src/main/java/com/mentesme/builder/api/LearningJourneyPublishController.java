@@ -4,8 +4,12 @@ import com.mentesme.builder.entity.BuilderUser;
 import com.mentesme.builder.model.LearningJourneyPublishRequest;
 import com.mentesme.builder.model.LearningJourneyPublishResult;
 import com.mentesme.builder.model.PublishEnvironment;
+import com.mentesme.builder.model.PublishEstimate;
+import com.mentesme.builder.model.PublishJobStatus;
+import com.mentesme.builder.service.IdempotencyService;
 import com.mentesme.builder.service.LearningJourneyIntegrationService;
 import com.mentesme.builder.service.LearningJourneyPublishService;
+import com.mentesme.builder.service.PublishJobService;
 import com.mentesme.builder.service.UserService;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
@@ -29,46 +33,127 @@ public class LearningJourneyPublishController {
 
     private final LearningJourneyPublishService publishService;
     private final LearningJourneyIntegrationService integrationService;
+    private final PublishJobService jobService;
+    private final IdempotencyService idempotencyService;
     private final UserService userService;
     private final JdbcTemplate metroJdbcTemplate;
 
     public LearningJourneyPublishController(
             LearningJourneyPublishService publishService,
             LearningJourneyIntegrationService integrationService,
+            PublishJobService jobService,
+            IdempotencyService idempotencyService,
             UserService userService,
             @Qualifier("metroJdbcTemplate") JdbcTemplate metroJdbcTemplate) {
         this.publishService = publishService;
         this.integrationService = integrationService;
+        this.jobService = jobService;
+        this.idempotencyService = idempotencyService;
         this.userService = userService;
         this.metroJdbcTemplate = metroJdbcTemplate;
     }
 
     @PostMapping("/api/learning-journeys/publish")
-    @ResponseStatus(HttpStatus.CREATED)
-    public LearningJourneyPublishResult publish(
+    public ResponseEntity<?> publish(
             @Valid @RequestBody LearningJourneyPublishRequest request,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
             HttpServletRequest httpRequest) {
         requireAccess(httpRequest, "journeysTest");
-        return publishService.publish(request, PublishEnvironment.TEST);
+        return publishOnce(request, PublishEnvironment.TEST, idempotencyKey, httpRequest);
     }
 
     @PostMapping("/api/learning-journeys/publish-test")
-    @ResponseStatus(HttpStatus.CREATED)
-    public LearningJourneyPublishResult publishTest(
+    public ResponseEntity<?> publishTest(
             @Valid @RequestBody LearningJourneyPublishRequest request,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
             HttpServletRequest httpRequest) {
         requireAccess(httpRequest, "journeysTest");
-        return publishService.publish(request, PublishEnvironment.TEST);
+        return publishOnce(request, PublishEnvironment.TEST, idempotencyKey, httpRequest);
     }
 
     @PostMapping("/api/learning-journeys/publish-production")
-    @ResponseStatus(HttpStatus.CREATED)
-    public LearningJourneyPublishResult publishProduction(
+    public ResponseEntity<?> publishProduction(
             @Valid @RequestBody LearningJourneyPublishRequest request,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
             HttpServletRequest httpRequest) {
         requireAccess(httpRequest, "journeysProd");
         log.warn("PRODUCTION publish triggered for learning journey: {}", request.name());
-        return publishService.publish(request, PublishEnvironment.PRODUCTION);
+        return publishOnce(request, PublishEnvironment.PRODUCTION, idempotencyKey, httpRequest);
+    }
+
+    /**
+     * Publish (201), or replay the stored result when {@code Idempotency-Key} was already used
+     * for this request (marked with {@code Idempotent-Replayed: true}). A publish estimated above
+     * {@code builder.publish.async-threshold-ms} runs as a job instead (202 with the job status).
+     */
+    private ResponseEntity<?> publishOnce(LearningJourneyPublishRequest request, PublishEnvironment env,
+                                          String idempotencyKey, HttpServletRequest httpRequest) {
+        // A resubmitted key is answered from the stored result, without estimating the publish
+        LearningJourneyPublishResult stored = idempotencyService.findStored(idempotencyKey, "learning-journey", env,
+                request, LearningJourneyPublishResult.class);
+        if (stored != null) {
+            return ResponseEntity.status(HttpStatus.CREATED).header("Idempotent-Replayed", "true").body(stored);
+        }
+        if (publishService.exceedsAsyncThreshold(request, env)) {
+            log.info("Publish of learning journey '{}' to {} exceeds the async threshold; running it as a job",
+                    request.name(), env);
+            return ResponseEntity.accepted().body(submit(request, env, idempotencyKey, httpRequest));
+        }
+        var replay = idempotencyService.execute(idempotencyKey, "learning-journey", env, request,
+                LearningJourneyPublishResult.class, () -> publishService.publish(request, env));
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.CREATED);
+        if (replay.replayed()) {
+            response.header("Idempotent-Replayed", "true");
+        }
+        return response.body(replay.result());
+    }
+
+    /**
+     * Cost estimate of a publish (statements and rows per table, projected duration) without
+     * executing it.
+     */
+    @PostMapping("/api/learning-journeys/publish-test/estimate")
+    public PublishEstimate estimateTest(@Valid @RequestBody LearningJourneyPublishRequest request,
+                                        HttpServletRequest httpRequest) {
+        requireAccess(httpRequest, "journeysTest");
+        return publishService.estimate(request, PublishEnvironment.TEST);
+    }
+
+    @PostMapping("/api/learning-journeys/publish-production/estimate")
+    public PublishEstimate estimateProduction(@Valid @RequestBody LearningJourneyPublishRequest request,
+                                              HttpServletRequest httpRequest) {
+        requireAccess(httpRequest, "journeysProd");
+        return publishService.estimate(request, PublishEnvironment.PRODUCTION);
+    }
+
+    /**
+     * Async variants: return a job immediately; poll or stream it via /api/publish-jobs/{jobId}.
+     */
+    @PostMapping("/api/learning-journeys/publish-test/async")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public PublishJobStatus publishTestAsync(
+            @Valid @RequestBody LearningJourneyPublishRequest request,
+            HttpServletRequest httpRequest) {
+        requireAccess(httpRequest, "journeysTest");
+        return submit(request, PublishEnvironment.TEST, null, httpRequest);
+    }
+
+    @PostMapping("/api/learning-journeys/publish-production/async")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public PublishJobStatus publishProductionAsync(
+            @Valid @RequestBody LearningJourneyPublishRequest request,
+            HttpServletRequest httpRequest) {
+        requireAccess(httpRequest, "journeysProd");
+        log.warn("PRODUCTION publish job submitted for learning journey: {}", request.name());
+        return submit(request, PublishEnvironment.PRODUCTION, null, httpRequest);
+    }
+
+    private PublishJobStatus submit(LearningJourneyPublishRequest request, PublishEnvironment env,
+                                    String idempotencyKey, HttpServletRequest httpRequest) {
+        return jobService.submit("learning-journey", env, (String) httpRequest.getAttribute("userId"),
+                progress -> idempotencyService.execute(idempotencyKey, "learning-journey", env, request,
+                        LearningJourneyPublishResult.class, () -> publishService.publish(request, env, progress))
+                        .result()).snapshot();
     }
 
     @DeleteMapping("/api/learning-journeys/{id}")
@@ -0,0 +1,100 @@
+package com.mentesme.builder.api;
+
+import com.mentesme.builder.config.OrphanCollectorProperties;
+import com.mentesme.builder.model.OrphanCollectionResult;
+import com.mentesme.builder.model.PublishEnvironment;
+import com.mentesme.builder.model.PublishJobStatus;
+import com.mentesme.builder.service.OrphanCollectorService;
+import com.mentesme.builder.service.PublishJobService;
+import com.mentesme.builder.service.QuestionnaireCleanupService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Map;
+
+/**
+ * Destructive maintenance on the Metro databases. Authenticated, ADMIN only.
+ */
+@RestController
+@RequestMapping("/api/admin/maintenance")
+@CrossOrigin(origins = {"http://localhost:5173", "https://builder.mentes.me", "https://builder-prod.mentes.me"})
+public class MaintenanceController {
+
+    private final OrphanCollectorService orphanCollectorService;
+    private final OrphanCollectorProperties orphanCollectorProperties;
+    private final QuestionnaireCleanupService cleanupService;
+    private final PublishJobService jobService;
+
+    public MaintenanceController(OrphanCollectorService orphanCollectorService,
+                                 OrphanCollectorProperties orphanCollectorProperties,
+                                 QuestionnaireCleanupService cleanupService,
+                                 PublishJobService jobService) {
+        this.orphanCollectorService = orphanCollectorService;
+        this.orphanCollectorProperties = orphanCollectorProperties;
+        this.cleanupService = cleanupService;
+        this.jobService = jobService;
+    }
+
+    /**
+     * Delete test questionnaires {@code fromId}..{@code toId} in small throttled chunks, as a
+     * job (202 with the job status; follow it via {@code /api/publish-jobs/{jobId}}).
+     * A cleanup that was interrupted resumes from its checkpoint; {@code restart} starts over.
+     */
+    @DeleteMapping("/questionnaires")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public PublishJobStatus cleanupQuestionnaires(@RequestParam long fromId, @RequestParam long toId,
+                                                  @RequestParam(defaultValue = "false") boolean restart,
+                                                  HttpServletRequest request) {
+        requireAdmin(request);
+        cleanupService.checkRange(fromId, toId);
+        return jobService.submit("questionnaire-cleanup", PublishEnvironment.TEST, (String) request.getAttribute("userId"),
+                progress -> cleanupService.cleanup(fromId, toId, restart, progress)).snapshot();
+    }
+
+    /** Checkpoint of a cleanup range. */
+    @GetMapping("/questionnaires")
+    public Map<String, Object> cleanupStatus(@RequestParam long fromId, @RequestParam long toId,
+                                             HttpServletRequest request) {
+        requireAdmin(request);
+        return cleanupService.status(fromId, toId);
+    }
+
+    /** Dry-run report: orphaned catalog rows per table, nothing is deleted. */
+    @GetMapping("/orphans")
+    public OrphanCollectionResult orphanReport(@RequestParam(defaultValue = "TEST") PublishEnvironment environment,
+                                               HttpServletRequest request) {
+        requireAdmin(request);
+        return orphanCollectorService.collect(environment, true, orphanCollectorProperties.getMaxRowsPerRun());
+    }
+
+    /** Delete orphaned catalog rows now, up to {@code maxRows} (default: the configured budget per run). */
+    @DeleteMapping("/orphans")
+    public OrphanCollectionResult collectOrphans(@RequestParam(defaultValue = "TEST") PublishEnvironment environment,
+                                                 @RequestParam(required = false) Long maxRows,
+                                                 HttpServletRequest request) {
+        requireAdmin(request);
+        return orphanCollectorService.collect(environment, false,
+                maxRows != null ? maxRows : orphanCollectorProperties.getMaxRowsPerRun());
+    }
+
+    private void requireAdmin(HttpServletRequest request) {
+        String role = (String) request.getAttribute("userRole");
+        if (!"ADMIN".equals(role)) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "ADMIN role vereist");
+        }
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, String>> handleIllegalArgument(IllegalArgumentException ex) {
+        return ResponseEntity.badRequest().body(Map.of("error", ex.getMessage()));
+    }
+
+    @ExceptionHandler(ResponseStatusException.class)
+    public ResponseEntity<Map<String, String>> handleStatus(ResponseStatusException ex) {
+        return ResponseEntity.status(ex.getStatusCode())
+                .body(Map.of("error", ex.getReason() != null ? ex.getReason() : ex.getMessage()));
+    }
+}
@@ -0,0 +1,97 @@
+package com.mentesme.builder.api;
+
+import com.mentesme.builder.config.PublishProperties;
+import com.mentesme.builder.model.PublishJobStatus;
+import com.mentesme.builder.service.PublishJob;
+import com.mentesme.builder.service.PublishJobService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Poll or stream async publish jobs submitted via the {@code .../async} publish endpoints.
+ */
+@RestController
+@CrossOrigin(origins = {"http://localhost:5173", "https://builder.mentes.me", "https://builder-prod.mentes.me"})
+public class PublishJobController {
+
+    private final PublishJobService jobService;
+    private final PublishProperties publishProperties;
+
+    public PublishJobController(PublishJobService jobService, PublishProperties publishProperties) {
+        this.jobService = jobService;
+        this.publishProperties = publishProperties;
+    }
+
+    @GetMapping("/api/publish-jobs/{jobId}")
+    public PublishJobStatus getJob(@PathVariable String jobId, HttpServletRequest httpRequest) {
+        return findJob(jobId, httpRequest).snapshot();
+    }
+
+    /**
+     * Server-sent events: replays progress so far, then streams
+     * {@code progress} events ({key, value}) and {@code status} events (job snapshot).
+     * The stream completes once the job has finished.
+     */
+    @GetMapping(value = "/api/publish-jobs/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamJob(@PathVariable String jobId, HttpServletRequest httpRequest) {
+        PublishJob job = findJob(jobId, httpRequest);
+        SseEmitter emitter = new SseEmitter(publishProperties.getJobEventsTimeoutMs());
+
+        PublishJob.Listener listener = new PublishJob.Listener() {
+            @Override
+            public void onProgress(String key, Long value) {
+                send(emitter, "progress", Map.of("key", key, "value", value));
+            }
+
+            @Override
+            public void onStatus(PublishJobStatus status) {
+                send(emitter, "status", status);
+                // Events arrive asynchronously: judge the delivered snapshot, not the live job
+                if (status.terminal()) {
+                    emitter.complete();
+                }
+            }
+        };
+        emitter.onCompletion(() -> job.unsubscribe(listener));
+        emitter.onTimeout(() -> job.unsubscribe(listener));
+        emitter.onError(e -> job.unsubscribe(listener));
+        job.subscribe(listener);
+        return emitter;
+    }
+
+    private PublishJob findJob(String jobId, HttpServletRequest httpRequest) {
+        PublishJob job = jobService.find(jobId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Publicatie-job niet gevonden"));
+        // Jobs are only visible to the user who submitted them (and admins)
+        String userId = (String) httpRequest.getAttribute("userId");
+        boolean admin = "ADMIN".equals(httpRequest.getAttribute("userRole"));
+        if (!admin && !Objects.equals(job.userId(), userId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Publicatie-job niet gevonden");
+        }
+        return job;
+    }
+
+    private static void send(SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @ExceptionHandler(ResponseStatusException.class)
+    public ResponseEntity<Map<String, String>> handleStatus(ResponseStatusException ex) {
+        return ResponseEntity.status(ex.getStatusCode())
+                .body(Map.of("error", ex.getReason() != null ? ex.getReason() : ex.getMessage()));
+    }
+}
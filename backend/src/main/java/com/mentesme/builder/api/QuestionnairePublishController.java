@@ -2,8 +2,16 @@ package com.mentesme.builder.api;
 
 import com.mentesme.builder.entity.BuilderUser;
 import com.mentesme.builder.model.AssessmentBuildRequest;
+import com.mentesme.builder.model.BulkPublishResult;
+import com.mentesme.builder.model.DryRunResult;
+import com.mentesme.builder.model.DualPublishResult;
+import com.mentesme.builder.model.GroupAssignmentRequest;
 import com.mentesme.builder.model.PublishEnvironment;
+import com.mentesme.builder.model.PublishEstimate;
+import com.mentesme.builder.model.PublishJobStatus;
 import com.mentesme.builder.model.PublishResult;
+import com.mentesme.builder.service.IdempotencyService;
+import com.mentesme.builder.service.PublishJobService;
 import com.mentesme.builder.service.QuestionnairePublishService;
 import com.mentesme.builder.service.UserService;
 import jakarta.servlet.http.HttpServletRequest;
@@ -15,6 +23,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -25,35 +34,190 @@ public class QuestionnairePublishController {
     private static final Logger log = LoggerFactory.getLogger(QuestionnairePublishController.class);
 
     private final QuestionnairePublishService publishService;
+    private final PublishJobService jobService;
+    private final IdempotencyService idempotencyService;
     private final UserService userService;
 
-    public QuestionnairePublishController(QuestionnairePublishService publishService, UserService userService) {
+    public QuestionnairePublishController(QuestionnairePublishService publishService,
+                                          PublishJobService jobService,
+                                          IdempotencyService idempotencyService,
+                                          UserService userService) {
         this.publishService = publishService;
+        this.jobService = jobService;
+        this.idempotencyService = idempotencyService;
         this.userService = userService;
     }
 
     @PostMapping("/api/questionnaires/publish")
-    @ResponseStatus(HttpStatus.CREATED)
-    public PublishResult publish(@Valid @RequestBody AssessmentBuildRequest request, HttpServletRequest httpRequest) {
+    public ResponseEntity<?> publish(@Valid @RequestBody AssessmentBuildRequest request,
+                                     @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+                                     HttpServletRequest httpRequest) {
         requireAccess(httpRequest, "assessmentTest");
-        return publishService.publish(request, PublishEnvironment.TEST);
+        return publishOnce(request, PublishEnvironment.TEST, idempotencyKey, httpRequest);
     }
 
     @PostMapping("/api/questionnaires/publish-test")
-    @ResponseStatus(HttpStatus.CREATED)
-    public PublishResult publishTest(@Valid @RequestBody AssessmentBuildRequest request, HttpServletRequest httpRequest) {
+    public ResponseEntity<?> publishTest(@Valid @RequestBody AssessmentBuildRequest request,
+                                         @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+                                         HttpServletRequest httpRequest) {
         requireAccess(httpRequest, "assessmentTest");
-        return publishService.publish(request, PublishEnvironment.TEST);
+        return publishOnce(request, PublishEnvironment.TEST, idempotencyKey, httpRequest);
     }
 
     @PostMapping("/api/questionnaires/publish-production")
-    @ResponseStatus(HttpStatus.CREATED)
-    public PublishResult publishProduction(
+    public ResponseEntity<?> publishProduction(
             @Valid @RequestBody AssessmentBuildRequest request,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
             HttpServletRequest httpRequest) {
         requireAccess(httpRequest, "assessmentProd");
         log.warn("PRODUCTION publish triggered for assessment: {}", request.assessmentName());
-        return publishService.publish(request, PublishEnvironment.PRODUCTION);
+        return publishOnce(request, PublishEnvironment.PRODUCTION, idempotencyKey, httpRequest);
+    }
+
+    /**
+     * Publish (201), or replay the stored result when {@code Idempotency-Key} was already used
+     * for this request (marked with {@code Idempotent-Replayed: true}). A publish estimated above
+     * {@code builder.publish.async-threshold-ms} runs as a job instead (202 with the job status).
+     */
+    private ResponseEntity<?> publishOnce(AssessmentBuildRequest request, PublishEnvironment env,
+                                          String idempotencyKey, HttpServletRequest httpRequest) {
+        // A resubmitted key is answered from the stored result, without estimating the publish
+        PublishResult stored = idempotencyService.findStored(idempotencyKey, "questionnaire", env, request,
+                PublishResult.class);
+        if (stored != null) {
+            return ResponseEntity.status(HttpStatus.CREATED).header("Idempotent-Replayed", "true").body(stored);
+        }
+        if (publishService.exceedsAsyncThreshold(request, env)) {
+            log.info("Publish of '{}' to {} exceeds the async threshold; running it as a job",
+                    request.assessmentName(), env);
+            return ResponseEntity.accepted().body(submit(request, env, idempotencyKey, httpRequest));
+        }
+        var replay = idempotencyService.execute(idempotencyKey, "questionnaire", env, request, PublishResult.class,
+                () -> publishService.publish(request, env));
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.CREATED);
+        if (replay.replayed()) {
+            response.header("Idempotent-Replayed", "true");
+        }
+        return response.body(replay.result());
+    }
+
+    /**
+     * Cost estimate of a publish (statements and rows per table, trigger firings, projected
+     * duration) without executing it.
+     */
+    @PostMapping("/api/questionnaires/publish-test/estimate")
+    public PublishEstimate estimateTest(@Valid @RequestBody AssessmentBuildRequest request,
+                                        HttpServletRequest httpRequest) {
+        requireAccess(httpRequest, "assessmentTest");
+        return publishService.estimate(request, PublishEnvironment.TEST);
+    }
+
+    @PostMapping("/api/questionnaires/publish-production/estimate")
+    public PublishEstimate estimateProduction(@Valid @RequestBody AssessmentBuildRequest request,
+                                              HttpServletRequest httpRequest) {
+        requireAccess(httpRequest, "assessmentProd");
+        return publishService.estimate(request, PublishEnvironment.PRODUCTION);
+    }
+
+    /**
+     * Run the publish against an in-memory shadow of the target database: constraint
+     * violations, resulting row counts and execution time, without locking or writing anything.
+     */
+    @PostMapping("/api/questionnaires/publish-test/dry-run")
+    public DryRunResult dryRunTest(@Valid @RequestBody AssessmentBuildRequest request,
+                                   HttpServletRequest httpRequest) {
+        requireAccess(httpRequest, "assessmentTest");
+        return publishService.dryRun(request, PublishEnvironment.TEST);
+    }
+
+    @PostMapping("/api/questionnaires/publish-production/dry-run")
+    public DryRunResult dryRunProduction(@Valid @RequestBody AssessmentBuildRequest request,
+                                         HttpServletRequest httpRequest) {
+        requireAccess(httpRequest, "assessmentProd");
+        return publishService.dryRun(request, PublishEnvironment.PRODUCTION);
+    }
+
+    /**
+     * Publish to TEST and PRODUCTION in parallel. 201 when both succeeded, otherwise 207 with
+     * the per-environment errors (each environment commits independently).
+     */
+    @PostMapping("/api/questionnaires/publish-both")
+    public ResponseEntity<DualPublishResult> publishBoth(@Valid @RequestBody AssessmentBuildRequest request,
+                                                         HttpServletRequest httpRequest) {
+        requireAccess(httpRequest, "assessmentTest");
+        requireAccess(httpRequest, "assessmentProd");
+        log.warn("PRODUCTION publish (TEST + PRODUCTION) triggered for assessment: {}", request.assessmentName());
+        DualPublishResult result = publishService.publishBoth(request);
+        return ResponseEntity.status(result.published() ? HttpStatus.CREATED : HttpStatus.MULTI_STATUS).body(result);
+    }
+
+    /**
+     * Bulk variants: publish many questionnaires in one request. 201 when all succeeded,
+     * otherwise 207 with the per-questionnaire errors (failures do not affect the others).
+     */
+    @PostMapping("/api/questionnaires/publish-test/bulk")
+    public ResponseEntity<BulkPublishResult> publishTestBulk(@RequestBody List<@Valid AssessmentBuildRequest> requests,
+                                                             HttpServletRequest httpRequest) {
+        requireAccess(httpRequest, "assessmentTest");
+        return bulk(requests, PublishEnvironment.TEST);
+    }
+
+    @PostMapping("/api/questionnaires/publish-production/bulk")
+    public ResponseEntity<BulkPublishResult> publishProductionBulk(@RequestBody List<@Valid AssessmentBuildRequest> requests,
+                                                                   HttpServletRequest httpRequest) {
+        requireAccess(httpRequest, "assessmentProd");
+        log.warn("PRODUCTION bulk publish triggered for {} assessments", requests.size());
+        return bulk(requests, PublishEnvironment.PRODUCTION);
+    }
+
+    private ResponseEntity<BulkPublishResult> bulk(List<AssessmentBuildRequest> requests, PublishEnvironment env) {
+        BulkPublishResult result = publishService.publishBulk(requests, env);
+        return ResponseEntity.status(result.failed() == 0 ? HttpStatus.CREATED : HttpStatus.MULTI_STATUS).body(result);
+    }
+
+    /**
+     * Link an existing questionnaire to more groups without a full re-publish.
+     */
+    @PostMapping("/api/questionnaires/{id}/assign-groups-test")
+    public PublishResult assignGroupsTest(@PathVariable long id, @Valid @RequestBody GroupAssignmentRequest request,
+                                          HttpServletRequest httpRequest) {
+        requireAccess(httpRequest, "assessmentTest");
+        return publishService.assignGroups(id, request.groupIds(), PublishEnvironment.TEST);
+    }
+
+    @PostMapping("/api/questionnaires/{id}/assign-groups-production")
+    public PublishResult assignGroupsProduction(@PathVariable long id, @Valid @RequestBody GroupAssignmentRequest request,
+                                                HttpServletRequest httpRequest) {
+        requireAccess(httpRequest, "assessmentProd");
+        log.warn("PRODUCTION group assignment for questionnaire {}: {}", id, request.groupIds());
+        return publishService.assignGroups(id, request.groupIds(), PublishEnvironment.PRODUCTION);
+    }
+
+    /**
+     * Async variants: return a job immediately; poll or stream it via /api/publish-jobs/{jobId}.
+     */
+    @PostMapping("/api/questionnaires/publish-test/async")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public PublishJobStatus publishTestAsync(@Valid @RequestBody AssessmentBuildRequest request,
+                                             HttpServletRequest httpRequest) {
+        requireAccess(httpRequest, "assessmentTest");
+        return submit(request, PublishEnvironment.TEST, null, httpRequest);
+    }
+
+    @PostMapping("/api/questionnaires/publish-production/async")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public PublishJobStatus publishProductionAsync(@Valid @RequestBody AssessmentBuildRequest request,
+                                                   HttpServletRequest httpRequest) {
+        requireAccess(httpRequest, "assessmentProd");
+        log.warn("PRODUCTION publish job submitted for assessment: {}", request.assessmentName());
+        return submit(request, PublishEnvironment.PRODUCTION, null, httpRequest);
+    }
+
+    private PublishJobStatus submit(AssessmentBuildRequest request, PublishEnvironment env, String idempotencyKey,
+                                    HttpServletRequest httpRequest) {
+        return jobService.submit("questionnaire", env, (String) httpRequest.getAttribute("userId"),
+                progress -> idempotencyService.execute(idempotencyKey, "questionnaire", env, request, PublishResult.class,
+                        () -> publishService.publish(request, env, progress)).result()).snapshot();
     }
 
     private void requireAccess(HttpServletRequest httpRequest, String flag) {
@@ -88,6 +252,25 @@ public class QuestionnairePublishController {
         return ResponseEntity.badRequest().body(Map.of("error", detail));
     }
 
+    // List<@Valid ...> bodies (bulk publish) are validated via method validation, not MethodArgumentNotValid
+    @ExceptionHandler(org.springframework.web.method.annotation.HandlerMethodValidationException.class)
+    public ResponseEntity<Map<String, String>> handleMethodValidation(
+            org.springframework.web.method.annotation.HandlerMethodValidationException ex) {
+        String detail = ex.getAllValidationResults().stream()
+                .flatMap(result -> {
+                    String prefix = result.getContainerIndex() != null ? "[" + result.getContainerIndex() + "]." : "";
+                    if (result instanceof org.springframework.validation.method.ParameterErrors errors) {
+                        return errors.getFieldErrors().stream()
+                                .map(fe -> prefix + fe.getField() + ": " + fe.getDefaultMessage());
+                    }
+                    return result.getResolvableErrors().stream()
+                            .map(error -> prefix + error.getDefaultMessage());
+                })
+                .collect(Collectors.joining("; "));
+        log.warn("Publish bean validation failed: {}", detail);
+        return ResponseEntity.badRequest().body(Map.of("error", detail));
+    }
+
     @ExceptionHandler(IllegalArgumentException.class)
     public ResponseEntity<Map<String, String>> handleIllegalArgument(IllegalArgumentException ex) {
         log.warn("Publish validation failed: {}", ex.getMessage());
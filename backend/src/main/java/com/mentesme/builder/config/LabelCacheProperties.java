@@ -0,0 +1,30 @@
+package com.mentesme.builder.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "builder.label-cache")
+public class LabelCacheProperties {
+
+    /** Journeys whose labels are kept in memory, per environment; 0 disables the cache. */
+    private int maxJourneys = 200;
+    /** Reload after this long, so label edits made in Metro itself show up. */
+    private long ttlSeconds = 300;
+
+    public int getMaxJourneys() {
+        return maxJourneys;
+    }
+
+    public void setMaxJourneys(int maxJourneys) {
+        this.maxJourneys = maxJourneys;
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public void setTtlSeconds(long ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+    }
+}
@@ -25,7 +25,7 @@ public class MetroProdDataSourceConfig {
     @Bean(name = "metroProdDataSource")
     public DataSource metroProdDataSource(
             @Qualifier("metroProdDataSourceProperties") DataSourceProperties properties) {
-        return properties.initializeDataSourceBuilder().build();
+        return MetroDataSourceConfig.withBatchRewrite(properties.initializeDataSourceBuilder().build());
     }
 
     @Bean(name = "metroProdJdbcTemplate")
@@ -0,0 +1,70 @@
+package com.mentesme.builder.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "builder.orphan-gc")
+public class OrphanCollectorProperties {
+
+    /** Run the collector on a schedule; the endpoints work either way. */
+    private boolean enabled = false;
+    /** Also collect in the production database on the scheduled runs. */
+    private boolean includeProduction = false;
+    /** Delay between the end of one scheduled run and the start of the next. */
+    private long intervalMs = 3_600_000;
+    /** Orphaned parent rows per transaction; their translations and links are deleted with them. */
+    private int batchSize = 200;
+    /** Stop a run once it deleted this many rows (all tables together). */
+    private long maxRowsPerRun = 5_000;
+    /** Pause between batches, so publishes and replication keep up. */
+    private long pauseMs = 100;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isIncludeProduction() {
+        return includeProduction;
+    }
+
+    public void setIncludeProduction(boolean includeProduction) {
+        this.includeProduction = includeProduction;
+    }
+
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    public void setIntervalMs(long intervalMs) {
+        this.intervalMs = intervalMs;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getMaxRowsPerRun() {
+        return maxRowsPerRun;
+    }
+
+    public void setMaxRowsPerRun(long maxRowsPerRun) {
+        this.maxRowsPerRun = maxRowsPerRun;
+    }
+
+    public long getPauseMs() {
+        return pauseMs;
+    }
+
+    public void setPauseMs(long pauseMs) {
+        this.pauseMs = pauseMs;
+    }
+}
@@ -0,0 +1,267 @@
+package com.mentesme.builder.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "builder.publish")
+public class PublishProperties {
+
+    /** Worker threads for async publish jobs. */
+    private int jobThreads = 2;
+    /** Jobs that may wait for a worker; further submits are rejected with 503. */
+    private int jobQueueCapacity = 20;
+    /** How long finished jobs stay pollable. */
+    private long jobRetentionMinutes = 30;
+    /** Threads that deliver job progress events to SSE listeners. */
+    private int jobEventThreads = 2;
+    /** Threads that run the PRODUCTION half of dual publishes; when all are busy the caller runs it itself. */
+    private int dualPublishThreads = 4;
+    /** SSE connection timeout for job progress streams. */
+    private long jobEventsTimeoutMs = 300_000;
+    /**
+     * Re-publish existing questionnaires by diffing against the current rows instead of
+     * deleting and reinserting everything.
+     */
+    private boolean diffRepublish = true;
+    /** How long a publish waits for another publish of the same questionnaire/journey before failing. */
+    private int lockWaitSeconds = 10;
+    /**
+     * Publishes (lock sessions) per database at the same time; each holds a lock connection and a
+     * transaction connection, so keep this below half the connection pool. Further publishes wait
+     * up to {@code lockWaitSeconds} and then fail with 503.
+     */
+    private int maxConcurrentPublishes = 4;
+    /** How long preview lookups can be reused by the following publish; 0 disables the cache. */
+    private long planCacheTtlSeconds = 120;
+    /** Questionnaires per transaction in a bulk publish; each one still runs in its own savepoint. */
+    private int bulkChunkSize = 10;
+    /** Largest number of questionnaires accepted in one bulk publish request. */
+    private int bulkMaxItems = 200;
+    /** Attempts of a publish transaction that fails on a deadlock or lock-wait timeout (1 disables retries). */
+    private int retryMaxAttempts = 4;
+    /** First backoff step between attempts; doubles per retry, with jitter. */
+    private long retryBaseDelayMs = 50;
+    /** Upper bound of a single backoff step. */
+    private long retryMaxDelayMs = 1000;
+    /** Total time budget for retrying one publish transaction. */
+    private long retryMaxTotalMs = 5000;
+    /** How long a request with an already running Idempotency-Key waits for that publish to finish. */
+    private int idempotencyWaitSeconds = 300;
+    /** Interval at which such a request retries the Idempotency-Key lock; no connection is held in between. */
+    private long idempotencyPollMs = 500;
+    /** How long the result of an idempotent publish is replayed for its key. */
+    private long idempotencyRetentionHours = 24;
+    /** Synchronous publishes estimated to take at least this long run as a job instead; 0 disables. */
+    private long asyncThresholdMs = 0;
+    /** Questionnaire IDs per transaction in a range cleanup. */
+    private int cleanupChunkSize = 10;
+    /** Primary keys per DELETE statement in a range cleanup. */
+    private int cleanupBatchSize = 500;
+    /** Minimum pause between cleanup chunks. */
+    private long cleanupPauseMs = 200;
+    /** Pause after a cleanup chunk as a multiple of its duration, so a slow database gets more room. */
+    private double cleanupThrottleRatio = 1.0;
+    /** Largest questionnaire ID range accepted in one cleanup request. */
+    private long cleanupMaxRange = 10_000;
+
+    public int getJobThreads() {
+        return jobThreads;
+    }
+
+    public void setJobThreads(int jobThreads) {
+        this.jobThreads = jobThreads;
+    }
+
+    public int getJobQueueCapacity() {
+        return jobQueueCapacity;
+    }
+
+    public void setJobQueueCapacity(int jobQueueCapacity) {
+        this.jobQueueCapacity = jobQueueCapacity;
+    }
+
+    public long getJobRetentionMinutes() {
+        return jobRetentionMinutes;
+    }
+
+    public void setJobRetentionMinutes(long jobRetentionMinutes) {
+        this.jobRetentionMinutes = jobRetentionMinutes;
+    }
+
+    public int getJobEventThreads() {
+        return jobEventThreads;
+    }
+
+    public void setJobEventThreads(int jobEventThreads) {
+        this.jobEventThreads = jobEventThreads;
+    }
+
+    public int getDualPublishThreads() {
+        return dualPublishThreads;
+    }
+
+    public void setDualPublishThreads(int dualPublishThreads) {
+        this.dualPublishThreads = dualPublishThreads;
+    }
+
+    public long getJobEventsTimeoutMs() {
+        return jobEventsTimeoutMs;
+    }
+
+    public void setJobEventsTimeoutMs(long jobEventsTimeoutMs) {
+        this.jobEventsTimeoutMs = jobEventsTimeoutMs;
+    }
+
+    public boolean isDiffRepublish() {
+        return diffRepublish;
+    }
+
+    public void setDiffRepublish(boolean diffRepublish) {
+        this.diffRepublish = diffRepublish;
+    }
+
+    public int getMaxConcurrentPublishes() {
+        return maxConcurrentPublishes;
+    }
+
+    public void setMaxConcurrentPublishes(int maxConcurrentPublishes) {
+        this.maxConcurrentPublishes = maxConcurrentPublishes;
+    }
+
+    public int getLockWaitSeconds() {
+        return lockWaitSeconds;
+    }
+
+    public void setLockWaitSeconds(int lockWaitSeconds) {
+        this.lockWaitSeconds = lockWaitSeconds;
+    }
+
+    public long getPlanCacheTtlSeconds() {
+        return planCacheTtlSeconds;
+    }
+
+    public void setPlanCacheTtlSeconds(long planCacheTtlSeconds) {
+        this.planCacheTtlSeconds = planCacheTtlSeconds;
+    }
+
+    public int getBulkChunkSize() {
+        return bulkChunkSize;
+    }
+
+    public void setBulkChunkSize(int bulkChunkSize) {
+        this.bulkChunkSize = bulkChunkSize;
+    }
+
+    public int getBulkMaxItems() {
+        return bulkMaxItems;
+    }
+
+    public void setBulkMaxItems(int bulkMaxItems) {
+        this.bulkMaxItems = bulkMaxItems;
+    }
+
+    public int getRetryMaxAttempts() {
+        return retryMaxAttempts;
+    }
+
+    public void setRetryMaxAttempts(int retryMaxAttempts) {
+        this.retryMaxAttempts = retryMaxAttempts;
+    }
+
+    public long getRetryBaseDelayMs() {
+        return retryBaseDelayMs;
+    }
+
+    public void setRetryBaseDelayMs(long retryBaseDelayMs) {
+        this.retryBaseDelayMs = retryBaseDelayMs;
+    }
+
+    public long getRetryMaxDelayMs() {
+        return retryMaxDelayMs;
+    }
+
+    public void setRetryMaxDelayMs(long retryMaxDelayMs) {
+        this.retryMaxDelayMs = retryMaxDelayMs;
+    }
+
+    public long getRetryMaxTotalMs() {
+        return retryMaxTotalMs;
+    }
+
+    public void setRetryMaxTotalMs(long retryMaxTotalMs) {
+        this.retryMaxTotalMs = retryMaxTotalMs;
+    }
+
+    public int getIdempotencyWaitSeconds() {
+        return idempotencyWaitSeconds;
+    }
+
+    public void setIdempotencyWaitSeconds(int idempotencyWaitSeconds) {
+        this.idempotencyWaitSeconds = idempotencyWaitSeconds;
+    }
+
+    public long getIdempotencyPollMs() {
+        return idempotencyPollMs;
+    }
+
+    public void setIdempotencyPollMs(long idempotencyPollMs) {
+        this.idempotencyPollMs = idempotencyPollMs;
+    }
+
+    public long getIdempotencyRetentionHours() {
+        return idempotencyRetentionHours;
+    }
+
+    public void setIdempotencyRetentionHours(long idempotencyRetentionHours) {
+        this.idempotencyRetentionHours = idempotencyRetentionHours;
+    }
+
+    public long getAsyncThresholdMs() {
+        return asyncThresholdMs;
+    }
+
+    public void setAsyncThresholdMs(long asyncThresholdMs) {
+        this.asyncThresholdMs = asyncThresholdMs;
+    }
+
+    public int getCleanupChunkSize() {
+        return cleanupChunkSize;
+    }
+
+    public void setCleanupChunkSize(int cleanupChunkSize) {
+        this.cleanupChunkSize = cleanupChunkSize;
+    }
+
+    public int getCleanupBatchSize() {
+        return cleanupBatchSize;
+    }
+
+    public void setCleanupBatchSize(int cleanupBatchSize) {
+        this.cleanupBatchSize = cleanupBatchSize;
+    }
+
+    public long getCleanupPauseMs() {
+        return cleanupPauseMs;
+    }
+
+    public void setCleanupPauseMs(long cleanupPauseMs) {
+        this.cleanupPauseMs = cleanupPauseMs;
+    }
+
+    public double getCleanupThrottleRatio() {
+        return cleanupThrottleRatio;
+    }
+
+    public void setCleanupThrottleRatio(double cleanupThrottleRatio) {
+        this.cleanupThrottleRatio = cleanupThrottleRatio;
+    }
+
+    public long getCleanupMaxRange() {
+        return cleanupMaxRange;
+    }
+
+    public void setCleanupMaxRange(long cleanupMaxRange) {
+        this.cleanupMaxRange = cleanupMaxRange;
+    }
+}
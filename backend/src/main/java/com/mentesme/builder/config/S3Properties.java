@@ -11,6 +11,7 @@ public class S3Properties {
     private String bucket = "metro-platform";
     private String region = "eu-west-1";
     private String prefix = "test";
+    private int uploadThreads = 4;
 
     public boolean isEnabled() {
         return enabled;
@@ -43,4 +44,12 @@ public class S3Properties {
     public void setPrefix(String prefix) {
         this.prefix = prefix;
     }
+
+    public int getUploadThreads() {
+        return uploadThreads;
+    }
+
+    public void setUploadThreads(int uploadThreads) {
+        this.uploadThreads = uploadThreads;
+    }
 }
@@ -0,0 +1,49 @@
+package com.mentesme.builder.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "builder.score-recalculation")
+public class ScoreRecalculationProperties {
+
+    private boolean enabled = true;
+    /** How often the worker checks for pending markers. */
+    private long pollIntervalMs = 5_000;
+    /** Wait this long after the last marker before running, so bursts share one run. */
+    private long quietPeriodMs = 15_000;
+    /** Run anyway once the oldest pending marker is this old; also the retry delay after a failure. */
+    private long maxDelayMs = 120_000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getPollIntervalMs() {
+        return pollIntervalMs;
+    }
+
+    public void setPollIntervalMs(long pollIntervalMs) {
+        this.pollIntervalMs = pollIntervalMs;
+    }
+
+    public long getQuietPeriodMs() {
+        return quietPeriodMs;
+    }
+
+    public void setQuietPeriodMs(long quietPeriodMs) {
+        this.quietPeriodMs = quietPeriodMs;
+    }
+
+    public long getMaxDelayMs() {
+        return maxDelayMs;
+    }
+
+    public void setMaxDelayMs(long maxDelayMs) {
+        this.maxDelayMs = maxDelayMs;
+    }
+}
@@ -0,0 +1,14 @@
+package com.mentesme.builder.model;
+
+/**
+ * Outcome of one questionnaire in a bulk publish. {@code questionnaireId} is set whenever the
+ * SQL was committed, also when the XML upload afterwards failed ({@code published} false).
+ */
+public record BulkPublishItemResult(
+        int index,
+        String assessmentName,
+        boolean published,
+        Long questionnaireId,
+        String error
+) {
+}
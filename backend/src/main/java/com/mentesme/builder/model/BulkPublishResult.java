@@ -0,0 +1,16 @@
+package com.mentesme.builder.model;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of a bulk publish. Every request is reported in {@code items}, in request order;
+ * a failing questionnaire does not affect the others.
+ */
+public record BulkPublishResult(
+        int succeeded,
+        int failed,
+        List<BulkPublishItemResult> items,
+        Map<String, Long> timings
+) {
+}
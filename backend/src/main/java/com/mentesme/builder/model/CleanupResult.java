@@ -0,0 +1,22 @@
+package com.mentesme.builder.model;
+
+import java.util.Map;
+
+/**
+ * Outcome of a chunked questionnaire range cleanup. {@code deleted} counts the rows per table
+ * deleted by this run; {@code totalDeleted} also includes earlier runs that were resumed.
+ * When {@code completed} is false the run stopped early and continues from {@code nextId}
+ * on the next request for the same range.
+ */
+public record CleanupResult(
+        long fromId,
+        long toId,
+        long resumedFromId,
+        long nextId,
+        boolean completed,
+        int chunks,
+        Map<String, Long> deleted,
+        long totalDeleted,
+        Map<String, Long> timings
+) {
+}
@@ -0,0 +1,31 @@
+package com.mentesme.builder.model;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of a dry-run publish against an in-memory shadow of the target database.
+ * {@code loadedRows} are the reference rows copied from the target per table,
+ * {@code resultRows} the row counts after the plan ran (empty when it failed).
+ * {@code executeMs} and {@code batches} measure the plan on the shadow, not on the target.
+ */
+public record DryRunResult(
+        String environment,
+        boolean ok,
+        List<Violation> violations,
+        Map<String, Long> loadedRows,
+        Map<String, Long> resultRows,
+        int statements,
+        long executeMs,
+        List<Map<String, Object>> batches,
+        Map<String, Long> timings,
+        List<String> warnings
+) {
+    /** A statement the shadow database rejected. */
+    public record Violation(
+            String table,
+            String statement,
+            String message
+    ) {
+    }
+}
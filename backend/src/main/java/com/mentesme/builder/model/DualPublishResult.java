@@ -0,0 +1,16 @@
+package com.mentesme.builder.model;
+
+import java.util.Map;
+
+/**
+ * Outcome of publishing one request to TEST and PRODUCTION at once. Each environment commits
+ * independently: either result can be null, with the reason in {@code errors} (keyed TEST/PRODUCTION).
+ */
+public record DualPublishResult(
+        boolean published,
+        PublishResult test,
+        PublishResult production,
+        Map<String, String> errors,
+        Map<String, Long> timings
+) {
+}
@@ -0,0 +1,10 @@
+package com.mentesme.builder.model;
+
+import jakarta.validation.constraints.NotEmpty;
+import java.util.List;
+
+public record GroupAssignmentRequest(
+        // Groups to add (must exist in target database); existing links are kept
+        @NotEmpty List<Long> groupIds
+) {
+}
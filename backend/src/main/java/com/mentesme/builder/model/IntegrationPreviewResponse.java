@@ -12,7 +12,8 @@ public record IntegrationPreviewResponse(
             long newCategories,
             long newGoals,
             long questionnaireId,
-            long newItems
+            long newItems,
+            long reusedItems
     ) {
     }
 }
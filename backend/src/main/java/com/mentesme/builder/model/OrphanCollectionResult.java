@@ -0,0 +1,23 @@
+package com.mentesme.builder.model;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of an orphan collector run. {@code orphans} counts the orphaned parent rows per table
+ * found at the start (a dry run stops there), {@code deleted} the rows deleted per table,
+ * including translations and links. When {@code budgetExhausted} is true the run stopped at
+ * the row budget and the next run continues. {@code errors} lists batches that were skipped
+ * because the database refused the delete (e.g. a foreign key from a table the builder does not know).
+ */
+public record OrphanCollectionResult(
+        PublishEnvironment environment,
+        boolean dryRun,
+        Map<String, Long> orphans,
+        Map<String, Long> deleted,
+        long totalDeleted,
+        boolean budgetExhausted,
+        List<String> errors,
+        Map<String, Long> timings
+) {
+}
@@ -0,0 +1,33 @@
+package com.mentesme.builder.model;
+
+import java.util.List;
+
+/**
+ * Static cost estimate of a publish, computed from its plan before anything is executed.
+ * {@code projectedMs} covers statement execution (and trigger firings) only, calibrated from
+ * earlier publishes to the same environment; {@code calibrated} is false while one of the
+ * tables still uses the built-in default rate.
+ */
+public record PublishEstimate(
+        String environment,
+        List<TableEstimate> tables,
+        long statements,
+        long rowsWritten,
+        long rowsDeleted,
+        long triggerFirings,
+        boolean scoreRecalcDeferred,
+        long projectedMs,
+        boolean calibrated,
+        boolean runAsync
+) {
+    public record TableEstimate(
+            String table,
+            long statements,
+            long rowsWritten,
+            long rowsDeleted,
+            double msPerStatement,
+            long projectedMs,
+            boolean calibrated
+    ) {
+    }
+}
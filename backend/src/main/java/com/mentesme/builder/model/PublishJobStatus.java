@@ -0,0 +1,28 @@
+package com.mentesme.builder.model;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Pollable state of an async publish job. {@code result} holds the PublishResult or
+ * LearningJourneyPublishResult once the job succeeded; {@code error}/{@code errorStatus}
+ * carry the message and HTTP status the synchronous endpoint would have returned.
+ */
+public record PublishJobStatus(
+        String jobId,
+        String type,
+        PublishEnvironment environment,
+        String status,
+        Instant submittedAt,
+        Instant startedAt,
+        Instant finishedAt,
+        Map<String, Long> progress,
+        Object result,
+        String error,
+        Integer errorStatus
+) {
+    /** True for SUCCEEDED and FAILED: no further events follow this snapshot. */
+    public boolean terminal() {
+        return "SUCCEEDED".equals(status) || "FAILED".equals(status);
+    }
+}
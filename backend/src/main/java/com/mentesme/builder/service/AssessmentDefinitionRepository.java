@@ -5,6 +5,7 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -41,6 +42,11 @@ public class AssessmentDefinitionRepository {
     public record CategoryTranslationRow(
             long categoryId, String language, String name) {}
 
+    public record CompetenceQuestionRow(long cqId, long competenceId, String questionId) {}
+
+    public record CompetenceItemTextRow(
+            long competenceId, long itemId, int invertOrder, String language, String leftText, String rightText) {}
+
     // ─────────────────────────────────────────────────────────────
     // Queries
     // ─────────────────────────────────────────────────────────────
@@ -99,6 +105,56 @@ public class AssessmentDefinitionRepository {
         ), questionnaireId);
     }
 
+    public List<CompetenceQuestionRow> findCompetenceQuestions(long questionnaireId) {
+        String sql = "SELECT cq_id, competenceId, questionId FROM competence_questions " +
+                "WHERE questionnaireId = ? ORDER BY cq_id";
+        return jdbcTemplate.query(sql, (rs, rowNum) -> new CompetenceQuestionRow(
+                rs.getLong("cq_id"),
+                rs.getLong("competenceId"),
+                rs.getString("questionId")
+        ), questionnaireId);
+    }
+
+    /**
+     * Items linked to the given competences with their texts, one row per translation, oldest
+     * item first. Items of {@code excludeQuestionnaireId} (when not null) are left out.
+     */
+    public List<CompetenceItemTextRow> findItemTextsForCompetences(List<Long> competenceIds, Long excludeQuestionnaireId) {
+        if (competenceIds.isEmpty()) return List.of();
+        String placeholders = competenceIds.stream().map(id -> "?").collect(Collectors.joining(","));
+        String sql = "SELECT ci.competenceId, i.id AS itemId, i.invertOrder, it.language, it.leftText, it.rightText " +
+                "FROM competence_items ci " +
+                "JOIN items i ON i.id = ci.itemId " +
+                "JOIN item_translations it ON it.itemId = i.id " +
+                "WHERE ci.competenceId IN (" + placeholders + ")" +
+                (excludeQuestionnaireId != null
+                        ? " AND NOT EXISTS (SELECT 1 FROM questionnaire_items qi WHERE qi.itemId = i.id AND qi.questionnaireId = ?)"
+                        : "") +
+                " ORDER BY i.id";
+        List<Object> params = new ArrayList<>(competenceIds);
+        if (excludeQuestionnaireId != null) {
+            params.add(excludeQuestionnaireId);
+        }
+        return jdbcTemplate.query(sql, (rs, rowNum) -> new CompetenceItemTextRow(
+                rs.getLong("competenceId"),
+                rs.getLong("itemId"),
+                rs.getInt("invertOrder"),
+                rs.getString("language"),
+                rs.getString("leftText"),
+                rs.getString("rightText")
+        ), params.toArray());
+    }
+
+    public List<Long> findItemIdsForQuestionnaire(long questionnaireId) {
+        String sql = "SELECT itemId FROM questionnaire_items WHERE questionnaireId = ?";
+        return jdbcTemplate.queryForList(sql, Long.class, questionnaireId);
+    }
+
+    public List<Long> findGroupIdsForQuestionnaire(long questionnaireId) {
+        String sql = "SELECT groupId FROM group_questionnaires WHERE questionnaireId = ?";
+        return jdbcTemplate.queryForList(sql, Long.class, questionnaireId);
+    }
+
     public List<CompetenceTranslationRow> findCompetenceTranslationsForIds(List<Long> competenceIds) {
         if (competenceIds.isEmpty()) return List.of();
         String placeholders = competenceIds.stream().map(id -> "?").collect(Collectors.joining(","));
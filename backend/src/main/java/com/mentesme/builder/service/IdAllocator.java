@@ -0,0 +1,40 @@
+package com.mentesme.builder.service;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Map;
+
+/**
+ * Hands out IDs for the Metro tables the builder inserts into with explicit IDs.
+ * Implementations are selected with {@code builder.publish.id-allocator}.
+ *
+ * Sequence names: questionnaires, categories, competences, goals, items, cq (competence_questions.cq_id).
+ */
+public interface IdAllocator {
+
+    /** Sequence name → {table, id column}. */
+    Map<String, String[]> SEQUENCES = Map.of(
+            "questionnaires", new String[]{"questionnaires", "id"},
+            "categories", new String[]{"categories", "id"},
+            "competences", new String[]{"competences", "id"},
+            "goals", new String[]{"goals", "id"},
+            "items", new String[]{"items", "id"},
+            "cq", new String[]{"competence_questions", "cq_id"});
+
+    /**
+     * Reserve a contiguous block of {@code count} IDs per sequence in the given database.
+     * Returns the first ID of each block; sequences with a count of 0 are not reserved.
+     */
+    Map<String, Long> reserve(JdbcTemplate jdbc, Map<String, Integer> counts);
+
+    /** The next ID of every sequence, without reserving anything (for previews). */
+    Map<String, Long> peek(JdbcTemplate jdbc);
+
+    /**
+     * Move every sequence past its table's current {@code MAX(id)}, after a publish hit a duplicate
+     * key because rows were inserted outside the builder. Allocators that read {@code MAX(id)} on
+     * every reservation have nothing to do.
+     */
+    default void resync(JdbcTemplate jdbc) {
+    }
+}
@@ -0,0 +1,258 @@
+package com.mentesme.builder.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mentesme.builder.config.PublishProperties;
+import com.mentesme.builder.model.PublishEnvironment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Makes publishes with an {@code Idempotency-Key} header safe to resubmit.
+ *
+ * The successful result is stored in {@code builder_idempotency_keys} in the target database,
+ * together with a SHA-256 fingerprint of the request body. A repeat with the same key and body
+ * returns the stored result without publishing again; the same key with another body is
+ * rejected with 422. Requests with the same key are serialized by an advisory lock, so a
+ * duplicate that arrives while the first is still running waits for it and then replays its
+ * result (also across instances). The key's lock opens the request's lock session (see
+ * {@link PublishLockService}): the questionnaire/journey locks of the publish are taken on the
+ * same connection, so a keyed publish does not hold an extra connection for it. The duplicate
+ * polls for the lock instead of blocking in {@code GET_LOCK}, so it holds no pooled connection
+ * while it waits. Failed publishes are not stored and run again on retry.
+ *
+ * If the table cannot be created (missing privileges), duplicates are still serialized but
+ * not replayed.
+ */
+@Service
+public class IdempotencyService {
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyService.class);
+
+    static final int MAX_KEY_LENGTH = 255;
+
+    private final PublishProperties properties;
+    private final PublishLockService publishLockService;
+    private final ObjectMapper objectMapper;
+    private final JdbcTemplate testJdbcTemplate;
+    private final JdbcTemplate prodJdbcTemplate;
+    private final Set<DataSource> ready = ConcurrentHashMap.newKeySet();
+    private final Set<DataSource> unsupported = ConcurrentHashMap.newKeySet();
+
+    public IdempotencyService(PublishProperties properties,
+                              PublishLockService publishLockService,
+                              ObjectMapper objectMapper,
+                              @Qualifier("metroJdbcTemplate") JdbcTemplate testJdbcTemplate,
+                              @Qualifier("metroProdJdbcTemplate") ObjectProvider<JdbcTemplate> prodJdbcTemplateProvider) {
+        this.properties = properties;
+        this.publishLockService = publishLockService;
+        this.objectMapper = objectMapper;
+        this.testJdbcTemplate = testJdbcTemplate;
+        this.prodJdbcTemplate = prodJdbcTemplateProvider.getIfAvailable();
+    }
+
+    /**
+     * Run {@code publish} at most once per {@code key}. Without a key this just runs it.
+     *
+     * @param scope      kind of publish, e.g. {@code questionnaire}; keys are unique per scope
+     * @param request    the request body, fingerprinted to detect a reused key
+     * @param resultType type of the stored result, for replay
+     */
+    public <T> Replay<T> execute(String key, String scope, PublishEnvironment env, Object request,
+                                 Class<T> resultType, Supplier<T> publish) {
+        if (key == null || key.isBlank()) {
+            return new Replay<>(publish.get(), false);
+        }
+        checkKey(key);
+        JdbcTemplate jdbc = jdbcTemplate(env);
+        String fingerprint = fingerprint(request);
+
+        long start = System.currentTimeMillis();
+        PublishLockService.PublishLock lock = awaitLock(jdbc, scope, key);
+        try {
+            boolean replayable = ensureTable(jdbc);
+            if (replayable) {
+                T stored = storedResult(jdbc, scope, key, fingerprint, resultType);
+                if (stored != null) {
+                    log.info("Replaying {} publish for Idempotency-Key '{}' (waited {}ms)",
+                            scope, key, System.currentTimeMillis() - start);
+                    return new Replay<>(stored, true);
+                }
+            }
+
+            T result = publish.get();
+            if (replayable) {
+                store(jdbc, scope, key, fingerprint, result);
+            }
+            return new Replay<>(result, false);
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * The stored result of an earlier publish with this key, without taking its lock; null when
+     * there is none (yet), or without a key. Lets a caller skip work that only a new publish
+     * needs (e.g. its cost estimate); {@link #execute} still decides under the lock.
+     */
+    public <T> T findStored(String key, String scope, PublishEnvironment env, Object request, Class<T> resultType) {
+        if (key == null || key.isBlank()) {
+            return null;
+        }
+        checkKey(key);
+        JdbcTemplate jdbc = jdbcTemplate(env);
+        if (!ensureTable(jdbc)) {
+            return null;
+        }
+        return storedResult(jdbc, scope, key, fingerprint(request), resultType);
+    }
+
+    private static void checkKey(String key) {
+        if (key.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Idempotency-Key is langer dan " + MAX_KEY_LENGTH + " tekens.");
+        }
+    }
+
+    /** Result stored for this key within the retention period; 422 when it was for another body. */
+    private <T> T storedResult(JdbcTemplate jdbc, String scope, String key, String fingerprint, Class<T> resultType) {
+        Instant cutoff = Instant.now().minus(properties.getIdempotencyRetentionHours(), ChronoUnit.HOURS);
+        List<StoredResult> stored = jdbc.query(
+                "SELECT fingerprint, result_json FROM builder_idempotency_keys " +
+                        "WHERE scope = ? AND idempotency_key = ? AND created_at >= ?",
+                (rs, rowNum) -> new StoredResult(rs.getString("fingerprint"), rs.getString("result_json")),
+                scope, key, Timestamp.from(cutoff));
+        if (stored.isEmpty()) {
+            return null;
+        }
+        if (!stored.get(0).fingerprint().equals(fingerprint)) {
+            throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY,
+                    "Deze Idempotency-Key is al gebruikt voor een ander verzoek.");
+        }
+        return readResult(stored.get(0).resultJson(), resultType);
+    }
+
+    /**
+     * Take the lock of this key, retrying every {@code idempotency-poll-ms} for at most
+     * {@code idempotency-wait-seconds}. A failed try borrows a connection only for a non-blocking
+     * {@code GET_LOCK}, so duplicates waiting for a long publish do not drain the pool. The
+     * successful try keeps its connection as the lock session the publish's own locks join.
+     */
+    private PublishLockService.PublishLock awaitLock(JdbcTemplate jdbc, String scope, String key) {
+        long deadline = System.currentTimeMillis() + properties.getIdempotencyWaitSeconds() * 1000L;
+        List<String> keys = List.of(PublishLockService.idempotencyKey(scope, key));
+        while (true) {
+            PublishLockService.PublishLock lock = publishLockService.tryAcquire(jdbc, keys, 0);
+            if (lock != null) {
+                return lock;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                log.warn("Idempotency-Key '{}' ({}) still in use after {}s", key, scope,
+                        properties.getIdempotencyWaitSeconds());
+                throw new ResponseStatusException(HttpStatus.CONFLICT,
+                        "Er loopt al een publicatie van deze Idempotency-Key. Probeer het over enkele seconden opnieuw.");
+            }
+            try {
+                Thread.sleep(Math.max(1, properties.getIdempotencyPollMs()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for Idempotency-Key '" + key + "'", e);
+            }
+        }
+    }
+
+    /** The publish result, and whether it was replayed instead of executed. */
+    public record Replay<T>(T result, boolean replayed) {}
+
+    private record StoredResult(String fingerprint, String resultJson) {}
+
+    private void store(JdbcTemplate jdbc, String scope, String key, String fingerprint, Object result) {
+        Instant now = Instant.now();
+        try {
+            // Expired keys are purged here so an old key can be used again
+            jdbc.update("DELETE FROM builder_idempotency_keys WHERE created_at < ?",
+                    Timestamp.from(now.minus(properties.getIdempotencyRetentionHours(), ChronoUnit.HOURS)));
+            jdbc.update("INSERT INTO builder_idempotency_keys (scope, idempotency_key, fingerprint, result_json, created_at) " +
+                            "VALUES (?, ?, ?, ?, ?)",
+                    scope, key, fingerprint, objectMapper.writeValueAsString(result), Timestamp.from(now));
+        } catch (Exception e) {
+            // The publish itself has committed; only a later replay is lost
+            log.warn("Could not store result for Idempotency-Key '{}' ({}): {}", key, scope, e.getMessage());
+        }
+    }
+
+    private <T> T readResult(String json, Class<T> resultType) {
+        try {
+            return objectMapper.readValue(json, resultType);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Stored result for Idempotency-Key is unreadable: " + e.getMessage(), e);
+        }
+    }
+
+    private String fingerprint(Object request) {
+        try {
+            return HexFormat.of().formatHex(
+                    MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(request)));
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Could not fingerprint publish request: " + e.getMessage(), e);
+        }
+    }
+
+    private JdbcTemplate jdbcTemplate(PublishEnvironment env) {
+        if (env == PublishEnvironment.PRODUCTION) {
+            if (prodJdbcTemplate == null) {
+                throw new IllegalStateException(
+                        "Production database is not configured. Set BUILDER_METRO_PROD_ENABLED=true with valid credentials.");
+            }
+            return prodJdbcTemplate;
+        }
+        return testJdbcTemplate;
+    }
+
+    private boolean ensureTable(JdbcTemplate jdbc) {
+        DataSource dataSource = jdbc.getDataSource();
+        if (ready.contains(dataSource)) return true;
+        if (unsupported.contains(dataSource)) return false;
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS builder_idempotency_keys (
+                    scope VARCHAR(32) NOT NULL,
+                    idempotency_key VARCHAR(255) NOT NULL,
+                    fingerprint CHAR(64) NOT NULL,
+                    result_json MEDIUMTEXT NOT NULL,
+                    created_at TIMESTAMP NOT NULL,
+                    PRIMARY KEY (scope, idempotency_key)
+                )
+            """);
+            ready.add(dataSource);
+            return true;
+        } catch (SQLException e) {
+            log.warn("Could not create builder_idempotency_keys, Idempotency-Key results will not be replayed: {}",
+                    e.getMessage());
+            unsupported.add(dataSource);
+            return false;
+        }
+    }
+}
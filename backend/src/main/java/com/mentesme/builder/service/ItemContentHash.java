@@ -0,0 +1,46 @@
+package com.mentesme.builder.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Content hash of a questionnaire item: SHA-256 over {@code invertOrder} and the NL/EN left and
+ * right texts. Texts are normalized first (Unicode NFC, trimmed, runs of whitespace collapsed to
+ * one space), so items that only differ in formatting hash the same. Case is significant.
+ */
+final class ItemContentHash {
+
+    private static final List<String> LANGUAGES = List.of("nl", "en");
+
+    private ItemContentHash() {
+    }
+
+    /**
+     * @param texts left and right text per language; a missing language hashes as two empty texts
+     */
+    static String of(int invertOrder, Map<String, String[]> texts) {
+        StringBuilder content = new StringBuilder().append(invertOrder);
+        for (String language : LANGUAGES) {
+            String[] text = texts.get(language);
+            content.append('\u0000').append(language)
+                    .append('\u0000').append(normalize(text != null ? text[0] : null))
+                    .append('\u0000').append(normalize(text != null ? text[1] : null));
+        }
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                    .digest(content.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    static String normalize(String text) {
+        if (text == null) return "";
+        return Normalizer.normalize(text, Normalizer.Form.NFC).strip().replaceAll("\\s+", " ");
+    }
+}
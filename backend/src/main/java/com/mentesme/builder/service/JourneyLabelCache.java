@@ -0,0 +1,107 @@
+package com.mentesme.builder.service;
+
+import com.mentesme.builder.config.LabelCacheProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Resolved Metro labels per learning journey, per environment.
+ *
+ * The editor reads all labels of a journey on every open; this keeps the result of that
+ * bulk load in memory, in a size-bounded LRU per environment with a TTL for label edits
+ * made outside the builder. {@link LearningJourneyIntegrationService} evicts a journey when
+ * it rewrites or deletes its labels, again after the transaction completes, so a read that
+ * ran against the old rows while the publish was in flight is not kept.
+ */
+@Component
+public class JourneyLabelCache {
+
+    /** NL and EN text of one label identifier. */
+    public record LabelText(String nl, String en) {}
+
+    private record Entry(Map<String, LabelText> labels, long loadedAt) {}
+
+    private final LabelCacheProperties properties;
+    private final Map<String, Map<Long, Entry>> caches = new ConcurrentHashMap<>();
+    // Bumped on every eviction; a load that overlapped one is returned but not cached
+    private final Map<String, AtomicLong> evictions = new ConcurrentHashMap<>();
+
+    public JourneyLabelCache(LabelCacheProperties properties) {
+        this.properties = properties;
+    }
+
+    /** Labels of journey {@code ljId} in {@code environment}, loaded with {@code loader} on a miss. */
+    public Map<String, LabelText> get(String environment, long ljId, Supplier<Map<String, LabelText>> loader) {
+        int maxJourneys = properties.getMaxJourneys();
+        if (maxJourneys <= 0) {
+            return loader.get();
+        }
+        Map<Long, Entry> cache = cache(environment, maxJourneys);
+        long now = System.currentTimeMillis();
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.get(ljId);
+        }
+        if (entry != null && now - entry.loadedAt() < properties.getTtlSeconds() * 1000L) {
+            return entry.labels();
+        }
+        AtomicLong generation = evictions.computeIfAbsent(environment, e -> new AtomicLong());
+        long before = generation.get();
+        Map<String, LabelText> labels = Map.copyOf(loader.get());
+        synchronized (cache) {
+            if (generation.get() == before) {
+                cache.put(ljId, new Entry(labels, now));
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Drop journey {@code ljId} in {@code environment} now and, when called inside a
+     * transaction, once more after it completes.
+     */
+    public void evict(String environment, long ljId) {
+        evictNow(environment, ljId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    evictNow(environment, ljId);
+                }
+            });
+        }
+    }
+
+    /** Drop journey {@code ljId} in every environment (callers that do not know which one). */
+    public void evict(long ljId) {
+        for (String environment : caches.keySet()) {
+            evict(environment, ljId);
+        }
+    }
+
+    private void evictNow(String environment, long ljId) {
+        evictions.computeIfAbsent(environment, e -> new AtomicLong()).incrementAndGet();
+        Map<Long, Entry> cache = caches.get(environment);
+        if (cache != null) {
+            synchronized (cache) {
+                cache.remove(ljId);
+            }
+        }
+    }
+
+    private Map<Long, Entry> cache(String environment, int maxJourneys) {
+        return caches.computeIfAbsent(environment, e -> new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > maxJourneys;
+            }
+        });
+    }
+}
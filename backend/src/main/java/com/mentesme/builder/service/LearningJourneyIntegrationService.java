@@ -8,18 +8,27 @@ import com.mentesme.builder.model.StepInput;
 import com.mentesme.builder.model.StepInput.StepType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Service;
 
 import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 /**
@@ -75,6 +84,18 @@ public class LearningJourneyIntegrationService {
     // Alternating colours: 2nd hoofdstap=orange, 3rd=violet, 4th=orange, etc.
     private static final String[] ALTERNATING_COLOURS = {COLOUR_ORANGE, COLOUR_VIOLET};
 
+    private final PublishCostEstimator costEstimator;
+    private final JourneyLabelCache labelCache;
+    private final SchemaCapabilities schema;
+
+    public LearningJourneyIntegrationService(PublishCostEstimator costEstimator,
+                                             JourneyLabelCache labelCache,
+                                             SchemaCapabilities schema) {
+        this.costEstimator = costEstimator;
+        this.labelCache = labelCache;
+        this.schema = schema;
+    }
+
     // ═══════════════════════════════════════════════════════════════════════
     // Main entry point — called from within TransactionTemplate
     // ═══════════════════════════════════════════════════════════════════════
@@ -82,15 +103,31 @@ public class LearningJourneyIntegrationService {
     /**
      * Insert order (mandatory):
      *  1. learning_journeys  → capture learningJourneyId
-     *  2. Per step: labels (NL+EN) then step row  → capture stepDbIds
-     *  3. Per question: labels (NL+EN) then step_question row
+     *  2. labels (NL+EN for step titles, texts and questions), then step rows  → capture stepDbIds
+     *  3. step_question rows
      *  4. learning_journey_documents
      *  5. group_learning_journey
+     *
+     * Rows are collected per table and written as one JDBC batch per table (multi-row INSERTs
+     * with rewriteBatchedStatements on MySQL), so the number of round trips depends on the
+     * tables touched, not on the size of the journey.
+     *
+     * A re-publish reconciles instead of rebuilding: existing steps are matched to the incoming
+     * ones (see {@link #matchSteps}) and keep their ID, label identifiers and user progress.
+     * Only changed labels and step columns are updated; new steps and questions are inserted
+     * and removed ones deleted, together with the user progress of removed steps.
      */
     public LearningJourneyPublishResult execute(LearningJourneyPublishRequest request,
                                                  JdbcTemplate jdbc,
                                                  String environment) {
-        Map<String, Long> timings = new LinkedHashMap<>();
+        return execute(request, jdbc, environment, PublishTimings.NO_PROGRESS);
+    }
+
+    public LearningJourneyPublishResult execute(LearningJourneyPublishRequest request,
+                                                 JdbcTemplate jdbc,
+                                                 String environment,
+                                                 BiConsumer<String, Long> progress) {
+        Map<String, Long> timings = new PublishTimings(progress);
         long totalStart = System.currentTimeMillis();
         List<StepInput> steps = request.steps();
 
@@ -100,6 +137,7 @@ public class LearningJourneyIntegrationService {
         // ── 0/1. Reuse existing journey ID or create new ─────────────────
         long t0 = System.currentTimeMillis();
         final long ljId;
+        JourneyContent existing = JourneyContent.EMPTY;
 
         if (request.editLearningJourneyId() != null) {
             long editId = request.editLearningJourneyId();
@@ -107,8 +145,8 @@ public class LearningJourneyIntegrationService {
             Integer count = jdbc.queryForObject(
                     "SELECT COUNT(*) FROM learning_journeys WHERE id = ?", Integer.class, editId);
             if (count != null && count > 0) {
-                log.info("[{}] Re-publishing journey {} — clearing content, keeping ID + user assignments", environment, editId);
-                cleanJourneyContent(editId, jdbc);
+                log.info("[{}] Re-publishing journey {} — reconciling content, keeping step IDs + user progress", environment, editId);
+                existing = loadJourneyContent(editId, jdbc);
                 updateLearningJourney(editId, request, jdbc);
                 ljId = editId;
             } else {
@@ -122,20 +160,395 @@ public class LearningJourneyIntegrationService {
         timings.put("phase1_journey_ms", System.currentTimeMillis() - t0);
         log.info("[{}] Phase 1: learning_journeys id={}", environment, ljId);
 
-        // Category for labels (follows Metro convention: Learning_Journey_{ljKey})
         String ljKey = generateLjKey(request.name());
-        String category = truncate("Learning_Journey_" + ljKey, 50);
 
-        // ── 2. Per step: labels → step row ─────────────────────────────────
+        // ── 2. Labels (steps + questions) → step rows ─────────────────────
+        // Everything is collected first and written as one JDBC batch per table
         long t1 = System.currentTimeMillis();
-        long[] stepDbIds = new long[steps.size()];
-        int labelCount = 0;
+        ContentChanges changes = planContent(steps, ljId, ljKey, existing);
+        deleteUserProgress(changes.removedStepIds(), jdbc);
+        MetroLookupRepository repo = new MetroLookupRepository(jdbc);
+        repo.executePlan(changes.plan(), false);
+        long[] insertedStepIds = insertSteps(jdbc, changes.newStepRows());
+        labelCache.evict(environment, ljId);
+        long[] stepDbIds = changes.stepIds().clone();
+        for (int i = 0; i < stepDbIds.length; i++) {
+            if (changes.newStepRow()[i] >= 0) {
+                stepDbIds[i] = insertedStepIds[changes.newStepRow()[i]];
+            }
+        }
+
+        Map<String, Long> contentStatements = new LinkedHashMap<>();
+        for (PublishCostEstimator.Work work : PublishCostEstimator.work(changes.plan())) {
+            contentStatements.merge(work.table(), work.statements(), Long::sum);
+        }
+        contentStatements.merge("steps", (long) changes.newStepRows().size(), Long::sum);
+        contentStatements.remove("step_question");
+        timings.put("phase2_labelsAndSteps_ms", System.currentTimeMillis() - t1);
+        costEstimator.recordPhase(environment, timings.get("phase2_labelsAndSteps_ms"), contentStatements);
+        timings.put("stepCount", (long) steps.size());
+        timings.put("labelCount", (long) changes.insertedLabels());
+        timings.put("stepsKept", (long) (steps.size() - changes.newStepRows().size()));
+        timings.put("stepsInserted", (long) changes.newStepRows().size());
+        timings.put("stepsDeleted", (long) changes.removedStepIds().size());
+        timings.put("labelsUpdated", (long) changes.updatedLabels());
+        log.info("[{}] Phase 2: {} steps ({} kept, {} inserted, {} deleted), {} labels inserted, {} updated",
+                environment, steps.size(), steps.size() - changes.newStepRows().size(), changes.newStepRows().size(),
+                changes.removedStepIds().size(), changes.insertedLabels(), changes.updatedLabels());
+
+        // ── 3-5. step_question, learning_journey_documents, group_learning_journey ──
+        PublishPlan linkPlan = new PublishPlan();
+        PublishPlan.Batch insertQuestions = linkPlan.batch("step_question",
+                "INSERT INTO step_question (stepId, question, `order`, type) VALUES (?, ?, ?, ?)");
+        PublishPlan.Batch insertDocuments = linkPlan.batch("learning_journey_documents",
+                "INSERT INTO learning_journey_documents (identifier, label, url, lang) VALUES (?, ?, ?, ?)");
+        PublishPlan.Batch insertGroups = linkPlan.batch("group_learning_journey",
+                "INSERT INTO group_learning_journey (groupId, learningJourneyId) VALUES (?, ?)");
+
+        // 3. New step_question rows, now that every step has its ID
+        for (NewQuestion question : changes.newQuestions()) {
+            insertQuestions.add(stepDbIds[question.stepIndex()], question.identifier(), question.order(), question.type());
+        }
+        // 4. learning_journey_documents of new steps and of steps whose documents changed
+        for (Object[] document : changes.newDocumentRows()) {
+            insertDocuments.add(document);
+        }
+        long questionCount = steps.stream().mapToLong(st -> st.questions() == null ? 0 : st.questions().size()).sum();
+        long docCount = steps.stream().mapToLong(st -> st.documents() == null ? 0 : st.documents().size()).sum();
+
+        // 5. Validate all groupIds exist in the groups table
+        long t4 = System.currentTimeMillis();
+        List<Long> groupIds = request.groupIds();
+        if (groupIds == null || groupIds.isEmpty()) {
+            throw new IllegalArgumentException("At least one group must be selected.");
+        }
+        String placeholders = groupIds.stream().map(id -> "?").collect(Collectors.joining(","));
+        List<Long> validGroupIds = jdbc.queryForList(
+                "SELECT id FROM `groups` WHERE id IN (" + placeholders + ")",
+                Long.class,
+                groupIds.toArray());
+        if (validGroupIds.size() != groupIds.size()) {
+            List<Long> invalid = new ArrayList<>(groupIds);
+            invalid.removeAll(validGroupIds);
+            throw new IllegalArgumentException("Invalid group IDs: " + invalid);
+        }
+
+        // On edit: sync groups against the current links. Links of groups that stay keep their
+        // row (and the user_learning_journey rows pointing at it); only changed groups are touched.
+        Set<Long> addedGroupIds = new LinkedHashSet<>(groupIds);
+        if (request.editLearningJourneyId() != null) {
+            List<Long> removedLinkIds = new ArrayList<>();
+            for (GroupLink link : loadGroupLinks(ljId, jdbc)) {
+                if (groupIds.contains(link.groupId())) {
+                    addedGroupIds.remove(link.groupId());
+                } else {
+                    removedLinkIds.add(link.id());
+                }
+            }
+            if (!removedLinkIds.isEmpty()) {
+                String linkPlaceholders = removedLinkIds.stream().map(id -> "?").collect(Collectors.joining(","));
+                // First: nullify FK references from user_learning_journey to the removed links
+                // (user_learning_journey.groupLearningJourneyId → group_learning_journey.id, ON DELETE RESTRICT)
+                if (schema.has(jdbc, SchemaCapabilities.Capability.USER_LEARNING_JOURNEY)) {
+                    try {
+                        jdbc.update("UPDATE user_learning_journey SET groupLearningJourneyId = NULL " +
+                                "WHERE groupLearningJourneyId IN (" + linkPlaceholders + ")", removedLinkIds.toArray());
+                    } catch (Exception e) {
+                        log.warn("Could not nullify user_learning_journey FK for journey {}: {}", ljId, e.getMessage());
+                    }
+                }
+                jdbc.update("DELETE FROM group_learning_journey WHERE id IN (" + linkPlaceholders + ")",
+                        removedLinkIds.toArray());
+            }
+        }
+        for (Long groupId : addedGroupIds) {
+            insertGroups.add(groupId, ljId);
+        }
+        long groupSyncMs = System.currentTimeMillis() - t4;
+
+        // Per-phase timings from the per-batch timings of the single plan execution
+        Map<String, Long> batchMs = new HashMap<>();
+        for (Map<String, Object> batch : repo.executePlan(linkPlan, false).batches()) {
+            batchMs.merge((String) batch.get("table"), ((Number) batch.get("ms")).longValue(), Long::sum);
+        }
+
+        timings.put("phase3_questions_ms", batchMs.getOrDefault("step_question", 0L));
+        costEstimator.record(environment, "step_question", changes.newQuestions().size(), timings.get("phase3_questions_ms"));
+        timings.put("questionCount", questionCount);
+        log.info("[{}] Phase 3: {} questions ({} inserted)", environment, questionCount, changes.newQuestions().size());
+
+        timings.put("phase4_documents_ms", batchMs.getOrDefault("learning_journey_documents", 0L));
+        costEstimator.record(environment, "learning_journey_documents", changes.newDocumentRows().size(), timings.get("phase4_documents_ms"));
+        timings.put("documentCount", docCount);
+        log.info("[{}] Phase 4: {} documents ({} inserted)", environment, docCount, changes.newDocumentRows().size());
+
+        timings.put("phase5_groups_ms", groupSyncMs + batchMs.getOrDefault("group_learning_journey", 0L));
+        costEstimator.record(environment, "group_learning_journey", addedGroupIds.size(), timings.get("phase5_groups_ms"));
+        timings.put("groupCount", (long) groupIds.size());
+        log.info("[{}] Phase 5: {} groups bound", environment, groupIds.size());
+
+        long totalMs = System.currentTimeMillis() - totalStart;
+        timings.put("total_ms", totalMs);
+        timings.put("labelCountTotal", (long) changes.insertedLabels());
+        log.info("[{}] Journey {} published ({}ms)", environment, ljId, totalMs);
+
+        return new LearningJourneyPublishResult(ljId, true, environment, timings);
+    }
+
+    /**
+     * Statements {@link #execute} will run for {@code request}, per table, for the cost estimate.
+     * On a re-publish the journey is reconciled against its current content, exactly as
+     * {@link #execute} would, so only the changed rows are counted.
+     */
+    public List<PublishCostEstimator.Work> plannedWork(LearningJourneyPublishRequest request, JdbcTemplate jdbc) {
+        List<StepInput> steps = request.steps();
+
+        Long editId = request.editLearningJourneyId();
+        boolean republish = editId != null && count(jdbc, "SELECT COUNT(*) FROM learning_journeys WHERE id = ?", editId) > 0;
+        Set<Long> requestedGroups = request.groupIds() == null ? Set.of() : new LinkedHashSet<>(request.groupIds());
+        Set<Long> addedGroups = new LinkedHashSet<>(requestedGroups);
+        long deletedGroups = 0;
+        if (republish) {
+            for (GroupLink link : loadGroupLinks(editId, jdbc)) {
+                if (requestedGroups.contains(link.groupId())) {
+                    addedGroups.remove(link.groupId());
+                } else {
+                    deletedGroups++;
+                }
+            }
+        }
+        // Identifiers do not change the counts, so a new journey is planned with a placeholder ID
+        ContentChanges changes = planContent(steps, republish ? editId : 0, generateLjKey(request.name()),
+                republish ? loadJourneyContent(editId, jdbc) : JourneyContent.EMPTY);
+
+        Map<String, PublishCostEstimator.Work> work = new LinkedHashMap<>();
+        addWork(work, new PublishCostEstimator.Work("learning_journeys", 1, 1, 0));
+        PublishCostEstimator.work(changes.plan()).forEach(w -> addWork(work, w));
+        addWork(work, new PublishCostEstimator.Work("steps",
+                changes.newStepRows().size(), changes.newStepRows().size(), 0));
+        addWork(work, new PublishCostEstimator.Work("step_question",
+                changes.newQuestions().size(), changes.newQuestions().size(), 0));
+        addWork(work, new PublishCostEstimator.Work("learning_journey_documents",
+                changes.newDocumentRows().size(), changes.newDocumentRows().size(), 0));
+        // One DELETE for the removed links, then one INSERT row per added group
+        addWork(work, new PublishCostEstimator.Work("group_learning_journey",
+                (deletedGroups > 0 ? 1 : 0) + addedGroups.size(), addedGroups.size(), deletedGroups));
+        return new ArrayList<>(work.values());
+    }
+
+    private static void addWork(Map<String, PublishCostEstimator.Work> work, PublishCostEstimator.Work add) {
+        work.merge(add.table(), add, (a, b) -> new PublishCostEstimator.Work(a.table(),
+                a.statements() + b.statements(), a.rowsWritten() + b.rowsWritten(), a.rowsDeleted() + b.rowsDeleted()));
+    }
+
+    private record GroupLink(long id, long groupId) {}
+
+    private static List<GroupLink> loadGroupLinks(long ljId, JdbcTemplate jdbc) {
+        return jdbc.query("SELECT id, groupId FROM group_learning_journey WHERE learningJourneyId = ?",
+                (rs, rowNum) -> new GroupLink(rs.getLong("id"), rs.getLong("groupId")), ljId);
+    }
+
+    private static long count(JdbcTemplate jdbc, String sql, Object arg) {
+        Long n = jdbc.queryForObject(sql, Long.class, arg);
+        return n == null ? 0 : n;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════
+    // Reconcile journey content on re-publish (preserves step IDs + user progress)
+    // ═══════════════════════════════════════════════════════════════════════
+
+    /** A step as it is stored, with its questions in {@code order}. */
+    private record ExistingStep(long id, int position, String title, String textContent, String conversation,
+                                String type, String colour, String size, String documents,
+                                List<ExistingQuestion> questions) {}
+
+    private record ExistingQuestion(long id, String question, int order, String type) {}
+
+    private record LabelRow(String text, String category) {}
+
+    /**
+     * Current content of a journey: its steps by position, its labels by identifier and
+     * language, and its document rows (label, url, lang) by identifier.
+     */
+    private record JourneyContent(List<ExistingStep> steps,
+                                  Map<String, Map<String, LabelRow>> labels,
+                                  Map<String, List<List<Object>>> documents) {
+        static final JourneyContent EMPTY = new JourneyContent(List.of(), Map.of(), Map.of());
+
+        String labelText(String identifier, String lang) {
+            LabelRow row = identifier == null ? null : labels.getOrDefault(identifier, Map.of()).get(lang);
+            return row == null ? null : row.text();
+        }
+    }
+
+    /** A step_question row that needs the ID of step {@code stepIndex} (index in the request). */
+    private record NewQuestion(int stepIndex, String identifier, int order, String type) {}
+
+    /**
+     * What a publish writes. {@code plan} holds the deletes, updates and new labels,
+     * {@code newStepRows} the steps to insert. Per incoming step, {@code stepIds} is the kept
+     * step ID and {@code newStepRow} the index into {@code newStepRows} (-1 for kept steps).
+     */
+    private record ContentChanges(PublishPlan plan,
+                                  List<Object[]> newStepRows,
+                                  long[] stepIds,
+                                  int[] newStepRow,
+                                  List<NewQuestion> newQuestions,
+                                  List<Object[]> newDocumentRows,
+                                  List<Long> removedStepIds,
+                                  int insertedLabels,
+                                  int updatedLabels) {}
+
+    private static JourneyContent loadJourneyContent(long ljId, JdbcTemplate jdbc) {
+        Map<Long, List<ExistingQuestion>> questions = new HashMap<>();
+        jdbc.query("SELECT sq.id, sq.stepId, sq.question, sq.`order`, sq.type FROM step_question sq " +
+                        "INNER JOIN steps s ON s.id = sq.stepId WHERE s.learningJourneyId = ? " +
+                        "ORDER BY sq.stepId, sq.`order`, sq.id",
+                rs -> {
+                    questions.computeIfAbsent(rs.getLong("stepId"), id -> new ArrayList<>()).add(new ExistingQuestion(
+                            rs.getLong("id"), rs.getString("question"), rs.getInt("order"), rs.getString("type")));
+                }, ljId);
+        List<ExistingStep> steps = jdbc.query(
+                "SELECT id, position, title, textContent, conversation, type, colour, size, documents " +
+                        "FROM steps WHERE learningJourneyId = ? ORDER BY position, id",
+                (rs, i) -> new ExistingStep(rs.getLong("id"), rs.getInt("position"), rs.getString("title"),
+                        rs.getString("textContent"), rs.getString("conversation"), rs.getString("type"),
+                        rs.getString("colour"), rs.getString("size"), rs.getString("documents"),
+                        questions.getOrDefault(rs.getLong("id"), List.of())),
+                ljId);
+
+        String pattern = journeyIdentifierPattern(ljId);
+        Map<String, Map<String, LabelRow>> labels = new HashMap<>();
+        jdbc.query("SELECT identifier, text, lang, category FROM labels WHERE identifier LIKE ? ORDER BY id",
+                rs -> {
+                    labels.computeIfAbsent(rs.getString("identifier"), id -> new HashMap<>())
+                            .putIfAbsent(rs.getString("lang"), new LabelRow(rs.getString("text"), rs.getString("category")));
+                }, pattern);
+        Map<String, List<List<Object>>> documents = new HashMap<>();
+        jdbc.query("SELECT identifier, label, url, lang FROM learning_journey_documents WHERE identifier LIKE ? ORDER BY id",
+                rs -> {
+                    documents.computeIfAbsent(rs.getString("identifier"), id -> new ArrayList<>())
+                            .add(Arrays.asList(rs.getString("label"), rs.getString("url"), rs.getString("lang")));
+                }, pattern);
+        return new JourneyContent(steps, labels, documents);
+    }
+
+    /**
+     * Pair the incoming steps with the existing ones; returns per incoming step the index of its
+     * existing step, or -1 for a new step. A step is kept when its NL title is unchanged (at the
+     * same position first, then anywhere, for steps that moved), or else when its content — NL
+     * text and NL questions — is unchanged, so fixing a title keeps the step. A step whose title
+     * and content both changed is replaced.
+     */
+    private static int[] matchSteps(List<StepInput> steps, JourneyContent existing) {
+        List<String> existingTitles = new ArrayList<>();
+        List<String> existingContent = new ArrayList<>();
+        for (ExistingStep step : existing.steps()) {
+            existingTitles.add(existing.labelText(step.title(), "nl"));
+            List<String> questions = step.questions().stream()
+                    .map(q -> existing.labelText(q.question(), "nl")).toList();
+            existingContent.add(contentKey(existing.labelText(step.textContent(), "nl"), questions));
+        }
+        List<String> titles = new ArrayList<>();
+        List<String> content = new ArrayList<>();
+        for (StepInput step : steps) {
+            titles.add(step.title());
+            List<String> questions = step.questions() == null ? List.of()
+                    : step.questions().stream().map(QuestionInput::text).toList();
+            String text = step.textContent() == null || step.textContent().isBlank()
+                    ? null : truncate(step.textContent(), MAX_LABEL_TEXT_LENGTH);
+            content.add(contentKey(text, questions));
+        }
+        int[] matched = new int[steps.size()];
+        Arrays.fill(matched, -1);
+        boolean[] used = new boolean[existingTitles.size()];
+        match(existingTitles, titles, matched, used);
+        match(existingContent, content, matched, used);
+        return matched;
+    }
+
+    /** NL text plus NL questions of a step; null for a step without either (never matched on content). */
+    private static String contentKey(String text, List<String> questions) {
+        if (text == null && questions.isEmpty()) return null;
+        return text + "\n" + String.join("\n", questions);
+    }
+
+    /**
+     * Pair still unmatched incoming entries with unused existing entries that have the same
+     * (non-null) key: at the same index first, then the first one anywhere.
+     */
+    private static void match(List<String> existing, List<String> incoming, int[] matched, boolean[] used) {
+        for (int i = 0; i < incoming.size(); i++) {
+            if (matched[i] < 0 && i < existing.size() && !used[i]
+                    && incoming.get(i) != null && incoming.get(i).equals(existing.get(i))) {
+                matched[i] = i;
+                used[i] = true;
+            }
+        }
+        for (int i = 0; i < incoming.size(); i++) {
+            if (matched[i] >= 0 || incoming.get(i) == null) continue;
+            for (int j = 0; j < existing.size(); j++) {
+                if (!used[j] && incoming.get(i).equals(existing.get(j))) {
+                    matched[i] = j;
+                    used[j] = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Compare the incoming steps with {@code existing} (empty for a new journey) and collect the
+     * statements that make the stored journey match the request. Kept steps and questions keep
+     * their label identifiers; new ones get the positional identifier, with a suffix when a
+     * kept row already uses it. Labels and documents no kept row refers to are deleted.
+     */
+    private ContentChanges planContent(List<StepInput> steps, long ljId, String ljKey, JourneyContent existing) {
+        // Category for labels (follows Metro convention: Learning_Journey_{ljKey})
+        String category = truncate("Learning_Journey_" + ljKey, 50);
+
+        // Declared in FK-safe order: questions before steps, deletes before inserts
+        PublishPlan plan = new PublishPlan();
+        PublishPlan.Batch deleteQuestions = plan.batch("step_question", "DELETE FROM step_question WHERE id = ?");
+        PublishPlan.Batch deleteSteps = plan.batch("steps", "DELETE FROM steps WHERE id = ?");
+        PublishPlan.Batch deleteLabels = plan.batch("labels", "DELETE FROM labels WHERE identifier = ?");
+        PublishPlan.Batch deleteDocuments = plan.batch("learning_journey_documents",
+                "DELETE FROM learning_journey_documents WHERE identifier = ?");
+        PublishPlan.Batch updateLabels = plan.batch("labels",
+                "UPDATE labels SET text = ?, category = ? WHERE identifier = ? AND lang = ?");
+        PublishPlan.Batch insertLabels = plan.batch("labels",
+                "INSERT INTO labels (identifier, text, lang, category) VALUES (?, ?, ?, ?)");
+        PublishPlan.Batch updateSteps = plan.batch("steps",
+                "UPDATE steps SET position = ?, title = ?, textContent = ?, conversation = ?, type = ?, " +
+                "colour = ?, size = ?, documents = ? WHERE id = ?");
+        PublishPlan.Batch updateQuestions = plan.batch("step_question",
+                "UPDATE step_question SET question = ?, `order` = ?, type = ? WHERE id = ?");
+        LabelWriter labels = new LabelWriter(existing, category, insertLabels, updateLabels);
+
+        // Identifiers in use; new rows never take one of these
+        Set<String> taken = new HashSet<>(existing.labels().keySet());
+        taken.addAll(existing.documents().keySet());
+        for (ExistingStep step : existing.steps()) {
+            taken.add(step.title());
+            taken.add(step.textContent());
+            taken.add(step.documents());
+            step.questions().forEach(q -> taken.add(q.question()));
+        }
+        Set<String> keptDocuments = new HashSet<>();
+
+        int[] matched = matchSteps(steps, existing);
+        long[] stepIds = new long[steps.size()];
+        int[] newStepRow = new int[steps.size()];
+        List<Object[]> newStepRows = new ArrayList<>();
+        List<NewQuestion> newQuestions = new ArrayList<>();
+        List<Object[]> newDocumentRows = new ArrayList<>();
         int hoofdstapCounter = 0;        // counts all hoofdstappen
         String currentGroupColour = COLOUR_BLUE;  // colour for current hoofdstap group
 
         for (int i = 0; i < steps.size(); i++) {
             StepInput step = steps.get(i);
             int stepIdx = i + 1;
+            ExistingStep old = matched[i] >= 0 ? existing.steps().get(matched[i]) : null;
 
             // Track hoofdstap counter and determine group colour
             if (step.type() == StepType.hoofdstap) {
@@ -147,31 +560,69 @@ public class LearningJourneyIntegrationService {
                 }
             }
 
-            // 2a. Insert title labels (NL + EN)
-            String titleId = labelId(ljId, stepIdx, "TITLE");
-            insertLabel(jdbc, titleId, step.title(), "nl", category);
-            insertLabel(jdbc, titleId, fallback(step.titleEn(), step.title()), "en", category);
-            labelCount += 2;
+            // 2a. Title labels (NL + EN)
+            String titleId = old != null && old.title() != null
+                    ? old.title() : freshIdentifier(labelId(ljId, stepIdx, "TITLE"), MAX_IDENTIFIER_LENGTH, taken);
+            labels.write(titleId, step.title(), "nl");
+            labels.write(titleId, fallback(step.titleEn(), step.title()), "en");
 
-            // 2b. Insert textContent labels (NL + EN) — only if content present
-            // EN publish pipeline: fallback() → ensureMediaInEn() → truncate() → insertLabel()
+            // 2b. textContent labels (NL + EN) — only if content present
+            // EN publish pipeline: fallback() → ensureMediaInEn() → truncate() → LabelWriter.write()
             //   - fallback: use NL as fallback when EN is null/blank
             //   - ensureMediaInEn: single compiler for EN media — derives media structure from NL
             //   - truncate: enforce max label length
-            //   - insertLabel: parameterized INSERT, no further transformation
+            //   - write: parameterized INSERT or UPDATE row, no further transformation
             String textId = null;
             if (step.textContent() != null && !step.textContent().isBlank()) {
-                textId = labelId(ljId, stepIdx, "TEXT");
+                textId = old != null && old.textContent() != null
+                        ? old.textContent() : freshIdentifier(labelId(ljId, stepIdx, "TEXT"), MAX_IDENTIFIER_LENGTH, taken);
                 String nlText = step.textContent();
                 String enText = fallback(step.textContentEn(), nlText);
                 enText = ensureMediaInEn(enText, nlText);
-                insertLabel(jdbc, textId, truncate(nlText, MAX_LABEL_TEXT_LENGTH), "nl", category);
-                insertLabel(jdbc, textId, truncate(enText, MAX_LABEL_TEXT_LENGTH), "en", category);
-                labelCount += 2;
+                labels.write(textId, truncate(nlText, MAX_LABEL_TEXT_LENGTH), "nl");
+                labels.write(textId, truncate(enText, MAX_LABEL_TEXT_LENGTH), "en");
             }
 
-            // 2c. Determine colour + size from structural type
+            // 2c. Question labels (NL + EN); questions are matched on their NL text, then on order
             boolean hasQuestions = step.questions() != null && !step.questions().isEmpty();
+            List<ExistingQuestion> oldQuestions = old != null ? old.questions() : List.of();
+            List<QuestionInput> questions = hasQuestions ? step.questions() : List.of();
+            int[] matchedQuestions = new int[questions.size()];
+            Arrays.fill(matchedQuestions, -1);
+            boolean[] usedQuestions = new boolean[oldQuestions.size()];
+            match(oldQuestions.stream().map(q -> existing.labelText(q.question(), "nl")).toList(),
+                    questions.stream().map(QuestionInput::text).toList(), matchedQuestions, usedQuestions);
+            for (int q = 0; q < questions.size(); q++) {
+                if (matchedQuestions[q] < 0 && q < oldQuestions.size() && !usedQuestions[q]) {
+                    matchedQuestions[q] = q;   // edited in place
+                    usedQuestions[q] = true;
+                }
+            }
+            for (int q = 0; q < questions.size(); q++) {
+                QuestionInput question = questions.get(q);
+                ExistingQuestion oldQuestion = matchedQuestions[q] >= 0 ? oldQuestions.get(matchedQuestions[q]) : null;
+                String qId = oldQuestion != null && oldQuestion.question() != null
+                        ? oldQuestion.question()
+                        : freshIdentifier(questionLabelId(ljId, stepIdx, q + 1), MAX_IDENTIFIER_LENGTH, taken);
+                labels.write(qId, question.text(), "nl");
+                labels.write(qId, fallback(question.textEn(), question.text()), "en");
+                // type from frontend, defaults to menteeValuation
+                String qType = (question.questionType() != null && !question.questionType().isBlank())
+                        ? question.questionType() : "menteeValuation";
+                if (oldQuestion == null) {
+                    newQuestions.add(new NewQuestion(i, qId, q + 1, qType));
+                } else if (oldQuestion.order() != q + 1 || !qType.equals(oldQuestion.type())
+                        || !qId.equals(oldQuestion.question())) {
+                    updateQuestions.add(qId, q + 1, qType, oldQuestion.id());
+                }
+            }
+            for (int q = 0; q < oldQuestions.size(); q++) {
+                if (!usedQuestions[q]) {
+                    deleteQuestions.add(oldQuestions.get(q).id());
+                }
+            }
+
+            // 2d. Determine colour + size from structural type
             String colour;
             String size;
 
@@ -192,212 +643,152 @@ public class LearningJourneyIntegrationService {
                     throw new IllegalStateException("Unknown step type: " + step.type());
             }
 
-            // 2d. Document group identifier (if step has documents or upload enabled)
-            String docsId;
-            if (step.documents() != null && !step.documents().isEmpty()) {
-                docsId = docGroupId(ljId, stepIdx);
-            } else if (step.uploadEnabled()) {
-                // Upload-enabled steps get a docs identifier so Metro shows upload zone
-                docsId = docGroupId(ljId, stepIdx);
-            } else {
-                docsId = null;
+            // 2e. Document group identifier (if step has documents or upload enabled)
+            // Upload-enabled steps get a docs identifier so Metro shows upload zone
+            String docsId = null;
+            boolean hasDocuments = step.documents() != null && !step.documents().isEmpty();
+            if (hasDocuments || step.uploadEnabled()) {
+                docsId = old != null && old.documents() != null
+                        ? old.documents() : freshIdentifier(docGroupId(ljId, stepIdx), MAX_DOC_IDENTIFIER_LENGTH, taken);
+                keptDocuments.add(docsId);
+                List<List<Object>> documents = new ArrayList<>();
+                if (hasDocuments) {
+                    for (DocumentInput doc : step.documents()) {
+                        String url = (doc.url() != null && !doc.url().isBlank())
+                                ? doc.url()
+                                : S3_BASE_URL + ljKey + "/" + doc.fileName();
+                        documents.add(Arrays.asList(doc.label(), url, doc.lang()));
+                    }
+                }
+                // A changed document list is replaced as a whole
+                List<List<Object>> oldDocuments = existing.documents().getOrDefault(docsId, List.of());
+                if (!documents.equals(oldDocuments)) {
+                    if (!oldDocuments.isEmpty()) {
+                        deleteDocuments.add(docsId);
+                    }
+                    for (List<Object> document : documents) {
+                        newDocumentRows.add(new Object[]{docsId, document.get(0), document.get(1), document.get(2)});
+                    }
+                }
             }
 
-            // 2e. Conversation flag (step-level)
+            // 2f. Conversation flag (step-level)
             String conversation = step.chatboxEnabled() ? "S" : null;
 
-            // 2f. DB type: derived from content, NOT from structural type
+            // 2g. DB type: derived from content, NOT from structural type
             String dbType = hasQuestions ? DB_TYPE_QUESTION : DB_TYPE_TEXT;
 
-            // 2g. INSERT step row
-            final String fTitleId = titleId;
-            final String fTextId = textId;
-            KeyHolder keyHolder = new GeneratedKeyHolder();
-            jdbc.update(conn -> {
-                PreparedStatement ps = conn.prepareStatement(
-                        "INSERT INTO steps " +
-                        "(position, title, learningJourneyId, textContent, " +
-                        " conversation, type, colour, size, role, documents) " +
-                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
-                        Statement.RETURN_GENERATED_KEYS);
-                ps.setInt(1, stepIdx);           // position: global linear 1..N
-                ps.setString(2, fTitleId);       // label identifier
-                ps.setLong(3, ljId);
-                ps.setString(4, fTextId);        // label identifier or NULL
-                ps.setString(5, conversation);   // 'S' or NULL
-                ps.setString(6, dbType);         // 'TEXT' or 'QUESTION'
-                ps.setString(7, colour);
-                ps.setString(8, size);
-                ps.setString(9, DEFAULT_ROLE);   // always 'principal'
-                ps.setString(10, docsId);        // doc group identifier or NULL
-                return ps;
-            }, keyHolder);
-
-            Number key = keyHolder.getKey();
-            if (key == null) {
-                throw new IllegalStateException(
-                        "No generated key returned for step at position " + stepIdx);
+            // 2h. Step row: position is global linear 1..N, title/textContent are label identifiers,
+            // role is always 'principal'
+            if (old == null) {
+                stepIds[i] = -1;
+                newStepRow[i] = newStepRows.size();
+                newStepRows.add(new Object[]{stepIdx, titleId, ljId, textId, conversation, dbType,
+                        colour, size, DEFAULT_ROLE, docsId});
+            } else {
+                stepIds[i] = old.id();
+                newStepRow[i] = -1;
+                if (old.position() != stepIdx || !Objects.equals(old.title(), titleId)
+                        || !Objects.equals(old.textContent(), textId) || !Objects.equals(old.conversation(), conversation)
+                        || !Objects.equals(old.type(), dbType) || !Objects.equals(old.colour(), colour)
+                        || !Objects.equals(old.size(), size) || !Objects.equals(old.documents(), docsId)) {
+                    updateSteps.add(stepIdx, titleId, textId, conversation, dbType, colour, size, docsId, old.id());
+                }
             }
-            stepDbIds[i] = key.longValue();
         }
 
-        timings.put("phase2_labelsAndSteps_ms", System.currentTimeMillis() - t1);
-        timings.put("stepCount", (long) steps.size());
-        timings.put("labelCount", (long) labelCount);
-        log.info("[{}] Phase 2: {} steps, {} labels", environment, steps.size(), labelCount);
-
-        // ── 3. Per question: labels → step_question ────────────────────────
-        long t2 = System.currentTimeMillis();
-        int questionCount = 0;
-
-        for (int i = 0; i < steps.size(); i++) {
-            StepInput step = steps.get(i);
-            if (step.questions() == null || step.questions().isEmpty()) continue;
-
-            long stepDbId = stepDbIds[i];
-            int stepIdx = i + 1;
-
-            for (int q = 0; q < step.questions().size(); q++) {
-                QuestionInput question = step.questions().get(q);
-                int sortOrder = q + 1;
-
-                // 3a. Insert question labels (NL + EN)
-                String qId = questionLabelId(ljId, stepIdx, sortOrder);
-                insertLabel(jdbc, qId, question.text(), "nl", category);
-                insertLabel(jdbc, qId, fallback(question.textEn(), question.text()), "en", category);
-                labelCount += 2;
-
-                // 3b. INSERT step_question (type from frontend, defaults to menteeValuation)
-                String qType = (question.questionType() != null && !question.questionType().isBlank())
-                        ? question.questionType() : "menteeValuation";
-                jdbc.update(
-                        "INSERT INTO step_question (stepId, question, `order`, type) " +
-                        "VALUES (?, ?, ?, ?)",
-                        stepDbId, qId, sortOrder, qType);
-                questionCount++;
+        // Removed steps, and labels and documents nothing refers to any more
+        Set<Integer> keptSteps = new HashSet<>();
+        for (int m : matched) keptSteps.add(m);
+        List<Long> removedStepIds = new ArrayList<>();
+        for (int j = 0; j < existing.steps().size(); j++) {
+            if (!keptSteps.contains(j)) {
+                ExistingStep removed = existing.steps().get(j);
+                removed.questions().forEach(q -> deleteQuestions.add(q.id()));
+                deleteSteps.add(removed.id());
+                removedStepIds.add(removed.id());
             }
         }
-
-        timings.put("phase3_questions_ms", System.currentTimeMillis() - t2);
-        timings.put("questionCount", (long) questionCount);
-        log.info("[{}] Phase 3: {} questions", environment, questionCount);
-
-        // ── 4. INSERT learning_journey_documents ───────────────────────────
-        long t3 = System.currentTimeMillis();
-        int docCount = 0;
-
-        for (int i = 0; i < steps.size(); i++) {
-            StepInput step = steps.get(i);
-            if (step.documents() == null || step.documents().isEmpty()) continue;
-
-            String docsIdentifier = docGroupId(ljId, i + 1);
-            for (DocumentInput doc : step.documents()) {
-                String url = (doc.url() != null && !doc.url().isBlank())
-                        ? doc.url()
-                        : S3_BASE_URL + ljKey + "/" + doc.fileName();
-                jdbc.update(
-                        "INSERT INTO learning_journey_documents " +
-                        "(identifier, label, url, lang) VALUES (?, ?, ?, ?)",
-                        docsIdentifier, doc.label(), url, doc.lang());
-                docCount++;
+        for (String identifier : existing.labels().keySet()) {
+            if (!labels.written.contains(identifier)) {
+                deleteLabels.add(identifier);
             }
         }
-
-        timings.put("phase4_documents_ms", System.currentTimeMillis() - t3);
-        timings.put("documentCount", (long) docCount);
-        log.info("[{}] Phase 4: {} documents", environment, docCount);
-
-        // ── 5. SYNC group_learning_journey ───────────────────────────────
-        long t4 = System.currentTimeMillis();
-
-        // Validate all groupIds exist in the groups table
-        List<Long> groupIds = request.groupIds();
-        if (groupIds == null || groupIds.isEmpty()) {
-            throw new IllegalArgumentException("At least one group must be selected.");
+        for (String identifier : existing.documents().keySet()) {
+            if (!keptDocuments.contains(identifier)) {
+                deleteDocuments.add(identifier);
+            }
         }
-        String placeholders = groupIds.stream().map(id -> "?").collect(Collectors.joining(","));
-        List<Long> validGroupIds = jdbc.queryForList(
-                "SELECT id FROM `groups` WHERE id IN (" + placeholders + ")",
-                Long.class,
-                groupIds.toArray());
-        if (validGroupIds.size() != groupIds.size()) {
-            List<Long> invalid = new ArrayList<>(groupIds);
-            invalid.removeAll(validGroupIds);
-            throw new IllegalArgumentException("Invalid group IDs: " + invalid);
+        return new ContentChanges(plan, newStepRows, stepIds, newStepRow, newQuestions, newDocumentRows,
+                removedStepIds, labels.inserted, labels.updated);
+    }
+
+    /** Adds label rows: an UPDATE when the stored text or category differs, an INSERT when there is none. */
+    private static final class LabelWriter {
+        private final JourneyContent existing;
+        private final String category;
+        private final PublishPlan.Batch insert;
+        private final PublishPlan.Batch update;
+        private final Set<String> written = new HashSet<>();
+        private int inserted;
+        private int updated;
+
+        LabelWriter(JourneyContent existing, String category, PublishPlan.Batch insert, PublishPlan.Batch update) {
+            this.existing = existing;
+            this.category = category;
+            this.insert = insert;
+            this.update = update;
         }
 
-        // On edit: sync groups (delete old, insert new) instead of just inserting
-        if (request.editLearningJourneyId() != null) {
-            // First: nullify FK references from user_learning_journey to group_learning_journey
-            // (user_learning_journey.groupLearningJourneyId → group_learning_journey.id, ON DELETE RESTRICT)
-            try {
-                jdbc.update(
-                        "UPDATE user_learning_journey SET groupLearningJourneyId = NULL " +
-                        "WHERE groupLearningJourneyId IN " +
-                        "(SELECT id FROM group_learning_journey WHERE learningJourneyId = ?)", ljId);
-            } catch (Exception e) {
-                log.warn("Could not nullify user_learning_journey FK for journey {}: {}", ljId, e.getMessage());
+        /**
+         * Row for INSERT INTO labels (identifier, text, lang, category) VALUES (?, ?, ?, ?)
+         *
+         * Category follows Metro convention: Learning_Journey_{ljKey}
+         */
+        void write(String identifier, String text, String lang) {
+            written.add(identifier);
+            LabelRow row = existing.labels().getOrDefault(identifier, Map.of()).get(lang);
+            if (row == null) {
+                insert.add(identifier, text, lang, category);
+                inserted++;
+            } else if (!Objects.equals(row.text(), text) || !Objects.equals(row.category(), category)) {
+                update.add(text, category, identifier, lang);
+                updated++;
             }
-            jdbc.update("DELETE FROM group_learning_journey WHERE learningJourneyId = ?", ljId);
         }
+    }
 
-        for (Long groupId : request.groupIds()) {
-            jdbc.update(
-                    "INSERT INTO group_learning_journey (groupId, learningJourneyId) " +
-                    "VALUES (?, ?)",
-                    groupId, ljId);
+    /** {@code base}, or {@code base_2}, {@code base_3}, ... when a kept row already uses it. */
+    private static String freshIdentifier(String base, int max, Set<String> taken) {
+        String identifier = base;
+        for (int n = 2; !taken.add(identifier); n++) {
+            String suffix = "_" + n;
+            identifier = truncate(base, max - suffix.length()) + suffix;
         }
-
-        timings.put("phase5_groups_ms", System.currentTimeMillis() - t4);
-        timings.put("groupCount", (long) request.groupIds().size());
-        log.info("[{}] Phase 5: {} groups bound", environment, request.groupIds().size());
-
-        long totalMs = System.currentTimeMillis() - totalStart;
-        timings.put("total_ms", totalMs);
-        timings.put("labelCountTotal", (long) labelCount);
-        log.info("[{}] Journey {} published ({}ms)", environment, ljId, totalMs);
-
-        return new LearningJourneyPublishResult(ljId, true, environment, timings);
+        return identifier;
     }
 
-    // ═══════════════════════════════════════════════════════════════════════
-    // Clean journey content for re-publish (preserves journey ID + user assignments)
-    // ═══════════════════════════════════════════════════════════════════════
-
-    private void cleanJourneyContent(long ljId, JdbcTemplate jdbc) {
-        // Delete user progress (best-effort — tables may not exist in all environments)
-        int dua = 0, dus = 0;
+    /**
+     * Delete the user progress of removed steps (best-effort — tables may not exist in all
+     * environments). Progress on kept steps stays.
+     */
+    private void deleteUserProgress(List<Long> stepIds, JdbcTemplate jdbc) {
+        if (stepIds.isEmpty()) return;
+        if (!schema.has(jdbc, SchemaCapabilities.Capability.USER_STEP)
+                || !schema.has(jdbc, SchemaCapabilities.Capability.USER_STEP_ANSWER)) {
+            log.info("No user progress tables; nothing to clean for {} removed steps", stepIds.size());
+            return;
+        }
+        String in = stepIds.stream().map(id -> "?").collect(Collectors.joining(","));
+        Object[] params = stepIds.toArray();
         try {
-            dua = jdbc.update(
-                    "DELETE usa FROM user_step_answer usa " +
-                    "INNER JOIN user_step us ON us.id = usa.userStepId " +
-                    "INNER JOIN user_learning_journey ulj ON ulj.id = us.userLearningJourneyId " +
-                    "WHERE ulj.learningJourneyId = ?", ljId);
-            dus = jdbc.update(
-                    "DELETE us FROM user_step us " +
-                    "INNER JOIN user_learning_journey ulj ON ulj.id = us.userLearningJourneyId " +
-                    "WHERE ulj.learningJourneyId = ?", ljId);
+            int dua = jdbc.update("DELETE FROM user_step_answer WHERE userStepId IN " +
+                    "(SELECT id FROM user_step WHERE stepId IN (" + in + "))", params);
+            int dus = jdbc.update("DELETE FROM user_step WHERE stepId IN (" + in + ")", params);
+            log.info("Deleted progress on {} removed steps: {} user answers, {} user steps", stepIds.size(), dua, dus);
         } catch (Exception e) {
-            log.warn("Could not clean user progress for journey {} (tables may not exist): {}",
-                    ljId, e.getMessage());
+            log.warn("Could not clean user progress for steps {} (tables may not exist): {}", stepIds, e.getMessage());
         }
-        // NOTE: user_learning_journey is NOT deleted — user assignments stay!
-
-        // Delete step content (these tables must exist)
-        int dq = jdbc.update(
-                "DELETE sq FROM step_question sq " +
-                "INNER JOIN steps s ON s.id = sq.stepId " +
-                "WHERE s.learningJourneyId = ?", ljId);
-        String labelPattern = "LJ_" + ljId + "_%";
-        int dl = jdbc.update("DELETE FROM labels WHERE identifier LIKE ?", labelPattern);
-        int dd = jdbc.update("DELETE FROM learning_journey_documents WHERE identifier LIKE ?", labelPattern);
-        int ds = jdbc.update("DELETE FROM steps WHERE learningJourneyId = ?", ljId);
-        // NOTE: group_learning_journey is synced separately in phase 5
-        // NOTE: learning_journeys row is KEPT and UPDATED
-
-        log.info("Cleaned journey {} content: {} user answers, {} user steps, " +
-                "{} questions, {} labels, {} docs, {} steps (journey ID + user assignments preserved)",
-                ljId, dua, dus, dq, dl, dd, ds);
     }
 
     /**
@@ -422,17 +813,25 @@ public class LearningJourneyIntegrationService {
 
     public void deleteJourney(long ljId, JdbcTemplate jdbc) {
         // 0. Delete user progress data (FK: user_step_answer → user_step → user_learning_journey → steps)
-        int dua = jdbc.update(
-                "DELETE usa FROM user_step_answer usa " +
-                "INNER JOIN user_step us ON us.id = usa.userStepId " +
-                "INNER JOIN user_learning_journey ulj ON ulj.id = us.userLearningJourneyId " +
-                "WHERE ulj.learningJourneyId = ?", ljId);
-        int dus = jdbc.update(
-                "DELETE us FROM user_step us " +
-                "INNER JOIN user_learning_journey ulj ON ulj.id = us.userLearningJourneyId " +
-                "WHERE ulj.learningJourneyId = ?", ljId);
-        int dulj = jdbc.update(
-                "DELETE FROM user_learning_journey WHERE learningJourneyId = ?", ljId);
+        // Skipped for tables this Metro database does not have
+        int dua = 0, dus = 0, dulj = 0;
+        if (schema.has(jdbc, SchemaCapabilities.Capability.USER_LEARNING_JOURNEY)) {
+            if (schema.has(jdbc, SchemaCapabilities.Capability.USER_STEP)) {
+                if (schema.has(jdbc, SchemaCapabilities.Capability.USER_STEP_ANSWER)) {
+                    dua = jdbc.update(
+                            "DELETE usa FROM user_step_answer usa " +
+                            "INNER JOIN user_step us ON us.id = usa.userStepId " +
+                            "INNER JOIN user_learning_journey ulj ON ulj.id = us.userLearningJourneyId " +
+                            "WHERE ulj.learningJourneyId = ?", ljId);
+                }
+                dus = jdbc.update(
+                        "DELETE us FROM user_step us " +
+                        "INNER JOIN user_learning_journey ulj ON ulj.id = us.userLearningJourneyId " +
+                        "WHERE ulj.learningJourneyId = ?", ljId);
+            }
+            dulj = jdbc.update(
+                    "DELETE FROM user_learning_journey WHERE learningJourneyId = ?", ljId);
+        }
 
         // 1. Delete step_question rows (via step ids)
         int dq = jdbc.update(
@@ -441,7 +840,7 @@ public class LearningJourneyIntegrationService {
                 "WHERE s.learningJourneyId = ?", ljId);
 
         // 2. Delete labels (identifier pattern: LJ_{id}_*)
-        String labelPattern = "LJ_" + ljId + "_%";
+        String labelPattern = journeyIdentifierPattern(ljId);
         int dl = jdbc.update("DELETE FROM labels WHERE identifier LIKE ?", labelPattern);
 
         // 3. Delete learning_journey_documents (identifier pattern: LJ_{id}_STEP_%_DOCS)
@@ -455,6 +854,7 @@ public class LearningJourneyIntegrationService {
 
         // 6. Delete learning_journeys
         int dj = jdbc.update("DELETE FROM learning_journeys WHERE id = ?", ljId);
+        labelCache.evict(ljId);
 
         log.info("Deleted journey {}: {} user answers, {} user steps, {} user journeys, " +
                 "{} questions, {} labels, {} docs, {} groups, {} steps, {} journey",
@@ -466,23 +866,28 @@ public class LearningJourneyIntegrationService {
     // ═══════════════════════════════════════════════════════════════════════
 
     private void ensureBilingualColumns(JdbcTemplate jdbc, String environment) {
-        // Case-insensitive check: H2 may store identifiers differently than MySQL
-        String checkSql = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.COLUMNS " +
-                "WHERE UPPER(TABLE_NAME) = UPPER(?) AND UPPER(COLUMN_NAME) = UPPER(?)";
+        // Answered from the capability registry; INFORMATION_SCHEMA is only read again after a migration
+        boolean migrated = false;
 
         // learning_journeys: nameEn + descriptionEn
-        Integer count = jdbc.queryForObject(checkSql, Integer.class, "learning_journeys", "nameEn");
-        if (count != null && count == 0) {
+        if (!schema.has(jdbc, SchemaCapabilities.Capability.JOURNEY_NAME_EN)) {
             log.info("[{}] Schema migration: adding nameEn/descriptionEn to learning_journeys", environment);
             jdbc.execute("ALTER TABLE learning_journeys ADD COLUMN nameEn VARCHAR(50) NULL");
-            jdbc.execute("ALTER TABLE learning_journeys ADD COLUMN descriptionEn VARCHAR(50) NULL");
+            if (!schema.has(jdbc, SchemaCapabilities.Capability.JOURNEY_DESCRIPTION_EN)) {
+                jdbc.execute("ALTER TABLE learning_journeys ADD COLUMN descriptionEn VARCHAR(50) NULL");
+            }
+            migrated = true;
         }
 
         // learning_journeys: aiCoachEnabled
-        Integer aiCoachCount = jdbc.queryForObject(checkSql, Integer.class, "learning_journeys", "aiCoachEnabled");
-        if (aiCoachCount != null && aiCoachCount == 0) {
+        if (!schema.has(jdbc, SchemaCapabilities.Capability.JOURNEY_AI_COACH_ENABLED)) {
             log.info("[{}] Schema migration: adding aiCoachEnabled to learning_journeys", environment);
             jdbc.execute("ALTER TABLE learning_journeys ADD COLUMN aiCoachEnabled INT NOT NULL DEFAULT 0");
+            migrated = true;
+        }
+
+        if (migrated) {
+            schema.refresh(jdbc);
         }
     }
 
@@ -524,18 +929,54 @@ public class LearningJourneyIntegrationService {
     }
 
     // ═══════════════════════════════════════════════════════════════════════
-    // Label INSERT (shared helper)
+    // Step INSERT (batched)
     // ═══════════════════════════════════════════════════════════════════════
 
     /**
-     * INSERT INTO labels (identifier, text, lang, category) VALUES (?, ?, ?, ?)
-     *
-     * Category follows Metro convention: Learning_Journey_{ljKey}
+     * Insert all step rows as one JDBC batch and return their generated IDs in input order.
      */
-    private void insertLabel(JdbcTemplate jdbc, String identifier, String text, String lang, String category) {
-        jdbc.update(
-                "INSERT INTO labels (identifier, text, lang, category) VALUES (?, ?, ?, ?)",
-                identifier, text, lang, category);
+    private static long[] insertSteps(JdbcTemplate jdbc, List<Object[]> stepRows) {
+        if (stepRows.isEmpty()) return new long[0];
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbc.batchUpdate(conn -> conn.prepareStatement(
+                        "INSERT INTO steps " +
+                        "(position, title, learningJourneyId, textContent, " +
+                        " conversation, type, colour, size, role, documents) " +
+                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                        Statement.RETURN_GENERATED_KEYS),
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        Object[] row = stepRows.get(i);
+                        for (int p = 0; p < row.length; p++) {
+                            ps.setObject(p + 1, row[p]);
+                        }
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return stepRows.size();
+                    }
+                },
+                keyHolder);
+
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+        if (keys.size() != stepRows.size()) {
+            throw new IllegalStateException("Expected " + stepRows.size() +
+                    " generated step keys, got " + keys.size());
+        }
+        long[] ids = new long[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            Object key = keys.get(i).size() == 1
+                    ? keys.get(i).values().iterator().next()
+                    : keys.get(i).entrySet().stream().filter(e -> e.getKey().equalsIgnoreCase("id"))
+                            .map(Map.Entry::getValue).findFirst().orElse(null);
+            if (!(key instanceof Number number)) {
+                throw new IllegalStateException("No generated key returned for step at position " + (i + 1));
+            }
+            ids[i] = number.longValue();
+        }
+        return ids;
     }
 
     // ═══════════════════════════════════════════════════════════════════════
@@ -554,6 +995,11 @@ public class LearningJourneyIntegrationService {
                 MAX_IDENTIFIER_LENGTH);
     }
 
+    /** LIKE pattern for LJ_{ljId}_*, with the underscores escaped so LJ_5_ does not match LJ_55_ */
+    static String journeyIdentifierPattern(long ljId) {
+        return "LJ\\_" + ljId + "\\_%";
+    }
+
     /** LJ_{ljId}_STEP_{n}_DOCS */
     private String docGroupId(long ljId, int stepIdx) {
         return truncate("LJ_" + ljId + "_STEP_" + stepIdx + "_DOCS",
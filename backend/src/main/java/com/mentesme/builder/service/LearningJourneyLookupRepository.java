@@ -5,12 +5,16 @@ import com.mentesme.builder.model.LearningJourneyDetail.DocumentDetail;
 import com.mentesme.builder.model.LearningJourneyDetail.QuestionDetail;
 import com.mentesme.builder.model.LearningJourneyDetail.StepDetail;
 import com.mentesme.builder.model.LearningJourneyListItem;
+import com.mentesme.builder.service.JourneyLabelCache.LabelText;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -21,10 +25,16 @@ import java.util.Optional;
 public class LearningJourneyLookupRepository {
 
     private final JdbcTemplate jdbc;
+    private final JourneyLabelCache labelCache;
+    private final SchemaCapabilities schema;
 
     public LearningJourneyLookupRepository(
-            @Qualifier("metroJdbcTemplate") JdbcTemplate jdbc) {
+            @Qualifier("metroJdbcTemplate") JdbcTemplate jdbc,
+            JourneyLabelCache labelCache,
+            SchemaCapabilities schema) {
         this.jdbc = jdbc;
+        this.labelCache = labelCache;
+        this.schema = schema;
     }
 
     public List<LearningJourneyListItem> findAll() {
@@ -37,72 +47,81 @@ public class LearningJourneyLookupRepository {
                 ));
     }
 
+    /**
+     * Load a journey with its steps, questions, labels, documents and groups.
+     *
+     * Uses a fixed number of set-based queries whatever the size of the journey: the journey,
+     * its steps, all its step_question rows, all labels those rows refer to (pivoted to one row
+     * per identifier with the NL and EN text), its documents and its groups. The detail graph is
+     * assembled in memory. The labels come from {@link JourneyLabelCache} when the journey was
+     * opened recently.
+     */
     public Optional<LearningJourneyDetail> findById(long id) {
-        boolean hasAiCoach = checkAiCoachEnabledColumn();
+        boolean hasAiCoach = schema.has(jdbc, SchemaCapabilities.Capability.JOURNEY_AI_COACH_ENABLED);
         String aiCoachSelect = hasAiCoach ? ", aiCoachEnabled" : "";
         String sql = "SELECT id, name, nameEn, ljKey, description, descriptionEn" + aiCoachSelect +
                      " FROM learning_journeys WHERE id = ?";
 
-        List<LearningJourneyDetail> results = jdbc.query(sql,
-                (rs, rowNum) -> {
-                    long ljId = rs.getLong("id");
-                    boolean aiCoachEnabled = hasAiCoach && rs.getInt("aiCoachEnabled") == 1;
-                    return new LearningJourneyDetail(
-                            ljId,
-                            rs.getString("name"),
-                            rs.getString("nameEn"),
-                            rs.getString("ljKey"),
-                            rs.getString("description"),
-                            rs.getString("descriptionEn"),
-                            findSteps(ljId),
-                            findDocuments(ljId),
-                            findGroupIds(ljId),
-                            aiCoachEnabled
-                    );
-                },
+        List<JourneyRow> results = jdbc.query(sql,
+                (rs, rowNum) -> new JourneyRow(
+                        rs.getString("name"),
+                        rs.getString("nameEn"),
+                        rs.getString("ljKey"),
+                        rs.getString("description"),
+                        rs.getString("descriptionEn"),
+                        hasAiCoach && rs.getInt("aiCoachEnabled") == 1
+                ),
                 id);
-        return results.isEmpty() ? Optional.empty() : Optional.of(results.get(0));
-    }
-
-    private boolean hasAiCoachEnabledCol = false;
-    private boolean aiCoachEnabledChecked = false;
-
-    private boolean checkAiCoachEnabledColumn() {
-        if (!aiCoachEnabledChecked) {
-            Integer count = jdbc.queryForObject(
-                    "SELECT COUNT(*) FROM INFORMATION_SCHEMA.COLUMNS " +
-                    "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'learning_journeys' AND COLUMN_NAME = 'aiCoachEnabled'",
-                    Integer.class);
-            hasAiCoachEnabledCol = (count != null && count > 0);
-            aiCoachEnabledChecked = true;
+        if (results.isEmpty()) {
+            return Optional.empty();
         }
-        return hasAiCoachEnabledCol;
+        JourneyRow journey = results.get(0);
+        return Optional.of(new LearningJourneyDetail(
+                id,
+                journey.name,
+                journey.nameEn,
+                journey.ljKey,
+                journey.description,
+                journey.descriptionEn,
+                findSteps(id),
+                findDocuments(id),
+                findGroupIds(id),
+                journey.aiCoachEnabled
+        ));
     }
 
     private List<StepDetail> findSteps(long ljId) {
-        String sql =
-                "SELECT s.id, s.position, s.title AS titleIdentifier, " +
-                "  s.textContent AS textIdentifier, s.type AS dbType, " +
-                "  s.colour, s.size, s.role, s.conversation, s.documents " +
-                ", (SELECT l.text FROM labels l WHERE l.identifier = s.title AND l.lang = 'nl' LIMIT 1) AS titleNl, " +
-                "  (SELECT l.text FROM labels l WHERE l.identifier = s.title AND l.lang = 'en' LIMIT 1) AS titleEn, " +
-                "  (SELECT l.text FROM labels l WHERE l.identifier = s.textContent AND l.lang = 'nl' LIMIT 1) AS textContentNl, " +
-                "  (SELECT l.text FROM labels l WHERE l.identifier = s.textContent AND l.lang = 'en' LIMIT 1) AS textContentEn " +
-                "FROM steps s WHERE s.learningJourneyId = ? ORDER BY s.position";
-
-        List<StepRow> rows = jdbc.query(sql, (rs, rowNum) -> new StepRow(
-                rs.getLong("id"),
-                rs.getInt("position"),
-                rs.getString("titleNl"),
-                rs.getString("titleEn"),
-                rs.getString("textContentNl"),
-                rs.getString("textContentEn"),
-                rs.getString("dbType"),
-                rs.getString("colour"),
-                rs.getString("size"),
-                rs.getString("conversation"),
-                rs.getString("documents")
-        ), ljId);
+        List<StepRow> rows = jdbc.query(
+                "SELECT s.id, s.position, s.title, s.textContent, s.type AS dbType, " +
+                "  s.colour, s.size, s.conversation, s.documents " +
+                "FROM steps s WHERE s.learningJourneyId = ? ORDER BY s.position",
+                (rs, rowNum) -> new StepRow(
+                        rs.getLong("id"),
+                        rs.getInt("position"),
+                        rs.getString("title"),
+                        rs.getString("textContent"),
+                        rs.getString("dbType"),
+                        rs.getString("colour"),
+                        rs.getString("size"),
+                        rs.getString("conversation"),
+                        rs.getString("documents")
+                ), ljId);
+        if (rows.isEmpty()) {
+            return List.of();
+        }
+
+        Map<Long, List<QuestionRow>> questionsByStep = new HashMap<>();
+        jdbc.query(
+                "SELECT sq.id, sq.stepId, sq.question, sq.`order`, sq.type AS questionType " +
+                "FROM step_question sq INNER JOIN steps s ON s.id = sq.stepId " +
+                "WHERE s.learningJourneyId = ? ORDER BY sq.stepId, sq.`order`",
+                rs -> {
+                    questionsByStep.computeIfAbsent(rs.getLong("stepId"), stepId -> new ArrayList<>())
+                            .add(new QuestionRow(rs.getLong("id"), rs.getString("question"),
+                                    rs.getInt("order"), rs.getString("questionType")));
+                }, ljId);
+
+        Map<String, LabelText> labels = labelCache.get("TEST", ljId, () -> findLabels(ljId));
 
         int totalSteps = rows.size();
         return java.util.stream.IntStream.range(0, totalSteps).mapToObj(i -> {
@@ -110,38 +129,61 @@ public class LearningJourneyLookupRepository {
             boolean isLast = (i == totalSteps - 1);
             String structuralType = deriveStructuralType(
                     row.size, row.colour, isLast);
+            LabelText title = label(labels, row.title);
+            LabelText text = label(labels, row.textContent);
+            List<QuestionDetail> questions = questionsByStep.getOrDefault(row.id, List.of()).stream()
+                    .map(q -> {
+                        LabelText question = label(labels, q.question);
+                        return new QuestionDetail(q.id, q.order, question.nl(), question.en(), q.type);
+                    })
+                    .toList();
             return new StepDetail(
                     row.id,
                     row.position,
                     structuralType,
-                    row.titleNl,
-                    row.titleEn,
-                    row.textContentNl,
-                    row.textContentEn,
+                    title.nl(),
+                    title.en(),
+                    text.nl(),
+                    text.en(),
                     row.dbType,
                     row.colour,
                     row.size,
                     "S".equals(row.conversation),
                     row.documents,
-                    findQuestions(row.id)
+                    questions
             );
         }).toList();
     }
 
-    private List<QuestionDetail> findQuestions(long stepId) {
-        return jdbc.query(
-                "SELECT sq.id, sq.`order`, sq.type AS questionType, " +
-                "  (SELECT l.text FROM labels l WHERE l.identifier = sq.question AND l.lang = 'nl' LIMIT 1) AS textNl, " +
-                "  (SELECT l.text FROM labels l WHERE l.identifier = sq.question AND l.lang = 'en' LIMIT 1) AS textEn " +
-                "FROM step_question sq WHERE sq.stepId = ? ORDER BY sq.`order`",
-                (rs, rowNum) -> new QuestionDetail(
-                        rs.getLong("id"),
-                        rs.getInt("order"),
-                        rs.getString("textNl"),
-                        rs.getString("textEn"),
-                        rs.getString("questionType")
-                ),
-                stepId);
+    private static final LabelText NO_LABEL = new LabelText(null, null);
+
+    private static LabelText label(Map<String, LabelText> labels, String identifier) {
+        return identifier == null ? NO_LABEL : labels.getOrDefault(identifier, NO_LABEL);
+    }
+
+    /**
+     * NL and EN text of every label the journey's steps and questions refer
+     * to, keyed by identifier. Resolved through the step rows rather than the LJ_{id}_ prefix,
+     * so journeys created in Metro itself and re-published steps with suffixed identifiers
+     * resolve too.
+     */
+    private Map<String, LabelText> findLabels(long ljId) {
+        Map<String, LabelText> labels = new HashMap<>();
+        jdbc.query(
+                "SELECT l.identifier, " +
+                "  MAX(CASE WHEN l.lang = 'nl' THEN l.text END) AS textNl, " +
+                "  MAX(CASE WHEN l.lang = 'en' THEN l.text END) AS textEn " +
+                "FROM labels l WHERE l.lang IN ('nl', 'en') AND l.identifier IN (" +
+                "  SELECT s.title FROM steps s WHERE s.learningJourneyId = ? " +
+                "  UNION SELECT s.textContent FROM steps s WHERE s.learningJourneyId = ? " +
+                "  UNION SELECT sq.question FROM step_question sq " +
+                "    INNER JOIN steps s ON s.id = sq.stepId WHERE s.learningJourneyId = ?) " +
+                "GROUP BY l.identifier",
+                rs -> {
+                    labels.put(rs.getString("identifier"),
+                            new LabelText(rs.getString("textNl"), rs.getString("textEn")));
+                }, ljId, ljId, ljId);
+        return labels;
     }
 
     private List<DocumentDetail> findDocuments(long ljId) {
@@ -156,7 +198,7 @@ public class LearningJourneyLookupRepository {
                         rs.getString("url"),
                         rs.getString("lang")
                 ),
-                "LJ_" + ljId + "_%");
+                LearningJourneyIntegrationService.journeyIdentifierPattern(ljId));
     }
 
     private List<Long> findGroupIds(long ljId) {
@@ -182,11 +224,18 @@ public class LearningJourneyLookupRepository {
         return "hoofdstap";
     }
 
+    private record JourneyRow(
+            String name, String nameEn, String ljKey,
+            String description, String descriptionEn,
+            boolean aiCoachEnabled
+    ) {}
+
     private record StepRow(
             long id, int position,
-            String titleNl, String titleEn,
-            String textContentNl, String textContentEn,
+            String title, String textContent,
             String dbType, String colour, String size,
             String conversation, String documents
     ) {}
+
+    private record QuestionRow(long id, String question, int order, String type) {}
 }
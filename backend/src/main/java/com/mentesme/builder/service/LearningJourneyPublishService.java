@@ -3,6 +3,7 @@ package com.mentesme.builder.service;
 import com.mentesme.builder.model.LearningJourneyPublishRequest;
 import com.mentesme.builder.model.LearningJourneyPublishResult;
 import com.mentesme.builder.model.PublishEnvironment;
+import com.mentesme.builder.model.PublishEstimate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.ObjectProvider;
@@ -12,6 +13,10 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
 /**
  * Transaction orchestrator for Learning Journey publishing.
  * Follows the exact same pattern as QuestionnairePublishService:
@@ -27,6 +32,9 @@ public class LearningJourneyPublishService {
 
     private final LearningJourneyValidationService validationService;
     private final LearningJourneyIntegrationService integrationService;
+    private final PublishLockService publishLockService;
+    private final TransactionRetryService transactionRetryService;
+    private final PublishCostEstimator costEstimator;
 
     // Test environment
     private final TransactionTemplate testTxTemplate;
@@ -39,6 +47,9 @@ public class LearningJourneyPublishService {
     public LearningJourneyPublishService(
             LearningJourneyValidationService validationService,
             LearningJourneyIntegrationService integrationService,
+            PublishLockService publishLockService,
+            TransactionRetryService transactionRetryService,
+            PublishCostEstimator costEstimator,
             @Qualifier("metroJdbcTransactionManager") PlatformTransactionManager testTxManager,
             @Qualifier("metroJdbcTemplate") JdbcTemplate testJdbcTemplate,
             @Qualifier("metroProdTransactionManager") ObjectProvider<PlatformTransactionManager> prodTxManagerProvider,
@@ -46,6 +57,9 @@ public class LearningJourneyPublishService {
     ) {
         this.validationService = validationService;
         this.integrationService = integrationService;
+        this.publishLockService = publishLockService;
+        this.transactionRetryService = transactionRetryService;
+        this.costEstimator = costEstimator;
         this.testTxTemplate = new TransactionTemplate(testTxManager);
         this.testJdbcTemplate = testJdbcTemplate;
         this.prodTxManager = prodTxManagerProvider.getIfAvailable();
@@ -58,6 +72,36 @@ public class LearningJourneyPublishService {
      * The entire insert flow runs within a single transaction — any exception triggers full rollback.
      */
     public LearningJourneyPublishResult publish(LearningJourneyPublishRequest request, PublishEnvironment env) {
+        return publish(request, env, PublishTimings.NO_PROGRESS);
+    }
+
+    /**
+     * Estimate the cost of publishing {@code request} to {@code env} without writing anything.
+     */
+    public PublishEstimate estimate(LearningJourneyPublishRequest request, PublishEnvironment env) {
+        validationService.validate(request);
+        JdbcTemplate jdbcTemplate = env == PublishEnvironment.PRODUCTION ? prodJdbcTemplate : testJdbcTemplate;
+        if (jdbcTemplate == null) {
+            throw new IllegalStateException(
+                    "Production database is not configured. Set BUILDER_METRO_PROD_ENABLED=true with valid credentials.");
+        }
+        // Learning journeys never touch competence_questions
+        return costEstimator.estimate(env.name(), integrationService.plannedWork(request, jdbcTemplate), false);
+    }
+
+    /**
+     * True when the estimate reaches {@code builder.publish.async-threshold-ms}; synchronous
+     * endpoints then run the publish as a job. Skips the estimate when no threshold is set.
+     */
+    public boolean exceedsAsyncThreshold(LearningJourneyPublishRequest request, PublishEnvironment env) {
+        return costEstimator.asyncThresholdEnabled() && estimate(request, env).runAsync();
+    }
+
+    /**
+     * Publish and report every timing entry to {@code progress} as soon as it is recorded.
+     */
+    public LearningJourneyPublishResult publish(LearningJourneyPublishRequest request, PublishEnvironment env,
+                                                BiConsumer<String, Long> progress) {
         log.info("Publishing learning journey '{}' to {}", request.name(), env);
 
         // ── Phase 0: Pre-validation (NO SQL) ──────────────────────────────
@@ -82,18 +126,34 @@ public class LearningJourneyPublishService {
             envLabel = "TEST";
         }
 
+        // ── Per-journey lock (by edit ID and name), held until commit/rollback ──
+        List<String> lockKeys = new ArrayList<>();
+        lockKeys.add(PublishLockService.journeyNameKey(request.name()));
+        if (request.editLearningJourneyId() != null) {
+            lockKeys.add(PublishLockService.journeyKey(request.editLearningJourneyId()));
+        }
+
         // ── Execute within transaction ─────────────────────────────────────
-        LearningJourneyPublishResult result = txTemplate.execute(status -> {
-            try {
-                return integrationService.execute(request, jdbcTemplate, envLabel);
-            } catch (Exception e) {
-                status.setRollbackOnly();
-                throw e;
-            }
-        });
+        LearningJourneyPublishResult result;
+        try (PublishLockService.PublishLock lock = publishLockService.acquire(jdbcTemplate,
+                "learning journey '" + request.name() + "'", lockKeys)) {
+            // Deadlocks and lock-wait timeouts on the shared link tables rerun the whole transaction
+            var attempt = transactionRetryService.execute("learning journey '" + request.name() + "'",
+                    () -> txTemplate.execute(status -> {
+                        try {
+                            return integrationService.execute(request, jdbcTemplate, envLabel, progress);
+                        } catch (Exception e) {
+                            status.setRollbackOnly();
+                            throw e;
+                        }
+                    }));
+            result = attempt.value();
 
-        if (result == null) {
-            throw new IllegalStateException("Transaction returned null result.");
+            if (result == null) {
+                throw new IllegalStateException("Transaction returned null result.");
+            }
+            result.timings().put("lockWait_ms", lock.waitedMs());
+            attempt.record(result.timings());
         }
 
         log.info("[{}] Learning journey '{}' published successfully (id={})",
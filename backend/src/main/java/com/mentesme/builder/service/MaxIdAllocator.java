@@ -0,0 +1,30 @@
+package com.mentesme.builder.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Legacy allocator: next ID is {@code MAX(id) + 1} of each table. Not safe for concurrent
+ * publishes to the same database; use only where other writers insert without going through
+ * the sequence table.
+ */
+@Component
+@ConditionalOnProperty(name = "builder.publish.id-allocator", havingValue = "max")
+public class MaxIdAllocator implements IdAllocator {
+
+    @Override
+    public Map<String, Long> reserve(JdbcTemplate jdbc, Map<String, Integer> counts) {
+        return peek(jdbc);
+    }
+
+    @Override
+    public Map<String, Long> peek(JdbcTemplate jdbc) {
+        Map<String, Long> next = new HashMap<>();
+        new MetroLookupRepository(jdbc).getAllMaxIds().forEach((name, max) -> next.put(name, max + 1));
+        return next;
+    }
+}
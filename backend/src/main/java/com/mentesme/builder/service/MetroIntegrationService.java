@@ -1,110 +1,343 @@
 package com.mentesme.builder.service;
 
+import com.mentesme.builder.config.PublishProperties;
 import com.mentesme.builder.model.AssessmentBuildRequest;
 import com.mentesme.builder.model.CompetenceInput;
 import com.mentesme.builder.model.IntegrationPreviewResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class MetroIntegrationService {
 
     private static final Logger log = LoggerFactory.getLogger(MetroIntegrationService.class);
 
+    private static final List<String> LANGUAGES = List.of("nl", "en");
+    private static final int PLAN_CACHE_MAX_ENTRIES = 200;
+    private static final NameResolution NO_NAMES = new NameResolution(Map.of(), Map.of(), Map.of(), Set.of());
+
+    private final PublishProperties publishProperties;
+    private final IdAllocator idAllocator;
+    private final Map<PlanKey, CachedLookups> planCache = new ConcurrentHashMap<>();
+
+    public MetroIntegrationService(PublishProperties publishProperties, IdAllocator idAllocator) {
+        this.publishProperties = publishProperties;
+        this.idAllocator = idAllocator;
+    }
+
     /**
-     * Generate SQL statements for publishing an assessment to a Metro database.
-     * Uses the provided repository for lookups and fresh ID generation.
-     * All sequences are local to this call — no shared state between invocations.
+     * Generate a readable SQL preview for publishing an assessment to a Metro database.
+     * Rendered from the same {@link PublishPlan} that publish executes.
      */
     public IntegrationPreviewResponse generatePreview(AssessmentBuildRequest request, MetroLookupRepository repo) {
-        // Validate all groups exist in target database (single query)
-        var missingGroups = repo.findMissingGroupIds(request.groupIds());
+        return previewPlan(request, repo).toPreview();
+    }
+
+    /**
+     * Build the plan a publish would execute, without reserving IDs (new IDs are provisional).
+     * Its lookups are cached for the following publish of the same request.
+     */
+    public PublishPlan previewPlan(AssessmentBuildRequest request, MetroLookupRepository repo) {
+        return planFor(request, repo, null);
+    }
+
+    /**
+     * Build the parameterized publish plan for an assessment, reserving its IDs first.
+     * Must not run inside a transaction; see {@link #reserveIds}.
+     */
+    public PublishPlan buildPlan(AssessmentBuildRequest request, MetroLookupRepository repo) {
+        return buildPlan(request, repo, reserveIds(request, repo));
+    }
+
+    /**
+     * Build the parameterized publish plan for an assessment.
+     * Uses the provided repository for lookups; new IDs come from the block reserved by
+     * {@link #reserveIds}, so concurrent publishes never hand out the same ID.
+     */
+    public PublishPlan buildPlan(AssessmentBuildRequest request, MetroLookupRepository repo, ReservedIds reserved) {
+        return planFor(request, repo, reserved);
+    }
+
+    /**
+     * Reserve an upper bound of the IDs a publish of this request can need. Called before the
+     * publish transaction: the allocator commits on a connection of its own, and a transaction
+     * that already holds a pooled connection must not wait for a second one. Names are not
+     * looked up yet, so every category and goal counts as new; unused IDs become gaps.
+     */
+    public ReservedIds reserveIds(AssessmentBuildRequest request, MetroLookupRepository repo) {
+        // Taken before the reservation, which advances it, so a preview's lookups still match
+        Map<String, Long> stateToken = repo.peekIds(idAllocator);
+        Map<String, Integer> counts = idCounts(request, NO_NAMES, true);
+        return new ReservedIds(stateToken, repo.reserveIds(idAllocator, counts), counts);
+    }
+
+    /** After a duplicate key: move the ID sequences past IDs inserted outside the builder. */
+    public void resyncIds(MetroLookupRepository repo) {
+        repo.resyncIds(idAllocator);
+    }
+
+    /** IDs reserved for one publish, and the database state token read just before. */
+    public record ReservedIds(Map<String, Long> stateToken, Map<String, Long> firstIds, Map<String, Integer> counts) {}
+
+    /** Plan with the reserved IDs, or (without a reservation) a preview. */
+    private PublishPlan planFor(AssessmentBuildRequest request, MetroLookupRepository repo, ReservedIds reserved) {
+        boolean reserveIds = reserved != null;
+        PublishPlan plan = new PublishPlan();
+        String truncatedName = truncate(safeTrim(request.assessmentName()), 30, plan.warnings());
+
+        // Lookups (group validation, name resolution, existing questionnaire) are reused from a
+        // recent preview of the same request as long as the database state token is unchanged;
+        // a publish re-checks them in its own transaction first
+        Map<String, Long> stateToken = reserveIds ? reserved.stateToken() : repo.peekIds(idAllocator);
+        PlanKey planKey = new PlanKey(repo.databaseKey(), request);
+        PlanLookups lookups = cachedLookups(planKey, stateToken);
+        if (lookups != null && reserveIds && !repo.lookupsStillValid(
+                lookups.resolved(), request.groupIds(), lookups.existingQuestionnaireId())) {
+            // Deleted or renamed since the preview (cleanup, orphan GC, Metro itself): look up again
+            log.info("Cached plan lookups for '{}' are stale, looking up again", request.assessmentName());
+            planCache.remove(planKey);
+            lookups = null;
+        }
+        plan.setLookupsCached(lookups != null);
+        if (lookups == null) {
+            lookups = lookup(request, truncatedName, repo);
+            // Only previews are cached: a publish reserves IDs, which changes the token anyway
+            if (!reserveIds) {
+                cacheLookups(planKey, stateToken, lookups);
+            }
+        }
+
+        // A preview numbers new rows provisionally from the state token
+        IdBlock ids = reserveIds ? new IdBlock(reserved.firstIds(), reserved.counts())
+                : new IdBlock(stateToken, idCounts(request, lookups.resolved(), lookups.existingQuestionnaireId() == null));
+        fillPlan(plan, request, truncatedName, lookups, ids, repo);
+        if (reserveIds) {
+            lockReusedRows(plan, repo);
+        }
+        return plan;
+    }
+
+    /**
+     * Start planning a bulk publish: groups are validated and names resolved once over the
+     * union of all requests, and a single ID block covering every request is reserved.
+     */
+    public BulkPlanning startBulk(List<AssessmentBuildRequest> requests, MetroLookupRepository repo) {
+        Set<Long> groupIds = new LinkedHashSet<>();
+        requests.forEach(request -> groupIds.addAll(request.groupIds()));
+        Set<Long> missingGroups = repo.findMissingGroupIds(new ArrayList<>(groupIds));
+
+        NameResolution resolved = resolveNames(requests, repo);
+        Map<String, Integer> idCounts = new HashMap<>();
+        for (AssessmentBuildRequest request : requests) {
+            idCounts(request, resolved, true).forEach((name, count) -> idCounts.merge(name, count, Integer::sum));
+        }
+        return new BulkPlanning(resolved, missingGroups, new IdBlock(repo.reserveIds(idAllocator, idCounts), idCounts));
+    }
+
+    /**
+     * Plan one request of a bulk publish against the shared lookups and ID block.
+     * Runs inside the item's transaction: the existing questionnaire (and in diff mode its
+     * current rows) is still looked up per request.
+     */
+    public PublishPlan buildPlan(AssessmentBuildRequest request, MetroLookupRepository repo, BulkPlanning bulk) {
+        PublishPlan plan = new PublishPlan();
+        String truncatedName = truncate(safeTrim(request.assessmentName()), 30, plan.warnings());
+
+        List<Long> missingGroups = request.groupIds().stream().filter(bulk.missingGroups::contains).toList();
         if (!missingGroups.isEmpty()) {
             throw new IllegalArgumentException(
                     "Group(s) with ID " + missingGroups + " do not exist in the target database.");
         }
+        PlanLookups lookups = new PlanLookups(bulk.resolved, existingQuestionnaireId(request, truncatedName, repo));
+        fillPlan(plan, request, truncatedName, lookups, bulk.ids, repo);
+        lockReusedRows(plan, repo);
+        return plan;
+    }
 
-        List<String> sql = new ArrayList<>();
-        List<String> warnings = new ArrayList<>();
+    /**
+     * Lock the existing categories, goals, competences and items a plan links to until the
+     * publish transaction ends, so the orphan collector cannot delete them and a re-publish or
+     * cleanup of another questionnaire cannot delete a reused item as exclusive (see
+     * {@link MetroLookupRepository#lockSharedItemIds}). Fails with 409 when one was deleted
+     * after the lookups.
+     */
+    private static void lockReusedRows(PublishPlan plan, MetroLookupRepository repo) {
+        Map<String, Collection<Long>> created = Map.of(
+                "categories", plan.createdNames().categories().values(),
+                "goals", plan.createdNames().goals().values(),
+                "competences", plan.createdNames().competences().values());
+        for (String table : List.of("categories", "goals", "competences", "items")) {
+            Set<Long> reused = new LinkedHashSet<>(plan.referencedIds(table));
+            reused.removeAll(created.getOrDefault(table, List.of()));
+            Set<Long> missing = repo.lockRows(table, reused);
+            if (!missing.isEmpty()) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "Rij(en) " + missing + " in " + table +
+                        " zijn tijdens het publiceren verwijderd. Probeer het opnieuw.");
+            }
+        }
+    }
+
+    private void fillPlan(PublishPlan plan, AssessmentBuildRequest request, String truncatedName,
+                          PlanLookups lookups, IdBlock ids, MetroLookupRepository repo) {
+        List<String> warnings = plan.warnings();
+        NameResolution resolved = lookups.resolved();
+        Long existingQuestionnaireId = lookups.existingQuestionnaireId();
 
-        // Local sequences — all fetched in a single query
-        Map<String, Long> maxIds = repo.getAllMaxIds();
-        long questionnaireSeq = maxIds.get("questionnaires") + 1;
-        long categorySeq = maxIds.get("categories") + 1;
-        long competenceSeq = maxIds.get("competences") + 1;
-        long goalSeq = maxIds.get("goals") + 1;
-        long itemSeq = maxIds.get("items") + 1;
-        long cqSeq = maxIds.get("cq") + 1;
+        // Declare all batches up-front in FK-safe execution order
+        PublishPlan.Batch deleteQuestionnaireItems = plan.batch("questionnaire_items",
+                "DELETE FROM questionnaire_items WHERE questionnaireId = ?");
+        PublishPlan.Batch deleteCompetenceQuestions = plan.batch("competence_questions",
+                "DELETE FROM competence_questions WHERE questionnaireId = ?");
+        PublishPlan.Batch deleteGroupQuestionnaires = plan.batch("group_questionnaires",
+                "DELETE FROM group_questionnaires WHERE questionnaireId = ?");
+        PublishPlan.Batch deleteQuestionnaireTranslations = plan.batch("questionnaire_translations",
+                "DELETE FROM questionnaire_translations WHERE questionnaireId = ?");
+        // Targeted deletes for items that are no longer part of the questionnaire
+        PublishPlan.Batch deleteItemTranslationsByItem = plan.batch("item_translations",
+                "DELETE FROM item_translations WHERE itemId = ?");
+        PublishPlan.Batch deleteCompetenceItemsByItem = plan.batch("competence_items",
+                "DELETE FROM competence_items WHERE itemId = ?");
+        PublishPlan.Batch deleteQuestionnaireItem = plan.batch("questionnaire_items",
+                "DELETE FROM questionnaire_items WHERE questionnaireId = ? AND itemId = ?");
+        PublishPlan.Batch deleteItem = plan.batch("items",
+                "DELETE FROM items WHERE id = ?");
+        PublishPlan.Batch deleteCompetenceQuestion = plan.batch("competence_questions",
+                "DELETE FROM competence_questions WHERE cq_id = ?");
+        PublishPlan.Batch deleteGroupQuestionnaire = plan.batch("group_questionnaires",
+                "DELETE FROM group_questionnaires WHERE groupId = ? AND questionnaireId = ?");
+        PublishPlan.Batch insertQuestionnaires = plan.batch("questionnaires",
+                "INSERT INTO questionnaires(id, name) VALUES (?, ?)");
+        PublishPlan.Batch updateQuestionnaires = plan.batch("questionnaires",
+                "UPDATE questionnaires SET name = ? WHERE id = ?");
+        PublishPlan.Batch updateQuestionnaireTranslations = plan.batch("questionnaire_translations",
+                "UPDATE questionnaire_translations SET name = ? WHERE questionnaireId = ? AND language = ?");
+        PublishPlan.Batch updateItems = plan.batch("items",
+                "UPDATE items SET name = ?, invertOrder = 0 WHERE id = ?");
+        PublishPlan.Batch updateItemTranslations = plan.batch("item_translations",
+                "UPDATE item_translations SET leftText = ?, rightText = ? WHERE itemId = ? AND language = ?");
+        PublishPlan.Batch updateQuestionnaireItems = plan.batch("questionnaire_items",
+                "UPDATE questionnaire_items SET `order` = ? WHERE questionnaireId = ? AND itemId = ?");
+        PublishPlan.Batch updateCompetenceQuestions = plan.batch("competence_questions",
+                "UPDATE competence_questions SET questionId = ? WHERE cq_id = ?");
+        PublishPlan.Batch insertQuestionnaireTranslations = plan.batch("questionnaire_translations",
+                "INSERT INTO questionnaire_translations(questionnaireId, language, name, questions, report) " +
+                "VALUES (?, ?, ?, NULL, NULL)");
+        PublishPlan.Batch insertCategories = plan.batch("categories",
+                "INSERT INTO categories(id, name) VALUES (?, ?)");
+        PublishPlan.Batch insertCategoryTranslations = plan.batch("category_translations",
+                "INSERT INTO category_translations(categoryId, language, name) VALUES (?, ?, ?)");
+        PublishPlan.Batch insertGoals = plan.batch("goals",
+                "INSERT INTO goals(id, name) VALUES (?, ?)");
+        PublishPlan.Batch insertGoalTranslations = plan.batch("goal_translations",
+                "INSERT INTO goal_translations(goalId, language, name) VALUES (?, ?, ?)");
+        PublishPlan.Batch insertCompetences = plan.batch("competences",
+                "INSERT INTO competences(id, name, description, defaultMinPassScore, defaultMinMentorScore) " +
+                "VALUES (?, ?, ?, NULL, NULL)");
+        PublishPlan.Batch insertCompetenceTranslations = plan.batch("competence_translations",
+                "INSERT INTO competence_translations(competenceId, language, name, description) VALUES (?, ?, ?, ?)");
+        PublishPlan.Batch insertCategoryCompetences = plan.batch("category_competences",
+                "INSERT IGNORE INTO category_competences (categoryId, competenceId) VALUES (?, ?)");
+        PublishPlan.Batch insertGoalCompetences = plan.batch("goal_competences",
+                "INSERT IGNORE INTO goal_competences (goalId, competenceId) VALUES (?, ?)");
+        PublishPlan.Batch insertItems = plan.batch("items",
+                "INSERT INTO items(id, name, invertOrder) VALUES (?, ?, 0)");
+        PublishPlan.Batch insertItemTranslations = plan.batch("item_translations",
+                "INSERT INTO item_translations(itemId, language, leftText, rightText) VALUES (?, ?, ?, ?)");
+        PublishPlan.Batch insertQuestionnaireItems = plan.batch("questionnaire_items",
+                "INSERT IGNORE INTO questionnaire_items (questionnaireId, itemId, `order`) VALUES (?, ?, ?)");
+        PublishPlan.Batch insertCompetenceItems = plan.batch("competence_items",
+                "INSERT IGNORE INTO competence_items (competenceId, itemId) VALUES (?, ?)");
+        PublishPlan.Batch insertCompetenceQuestions = plan.batch("competence_questions",
+                "INSERT INTO competence_questions (competenceId, questionnaireId, questionId, cq_id) VALUES (?, ?, ?, ?)");
+        // Group links are declared last by addGroupLinks(), one set-based statement per link table
 
         Map<String, Long> categoryIds = new HashMap<>();
         Map<String, Long> goalIds = new HashMap<>();
 
-        String assessmentName = safeTrim(request.assessmentName());
-        String truncatedName = truncate(assessmentName, 30, warnings);
-
-        // Determine questionnaire ID:
-        // 1. If editQuestionnaireId is set AND exists in target DB, use that (update)
-        // 2. Otherwise, look up by name (existing re-publish behavior)
-        // 3. Otherwise, create new
-        Long existingQuestionnaireId;
-        if (request.editQuestionnaireId() != null && repo.questionnaireExists(request.editQuestionnaireId())) {
-            existingQuestionnaireId = request.editQuestionnaireId();
-        } else {
-            existingQuestionnaireId = repo.findQuestionnaireIdByName(truncatedName).orElse(null);
-        }
-
         long questionnaireId;
-        if (existingQuestionnaireId != null) {
+        // Current rows of the questionnaire when re-publishing in diff mode, null otherwise
+        PublishedQuestionnaire published = null;
+        // Items a full re-publish deletes; they cannot be reused by the new questions
+        Set<Long> deletedItemIds = new HashSet<>();
+        if (existingQuestionnaireId != null && publishProperties.isDiffRepublish()) {
             questionnaireId = existingQuestionnaireId;
+            published = loadPublished(repo, questionnaireId);
 
-            // Clean up old items linked to this questionnaire (cascade delete)
-            sql.add("DELETE it FROM item_translations it " +
-                    "INNER JOIN questionnaire_items qi ON qi.itemId = it.itemId " +
-                    "WHERE qi.questionnaireId = " + questionnaireId + ";");
-            sql.add("DELETE ci FROM competence_items ci " +
-                    "INNER JOIN questionnaire_items qi ON qi.itemId = ci.itemId " +
-                    "WHERE qi.questionnaireId = " + questionnaireId + ";");
-            sql.add("DELETE i FROM items i " +
-                    "INNER JOIN questionnaire_items qi ON qi.itemId = i.id " +
-                    "WHERE qi.questionnaireId = " + questionnaireId + ";");
-            sql.add("DELETE FROM questionnaire_items WHERE questionnaireId = " + questionnaireId + ";");
-            sql.add("DELETE FROM competence_questions WHERE questionnaireId = " + questionnaireId + ";");
+            if (!truncatedName.equals(published.name)) {
+                updateQuestionnaires.add(truncatedName, questionnaireId);
+            }
+            // Only the names are refreshed; XML URLs stay until the S3 upload re-sets them
+            for (String language : LANGUAGES) {
+                if (!published.translationNames.containsKey(language)) {
+                    insertQuestionnaireTranslations.add(questionnaireId, language, truncatedName);
+                } else if (!truncatedName.equals(published.translationNames.get(language))) {
+                    updateQuestionnaireTranslations.add(truncatedName, questionnaireId, language);
+                }
+            }
+        } else if (existingQuestionnaireId != null) {
+            questionnaireId = existingQuestionnaireId;
+
+            // Clean up old items linked to this questionnaire; items that another questionnaire
+            // also uses are only unlinked
+            AssessmentDefinitionRepository definitions = repo.definitions();
+            List<Long> itemIds = definitions.findItemIdsForQuestionnaire(questionnaireId);
+            Set<Long> sharedItemIds = repo.lockSharedItemIds(itemIds, questionnaireId, questionnaireId);
+            deleteQuestionnaireItems.add(questionnaireId);
+            for (Long itemId : itemIds) {
+                if (!sharedItemIds.contains(itemId)) {
+                    deletedItemIds.add(itemId);
+                    deleteItemTranslationsByItem.add(itemId);
+                    deleteCompetenceItemsByItem.add(itemId);
+                    deleteItem.add(itemId);
+                }
+            }
+            deleteCompetenceQuestions.add(questionnaireId);
 
             // Clean up old group links for this questionnaire (will be re-inserted below)
-            sql.add("DELETE FROM group_questionnaires WHERE questionnaireId = " + questionnaireId + ";");
+            deleteGroupQuestionnaires.add(questionnaireId);
 
             // Refresh questionnaire translations (clears old XML URLs; S3 upload will re-set them)
-            sql.add("DELETE FROM questionnaire_translations WHERE questionnaireId = " + questionnaireId + ";");
-            sql.add("INSERT INTO questionnaire_translations(questionnaireId, language, name, questions, report) VALUES (" +
-                    questionnaireId + ", 'nl', '" + escape(truncatedName) + "', NULL, NULL);");
-            sql.add("INSERT INTO questionnaire_translations(questionnaireId, language, name, questions, report) VALUES (" +
-                    questionnaireId + ", 'en', '" + escape(truncatedName) + "', NULL, NULL);");
+            deleteQuestionnaireTranslations.add(questionnaireId);
+            insertQuestionnaireTranslations.add(questionnaireId, "nl", truncatedName);
+            insertQuestionnaireTranslations.add(questionnaireId, "en", truncatedName);
 
             // Also update the questionnaire name if it changed
-            sql.add("UPDATE questionnaires SET name = '" + escape(truncatedName) + "' WHERE id = " + questionnaireId + ";");
+            updateQuestionnaires.add(truncatedName, questionnaireId);
 
             warnings.add("Questionnaire '" + truncatedName + "' wordt bijgewerkt (ID: " + questionnaireId +
                     "). Oude items verwijderd, nieuwe worden aangemaakt.");
         } else {
-            questionnaireId = questionnaireSeq++;
-            sql.add("INSERT INTO questionnaires(id, name) VALUES (" + questionnaireId + ", '" + escape(truncatedName) + "');");
-            sql.add("INSERT INTO questionnaire_translations(questionnaireId, language, name, questions, report) VALUES (" +
-                    questionnaireId + ", 'nl', '" + escape(truncatedName) + "', NULL, NULL);");
-            sql.add("INSERT INTO questionnaire_translations(questionnaireId, language, name, questions, report) VALUES (" +
-                    questionnaireId + ", 'en', '" + escape(truncatedName) + "', NULL, NULL);");
+            questionnaireId = ids.next("questionnaires");
+            plan.setNewQuestionnaire(true);
+            insertQuestionnaires.add(questionnaireId, truncatedName);
+            insertQuestionnaireTranslations.add(questionnaireId, "nl", truncatedName);
+            insertQuestionnaireTranslations.add(questionnaireId, "en", truncatedName);
         }
 
         long newCompetenceCount = 0;
         long newCategoryCount = 0;
         long newGoalCount = 0;
         long newItemCount = 0;
+        long reusedItemCount = 0;
+        long changedItemCount = 0;
         int itemOrder = 0;
 
         // Track section numbers for competence_questions questionId (matches XML section numbering)
@@ -112,22 +345,30 @@ public class MetroIntegrationService {
         Map<String, Integer> sectionQuestionCounters = new HashMap<>();
         int nextSectionNumber = 1;
 
+        // Items of the request's existing competences by content hash: identical questions link
+        // to the existing item instead of inserting a copy. In diff mode the questionnaire's own items
+        // are matched above and stay out of the index; a full re-publish unlinks them all first.
+        ItemIndex itemIndex = loadItemIndex(repo, request, resolved,
+                published != null ? existingQuestionnaireId : null, deletedItemIds);
+
         for (CompetenceInput input : request.competences()) {
             String categoryName = safeTrim(input.category());
             String subcategoryName = safeTrim(input.subcategory());
 
+            // Sections follow the XML (per lower-cased name), rows the database collation
             String categoryKey = categoryName.toLowerCase(Locale.ROOT);
-            Long categoryId = categoryIds.get(categoryKey);
+            Long categoryId = categoryIds.get(NameResolution.key(categoryName));
             if (categoryId == null) {
-                categoryId = repo.findCategoryIdByName(categoryName).orElse(null);
+                categoryId = resolved.categoryId(categoryName);
                 if (categoryId == null) {
-                    categoryId = categorySeq++;
-                    sql.add("INSERT INTO categories(id, name) VALUES (" + categoryId + ", '" + escape(categoryName) + "');");
-                    sql.add("INSERT INTO category_translations(categoryId, language, name) VALUES (" + categoryId + ", 'nl', '" + escape(categoryName) + "');");
-                    sql.add("INSERT INTO category_translations(categoryId, language, name) VALUES (" + categoryId + ", 'en', '" + escape(categoryName) + "');");
+                    categoryId = ids.next("categories");
+                    plan.createdNames().categories().put(NameResolution.key(categoryName), categoryId);
+                    insertCategories.add(categoryId, categoryName);
+                    insertCategoryTranslations.add(categoryId, "nl", categoryName);
+                    insertCategoryTranslations.add(categoryId, "en", categoryName);
                     newCategoryCount++;
                 }
-                categoryIds.put(categoryKey, categoryId);
+                categoryIds.put(NameResolution.key(categoryName), categoryId);
             }
             // Track section number for this category (for questionId in competence_questions)
             if (!categorySections.containsKey(categoryKey)) {
@@ -137,47 +378,39 @@ public class MetroIntegrationService {
 
             Long goalId = null;
             if (!subcategoryName.isBlank()) {
-                String goalKey = subcategoryName.toLowerCase(Locale.ROOT);
+                String goalKey = NameResolution.key(subcategoryName);
                 goalId = goalIds.get(goalKey);
                 if (goalId == null) {
-                    goalId = repo.findGoalIdByName(subcategoryName).orElse(null);
+                    goalId = resolved.goalId(subcategoryName);
                     if (goalId == null) {
-                        goalId = goalSeq++;
-                        sql.add("INSERT INTO goals(id, name) VALUES (" + goalId + ", '" + escape(subcategoryName) + "');");
-                        sql.add("INSERT INTO goal_translations(goalId, language, name) VALUES (" + goalId + ", 'nl', '" + escape(subcategoryName) + "');");
-                        sql.add("INSERT INTO goal_translations(goalId, language, name) VALUES (" + goalId + ", 'en', '" + escape(subcategoryName) + "');");
+                        goalId = ids.next("goals");
+                        plan.createdNames().goals().put(NameResolution.key(subcategoryName), goalId);
+                        insertGoals.add(goalId, subcategoryName);
+                        insertGoalTranslations.add(goalId, "nl", subcategoryName);
+                        insertGoalTranslations.add(goalId, "en", subcategoryName);
                         newGoalCount++;
                     }
                     goalIds.put(goalKey, goalId);
                 }
             }
 
-            Long competenceId = input.existingId();
-            // Verify existingId actually exists in target DB (may differ between test/prod)
-            if (competenceId != null && !repo.competenceExists(competenceId)) {
-                competenceId = null;
-            }
-            if (competenceId == null) {
-                competenceId = repo.findCompetenceIdByName(input.name()).orElse(null);
-            }
+            Long competenceId = existingCompetenceId(input, resolved);
 
             if (competenceId == null && (input.isNew() || input.existingId() != null)) {
-                competenceId = competenceSeq++;
+                competenceId = ids.next("competences");
                 String competenceName = safeTrim(input.name());
                 String description = safeTrim(input.description());
                 String nameEn = safeTrim(input.nameEn());
                 String descriptionEn = safeTrim(input.descriptionEn());
+                plan.createdNames().competences().put(NameResolution.key(competenceName), competenceId);
+                plan.createdNames().existingCompetenceIds().add(competenceId);
 
-                sql.add("INSERT INTO competences(id, name, description, defaultMinPassScore, defaultMinMentorScore) VALUES (" +
-                        competenceId + ", '" + escape(competenceName) + "', " + nullOrQuoted(description) + ", NULL, NULL);");
-
-                sql.add("INSERT INTO competence_translations(competenceId, language, name, description) VALUES (" +
-                        competenceId + ", 'nl', '" + escape(competenceName) + "', " + nullOrQuoted(description) + ");");
+                insertCompetences.add(competenceId, competenceName, nullIfBlank(description));
+                insertCompetenceTranslations.add(competenceId, "nl", competenceName, nullIfBlank(description));
 
                 String effectiveEnName = nameEn.isBlank() ? competenceName : nameEn;
                 String effectiveEnDescription = descriptionEn.isBlank() ? description : descriptionEn;
-                sql.add("INSERT INTO competence_translations(competenceId, language, name, description) VALUES (" +
-                        competenceId + ", 'en', '" + escape(effectiveEnName) + "', " + nullOrQuoted(effectiveEnDescription) + ");");
+                insertCompetenceTranslations.add(competenceId, "en", effectiveEnName, nullIfBlank(effectiveEnDescription));
                 newCompetenceCount++;
             }
 
@@ -186,10 +419,13 @@ public class MetroIntegrationService {
                 continue;
             }
 
-            sql.add("INSERT IGNORE INTO category_competences (categoryId, competenceId) VALUES (" + categoryId + ", " + competenceId + ");");
+            plan.referencedIds("competences").add(competenceId);
+            if (published == null || !published.categoryCompetences.contains(categoryId + ":" + competenceId)) {
+                insertCategoryCompetences.add(categoryId, competenceId);
+            }
 
             if (goalId != null) {
-                sql.add("INSERT IGNORE INTO goal_competences (goalId, competenceId) VALUES (" + goalId + ", " + competenceId + ");");
+                insertGoalCompetences.add(goalId, competenceId);
             }
 
             // Create item for this competence
@@ -199,65 +435,575 @@ public class MetroIntegrationService {
             String questionRightEn = safeTrim(input.questionRightEn());
 
             if (!questionLeft.isBlank() || !questionRight.isBlank()) {
-                long itemId = itemSeq++;
                 String itemName = safeTrim(input.name()) + "_item";
 
-                sql.add("INSERT INTO items(id, name, invertOrder) VALUES (" + itemId + ", '" + escape(itemName) + "', 0);");
-
                 String effectiveLeftNl = questionLeft.isBlank() ? questionRight : questionLeft;
                 String effectiveRightNl = questionRight.isBlank() ? questionLeft : questionRight;
                 String effectiveLeftEn = questionLeftEn.isBlank() ? effectiveLeftNl : questionLeftEn;
                 String effectiveRightEn = questionRightEn.isBlank() ? effectiveRightNl : questionRightEn;
-
-                sql.add("INSERT INTO item_translations(itemId, language, leftText, rightText) VALUES (" +
-                        itemId + ", 'nl', '" + escape(effectiveLeftNl) + "', '" + escape(effectiveRightNl) + "');");
-                sql.add("INSERT INTO item_translations(itemId, language, leftText, rightText) VALUES (" +
-                        itemId + ", 'en', '" + escape(effectiveLeftEn) + "', '" + escape(effectiveRightEn) + "');");
+                Map<String, String[]> texts = Map.of(
+                        "nl", new String[]{effectiveLeftNl, effectiveRightNl},
+                        "en", new String[]{effectiveLeftEn, effectiveRightEn});
 
                 itemOrder++;
-                sql.add("INSERT IGNORE INTO questionnaire_items (questionnaireId, itemId, `order`) VALUES (" +
-                        questionnaireId + ", " + itemId + ", " + itemOrder + ");");
 
-                sql.add("INSERT IGNORE INTO competence_items (competenceId, itemId) VALUES (" + competenceId + ", " + itemId + ");");
+                PublishedItem existingItem = published != null ? published.takeItem(competenceId) : null;
+                boolean sharedItem = existingItem != null && published.sharedItemIds.contains(existingItem.itemId());
+                if (sharedItem && !existingItem.hasTexts(texts)) {
+                    // Another questionnaire uses this item too: relink instead of changing its text there
+                    deleteQuestionnaireItem.add(questionnaireId, existingItem.itemId());
+                    published.unlinkedSharedItemCount++;
+                    existingItem = null;
+                }
+                if (existingItem != null) {
+                    // Keep the item ID; only write the columns that differ
+                    long itemId = existingItem.itemId();
+                    boolean changed = false;
+                    if (!sharedItem && (!itemName.equals(existingItem.name()) || existingItem.invertOrder() != 0)) {
+                        updateItems.add(itemName, itemId);
+                        changed = true;
+                    }
+                    for (String language : LANGUAGES) {
+                        String[] text = texts.get(language);
+                        AssessmentDefinitionRepository.ItemTranslationRow current = existingItem.translations().get(language);
+                        if (current == null) {
+                            insertItemTranslations.add(itemId, language, text[0], text[1]);
+                            changed = true;
+                        } else if (!text[0].equals(current.leftText()) || !text[1].equals(current.rightText())) {
+                            updateItemTranslations.add(text[0], text[1], itemId, language);
+                            changed = true;
+                        }
+                    }
+                    if (existingItem.order() != itemOrder) {
+                        updateQuestionnaireItems.add(itemOrder, questionnaireId, itemId);
+                        changed = true;
+                    }
+                    if (changed) {
+                        changedItemCount++;
+                    }
+                } else {
+                    Long reusedItemId = itemIndex.take(competenceId, ItemContentHash.of(0, texts));
+                    if (reusedItemId != null) {
+                        insertQuestionnaireItems.add(questionnaireId, reusedItemId, itemOrder);
+                        plan.referencedIds("items").add(reusedItemId);
+                        reusedItemCount++;
+                    } else {
+                        long itemId = ids.next("items");
+                        insertItems.add(itemId, itemName);
+                        for (String language : LANGUAGES) {
+                            String[] text = texts.get(language);
+                            insertItemTranslations.add(itemId, language, text[0], text[1]);
+                        }
+                        insertQuestionnaireItems.add(questionnaireId, itemId, itemOrder);
+                        insertCompetenceItems.add(competenceId, itemId);
+                        newItemCount++;
+                    }
+                }
 
                 // Link competence to question for Metro scoring (competence_questions)
                 int sectionNum = categorySections.get(categoryKey);
                 int questionInSection = sectionQuestionCounters.get(categoryKey) + 1;
                 sectionQuestionCounters.put(categoryKey, questionInSection);
                 String questionId = sectionNum + "." + questionInSection + ".";
-                sql.add("INSERT INTO competence_questions (competenceId, questionnaireId, questionId, cq_id) VALUES (" +
-                        competenceId + ", " + questionnaireId + ", '" + escape(questionId) + "', " + cqSeq++ + ");");
-
-                newItemCount++;
+                AssessmentDefinitionRepository.CompetenceQuestionRow existingQuestion =
+                        published != null ? published.takeQuestion(competenceId) : null;
+                if (existingQuestion == null) {
+                    insertCompetenceQuestions.add(competenceId, questionnaireId, questionId, ids.next("cq"));
+                } else if (!questionId.equals(existingQuestion.questionId())) {
+                    updateCompetenceQuestions.add(questionId, existingQuestion.cqId());
+                }
             }
         }
 
-        // Link questionnaire, categories and goals to all selected groups
-        for (Long groupId : request.groupIds()) {
-            sql.add("INSERT IGNORE INTO group_questionnaires (groupId, questionnaireId, promoted, price) VALUES (" +
-                    groupId + ", " + questionnaireId + ", 0, 0.00);");
-            for (Long catId : categoryIds.values()) {
-                // group_categories has no UNIQUE constraint, so INSERT IGNORE won't prevent duplicates.
-                // Use WHERE NOT EXISTS to avoid creating duplicate rows on re-publish.
-                sql.add("INSERT INTO group_categories (groupId, categoryId) " +
-                        "SELECT " + groupId + ", " + catId + " FROM DUAL " +
-                        "WHERE NOT EXISTS (SELECT 1 FROM group_categories WHERE groupId = " + groupId + " AND categoryId = " + catId + ");");
+        if (published != null) {
+            // Whatever was not matched no longer belongs to the questionnaire
+            List<Long> removedItemIds = published.remainingItemIds();
+            for (Long itemId : removedItemIds) {
+                deleteQuestionnaireItem.add(questionnaireId, itemId);
+                if (!published.sharedItemIds.contains(itemId)) {
+                    deleteItemTranslationsByItem.add(itemId);
+                    deleteCompetenceItemsByItem.add(itemId);
+                    deleteItem.add(itemId);
+                }
             }
-            for (Long gId : goalIds.values()) {
-                sql.add("INSERT INTO group_goals (groupId, goalId) " +
-                        "SELECT " + groupId + ", " + gId + " FROM DUAL " +
-                        "WHERE NOT EXISTS (SELECT 1 FROM group_goals WHERE groupId = " + groupId + " AND goalId = " + gId + ");");
+            for (Long cqId : published.remainingQuestionIds()) {
+                deleteCompetenceQuestion.add(cqId);
             }
+            for (Long groupId : published.groupIds) {
+                if (!request.groupIds().contains(groupId)) {
+                    deleteGroupQuestionnaire.add(groupId, questionnaireId);
+                }
+            }
+            warnings.add("Questionnaire '" + truncatedName + "' wordt bijgewerkt (ID: " + questionnaireId + "): " +
+                    changedItemCount + " items gewijzigd, " + newItemCount + " nieuw, " +
+                    reusedItemCount + " hergebruikt, " +
+                    (removedItemIds.size() + published.unlinkedSharedItemCount) + " verwijderd.");
         }
 
-        IntegrationPreviewResponse.Summary summary = new IntegrationPreviewResponse.Summary(
+        // Link questionnaire, categories and goals to all selected groups
+        Set<Long> groupIds = new LinkedHashSet<>(request.groupIds());
+        Set<Long> newGroupIds = new LinkedHashSet<>(groupIds);
+        if (published != null) {
+            newGroupIds.removeAll(published.groupIds);
+        }
+        addGroupLinks(plan, questionnaireId, newGroupIds, groupIds, categoryIds.values(), goalIds.values());
+        plan.referencedIds("groups").addAll(groupIds);
+        plan.referencedIds("categories").addAll(categoryIds.values());
+        plan.referencedIds("goals").addAll(goalIds.values());
+
+        plan.setSummary(new IntegrationPreviewResponse.Summary(
                 newCompetenceCount,
                 newCategoryCount,
                 newGoalCount,
                 questionnaireId,
-                newItemCount
-        );
-        return new IntegrationPreviewResponse(sql, warnings, summary);
+                newItemCount,
+                reusedItemCount
+        ));
+    }
+
+    /**
+     * Plan linking an already published questionnaire to additional groups, without re-publishing
+     * it: the questionnaire plus the categories and goals of its competences are linked through
+     * the same set-based statements a publish uses. Links that already exist are left alone.
+     */
+    public PublishPlan buildGroupAssignmentPlan(long questionnaireId, List<Long> groupIds, MetroLookupRepository repo) {
+        if (!repo.questionnaireExists(questionnaireId)) {
+            throw new IllegalArgumentException(
+                    "Questionnaire with ID " + questionnaireId + " does not exist in the target database.");
+        }
+        var missingGroups = repo.findMissingGroupIds(groupIds);
+        if (!missingGroups.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Group(s) with ID " + missingGroups + " do not exist in the target database.");
+        }
+        PublishPlan plan = new PublishPlan();
+        Set<Long> groups = new LinkedHashSet<>(groupIds);
+        addGroupLinks(plan, questionnaireId, groups, groups,
+                repo.findCategoryIdsForQuestionnaire(questionnaireId), repo.findGoalIdsForQuestionnaire(questionnaireId));
+        plan.setSummary(new IntegrationPreviewResponse.Summary(0, 0, 0, questionnaireId, 0, 0));
+        return plan;
+    }
+
+    /**
+     * Declare the group link statements: per link table one INSERT ... SELECT over the
+     * groups × ids cross product, anti-joined against the existing rows. group_categories and
+     * group_goals have no UNIQUE constraint, so the NOT EXISTS is what prevents duplicates.
+     * The statement count stays fixed however many groups, categories and goals are involved.
+     *
+     * @param questionnaireGroupIds groups to link the questionnaire itself to
+     * @param groupIds groups to link the categories and goals to
+     */
+    private static void addGroupLinks(PublishPlan plan, long questionnaireId, Collection<Long> questionnaireGroupIds,
+                                      Collection<Long> groupIds, Collection<Long> categoryIds, Collection<Long> goalIds) {
+        if (!questionnaireGroupIds.isEmpty()) {
+            List<Object> params = new ArrayList<>();
+            params.add(questionnaireId);
+            params.addAll(questionnaireGroupIds);
+            params.add(questionnaireId);
+            plan.batch("group_questionnaires",
+                    "INSERT INTO group_questionnaires (groupId, questionnaireId, promoted, price) " +
+                    "SELECT g.id, ?, 0, 0.00 FROM `groups` g WHERE g.id IN (" + placeholders(questionnaireGroupIds.size()) + ") " +
+                    "AND NOT EXISTS (SELECT 1 FROM group_questionnaires l WHERE l.groupId = g.id AND l.questionnaireId = ?)")
+                    .add(params.toArray());
+        }
+        linkGroups(plan, "group_categories", "categoryId", "categories", groupIds, categoryIds);
+        linkGroups(plan, "group_goals", "goalId", "goals", groupIds, goalIds);
+    }
+
+    private static void linkGroups(PublishPlan plan, String table, String column, String targetTable,
+                                   Collection<Long> groupIds, Collection<Long> ids) {
+        if (groupIds.isEmpty() || ids.isEmpty()) {
+            return;
+        }
+        Set<Long> distinctIds = new LinkedHashSet<>(ids);
+        List<Object> params = new ArrayList<>(groupIds);
+        params.addAll(distinctIds);
+        plan.batch(table,
+                "INSERT INTO " + table + " (groupId, " + column + ") " +
+                "SELECT g.id, t.id FROM `groups` g CROSS JOIN " + targetTable + " t " +
+                "WHERE g.id IN (" + placeholders(groupIds.size()) + ") AND t.id IN (" + placeholders(distinctIds.size()) + ") " +
+                "AND NOT EXISTS (SELECT 1 FROM " + table + " l WHERE l.groupId = g.id AND l." + column + " = t.id)")
+                .add(params.toArray());
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    /**
+     * Load the current rows of a questionnaire so a re-publish can be diffed against them.
+     * Items are matched to the request by competence, in questionnaire order.
+     */
+    private PublishedQuestionnaire loadPublished(MetroLookupRepository repo, long questionnaireId) {
+        AssessmentDefinitionRepository definitions = repo.definitions();
+        PublishedQuestionnaire published = new PublishedQuestionnaire(
+                definitions.findQuestionnaireById(questionnaireId)
+                        .map(AssessmentDefinitionRepository.QuestionnaireRow::name).orElse(null),
+                definitions.findGroupIdsForQuestionnaire(questionnaireId));
+
+        for (AssessmentDefinitionRepository.QuestionnaireTranslationRow row
+                : definitions.findQuestionnaireTranslations(questionnaireId)) {
+            published.translationNames.put(row.language(), row.name());
+        }
+
+        Map<Long, Map<String, AssessmentDefinitionRepository.ItemTranslationRow>> translations = new LinkedHashMap<>();
+        for (AssessmentDefinitionRepository.ItemTranslationRow row
+                : definitions.findItemTranslationsForQuestionnaire(questionnaireId)) {
+            translations.computeIfAbsent(row.itemId(), id -> new HashMap<>()).put(row.language(), row);
+        }
+
+        // The details join yields one row per category link, so an item can appear more than once
+        Set<Long> seen = new HashSet<>();
+        for (AssessmentDefinitionRepository.ItemDetailRow row
+                : definitions.findQuestionnaireItemsWithDetails(questionnaireId)) {
+            published.categoryCompetences.add(row.categoryId() + ":" + row.competenceId());
+            if (seen.add(row.itemId())) {
+                published.itemsByCompetence.computeIfAbsent(row.competenceId(), id -> new ArrayDeque<>())
+                        .add(new PublishedItem(row.itemId(), row.itemName(), row.invertOrder(), row.itemOrder(),
+                                translations.getOrDefault(row.itemId(), Map.of())));
+            }
+        }
+        // Items without a competence link cannot be matched and are removed
+        for (Long itemId : translations.keySet()) {
+            if (!seen.contains(itemId)) {
+                published.unlinkedItemIds.add(itemId);
+            }
+        }
+
+        published.sharedItemIds.addAll(repo.lockSharedItemIds(
+                definitions.findItemIdsForQuestionnaire(questionnaireId), questionnaireId, questionnaireId));
+
+        for (AssessmentDefinitionRepository.CompetenceQuestionRow row
+                : definitions.findCompetenceQuestions(questionnaireId)) {
+            published.questionsByCompetence.computeIfAbsent(row.competenceId(), id -> new ArrayDeque<>()).add(row);
+        }
+        return published;
+    }
+
+    private record PublishedItem(long itemId, String name, int invertOrder, int order,
+                                 Map<String, AssessmentDefinitionRepository.ItemTranslationRow> translations) {
+
+        boolean hasTexts(Map<String, String[]> texts) {
+            for (String language : LANGUAGES) {
+                AssessmentDefinitionRepository.ItemTranslationRow current = translations.get(language);
+                String[] text = texts.get(language);
+                if (current == null || !text[0].equals(current.leftText()) || !text[1].equals(current.rightText())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Current state of a questionnaire being re-published. Items and competence_questions
+     * rows are taken out as the request claims them; what remains afterwards gets deleted.
+     */
+    private static final class PublishedQuestionnaire {
+        final String name;
+        final Set<Long> groupIds;
+        final Map<String, String> translationNames = new HashMap<>();
+        final Set<String> categoryCompetences = new HashSet<>();
+        final Map<Long, Deque<PublishedItem>> itemsByCompetence = new LinkedHashMap<>();
+        final List<Long> unlinkedItemIds = new ArrayList<>();
+        /** Items that other questionnaires use as well: never updated or deleted, only unlinked. */
+        final Set<Long> sharedItemIds = new HashSet<>();
+        int unlinkedSharedItemCount;
+        final Map<Long, Deque<AssessmentDefinitionRepository.CompetenceQuestionRow>> questionsByCompetence =
+                new LinkedHashMap<>();
+
+        PublishedQuestionnaire(String name, List<Long> groupIds) {
+            this.name = name;
+            this.groupIds = new LinkedHashSet<>(groupIds);
+        }
+
+        PublishedItem takeItem(long competenceId) {
+            Deque<PublishedItem> items = itemsByCompetence.get(competenceId);
+            return items == null ? null : items.pollFirst();
+        }
+
+        AssessmentDefinitionRepository.CompetenceQuestionRow takeQuestion(long competenceId) {
+            Deque<AssessmentDefinitionRepository.CompetenceQuestionRow> rows = questionsByCompetence.get(competenceId);
+            return rows == null ? null : rows.pollFirst();
+        }
+
+        List<Long> remainingItemIds() {
+            List<Long> ids = new ArrayList<>(unlinkedItemIds);
+            itemsByCompetence.values().forEach(items -> items.forEach(item -> ids.add(item.itemId())));
+            return ids;
+        }
+
+        List<Long> remainingQuestionIds() {
+            List<Long> ids = new ArrayList<>();
+            questionsByCompetence.values().forEach(rows -> rows.forEach(row -> ids.add(row.cqId())));
+            return ids;
+        }
+    }
+
+    /** The existing competence an input refers to: its verified existingId, else a name match. */
+    private static Long existingCompetenceId(CompetenceInput input, NameResolution resolved) {
+        Long competenceId = input.existingId();
+        // Verify existingId actually exists in target DB (may differ between test/prod)
+        if (competenceId != null && !resolved.competenceExists(competenceId)) {
+            competenceId = null;
+        }
+        if (competenceId == null) {
+            competenceId = resolved.competenceId(input.name());
+        }
+        return competenceId;
+    }
+
+    /**
+     * Index the items already linked to the request's existing competences by content hash,
+     * computed from their current texts (so items edited outside the builder never match on
+     * stale content). Items of {@code questionnaireId} (diff re-publish) and {@code excludedItemIds}
+     * (deleted by a full re-publish) are left out.
+     */
+    private ItemIndex loadItemIndex(MetroLookupRepository repo, AssessmentBuildRequest request,
+                                    NameResolution resolved, Long questionnaireId, Set<Long> excludedItemIds) {
+        Set<Long> competenceIds = new LinkedHashSet<>();
+        for (CompetenceInput input : request.competences()) {
+            Long competenceId = existingCompetenceId(input, resolved);
+            if (competenceId != null) {
+                competenceIds.add(competenceId);
+            }
+        }
+        ItemIndex index = new ItemIndex();
+        if (competenceIds.isEmpty()) {
+            return index;
+        }
+        Map<Long, Map<String, String[]>> texts = new LinkedHashMap<>();
+        Map<Long, Integer> invertOrders = new HashMap<>();
+        Map<Long, Set<Long>> competencesByItem = new HashMap<>();
+        for (AssessmentDefinitionRepository.CompetenceItemTextRow row
+                : repo.definitions().findItemTextsForCompetences(new ArrayList<>(competenceIds), questionnaireId)) {
+            if (excludedItemIds.contains(row.itemId())) {
+                continue;
+            }
+            texts.computeIfAbsent(row.itemId(), id -> new HashMap<>())
+                    .put(row.language(), new String[]{row.leftText(), row.rightText()});
+            invertOrders.put(row.itemId(), row.invertOrder());
+            competencesByItem.computeIfAbsent(row.itemId(), id -> new HashSet<>()).add(row.competenceId());
+        }
+        texts.forEach((itemId, itemTexts) -> {
+            String hash = ItemContentHash.of(invertOrders.get(itemId), itemTexts);
+            competencesByItem.get(itemId).forEach(competenceId -> index.add(competenceId, hash, itemId));
+        });
+        return index;
+    }
+
+    /**
+     * Existing items per competence and content hash, oldest first. Each item is handed out once
+     * per plan, so a questionnaire never links the same item twice.
+     */
+    private static final class ItemIndex {
+        private final Map<Long, Map<String, Deque<Long>>> items = new HashMap<>();
+
+        void add(long competenceId, String hash, long itemId) {
+            items.computeIfAbsent(competenceId, id -> new HashMap<>())
+                    .computeIfAbsent(hash, h -> new ArrayDeque<>()).add(itemId);
+        }
+
+        Long take(long competenceId, String hash) {
+            Deque<Long> candidates = items.getOrDefault(competenceId, Map.of()).get(hash);
+            if (candidates == null) return null;
+            Long itemId = candidates.pollFirst();
+            if (itemId == null) return null;
+            // The same item can be indexed under several competences
+            items.values().forEach(byHash -> byHash.values().forEach(ids -> ids.remove(itemId)));
+            return itemId;
+        }
+    }
+
+    /**
+     * All lookup queries a plan depends on besides the ID sequences.
+     */
+    private PlanLookups lookup(AssessmentBuildRequest request, String truncatedName, MetroLookupRepository repo) {
+        // Validate all groups exist in target database (single query)
+        var missingGroups = repo.findMissingGroupIds(request.groupIds());
+        if (!missingGroups.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Group(s) with ID " + missingGroups + " do not exist in the target database.");
+        }
+
+        // Resolve all names and IDs up-front in a few set-based queries
+        NameResolution resolved = resolveNames(List.of(request), repo);
+        return new PlanLookups(resolved, existingQuestionnaireId(request, truncatedName, repo));
+    }
+
+    private Long existingQuestionnaireId(AssessmentBuildRequest request, String truncatedName,
+                                         MetroLookupRepository repo) {
+        // Determine questionnaire ID:
+        // 1. If editQuestionnaireId is set AND exists in target DB, use that (update)
+        // 2. Otherwise, look up by name (existing re-publish behavior)
+        // 3. Otherwise, create new
+        if (request.editQuestionnaireId() != null && repo.questionnaireExists(request.editQuestionnaireId())) {
+            return request.editQuestionnaireId();
+        }
+        return repo.findQuestionnaireIdByName(truncatedName).orElse(null);
+    }
+
+    /**
+     * Forget the cached lookups for one database, after rows were deleted outside a publish
+     * (cleanup, orphan GC): the state token only sees new rows.
+     */
+    public void evictLookups(String databaseKey) {
+        planCache.keySet().removeIf(key -> key.database().equals(databaseKey));
+    }
+
+    private PlanLookups cachedLookups(PlanKey key, Map<String, Long> stateToken) {
+        if (publishProperties.getPlanCacheTtlSeconds() <= 0) {
+            return null;
+        }
+        CachedLookups cached = planCache.get(key);
+        if (cached == null || cached.expiresAt() < System.currentTimeMillis()) {
+            return null;
+        }
+        if (!cached.stateToken().equals(stateToken)) {
+            // Something was published in between: names or IDs may resolve differently now
+            planCache.remove(key, cached);
+            return null;
+        }
+        log.debug("Reusing plan lookups for '{}'", key.request().assessmentName());
+        return cached.lookups();
+    }
+
+    private void cacheLookups(PlanKey key, Map<String, Long> stateToken, PlanLookups lookups) {
+        long ttlMs = publishProperties.getPlanCacheTtlSeconds() * 1000L;
+        if (ttlMs <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        planCache.values().removeIf(c -> c.expiresAt() < now);
+        if (planCache.size() >= PLAN_CACHE_MAX_ENTRIES) {
+            planCache.clear();
+        }
+        planCache.put(key, new CachedLookups(lookups, Map.copyOf(stateToken), now + ttlMs));
+    }
+
+    /** Target database plus the full request content (records compare by value). */
+    private record PlanKey(String database, AssessmentBuildRequest request) {}
+
+    private record PlanLookups(NameResolution resolved, Long existingQuestionnaireId) {}
+
+    private record CachedLookups(PlanLookups lookups, Map<String, Long> stateToken, long expiresAt) {}
+
+    /** Reserved ID ranges per sequence, handed out in order; running past a range is a bug. */
+    private static final class IdBlock {
+        private final Map<String, Long> next = new HashMap<>();
+        private final Map<String, Integer> counts;
+        private final Map<String, Long> firstIds;
+
+        IdBlock(Map<String, Long> firstIds, Map<String, Integer> counts) {
+            this.firstIds = firstIds;
+            this.counts = counts;
+        }
+
+        long next(String sequence) {
+            long first = firstIds.getOrDefault(sequence, 0L);
+            long id = next.getOrDefault(sequence, first);
+            if (id - first >= counts.getOrDefault(sequence, 0)) {
+                throw new IllegalStateException("ID block for '" + sequence + "' exceeded: reserved " + counts.get(sequence));
+            }
+            next.put(sequence, id + 1);
+            return id;
+        }
+
+        Map<String, Long> position() {
+            return Map.copyOf(next);
+        }
+
+        void rewind(Map<String, Long> position) {
+            next.clear();
+            next.putAll(position);
+        }
+    }
+
+    /**
+     * Shared planning state of one bulk publish: the union lookups, the groups missing from the
+     * target database and the ID block all requests draw from.
+     */
+    public static final class BulkPlanning {
+        private final Set<Long> missingGroups;
+        private final IdBlock ids;
+        private NameResolution resolved;
+
+        private BulkPlanning(NameResolution resolved, Set<Long> missingGroups, IdBlock ids) {
+            this.resolved = resolved;
+            this.missingGroups = missingGroups;
+            this.ids = ids;
+        }
+
+        /** Let later requests reuse the categories, goals and competences an executed plan created. */
+        public void accept(PublishPlan plan) {
+            resolved = resolved.plus(plan.createdNames());
+        }
+
+        /** Current names and ID positions, to return to when the following plans get rolled back. */
+        public Checkpoint checkpoint() {
+            return new Checkpoint(resolved, ids.position());
+        }
+
+        /**
+         * Forget the names accepted since {@code checkpoint} and hand out its IDs again: the
+         * rows that used them were rolled back, and the block is reserved for this batch only.
+         */
+        public void rollback(Checkpoint checkpoint) {
+            resolved = checkpoint.resolved();
+            ids.rewind(checkpoint.idPositions());
+        }
+
+        public record Checkpoint(NameResolution resolved, Map<String, Long> idPositions) {}
+    }
+
+    /**
+     * Upper bound of new IDs per sequence: every unresolved category/goal name and every
+     * competence with question text may need a fresh row.
+     */
+    private Map<String, Integer> idCounts(AssessmentBuildRequest request, NameResolution resolved,
+                                          boolean newQuestionnaire) {
+        Set<String> newCategories = new HashSet<>();
+        Set<String> newGoals = new HashSet<>();
+        int items = 0;
+        for (CompetenceInput input : request.competences()) {
+            String category = safeTrim(input.category());
+            if (resolved.categoryId(category) == null) {
+                newCategories.add(NameResolution.key(category));
+            }
+            String goal = safeTrim(input.subcategory());
+            if (!goal.isBlank() && resolved.goalId(goal) == null) {
+                newGoals.add(NameResolution.key(goal));
+            }
+            if (!safeTrim(input.questionLeft()).isBlank() || !safeTrim(input.questionRight()).isBlank()) {
+                items++;
+            }
+        }
+        Map<String, Integer> counts = new HashMap<>();
+        counts.put("questionnaires", newQuestionnaire ? 1 : 0);
+        counts.put("categories", newCategories.size());
+        counts.put("goals", newGoals.size());
+        counts.put("competences", request.competences().size());
+        counts.put("items", items);
+        counts.put("cq", items);
+        return counts;
+    }
+
+    private NameResolution resolveNames(List<AssessmentBuildRequest> requests, MetroLookupRepository repo) {
+        Set<String> categoryNames = new LinkedHashSet<>();
+        Set<String> goalNames = new LinkedHashSet<>();
+        Set<String> competenceNames = new LinkedHashSet<>();
+        Set<Long> competenceIds = new LinkedHashSet<>();
+        for (AssessmentBuildRequest request : requests) {
+            for (CompetenceInput input : request.competences()) {
+                categoryNames.add(safeTrim(input.category()));
+                goalNames.add(safeTrim(input.subcategory()));
+                competenceNames.add(safeTrim(input.name()));
+                if (input.existingId() != null) {
+                    competenceIds.add(input.existingId());
+                }
+            }
+        }
+        return repo.resolveNames(categoryNames, goalNames, competenceNames, competenceIds);
     }
 
     // ─────────────────────────────────────────────────────────────
@@ -279,14 +1025,7 @@ public class MetroIntegrationService {
         return value.substring(0, max);
     }
 
-    private String escape(String value) {
-        return value == null ? "" : value.replace("'", "''");
-    }
-
-    private String nullOrQuoted(String value) {
-        if (value == null || value.isBlank()) {
-            return "NULL";
-        }
-        return "'" + escape(value) + "'";
+    private String nullIfBlank(String value) {
+        return value == null || value.isBlank() ? null : value;
     }
 }
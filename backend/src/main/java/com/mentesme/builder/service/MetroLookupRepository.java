@@ -2,8 +2,12 @@ package com.mentesme.builder.service;
 
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.StatementCallback;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.mentesme.builder.model.CompetenceSearchResult;
 import com.mentesme.builder.model.CategorySearchResult;
@@ -12,14 +16,24 @@ import com.mentesme.builder.model.GroupSearchResult;
 import com.mentesme.builder.model.definition.QuestionnaireListItem;
 
 import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Repository
 @ConditionalOnProperty(name = "builder.metro.enabled", havingValue = "true")
@@ -31,6 +45,11 @@ public class MetroLookupRepository {
         this.jdbcTemplate = jdbcTemplate;
     }
 
+    /** Definition queries against the same database as this repository. */
+    public AssessmentDefinitionRepository definitions() {
+        return new AssessmentDefinitionRepository(jdbcTemplate);
+    }
+
     public Optional<GroupSearchResult> findGroupById(Long id) {
         if (id == null) {
             return Optional.empty();
@@ -51,22 +70,6 @@ public class MetroLookupRepository {
         ), like);
     }
 
-    public Optional<Long> findCompetenceIdByName(String name) {
-        if (name == null || name.isBlank()) {
-            return Optional.empty();
-        }
-        String sql = "SELECT id FROM competences WHERE LOWER(name) = LOWER(?) LIMIT 1";
-        Optional<Long> direct = jdbcTemplate.query(sql, rs -> rs.next() ? Optional.of(rs.getLong(1)) : Optional.empty(), name.trim());
-        if (direct == null) {
-            direct = Optional.empty();
-        }
-        if (direct.isPresent()) {
-            return direct;
-        }
-        String translatedSql = "SELECT competenceId FROM competence_translations WHERE LOWER(name) = LOWER(?) LIMIT 1";
-        return jdbcTemplate.query(translatedSql, rs -> rs.next() ? Optional.of(rs.getLong(1)) : Optional.empty(), name.trim());
-    }
-
     public List<CompetenceSearchResult> searchCompetences(String query) {
         String like = "%" + query.trim().toLowerCase() + "%";
         String sql = "SELECT c.id, " +
@@ -101,41 +104,134 @@ public class MetroLookupRepository {
         ), like, like);
         }
 
-    public Optional<Long> findCategoryIdByName(String name) {
-        if (name == null || name.isBlank()) {
-            return Optional.empty();
+    /**
+     * Resolve all category, goal and competence names of a build request in one pass.
+     * One query per entity (base table + translations), plus one for the existing competence IDs.
+     *
+     * Matches on {@code name IN (...)} so MySQL can use the name index; case-insensitivity
+     * comes from the column collation (Metro tables use the default utf8mb4 _ci collation).
+     */
+    public NameResolution resolveNames(Collection<String> categoryNames, Collection<String> goalNames,
+                                       Collection<String> competenceNames, Collection<Long> competenceIds) {
+        Set<Long> existingCompetenceIds = new HashSet<>();
+        if (competenceIds != null && !competenceIds.isEmpty()) {
+            List<Long> ids = List.copyOf(new HashSet<>(competenceIds));
+            String sql = "SELECT id FROM competences WHERE id IN (" + placeholders(ids.size()) + ")";
+            existingCompetenceIds.addAll(jdbcTemplate.queryForList(sql, Long.class, ids.toArray()));
         }
-        String sql = "SELECT id FROM categories WHERE LOWER(name) = LOWER(?) LIMIT 1";
-        Optional<Long> direct = jdbcTemplate.query(sql, rs -> rs.next() ? Optional.of(rs.getLong(1)) : Optional.empty(), name.trim());
-        if (direct == null) {
-            direct = Optional.empty();
+        return new NameResolution(
+                resolveIdsByName("categories", "category_translations", "categoryId", categoryNames),
+                resolveIdsByName("goals", "goal_translations", "goalId", goalNames),
+                resolveIdsByName("competences", "competence_translations", "competenceId", competenceNames),
+                existingCompetenceIds);
+    }
+
+    private Map<String, Long> resolveIdsByName(String table, String translationTable, String fkColumn,
+                                               Collection<String> names) {
+        List<String> distinct = names == null ? List.of() : names.stream()
+                .filter(n -> n != null && !n.isBlank())
+                .map(String::trim)
+                .distinct()
+                .toList();
+        Map<String, Long> ids = new HashMap<>();
+        if (distinct.isEmpty()) {
+            return ids;
         }
-        if (direct.isPresent()) {
-            return direct;
+        String in = placeholders(distinct.size());
+        String sql = "SELECT name, id, 0 AS src FROM " + table + " WHERE name IN (" + in + ") " +
+                "UNION ALL " +
+                "SELECT name, " + fkColumn + ", 1 FROM " + translationTable + " WHERE name IN (" + in + ") " +
+                "ORDER BY src, id";
+        Object[] params = new Object[distinct.size() * 2];
+        for (int i = 0; i < distinct.size(); i++) {
+            params[i] = distinct.get(i);
+            params[i + distinct.size()] = distinct.get(i);
         }
-        String translatedSql = "SELECT categoryId FROM category_translations WHERE LOWER(name) = LOWER(?) LIMIT 1";
-        return jdbcTemplate.query(translatedSql, rs -> rs.next() ? Optional.of(rs.getLong(1)) : Optional.empty(), name.trim());
+        // Ordered base table first, lowest ID first: first hit per name wins
+        jdbcTemplate.query(sql, rs -> {
+            ids.putIfAbsent(NameResolution.key(rs.getString(1)), rs.getLong(2));
+        }, params);
+        return ids;
     }
 
-    public Optional<Long> findGoalIdByName(String name) {
-        if (name == null || name.isBlank()) {
-            return Optional.empty();
+    private static String placeholders(int count) {
+        return String.join(",", Collections.nCopies(count, "?"));
+    }
+
+    /**
+     * Re-check lookups taken earlier (e.g. cached from a preview) in one query. True when every
+     * resolved category, goal and competence still exists under the name it was resolved from
+     * (base table or translation), and every existing competence ID, group and the questionnaire
+     * (when not null) still exist.
+     */
+    public boolean lookupsStillValid(NameResolution resolved, Collection<Long> groupIds, Long questionnaireId) {
+        Set<Long> competenceIds = new HashSet<>(resolved.competences().values());
+        competenceIds.addAll(resolved.existingCompetenceIds());
+        List<String> parts = new ArrayList<>();
+        List<Object> params = new ArrayList<>();
+        addNamedRows(parts, params, "categories", "category_translations", "categoryId",
+                new HashSet<>(resolved.categories().values()));
+        addNamedRows(parts, params, "goals", "goal_translations", "goalId", new HashSet<>(resolved.goals().values()));
+        addNamedRows(parts, params, "competences", "competence_translations", "competenceId", competenceIds);
+        Set<Long> groups = groupIds == null ? Set.of() : new HashSet<>(groupIds);
+        if (!groups.isEmpty()) {
+            parts.add("SELECT 'groups', id, NULL FROM `groups` WHERE id IN (" + placeholders(groups.size()) + ")");
+            params.addAll(groups);
         }
-        String sql = "SELECT id FROM goals WHERE LOWER(name) = LOWER(?) LIMIT 1";
-        Optional<Long> direct = jdbcTemplate.query(sql, rs -> rs.next() ? Optional.of(rs.getLong(1)) : Optional.empty(), name.trim());
-        if (direct == null) {
-            direct = Optional.empty();
+        if (questionnaireId != null) {
+            parts.add("SELECT 'questionnaires', id, NULL FROM questionnaires WHERE id = ?");
+            params.add(questionnaireId);
         }
-        if (direct.isPresent()) {
-            return direct;
+        if (parts.isEmpty()) {
+            return true;
         }
-        String translatedSql = "SELECT goalId FROM goal_translations WHERE LOWER(name) = LOWER(?) LIMIT 1";
-        return jdbcTemplate.query(translatedSql, rs -> rs.next() ? Optional.of(rs.getLong(1)) : Optional.empty(), name.trim());
+        // table -> id -> names (as NameResolution keys) it currently has
+        Map<String, Map<Long, Set<String>>> found = new HashMap<>();
+        jdbcTemplate.query(String.join(" UNION ALL ", parts), rs -> {
+            Set<String> names = found.computeIfAbsent(rs.getString(1), t -> new HashMap<>())
+                    .computeIfAbsent(rs.getLong(2), id -> new HashSet<>());
+            if (rs.getString(3) != null) {
+                names.add(NameResolution.key(rs.getString(3)));
+            }
+        }, params.toArray());
+
+        return stillNamed(found.get("categories"), resolved.categories())
+                && stillNamed(found.get("goals"), resolved.goals())
+                && stillNamed(found.get("competences"), resolved.competences())
+                && found.getOrDefault("competences", Map.of()).keySet().containsAll(competenceIds)
+                && found.getOrDefault("groups", Map.of()).keySet().containsAll(groups)
+                && (questionnaireId == null || found.getOrDefault("questionnaires", Map.of()).containsKey(questionnaireId));
     }
 
+    private static void addNamedRows(List<String> parts, List<Object> params, String table, String translationTable,
+                                     String fkColumn, Set<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        String in = placeholders(ids.size());
+        parts.add("SELECT '" + table + "', id, name FROM " + table + " WHERE id IN (" + in + ")");
+        parts.add("SELECT '" + table + "', " + fkColumn + ", name FROM " + translationTable +
+                " WHERE " + fkColumn + " IN (" + in + ")");
+        params.addAll(ids);
+        params.addAll(ids);
+    }
+
+    private static boolean stillNamed(Map<Long, Set<String>> found, Map<String, Long> resolvedIds) {
+        for (Map.Entry<String, Long> entry : resolvedIds.entrySet()) {
+            Set<String> names = found == null ? null : found.get(entry.getValue());
+            if (names == null || !names.contains(entry.getKey())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
     private static final Set<String> ALLOWED_TABLES = Set.of(
             "questionnaires", "categories", "competences", "goals", "items");
 
+    private static final Map<DataSource, String> SHARED_LOCK_CLAUSE = new ConcurrentHashMap<>();
+
     public long getMaxId(String table) {
         if (!ALLOWED_TABLES.contains(table)) {
             throw new IllegalArgumentException("Invalid table name for getMaxId: " + table);
@@ -145,12 +241,103 @@ public class MetroLookupRepository {
         return result == null ? 0L : result;
     }
 
+    /**
+     * Lock the rows with these IDs against deletion until the current transaction ends and
+     * return the IDs that no longer exist. The lock is shared, so publishes that reuse the same
+     * rows do not wait for each other; only a delete (e.g. the orphan collector) does.
+     */
+    public Set<Long> lockRows(String table, Collection<Long> ids) {
+        if (!ALLOWED_TABLES.contains(table)) {
+            throw new IllegalArgumentException("Invalid table name for lockRows: " + table);
+        }
+        Set<Long> missing = new HashSet<>(ids);
+        if (missing.isEmpty()) {
+            return missing;
+        }
+        String sql = "SELECT id FROM " + table + " WHERE id IN (" + placeholders(missing.size()) + ") " +
+                sharedLockClause();
+        missing.removeAll(jdbcTemplate.queryForList(sql, Long.class, missing.toArray()));
+        return missing;
+    }
+
+    private static final Pattern SINGLE_COLUMN_DELETE = Pattern.compile("DELETE FROM (\\w+) WHERE (\\w+) = \\?");
+
+    /**
+     * Rows a planned DELETE batch will remove. Deletes on one column (the templates such as
+     * {@code DELETE FROM competence_questions WHERE questionnaireId = ?}) are counted with one
+     * query per batch; other deletes remove at most one row per statement.
+     */
+    public long countRowsToDelete(PublishPlan.Batch batch) {
+        Matcher m = SINGLE_COLUMN_DELETE.matcher(batch.sql().strip());
+        if (!m.matches() || batch.size() == 0) {
+            return batch.size();
+        }
+        Object[] keys = batch.rows().stream().map(row -> row[0]).distinct().toArray();
+        Long count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + m.group(1) + " WHERE " + m.group(2) +
+                " IN (" + placeholders(keys.length) + ")", Long.class, keys);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * Of these items, the ones a questionnaire outside [{@code fromQuestionnaireId},
+     * {@code toQuestionnaireId}] still links to. Inside a transaction the items are locked
+     * exclusively first and the links are read with a locking read, so a publish reusing one of
+     * them either linked it before (and it is reported as shared) or waits in {@link #lockRows}
+     * until the caller has committed. The other items can then safely be deleted.
+     */
+    public Set<Long> lockSharedItemIds(Collection<Long> itemIds, long fromQuestionnaireId, long toQuestionnaireId) {
+        Set<Long> shared = new HashSet<>();
+        if (itemIds.isEmpty()) {
+            return shared;
+        }
+        boolean locking = TransactionSynchronizationManager.isActualTransactionActive();
+        String in = placeholders(itemIds.size());
+        if (locking) {
+            jdbcTemplate.queryForList("SELECT id FROM items WHERE id IN (" + in + ") FOR UPDATE",
+                    Long.class, itemIds.toArray());
+        }
+        List<Object> params = new ArrayList<>(itemIds);
+        params.add(fromQuestionnaireId);
+        params.add(toQuestionnaireId);
+        shared.addAll(jdbcTemplate.queryForList("SELECT itemId FROM questionnaire_items WHERE itemId IN (" + in + ") " +
+                "AND (questionnaireId < ? OR questionnaireId > ?)" + (locking ? " " + sharedLockClause() : ""),
+                Long.class, params.toArray()));
+        return shared;
+    }
+
+    private String sharedLockClause() {
+        return SHARED_LOCK_CLAUSE.computeIfAbsent(jdbcTemplate.getDataSource(), ds -> jdbcTemplate.execute(
+                (ConnectionCallback<String>) conn ->
+                        // H2 (tests) has no shared row locks
+                        "H2".equals(conn.getMetaData().getDatabaseProductName()) ? "FOR UPDATE" : "FOR SHARE"));
+    }
+
     public long getMaxCqId() {
         String sql = "SELECT COALESCE(MAX(cq_id), 0) FROM competence_questions";
         Long result = jdbcTemplate.queryForObject(sql, Long.class);
         return result == null ? 0L : result;
     }
 
+    /** Identifies the target database (e.g. for caches shared between TEST and PRODUCTION). */
+    public String databaseKey() {
+        return Integer.toHexString(System.identityHashCode(jdbcTemplate.getDataSource()));
+    }
+
+    /** Reserve ID blocks in this database; see {@link IdAllocator#reserve}. */
+    public Map<String, Long> reserveIds(IdAllocator allocator, Map<String, Integer> counts) {
+        return allocator.reserve(jdbcTemplate, counts);
+    }
+
+    /** Next IDs in this database without reserving them (previews). */
+    public Map<String, Long> peekIds(IdAllocator allocator) {
+        return allocator.peek(jdbcTemplate);
+    }
+
+    /** Move the ID sequences of this database past MAX(id); see {@link IdAllocator#resync}. */
+    public void resyncIds(IdAllocator allocator) {
+        allocator.resync(jdbcTemplate);
+    }
+
     /**
      * Fetch all max IDs in a single query to minimize round trips.
      * Returns map: table name -> max id.
@@ -203,12 +390,25 @@ public class MetroLookupRepository {
     }
 
     /**
-     * Check if a competence with the given ID exists in the target database.
+     * Categories of the competences a questionnaire's items measure.
      */
-    public boolean competenceExists(long competenceId) {
-        String sql = "SELECT COUNT(*) FROM competences WHERE id = ?";
-        Integer count = jdbcTemplate.queryForObject(sql, Integer.class, competenceId);
-        return count != null && count > 0;
+    public List<Long> findCategoryIdsForQuestionnaire(long questionnaireId) {
+        String sql = "SELECT DISTINCT cc.categoryId FROM questionnaire_items qi " +
+                "JOIN competence_items ci ON ci.itemId = qi.itemId " +
+                "JOIN category_competences cc ON cc.competenceId = ci.competenceId " +
+                "WHERE qi.questionnaireId = ?";
+        return jdbcTemplate.queryForList(sql, Long.class, questionnaireId);
+    }
+
+    /**
+     * Goals of the competences a questionnaire's items measure.
+     */
+    public List<Long> findGoalIdsForQuestionnaire(long questionnaireId) {
+        String sql = "SELECT DISTINCT gc.goalId FROM questionnaire_items qi " +
+                "JOIN competence_items ci ON ci.itemId = qi.itemId " +
+                "JOIN goal_competences gc ON gc.competenceId = ci.competenceId " +
+                "WHERE qi.questionnaireId = ?";
+        return jdbcTemplate.queryForList(sql, Long.class, questionnaireId);
     }
 
     public Optional<Long> findQuestionnaireIdByName(String name) {
@@ -228,96 +428,208 @@ public class MetroLookupRepository {
         return jdbcTemplate.query(translatedSql, rs -> rs.next() ? Optional.of(rs.getLong(1)) : Optional.empty(), name.trim());
     }
 
-    private static final Logger log = org.slf4j.LoggerFactory.getLogger(MetroLookupRepository.class);
+    private static final Logger log = LoggerFactory.getLogger(MetroLookupRepository.class);
 
     // Triggers on competence_questions that call calculate_user_competence_scores_for_all_assessments()
-    // Each trigger takes ~10s per row. We drop them before bulk inserts and recreate + call once after.
+    // Each trigger takes ~10s per row. We drop them before bulk inserts and recreate them after;
+    // the caller enqueues one deferred recalculation (ScoreRecalculationService) instead.
     private static final String[] CQ_TRIGGER_NAMES = {
             "recalculate_user_competence_scores_on_insert_2",
             "recalculate_user_competence_scores_on_update_2",
             "recalculate_user_competence_scores_on_delete_2"
     };
+    // Recreated with the same gated body as schema-score-trigger-gate.sql, so a DDL bypass never
+    // removes the gate once it is installed
     private static final String[] CQ_TRIGGER_CREATE = {
-            "CREATE TRIGGER recalculate_user_competence_scores_on_insert_2 AFTER INSERT ON competence_questions FOR EACH ROW CALL metro.calculate_user_competence_scores_for_all_assessments()",
-            "CREATE TRIGGER recalculate_user_competence_scores_on_update_2 AFTER UPDATE ON competence_questions FOR EACH ROW CALL metro.calculate_user_competence_scores_for_all_assessments()",
-            "CREATE TRIGGER recalculate_user_competence_scores_on_delete_2 AFTER DELETE ON competence_questions FOR EACH ROW CALL metro.calculate_user_competence_scores_for_all_assessments()"
+            "CREATE TRIGGER recalculate_user_competence_scores_on_insert_2 AFTER INSERT ON competence_questions FOR EACH ROW " + gatedRecalculation(),
+            "CREATE TRIGGER recalculate_user_competence_scores_on_update_2 AFTER UPDATE ON competence_questions FOR EACH ROW " + gatedRecalculation(),
+            "CREATE TRIGGER recalculate_user_competence_scores_on_delete_2 AFTER DELETE ON competence_questions FOR EACH ROW " + gatedRecalculation()
     };
 
+    // Session variable honoured by the gated triggers, and the migration that installs them
+    private static final String SCORE_GATE_VARIABLE = "@builder_skip_score_recalc";
+    private static final String SCORE_GATE_MIGRATION = "score-trigger-gate";
+    private static final Set<DataSource> SCORE_GATE_INSTALLED = ConcurrentHashMap.newKeySet();
+
+    private static String gatedRecalculation() {
+        return "BEGIN IF @builder_skip_score_recalc IS NULL THEN " +
+                "CALL metro.calculate_user_competence_scores_for_all_assessments(); END IF; END";
+    }
+
     /**
-     * Execute a list of SQL statements using raw JDBC for minimal overhead.
-     * Temporarily disables competence_questions triggers to avoid 10s/row recalculation,
-     * then calls the stored procedure once at the end.
-     * Returns per-statement timing data for diagnostics.
+     * Execute a publish plan using raw JDBC: one PreparedStatement per batch, sent via
+     * addBatch/executeBatch (collapsed into multi-row INSERTs by Connector/J when
+     * rewriteBatchedStatements is enabled on the datasource).
+     * Skips the competence_questions triggers through the score trigger gate when it is installed.
+     * Returns per-batch timing data (table, rows, ms) and whether the triggers were bypassed,
+     * in which case scores must be recalculated separately.
      */
-    public List<Map<String, Object>> executeSqlStatements(List<String> sqlStatements) {
-        List<String> validSql = sqlStatements.stream()
-                .filter(sql -> sql != null && !sql.isBlank())
-                .map(sql -> sql.endsWith(";") ? sql.substring(0, sql.length() - 1) : sql)
-                .toList();
-        if (validSql.isEmpty()) return List.of();
-
-        // Check if any statements touch competence_questions
-        boolean hasCqInserts = validSql.stream().anyMatch(s ->
-                s.toLowerCase().contains("competence_questions"));
-
-        log.info("Executing {} SQL statements via raw JDBC (cq_triggers_bypass={})...",
-                validSql.size(), hasCqInserts);
-
-        return jdbcTemplate.execute((org.springframework.jdbc.core.ConnectionCallback<List<Map<String, Object>>>) conn -> {
-            List<Map<String, Object>> perStmt = new ArrayList<>();
-            try (java.sql.Statement stmt = conn.createStatement()) {
-                // Drop triggers if needed (may fail on prod due to missing SUPER privilege)
-                boolean triggersDropped = false;
-                if (hasCqInserts) {
-                    try {
-                        for (String triggerName : CQ_TRIGGER_NAMES) {
-                            stmt.execute("DROP TRIGGER IF EXISTS " + triggerName);
-                        }
-                        triggersDropped = true;
-                        log.info("Dropped {} competence_questions triggers", CQ_TRIGGER_NAMES.length);
-                    } catch (Exception e) {
-                        log.warn("Could not drop triggers (will execute with triggers active): {}", e.getMessage());
-                    }
-                }
+    public PlanExecution executePlan(PublishPlan plan) {
+        return executePlan(plan, true);
+    }
 
-                long totalStart = System.currentTimeMillis();
-                for (int i = 0; i < validSql.size(); i++) {
-                    String sql = validSql.get(i);
-                    long start = System.currentTimeMillis();
-                    try {
-                        stmt.execute(sql);
-                    } catch (java.sql.SQLException e) {
-                        String msg = "SQL #" + i + " failed: " + sql + " → " + e.getMessage();
-                        log.error(msg);
-                        throw new RuntimeException(msg, e);
-                    }
-                    long elapsed = System.currentTimeMillis() - start;
-                    String sqlPrefix = sql.length() > 80 ? sql.substring(0, 80) + "..." : sql;
-                    perStmt.add(Map.of("i", i, "ms", elapsed, "sql", sqlPrefix));
-                    if (elapsed > 100) {
-                        log.warn("SLOW stmt #{} ({}ms): {}", i, elapsed, sqlPrefix);
-                    }
+    /**
+     * Execute a publish plan; with {@code manageTriggers} false the caller has already taken
+     * care of the competence_questions triggers, e.g. opened the gate once around a whole bulk
+     * publish instead of once per plan.
+     *
+     * Only the score trigger gate ({@link #scoreTriggerGateInstalled()}) is used here: the
+     * triggers are skipped through a session variable on this connection. Without the gate the
+     * plan runs with the triggers active; dropping them is DDL, which commits the caller's
+     * transaction implicitly on MySQL, so callers that want to bypass them drop them before their
+     * transaction starts and recreate them after it ended (see
+     * {@link #dropCompetenceQuestionTriggers()}).
+     */
+    public PlanExecution executePlan(PublishPlan plan, boolean manageTriggers) {
+        List<PublishPlan.Batch> batches = plan.batches();
+        if (batches.isEmpty()) return new PlanExecution(List.of(), false);
+
+        boolean gated = manageTriggers && plan.touches("competence_questions") && scoreTriggerGateInstalled();
+
+        log.info("Executing {} statements in {} batches via raw JDBC (gate={})...",
+                plan.statementCount(), batches.size(), gated);
+
+        return jdbcTemplate.execute((ConnectionCallback<PlanExecution>) conn -> {
+            List<Map<String, Object>> perBatch = new ArrayList<>();
+            try (Statement stmt = conn.createStatement()) {
+                if (gated) {
+                    stmt.execute("SET " + SCORE_GATE_VARIABLE + " = 1");
                 }
-                long totalElapsed = System.currentTimeMillis() - totalStart;
-                log.info("Raw JDBC: {} statements executed in {}ms ({}ms/stmt)",
-                        validSql.size(), totalElapsed, totalElapsed / validSql.size());
-
-                // Recreate triggers only if we successfully dropped them
-                if (hasCqInserts && triggersDropped) {
-                    try {
-                        for (String createSql : CQ_TRIGGER_CREATE) {
-                            stmt.execute(createSql);
+
+                try {
+                    long totalStart = System.currentTimeMillis();
+                    for (int i = 0; i < batches.size(); i++) {
+                        PublishPlan.Batch batch = batches.get(i);
+                        long start = System.currentTimeMillis();
+                        try (PreparedStatement ps = conn.prepareStatement(batch.sql())) {
+                            if (batch.size() == 1) {
+                                bind(ps, batch.rows().get(0));
+                                ps.executeUpdate();
+                            } else {
+                                for (Object[] row : batch.rows()) {
+                                    bind(ps, row);
+                                    ps.addBatch();
+                                }
+                                ps.executeBatch();
+                            }
+                        } catch (SQLException e) {
+                            String msg = "Batch #" + i + " (" + batch.table() + ", " + batch.size() + " rows) failed: "
+                                    + batch.sql() + " → " + e.getMessage();
+                            log.error(msg);
+                            throw new RuntimeException(msg, e);
+                        }
+                        long elapsed = System.currentTimeMillis() - start;
+                        String sqlPrefix = batch.sql().length() > 80 ? batch.sql().substring(0, 80) + "..." : batch.sql();
+                        perBatch.add(Map.of("i", i, "table", batch.table(), "rows", batch.size(),
+                                "ms", elapsed, "sql", sqlPrefix));
+                        if (elapsed > 100) {
+                            log.warn("SLOW batch #{} ({}ms, {} rows): {}", i, elapsed, batch.size(), sqlPrefix);
                         }
-                        log.info("Recreated {} competence_questions triggers", CQ_TRIGGER_CREATE.length);
-                    } catch (Exception e) {
-                        log.error("CRITICAL: Failed to recreate triggers: {}", e.getMessage());
+                    }
+                    long totalElapsed = System.currentTimeMillis() - totalStart;
+                    log.info("Raw JDBC: {} statements in {} batches executed in {}ms ({}ms/batch)",
+                            plan.statementCount(), batches.size(), totalElapsed, totalElapsed / batches.size());
+                } finally {
+                    // The connection goes back to the pool: never leave the gate closed on it
+                    if (gated) {
+                        stmt.execute("SET " + SCORE_GATE_VARIABLE + " = NULL");
                     }
                 }
+                return new PlanExecution(perBatch, gated);
             }
-            return perStmt;
         });
     }
 
+    /**
+     * Outcome of {@link #executePlan}: per-batch timings and whether the competence_questions
+     * triggers were skipped through the gate (scores not recalculated by the database).
+     */
+    public record PlanExecution(List<Map<String, Object>> batches, boolean triggerGate) {
+    }
+
+    /**
+     * True when the one-time migration {@code schema-score-trigger-gate.sql} has been applied:
+     * the competence_questions triggers then skip the recalculation while
+     * {@code @builder_skip_score_recalc} is set on the session. A positive answer is cached per
+     * datasource; without the migration this costs one small query per check.
+     */
+    public boolean scoreTriggerGateInstalled() {
+        DataSource dataSource = jdbcTemplate.getDataSource();
+        if (SCORE_GATE_INSTALLED.contains(dataSource)) {
+            return true;
+        }
+        try {
+            Integer count = jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM builder_schema_migrations WHERE name = ?", Integer.class, SCORE_GATE_MIGRATION);
+            if (count != null && count > 0) {
+                SCORE_GATE_INSTALLED.add(dataSource);
+                log.info("Score trigger gate installed; competence_questions triggers are skipped without DDL");
+                return true;
+            }
+        } catch (DataAccessException e) {
+            log.debug("Score trigger gate not available: {}", e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Open ({@code skip} true) or close the score trigger gate on the current connection; call
+     * inside a transaction so the statements that follow run on the same connection, and close
+     * the gate again before the transaction ends. Only meaningful when
+     * {@link #scoreTriggerGateInstalled()}.
+     */
+    public void setScoreTriggerGate(boolean skip) {
+        jdbcTemplate.execute("SET " + SCORE_GATE_VARIABLE + (skip ? " = 1" : " = NULL"));
+    }
+
+    /**
+     * Drop the competence_questions triggers; call outside any transaction (DDL commits
+     * implicitly on MySQL). Returns false when they could not be dropped (e.g. missing SUPER
+     * privilege on prod).
+     */
+    public boolean dropCompetenceQuestionTriggers() {
+        return Boolean.TRUE.equals(jdbcTemplate.execute(
+                (StatementCallback<Boolean>) this::dropCqTriggers));
+    }
+
+    /** Counterpart of {@link #dropCompetenceQuestionTriggers()}; failures are logged, not thrown. */
+    public void recreateCompetenceQuestionTriggers() {
+        jdbcTemplate.execute((StatementCallback<Void>) stmt -> {
+            recreateCqTriggers(stmt);
+            return null;
+        });
+    }
+
+    private boolean dropCqTriggers(Statement stmt) {
+        try {
+            for (String triggerName : CQ_TRIGGER_NAMES) {
+                stmt.execute("DROP TRIGGER IF EXISTS " + triggerName);
+            }
+            log.info("Dropped {} competence_questions triggers", CQ_TRIGGER_NAMES.length);
+            return true;
+        } catch (Exception e) {
+            log.warn("Could not drop triggers (will execute with triggers active): {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private void recreateCqTriggers(Statement stmt) {
+        try {
+            for (String createSql : CQ_TRIGGER_CREATE) {
+                stmt.execute(createSql);
+            }
+            log.info("Recreated {} competence_questions triggers", CQ_TRIGGER_CREATE.length);
+        } catch (Exception e) {
+            log.error("CRITICAL: Failed to recreate triggers: {}", e.getMessage());
+        }
+    }
+
+    private static void bind(PreparedStatement ps, Object[] params) throws SQLException {
+        for (int p = 0; p < params.length; p++) {
+            ps.setObject(p + 1, params[p]);
+        }
+    }
+
     /**
      * List questionnaires with optional search filter.
      */
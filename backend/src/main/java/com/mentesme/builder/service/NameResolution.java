@@ -0,0 +1,76 @@
+package com.mentesme.builder.service;
+
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Result of resolving all names and IDs of a build request against a Metro database
+ * in one pass. Name maps are keyed by {@link #key}; a match on the base table wins over
+ * a match on the translations table, and the lowest ID wins among equals.
+ */
+public record NameResolution(
+        Map<String, Long> categories,
+        Map<String, Long> goals,
+        Map<String, Long> competences,
+        Set<Long> existingCompetenceIds
+) {
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+    public Long categoryId(String name) {
+        return lookup(categories, name);
+    }
+
+    public Long goalId(String name) {
+        return lookup(goals, name);
+    }
+
+    public Long competenceId(String name) {
+        return lookup(competences, name);
+    }
+
+    public boolean competenceExists(long competenceId) {
+        return existingCompetenceIds.contains(competenceId);
+    }
+
+    /**
+     * Resolution with the names of {@code other} added; used by bulk publish to let later
+     * requests reuse categories, goals and competences created by earlier ones.
+     */
+    public NameResolution plus(NameResolution other) {
+        Map<String, Long> mergedCategories = new HashMap<>(categories);
+        Map<String, Long> mergedGoals = new HashMap<>(goals);
+        Map<String, Long> mergedCompetences = new HashMap<>(competences);
+        Set<Long> mergedCompetenceIds = new HashSet<>(existingCompetenceIds);
+        other.categories.forEach(mergedCategories::putIfAbsent);
+        other.goals.forEach(mergedGoals::putIfAbsent);
+        other.competences.forEach(mergedCompetences::putIfAbsent);
+        mergedCompetenceIds.addAll(other.existingCompetenceIds);
+        return new NameResolution(mergedCategories, mergedGoals, mergedCompetences, mergedCompetenceIds);
+    }
+
+    static NameResolution empty() {
+        return new NameResolution(new HashMap<>(), new HashMap<>(), new HashMap<>(), new HashSet<>());
+    }
+
+    /**
+     * Compares names like Metro's accent- and case-insensitive ({@code _ai_ci}) collation does,
+     * so "Créativité" finds the row named "Creativite" instead of creating a second one.
+     */
+    static String key(String name) {
+        String decomposed = Normalizer.normalize(name.trim(), Normalizer.Form.NFD);
+        return COMBINING_MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    private static Long lookup(Map<String, Long> ids, String name) {
+        if (name == null || name.isBlank()) {
+            return null;
+        }
+        return ids.get(key(name));
+    }
+}
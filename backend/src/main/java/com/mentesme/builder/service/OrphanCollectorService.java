@@ -0,0 +1,349 @@
+package com.mentesme.builder.service;
+
+import com.mentesme.builder.config.OrphanCollectorProperties;
+import com.mentesme.builder.model.OrphanCollectionResult;
+import com.mentesme.builder.model.PublishEnvironment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Deletes Metro catalog rows that nothing refers to any more.
+ *
+ * Re-publishes delete items but keep the competences, goals and categories they were linked to,
+ * and journeys whose label identifiers were truncated can leave {@code labels} rows behind.
+ * These orphans only slow down the {@code LIKE '%q%'} searches, so the collector finds them with
+ * anti-joins ({@code NOT EXISTS}) and deletes them in small batches, each in its own short
+ * transaction with the translations and links of the orphaned rows deleted first.
+ *
+ * A row counts as referenced by the builder's own link tables, by the group links admins make
+ * ({@code group_goals}, {@code group_categories}) and by any other table in the schema with a
+ * matching column ({@code competenceId}, {@code goal_id}, ...), so Metro's own tables keep their
+ * rows even where they have no foreign key.
+ *
+ * Competences go first, so goals and categories that only belonged to them become orphans in the
+ * same run. A run stops at {@code builder.orphan-gc.max-rows-per-run} deleted rows; the next run
+ * picks up what is left. Every batch locks its candidates ({@code FOR UPDATE}) before re-checking
+ * the anti-joins: a publish that reuses a competence, goal or category holds a shared lock on it
+ * until it commits (see {@link MetroLookupRepository#lockRows}), so the re-check sees its links.
+ * Journey labels are deleted under the journey's publish lock instead.
+ */
+@Service
+public class OrphanCollectorService {
+
+    private static final Logger log = LoggerFactory.getLogger(OrphanCollectorService.class);
+
+    /**
+     * An orphan kind: the parent table and its key column, an optional filter on the parent rows,
+     * the rows that refer to it, the column name other tables refer to it by (null: only
+     * {@code references}) and its dependent rows, which are deleted along with it.
+     */
+    private record Kind(String table, String key, String filter, List<Column> references, String referenceColumn,
+                        List<Column> children) {
+
+        boolean journeyLabels() {
+            return table.equals("labels");
+        }
+    }
+
+    /** Column {@code column} of {@code table}, pointing at a parent row. */
+    private record Column(String table, String column) {}
+
+    private static final List<Kind> KINDS = List.of(
+            new Kind("competences", "id", null,
+                    List.of(new Column("competence_items", "competenceId"),
+                            new Column("competence_questions", "competenceId")),
+                    "competenceId",
+                    List.of(new Column("competence_translations", "competenceId"),
+                            new Column("category_competences", "competenceId"),
+                            new Column("goal_competences", "competenceId"))),
+            new Kind("goals", "id", null,
+                    List.of(new Column("goal_competences", "goalId"), new Column("group_goals", "goalId")),
+                    "goalId",
+                    List.of(new Column("goal_translations", "goalId"))),
+            new Kind("categories", "id", null,
+                    List.of(new Column("category_competences", "categoryId"),
+                            new Column("group_categories", "categoryId")),
+                    "categoryId",
+                    List.of(new Column("category_translations", "categoryId"))),
+            // Only labels the journey builder created (LJ_{id}_...); other labels belong to Metro itself
+            new Kind("labels", "identifier", "t.identifier LIKE 'LJ\\_%'",
+                    List.of(new Column("steps", "title"), new Column("steps", "textContent"),
+                            new Column("step_question", "question")),
+                    null,
+                    List.of()));
+
+    private static final Pattern JOURNEY_LABEL = Pattern.compile("LJ_(\\d+)_.*");
+
+    private final OrphanCollectorProperties properties;
+    private final TransactionRetryService transactionRetryService;
+    private final PublishLockService publishLockService;
+    private final MetroIntegrationService metroIntegrationService;
+    private final JdbcTemplate testJdbcTemplate;
+    private final TransactionTemplate testTxTemplate;
+    private final JdbcTemplate prodJdbcTemplate; // null when not configured
+    private final TransactionTemplate prodTxTemplate; // null when not configured
+    private final Map<PublishEnvironment, ReentrantLock> runLocks = new EnumMap<>(PublishEnvironment.class);
+
+    public OrphanCollectorService(
+            OrphanCollectorProperties properties,
+            TransactionRetryService transactionRetryService,
+            PublishLockService publishLockService,
+            MetroIntegrationService metroIntegrationService,
+            @Qualifier("metroJdbcTemplate") JdbcTemplate testJdbcTemplate,
+            @Qualifier("metroJdbcTransactionManager") PlatformTransactionManager testTxManager,
+            @Qualifier("metroProdJdbcTemplate") ObjectProvider<JdbcTemplate> prodJdbcTemplateProvider,
+            @Qualifier("metroProdTransactionManager") ObjectProvider<PlatformTransactionManager> prodTxManagerProvider
+    ) {
+        this.properties = properties;
+        this.transactionRetryService = transactionRetryService;
+        this.publishLockService = publishLockService;
+        this.metroIntegrationService = metroIntegrationService;
+        this.testJdbcTemplate = testJdbcTemplate;
+        this.testTxTemplate = new TransactionTemplate(testTxManager);
+        this.prodJdbcTemplate = prodJdbcTemplateProvider.getIfAvailable();
+        PlatformTransactionManager prodTxManager = prodTxManagerProvider.getIfAvailable();
+        this.prodTxTemplate = prodTxManager != null ? new TransactionTemplate(prodTxManager) : null;
+        for (PublishEnvironment env : PublishEnvironment.values()) {
+            runLocks.put(env, new ReentrantLock());
+        }
+    }
+
+    @Scheduled(initialDelayString = "${builder.orphan-gc.interval-ms:3600000}",
+            fixedDelayString = "${builder.orphan-gc.interval-ms:3600000}")
+    public void scheduledRun() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        for (PublishEnvironment env : PublishEnvironment.values()) {
+            if (env == PublishEnvironment.PRODUCTION && (!properties.isIncludeProduction() || prodJdbcTemplate == null)) {
+                continue;
+            }
+            try {
+                collect(env, false, properties.getMaxRowsPerRun());
+            } catch (RuntimeException e) {
+                log.error("[{}] Orphan collection failed: {}", env, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Find the orphans in {@code env} and, unless {@code dryRun}, delete them until about
+     * {@code maxRows} rows were deleted. A batch can overshoot the budget by its dependent rows.
+     * Deleting in PRODUCTION is refused unless {@code builder.orphan-gc.include-production} is set.
+     */
+    public OrphanCollectionResult collect(PublishEnvironment env, boolean dryRun, long maxRows) {
+        if (maxRows < 1) {
+            throw new IllegalArgumentException("maxRows moet minimaal 1 zijn.");
+        }
+        JdbcTemplate jdbc = env == PublishEnvironment.PRODUCTION ? prodJdbcTemplate : testJdbcTemplate;
+        TransactionTemplate txTemplate = env == PublishEnvironment.PRODUCTION ? prodTxTemplate : testTxTemplate;
+        if (jdbc == null || txTemplate == null) {
+            throw new IllegalStateException(
+                    "Production database is not configured. Set BUILDER_METRO_PROD_ENABLED=true with valid credentials.");
+        }
+        if (env == PublishEnvironment.PRODUCTION && !dryRun && !properties.isIncludeProduction()) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN,
+                    "Opschonen van verweesde rijen in PRODUCTION staat uit (builder.orphan-gc.include-production).");
+        }
+        ReentrantLock runLock = runLocks.get(env);
+        if (!runLock.tryLock()) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT,
+                    "Er loopt al een opschoning van verweesde rijen in " + env + ".");
+        }
+        try {
+            long start = System.currentTimeMillis();
+            Map<String, Long> timings = new LinkedHashMap<>();
+            Map<Kind, String> conditions = orphanConditions(jdbc);
+            Map<String, Long> orphans = new LinkedHashMap<>();
+            for (Kind kind : KINDS) {
+                orphans.put(kind.table(), jdbc.queryForObject(
+                        "SELECT COUNT(*) FROM " + kind.table() + " t WHERE " + conditions.get(kind), Long.class));
+            }
+            timings.put("scan_ms", System.currentTimeMillis() - start);
+
+            Map<String, Long> deleted = new LinkedHashMap<>();
+            List<String> errors = new ArrayList<>();
+            long total = 0;
+            long pausedMs = 0;
+            boolean budgetExhausted = false;
+            if (!dryRun) {
+                collect:
+                for (Kind kind : KINDS) {
+                    long cursor = 0;
+                    while (true) {
+                        if (total >= maxRows) {
+                            budgetExhausted = true;
+                            break collect;
+                        }
+                        int limit = (int) Math.min(Math.max(1, properties.getBatchSize()), maxRows - total);
+                        String condition = conditions.get(kind);
+                        List<Long> ids = jdbc.queryForList("SELECT t.id FROM " + kind.table() + " t WHERE t.id > ? AND " +
+                                condition + " ORDER BY t.id LIMIT " + limit, Long.class, cursor);
+                        if (ids.isEmpty()) {
+                            break;
+                        }
+                        cursor = ids.get(ids.size() - 1);
+                        List<String> lockKeys = kind.journeyLabels() ? journeyLockKeys(jdbc, ids) : List.of();
+                        try (PublishLockService.PublishLock lock = lockKeys.isEmpty() ? null
+                                : publishLockService.acquire(jdbc, "een leertraject", lockKeys, 0)) {
+                            if (lock != null) {
+                                timings.merge("lockWait_ms", lock.waitedMs(), Long::sum);
+                            }
+                            var attempt = transactionRetryService.execute("orphans " + kind.table(),
+                                    () -> txTemplate.execute(status -> deleteBatch(jdbc, kind, condition, ids)));
+                            attempt.record(timings);
+                            for (Map.Entry<String, Long> entry : attempt.value().entrySet()) {
+                                deleted.merge(entry.getKey(), entry.getValue(), Long::sum);
+                                total += entry.getValue();
+                            }
+                        } catch (ResponseStatusException e) {
+                            // A journey is being published: its labels wait for the next run
+                            log.info("[{}] Skipped orphaned {} {}..{}: {}", env, kind.table(), ids.get(0), cursor,
+                                    e.getReason());
+                        } catch (DataIntegrityViolationException e) {
+                            // Skip the batch: something outside the builder's tables still refers to these rows
+                            errors.add(kind.table() + " " + ids.get(0) + ".." + cursor + ": " + e.getMostSpecificCause().getMessage());
+                            log.warn("[{}] Skipped orphaned {} {}..{}: {}", env, kind.table(), ids.get(0), cursor,
+                                    e.getMostSpecificCause().getMessage());
+                        }
+                        if (ids.size() == limit) {
+                            try {
+                                Thread.sleep(properties.getPauseMs());
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                break collect;
+                            }
+                            pausedMs += properties.getPauseMs();
+                        }
+                    }
+                }
+                timings.put("throttle_ms", pausedMs);
+            }
+            if (total > 0) {
+                // Cached preview lookups may point at the deleted rows
+                metroIntegrationService.evictLookups(new MetroLookupRepository(jdbc).databaseKey());
+            }
+            timings.put("total_ms", System.currentTimeMillis() - start);
+            log.info("[{}] Orphan collection (dryRun={}): found {}, deleted {} rows in {}ms (budget exhausted={})",
+                    env, dryRun, orphans, total, timings.get("total_ms"), budgetExhausted);
+            return new OrphanCollectionResult(env, dryRun, orphans, deleted, total, budgetExhausted, errors, timings);
+        } finally {
+            runLock.unlock();
+        }
+    }
+
+    /**
+     * Orphan condition per kind: the fixed references plus every other column in the schema named
+     * like the kind's reference column (case and underscores ignored), except its dependent rows.
+     */
+    private static Map<Kind, String> orphanConditions(JdbcTemplate jdbc) {
+        List<Column> schemaColumns = jdbc.query(
+                "SELECT TABLE_NAME, COLUMN_NAME FROM INFORMATION_SCHEMA.COLUMNS " +
+                        "WHERE UPPER(TABLE_SCHEMA) = UPPER(SCHEMA()) " +
+                        "AND UPPER(REPLACE(COLUMN_NAME, '_', '')) IN ('COMPETENCEID', 'GOALID', 'CATEGORYID') " +
+                        "ORDER BY TABLE_NAME, COLUMN_NAME",
+                (rs, rowNum) -> new Column(rs.getString(1), rs.getString(2)));
+        Map<Kind, String> conditions = new LinkedHashMap<>();
+        for (Kind kind : KINDS) {
+            Set<String> seen = new HashSet<>();
+            List<Column> references = new ArrayList<>();
+            for (Column reference : kind.references()) {
+                seen.add(normalized(reference));
+                references.add(reference);
+            }
+            if (kind.referenceColumn() != null) {
+                Set<String> excluded = new HashSet<>();
+                excluded.add(kind.table().toUpperCase(Locale.ROOT));
+                kind.children().forEach(child -> excluded.add(child.table().toUpperCase(Locale.ROOT)));
+                String column = kind.referenceColumn().toUpperCase(Locale.ROOT);
+                for (Column candidate : schemaColumns) {
+                    if (candidate.column().replace("_", "").toUpperCase(Locale.ROOT).equals(column)
+                            && !excluded.contains(candidate.table().toUpperCase(Locale.ROOT))
+                            && seen.add(normalized(candidate))) {
+                        references.add(candidate);
+                    }
+                }
+            }
+            List<String> clauses = new ArrayList<>();
+            if (kind.filter() != null) {
+                clauses.add(kind.filter());
+            }
+            for (Column reference : references) {
+                clauses.add("NOT EXISTS (SELECT 1 FROM `" + reference.table() + "` r WHERE r.`" + reference.column() +
+                        "` = t." + kind.key() + ")");
+            }
+            conditions.put(kind, String.join(" AND ", clauses));
+        }
+        return conditions;
+    }
+
+    private static String normalized(Column column) {
+        return (column.table() + "." + column.column()).toUpperCase(Locale.ROOT);
+    }
+
+    /** Publish locks of the journeys whose labels are among {@code ids}. */
+    private static List<String> journeyLockKeys(JdbcTemplate jdbc, List<Long> ids) {
+        Set<String> keys = new LinkedHashSet<>();
+        for (String identifier : jdbc.queryForList("SELECT identifier FROM labels WHERE id IN (" +
+                placeholders(ids.size()) + ")", String.class, ids.toArray())) {
+            Matcher matcher = JOURNEY_LABEL.matcher(identifier);
+            if (matcher.matches()) {
+                keys.add(PublishLockService.journeyKey(Long.parseLong(matcher.group(1))));
+            }
+        }
+        return new ArrayList<>(keys);
+    }
+
+    /**
+     * Lock the candidates, re-check them, then delete dependent rows before the parents.
+     * The lock comes first: it waits for publishes that still hold a shared lock on a candidate,
+     * and the re-check after it sees what they linked.
+     */
+    private static Map<String, Long> deleteBatch(JdbcTemplate jdbc, Kind kind, String condition, List<Long> candidates) {
+        Map<String, Long> deleted = new LinkedHashMap<>();
+        String in = placeholders(candidates.size());
+        jdbc.queryForList("SELECT t.id FROM " + kind.table() + " t WHERE t.id IN (" + in + ") FOR UPDATE",
+                Long.class, candidates.toArray());
+        List<Long> ids = jdbc.queryForList("SELECT t.id FROM " + kind.table() + " t WHERE t.id IN (" + in +
+                ") AND " + condition, Long.class, candidates.toArray());
+        if (ids.isEmpty()) {
+            return deleted;
+        }
+        Object[] params = ids.toArray();
+        for (Column child : kind.children()) {
+            deleted.put(child.table(), (long) jdbc.update("DELETE FROM " + child.table() + " WHERE " +
+                    child.column() + " IN (" + placeholders(ids.size()) + ")", params));
+        }
+        deleted.put(kind.table(), (long) jdbc.update(
+                "DELETE FROM " + kind.table() + " WHERE id IN (" + placeholders(ids.size()) + ")", params));
+        return deleted;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+}
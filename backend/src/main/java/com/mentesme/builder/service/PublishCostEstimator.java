@@ -0,0 +1,160 @@
+package com.mentesme.builder.service;
+
+import com.mentesme.builder.config.PublishProperties;
+import com.mentesme.builder.model.PublishEstimate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * Estimates the cost of a publish from its statements before it runs: statements and rows per
+ * table, competence_questions trigger firings and a projected duration.
+ *
+ * The projection multiplies the statement count per table with a milliseconds-per-statement
+ * rate that is learned from the per-batch timings of earlier publishes to the same environment
+ * (exponentially weighted, so it follows the database's current speed). Tables without history
+ * use a conservative default. Rates live in memory and start over after a restart.
+ */
+@Service
+public class PublishCostEstimator {
+
+    /** Rate for tables that have no history yet. */
+    static final double DEFAULT_MS_PER_STATEMENT = 2.0;
+    /** A competence_questions trigger recalculates scores; observed at up to ~10s per row. */
+    static final double DEFAULT_MS_PER_TRIGGER = 10_000.0;
+    /** Weight of the newest sample. */
+    private static final double ALPHA = 0.3;
+    private static final String CQ_TABLE = "competence_questions";
+    private static final String TRIGGER_KEY = CQ_TABLE + ":triggers";
+
+    private final PublishProperties properties;
+    private final Map<String, Double> msPerStatement = new ConcurrentHashMap<>();
+    /**
+     * Per environment: whether the last competence_questions write bypassed the triggers. Until
+     * a publish has shown this, the triggers are assumed to fire (dropping them may not be allowed).
+     */
+    private final Map<String, Boolean> triggersBypassed = new ConcurrentHashMap<>();
+
+    public PublishCostEstimator(PublishProperties properties) {
+        this.properties = properties;
+    }
+
+    /** True when {@code builder.publish.async-threshold-ms} is set, i.e. estimates can force async publishing. */
+    public boolean asyncThresholdEnabled() {
+        return properties.getAsyncThresholdMs() > 0;
+    }
+
+    /** Planned statements against one table. */
+    public record Work(String table, long statements, long rowsWritten, long rowsDeleted) {}
+
+    /** Statements per table of a questionnaire plan; every DELETE statement counts as one deleted row. */
+    public static List<Work> work(PublishPlan plan) {
+        return work(plan, PublishPlan.Batch::size);
+    }
+
+    /**
+     * Statements per table of a questionnaire plan, with the rows removed by each DELETE batch
+     * from {@code deletedRows} (e.g. {@link MetroLookupRepository#countRowsToDelete}, so that
+     * {@code DELETE ... WHERE questionnaireId = ?} counts every existing row).
+     */
+    public static List<Work> work(PublishPlan plan, ToLongFunction<PublishPlan.Batch> deletedRows) {
+        Map<String, Work> perTable = new LinkedHashMap<>();
+        for (PublishPlan.Batch batch : plan.batches()) {
+            boolean delete = batch.sql().stripLeading().toUpperCase(Locale.ROOT).startsWith("DELETE");
+            long statements = batch.size();
+            long rows = delete ? deletedRows.applyAsLong(batch) : statements;
+            perTable.merge(batch.table(), new Work(batch.table(), statements, delete ? 0 : rows, delete ? rows : 0),
+                    (a, b) -> new Work(a.table(), a.statements() + b.statements(),
+                            a.rowsWritten() + b.rowsWritten(), a.rowsDeleted() + b.rowsDeleted()));
+        }
+        return new ArrayList<>(perTable.values());
+    }
+
+    /**
+     * Estimate planned work against {@code environment}.
+     *
+     * @param triggerGate true when the score trigger gate is installed, so the
+     *                    competence_questions triggers are always skipped
+     */
+    public PublishEstimate estimate(String environment, List<Work> work, boolean triggerGate) {
+        List<PublishEstimate.TableEstimate> tables = new ArrayList<>();
+        long statements = 0, written = 0, deleted = 0, projected = 0;
+        boolean calibrated = true;
+        long cqRows = 0;
+        for (Work w : work) {
+            Double rate = msPerStatement.get(key(environment, w.table()));
+            double ms = rate != null ? rate : DEFAULT_MS_PER_STATEMENT;
+            long tableMs = Math.round(w.statements() * ms);
+            tables.add(new PublishEstimate.TableEstimate(w.table(), w.statements(), w.rowsWritten(), w.rowsDeleted(),
+                    ms, tableMs, rate != null));
+            statements += w.statements();
+            written += w.rowsWritten();
+            deleted += w.rowsDeleted();
+            projected += tableMs;
+            calibrated &= rate != null;
+            if (CQ_TABLE.equals(w.table())) {
+                cqRows += w.rowsWritten() + w.rowsDeleted();
+            }
+        }
+
+        // The triggers fire per row unless the gate skips them or a publish has shown they can be dropped
+        long firings = !triggerGate && !Boolean.TRUE.equals(triggersBypassed.get(environment)) ? cqRows : 0;
+        if (firings > 0) {
+            Double rate = msPerStatement.get(key(environment, TRIGGER_KEY));
+            projected += Math.round(firings * (rate != null ? rate : DEFAULT_MS_PER_TRIGGER));
+        }
+
+        long threshold = properties.getAsyncThresholdMs();
+        return new PublishEstimate(environment, tables, statements, written, deleted, firings,
+                cqRows > 0 && firings == 0, projected, calibrated, threshold > 0 && projected >= threshold);
+    }
+
+    /**
+     * Learn from the per-batch timings of an executed plan ({@code table}, {@code rows}, {@code ms}
+     * entries as returned by {@link MetroLookupRepository#executePlan}).
+     *
+     * @param triggersFired true when competence_questions rows were written with the triggers active
+     */
+    public void recordBatches(String environment, List<Map<String, Object>> batches, boolean triggersFired) {
+        boolean touchedCq = false;
+        for (Map<String, Object> batch : batches) {
+            String table = (String) batch.get("table");
+            boolean cq = CQ_TABLE.equals(table);
+            touchedCq |= cq;
+            record(environment, cq && triggersFired ? TRIGGER_KEY : table,
+                    ((Number) batch.get("rows")).longValue(), ((Number) batch.get("ms")).longValue());
+        }
+        if (touchedCq) {
+            triggersBypassed.put(environment, !triggersFired);
+        }
+    }
+
+    /** Learn that {@code statements} statements against {@code table} took {@code ms} in total. */
+    public void record(String environment, String table, long statements, long ms) {
+        if (statements <= 0) return;
+        double sample = (double) ms / statements;
+        msPerStatement.merge(key(environment, table), sample,
+                (old, next) -> old + ALPHA * (next - old));
+    }
+
+    /**
+     * Learn from a phase that ran statements against several tables in {@code ms} in total;
+     * the time is split over the tables in proportion to their statement counts.
+     */
+    public void recordPhase(String environment, long ms, Map<String, Long> statementsPerTable) {
+        long total = statementsPerTable.values().stream().mapToLong(Long::longValue).sum();
+        if (total <= 0) return;
+        statementsPerTable.forEach((table, statements) ->
+                record(environment, table, statements, Math.round((double) ms * statements / total)));
+    }
+
+    private static String key(String environment, String table) {
+        return environment + "/" + table;
+    }
+}
@@ -0,0 +1,224 @@
+package com.mentesme.builder.service;
+
+import com.mentesme.builder.model.PublishEnvironment;
+import com.mentesme.builder.model.PublishJobStatus;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * A single async publish run. Progress entries are the timing entries the publish
+ * service records; listeners get a replay of everything so far when they subscribe,
+ * then every new entry, then the final status.
+ *
+ * Events are put on a queue per listener and delivered on the events executor, never on the
+ * publish thread: a listener that does network I/O (SSE) cannot slow the publish down. A
+ * listener that falls more than {@value #MAX_PENDING_EVENTS} events behind is dropped.
+ */
+public class PublishJob {
+
+    private static final Logger log = LoggerFactory.getLogger(PublishJob.class);
+
+    static final int MAX_PENDING_EVENTS = 10_000;
+
+    public enum Status { QUEUED, RUNNING, SUCCEEDED, FAILED }
+
+    /** Receives ("progress", key/value) and ("status", snapshot) events. */
+    public interface Listener {
+        void onProgress(String key, Long value);
+
+        void onStatus(PublishJobStatus status);
+    }
+
+    private final String id;
+    private final String type;
+    private final PublishEnvironment environment;
+    private final String userId;
+    private final Instant submittedAt = Instant.now();
+
+    private Status status = Status.QUEUED;
+    private Instant startedAt;
+    private Instant finishedAt;
+    private Object result;
+    private String error;
+    private Integer errorStatus;
+    private final Map<String, Long> progress = new LinkedHashMap<>();
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    private final Executor events;
+
+    PublishJob(String id, String type, PublishEnvironment environment, String userId, Executor events) {
+        this.id = id;
+        this.type = type;
+        this.environment = environment;
+        this.userId = userId;
+        this.events = events;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public String userId() {
+        return userId;
+    }
+
+    public synchronized boolean isFinished() {
+        return status == Status.SUCCEEDED || status == Status.FAILED;
+    }
+
+    synchronized Instant finishedAt() {
+        return finishedAt;
+    }
+
+    /** Progress callback handed to the publish service. */
+    BiConsumer<String, Long> progressSink() {
+        return this::progress;
+    }
+
+    synchronized void started() {
+        status = Status.RUNNING;
+        startedAt = Instant.now();
+        notifyStatus();
+    }
+
+    synchronized void progress(String key, Long value) {
+        progress.put(key, value);
+        publish(listener -> listener.onProgress(key, value));
+    }
+
+    synchronized void succeeded(Object result) {
+        this.result = result;
+        finish(Status.SUCCEEDED);
+    }
+
+    synchronized void failed(String error, int errorStatus) {
+        this.error = error;
+        this.errorStatus = errorStatus;
+        finish(Status.FAILED);
+    }
+
+    private void finish(Status finalStatus) {
+        status = finalStatus;
+        finishedAt = Instant.now();
+        notifyStatus();
+        // Already queued events are still delivered
+        subscriptions.clear();
+    }
+
+    /**
+     * Replay current state to the listener and, unless the job already finished, keep it
+     * registered for further events.
+     */
+    public synchronized void subscribe(Listener listener) {
+        Subscription subscription = new Subscription(listener);
+        progress.forEach((key, value) -> subscription.offer(l -> l.onProgress(key, value)));
+        PublishJobStatus snapshot = snapshot();
+        subscription.offer(l -> l.onStatus(snapshot));
+        if (!isFinished()) {
+            subscriptions.add(subscription);
+        }
+    }
+
+    public synchronized void unsubscribe(Listener listener) {
+        subscriptions.removeIf(subscription -> {
+            if (subscription.listener == listener) {
+                subscription.closed = true;
+                return true;
+            }
+            return false;
+        });
+    }
+
+    public synchronized PublishJobStatus snapshot() {
+        return new PublishJobStatus(id, type, environment, status.name(), submittedAt, startedAt, finishedAt,
+                Collections.unmodifiableMap(new LinkedHashMap<>(progress)), result, error, errorStatus);
+    }
+
+    private void notifyStatus() {
+        PublishJobStatus snapshot = snapshot();
+        publish(listener -> listener.onStatus(snapshot));
+    }
+
+    private void publish(Consumer<Listener> event) {
+        for (Subscription subscription : List.copyOf(subscriptions)) {
+            subscription.offer(event);
+        }
+    }
+
+    /** Queue of one listener, drained by at most one events thread at a time so order is kept. */
+    private final class Subscription {
+        private final Listener listener;
+        private final Queue<Consumer<Listener>> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean closed;
+
+        Subscription(Listener listener) {
+            this.listener = listener;
+        }
+
+        void offer(Consumer<Listener> event) {
+            if (closed) {
+                return;
+            }
+            if (pending.incrementAndGet() > MAX_PENDING_EVENTS) {
+                log.warn("Job {}: listener fell {} events behind, dropping it", id, MAX_PENDING_EVENTS);
+                close();
+                return;
+            }
+            queue.add(event);
+            schedule();
+        }
+
+        private void schedule() {
+            if (!scheduled.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                events.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                log.warn("Job {}: event delivery rejected, dropping listener", id);
+                close();
+            }
+        }
+
+        private void drain() {
+            Consumer<Listener> event;
+            while (!closed && (event = queue.poll()) != null) {
+                pending.decrementAndGet();
+                try {
+                    event.accept(listener);
+                } catch (RuntimeException e) {
+                    close();
+                }
+            }
+            scheduled.set(false);
+            // An event offered after the last poll but before the flag was cleared
+            if (!closed && !queue.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private void close() {
+            closed = true;
+            queue.clear();
+            unsubscribe(listener);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.mentesme.builder.service;
+
+import com.mentesme.builder.config.PublishProperties;
+import com.mentesme.builder.model.PublishEnvironment;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Runs publishes as background jobs on a small bounded executor so request threads
+ * return immediately. When all workers are busy and the queue is full, submits are
+ * rejected with 503 instead of piling up. Progress events reach their listeners through
+ * a second small executor, so a slow SSE client never blocks a publish worker.
+ */
+@Service
+public class PublishJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(PublishJobService.class);
+
+    private final PublishProperties properties;
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor eventExecutor;
+    private final Map<String, PublishJob> jobs = new ConcurrentHashMap<>();
+
+    public PublishJobService(PublishProperties properties) {
+        this.properties = properties;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                properties.getJobThreads(), properties.getJobThreads(),
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(properties.getJobQueueCapacity()),
+                r -> {
+                    Thread t = new Thread(r, "publish-job-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        AtomicInteger eventThreadCount = new AtomicInteger();
+        // One queued task per listener at most; a rejected listener is dropped (see PublishJob)
+        this.eventExecutor = new ThreadPoolExecutor(
+                properties.getJobEventThreads(), properties.getJobEventThreads(),
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(1000),
+                r -> {
+                    Thread t = new Thread(r, "publish-job-events-" + eventThreadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Queue a publish. {@code work} receives the progress callback to pass to the publish
+     * service and returns its result.
+     */
+    public PublishJob submit(String type, PublishEnvironment env, String userId,
+                             Function<BiConsumer<String, Long>, Object> work) {
+        PublishJob job = new PublishJob(UUID.randomUUID().toString(), type, env, userId, eventExecutor);
+        jobs.put(job.id(), job);
+        try {
+            executor.execute(() -> run(job, work));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id());
+            log.warn("Publish job rejected: {} active, {} queued", executor.getActiveCount(), executor.getQueue().size());
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Te veel publicaties tegelijk, probeer het later opnieuw");
+        }
+        log.info("Publish job {} ({}, {}) queued", job.id(), type, env);
+        return job;
+    }
+
+    public Optional<PublishJob> find(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+
+    private void run(PublishJob job, Function<BiConsumer<String, Long>, Object> work) {
+        job.started();
+        try {
+            job.succeeded(work.apply(job.progressSink()));
+            log.info("Publish job {} succeeded", job.id());
+        } catch (ResponseStatusException e) {
+            job.failed(e.getReason() != null ? e.getReason() : e.getMessage(), e.getStatusCode().value());
+            log.warn("Publish job {} failed: {}", job.id(), e.getReason());
+        } catch (IllegalArgumentException e) {
+            job.failed(e.getMessage(), HttpStatus.BAD_REQUEST.value());
+            log.warn("Publish job {} failed validation: {}", job.id(), e.getMessage());
+        } catch (IllegalStateException e) {
+            job.failed(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR.value());
+            log.error("Publish job {} failed: {}", job.id(), e.getMessage());
+        } catch (Exception e) {
+            job.failed(e.getClass().getSimpleName() + ": " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR.value());
+            log.error("Publish job {} unexpected error: {}", job.id(), e.getMessage(), e);
+        }
+    }
+
+    @Scheduled(fixedDelay = 60_000)
+    public void purgeFinishedJobs() {
+        Instant cutoff = Instant.now().minus(properties.getJobRetentionMinutes(), ChronoUnit.MINUTES);
+        jobs.values().removeIf(job -> job.isFinished() && job.finishedAt().isBefore(cutoff));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        eventExecutor.shutdown();
+    }
+}
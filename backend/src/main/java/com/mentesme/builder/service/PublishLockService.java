@@ -0,0 +1,301 @@
+package com.mentesme.builder.service;
+
+import com.mentesme.builder.config.PublishProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-entity publish locks using MySQL advisory locks ({@code GET_LOCK}/{@code RELEASE_LOCK}).
+ *
+ * Locks live in the target database, so they also hold across instances that share it.
+ * They are taken on a dedicated connection (advisory locks are connection-scoped) and held
+ * until the publish transaction has committed or rolled back. Publishes of different
+ * questionnaires/journeys use different lock names and never wait for each other.
+ *
+ * All locks one thread holds on a database share that connection (a lock session): the
+ * Idempotency-Key lock and the questionnaire/journey locks taken inside it cost one pooled
+ * connection together, and a nested lock releases only its own names. The number of lock
+ * sessions per database is capped by {@code builder.publish.max-concurrent-publishes}, so
+ * concurrent publishes (a lock session and a transaction connection each) leave room in the pool.
+ */
+@Service
+public class PublishLockService {
+
+    private static final Logger log = LoggerFactory.getLogger(PublishLockService.class);
+
+    private final PublishProperties properties;
+    private final Map<DataSource, Semaphore> permits = new ConcurrentHashMap<>();
+    private final ThreadLocal<Map<DataSource, Session>> sessions = ThreadLocal.withInitial(HashMap::new);
+
+    public PublishLockService(PublishProperties properties) {
+        this.properties = properties;
+    }
+
+    public static String questionnaireKey(long questionnaireId) {
+        return "questionnaire:" + questionnaireId;
+    }
+
+    /** Questionnaire names are unique on their first 30 characters (case-insensitive). */
+    public static String questionnaireNameKey(String name) {
+        String normalized = name == null ? "" : name.trim();
+        if (normalized.length() > 30) {
+            normalized = normalized.substring(0, 30);
+        }
+        return "questionnaire-name:" + md5(normalized.toLowerCase(Locale.ROOT));
+    }
+
+    public static String journeyKey(long learningJourneyId) {
+        return "journey:" + learningJourneyId;
+    }
+
+    public static String journeyNameKey(String name) {
+        return "journey-name:" + md5(name == null ? "" : name.trim().toLowerCase(Locale.ROOT));
+    }
+
+    /** One cleanup run per questionnaire ID range at a time. */
+    public static String cleanupKey(long fromId, long toId) {
+        return "cleanup:" + fromId + "-" + toId;
+    }
+
+    /** Serializes dropping and recreating the competence_questions triggers. */
+    public static String scoreTriggersKey() {
+        return "score-triggers";
+    }
+
+    /** Serializes requests that carry the same Idempotency-Key for the same kind of publish. */
+    public static String idempotencyKey(String scope, String key) {
+        return "idempotency:" + md5(scope + ":" + key);
+    }
+
+    /**
+     * Take all locks for one publish, waiting at most {@code builder.publish.lock-wait-seconds}
+     * in total. Throws 409 when another publish still holds one of them.
+     *
+     * @param label used in the error message, e.g. {@code questionnaire 'Teamrollen'}
+     */
+    public PublishLock acquire(JdbcTemplate jdbc, String label, Collection<String> keys) {
+        return acquire(jdbc, label, keys, properties.getLockWaitSeconds());
+    }
+
+    /** As {@link #acquire(JdbcTemplate, String, Collection)}, waiting at most {@code waitSeconds}. */
+    public PublishLock acquire(JdbcTemplate jdbc, String label, Collection<String> keys, int waitSeconds) {
+        long start = System.currentTimeMillis();
+        PublishLock lock = tryAcquire(jdbc, keys, waitSeconds);
+        if (lock == null) {
+            log.warn("Publish lock(s) {} not acquired within {}ms", keys, System.currentTimeMillis() - start);
+            throw new ResponseStatusException(HttpStatus.CONFLICT,
+                    "Er loopt al een publicatie van " + label + ". Probeer het over enkele seconden opnieuw.");
+        }
+        return lock;
+    }
+
+    /**
+     * Take all locks, waiting at most {@code waitSeconds}; null when one of them is still held.
+     * Joins the lock session this thread already holds on the database, if any.
+     */
+    public PublishLock tryAcquire(JdbcTemplate jdbc, Collection<String> keys, int waitSeconds) {
+        // Fixed order: two publishes that share several keys cannot deadlock
+        List<String> names = keys.stream().map(k -> "builder:" + k).distinct().sorted().toList();
+        long budgetMs = waitSeconds * 1000L;
+        long start = System.currentTimeMillis();
+
+        DataSource dataSource = jdbc.getDataSource();
+        Session session = sessions.get().get(dataSource);
+        boolean opened = session == null;
+        if (opened) {
+            session = openSession(dataSource);
+        }
+        List<String> held = new ArrayList<>();
+        try {
+            for (String name : names) {
+                long remainingMs = Math.max(0, budgetMs - (System.currentTimeMillis() - start));
+                if (!session.lock(name, (int) Math.ceil(remainingMs / 1000.0))) {
+                    session.release(held);
+                    if (opened) {
+                        session.close();
+                    }
+                    return null;
+                }
+                held.add(name);
+            }
+        } catch (SQLException e) {
+            session.release(held);
+            if (opened) {
+                session.close();
+            }
+            throw new IllegalStateException("Could not acquire publish lock: " + e.getMessage(), e);
+        }
+        long waited = System.currentTimeMillis() - start;
+        if (waited > 100) {
+            log.info("Waited {}ms for publish lock(s) {}", waited, held);
+        }
+        return new PublishLock(session, held, opened, waited);
+    }
+
+    /** Start a lock session: a permit for this database (503 when none frees up in time) and a connection. */
+    private Session openSession(DataSource dataSource) {
+        Semaphore permit = permits.computeIfAbsent(dataSource,
+                ds -> new Semaphore(Math.max(1, properties.getMaxConcurrentPublishes())));
+        try {
+            if (!permit.tryAcquire(properties.getLockWaitSeconds(), TimeUnit.SECONDS)) {
+                log.warn("No publish slot free within {}s ({} concurrent publishes)",
+                        properties.getLockWaitSeconds(), properties.getMaxConcurrentPublishes());
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                        "Te veel publicaties tegelijk, probeer het later opnieuw");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a publish slot", e);
+        }
+        try {
+            Session session = new Session(dataSource, dataSource.getConnection(), permit);
+            sessions.get().put(dataSource, session);
+            return session;
+        } catch (SQLException e) {
+            permit.release();
+            throw new IllegalStateException("Could not open connection for publish lock: " + e.getMessage(), e);
+        }
+    }
+
+    private static boolean getLock(Connection conn, String name, int timeoutSeconds) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            ps.setString(1, name);
+            ps.setInt(2, timeoutSeconds);
+            try (ResultSet rs = ps.executeQuery()) {
+                // 1 = acquired, 0 = timed out, NULL = error
+                return rs.next() && rs.getInt(1) == 1;
+            }
+        }
+    }
+
+    private static void releaseLock(Connection conn, String name) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            ps.setString(1, name);
+            ps.executeQuery().close();
+        }
+    }
+
+    private static String md5(String value) {
+        try {
+            return HexFormat.of().formatHex(
+                    MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The connection holding this thread's advisory locks on one database. Names are counted, so
+     * a name taken again by a nested lock is only released by the outermost one.
+     */
+    private final class Session {
+        private final DataSource dataSource;
+        private final Connection connection;
+        private final Semaphore permit;
+        private final Map<String, Integer> held = new HashMap<>();
+
+        private Session(DataSource dataSource, Connection connection, Semaphore permit) {
+            this.dataSource = dataSource;
+            this.connection = connection;
+            this.permit = permit;
+        }
+
+        private boolean lock(String name, int timeoutSeconds) throws SQLException {
+            if (held.containsKey(name)) {
+                held.merge(name, 1, Integer::sum);
+                return true;
+            }
+            if (!getLock(connection, name, timeoutSeconds)) {
+                return false;
+            }
+            held.put(name, 1);
+            return true;
+        }
+
+        private void release(List<String> names) {
+            for (String name : names) {
+                Integer count = held.get(name);
+                if (count == null) continue;
+                if (count > 1) {
+                    held.put(name, count - 1);
+                    continue;
+                }
+                held.remove(name);
+                try {
+                    releaseLock(connection, name);
+                } catch (SQLException e) {
+                    // Closing the session's connection releases the lock anyway
+                    log.warn("Could not release publish lock {}: {}", name, e.getMessage());
+                }
+            }
+        }
+
+        private void close() {
+            Map<DataSource, Session> threadSessions = sessions.get();
+            threadSessions.remove(dataSource);
+            if (threadSessions.isEmpty()) {
+                sessions.remove();
+            }
+            try (connection) {
+                release(new ArrayList<>(held.keySet()));
+            } catch (SQLException e) {
+                log.warn("Could not close publish lock connection: {}", e.getMessage());
+            } finally {
+                permit.release();
+            }
+        }
+    }
+
+    /**
+     * Held publish locks; closing releases them. The lock that opened the session also returns
+     * its connection to the pool.
+     */
+    public static final class PublishLock implements AutoCloseable {
+        private final Session session;
+        private final List<String> names;
+        private final boolean ownsSession;
+        private final long waitedMs;
+
+        private PublishLock(Session session, List<String> names, boolean ownsSession, long waitedMs) {
+            this.session = session;
+            this.names = names;
+            this.ownsSession = ownsSession;
+            this.waitedMs = waitedMs;
+        }
+
+        public long waitedMs() {
+            return waitedMs;
+        }
+
+        @Override
+        public void close() {
+            session.release(names);
+            if (ownsSession) {
+                session.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.mentesme.builder.service;
+
+import com.mentesme.builder.model.IntegrationPreviewResponse;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Structured publish plan: parameterized statement templates with their bound rows,
+ * grouped per template so each group can run as a single JDBC batch.
+ *
+ * Batches execute in declaration order. The plan builder declares every batch up-front
+ * in FK-safe order (parents before children), so rows can be added in any order later.
+ * Empty batches are skipped during execution and rendering.
+ */
+public class PublishPlan {
+
+    private final Map<String, Batch> batches = new LinkedHashMap<>();
+    private final List<String> warnings = new ArrayList<>();
+    private IntegrationPreviewResponse.Summary summary;
+    private boolean newQuestionnaire;
+    private boolean lookupsCached;
+    private final NameResolution createdNames = NameResolution.empty();
+    private final Map<String, Set<Long>> referencedIds = new LinkedHashMap<>();
+
+    /**
+     * Declare (or fetch) the batch for a statement template.
+     * The table name is used for diagnostics and per-table timings only.
+     */
+    public Batch batch(String table, String sql) {
+        return batches.computeIfAbsent(sql, s -> new Batch(table, s));
+    }
+
+    /** Non-empty batches in execution order. */
+    public List<Batch> batches() {
+        return batches.values().stream().filter(b -> !b.rows.isEmpty()).toList();
+    }
+
+    /** Total number of statements (rows) across all batches. */
+    public int statementCount() {
+        return batches.values().stream().mapToInt(b -> b.rows.size()).sum();
+    }
+
+    public boolean touches(String table) {
+        return batches.values().stream().anyMatch(b -> !b.rows.isEmpty() && b.table.equals(table));
+    }
+
+    public List<String> warnings() {
+        return warnings;
+    }
+
+    public IntegrationPreviewResponse.Summary summary() {
+        return summary;
+    }
+
+    void setSummary(IntegrationPreviewResponse.Summary summary) {
+        this.summary = summary;
+    }
+
+    /** True when the plan creates the questionnaire (as opposed to re-publishing an existing one). */
+    public boolean isNewQuestionnaire() {
+        return newQuestionnaire;
+    }
+
+    void setNewQuestionnaire(boolean newQuestionnaire) {
+        this.newQuestionnaire = newQuestionnaire;
+    }
+
+    /** True when the lookups behind this plan were reused from an earlier preview of the same request. */
+    public boolean isLookupsCached() {
+        return lookupsCached;
+    }
+
+    void setLookupsCached(boolean lookupsCached) {
+        this.lookupsCached = lookupsCached;
+    }
+
+    /** Categories, goals and competences this plan inserts, keyed like a {@link NameResolution}. */
+    public NameResolution createdNames() {
+        return createdNames;
+    }
+
+    /**
+     * IDs of the rows in {@code table} ({@code groups}, {@code categories}, {@code goals},
+     * {@code competences}) this plan links to, existing or created by the plan itself.
+     */
+    public Set<Long> referencedIds(String table) {
+        return referencedIds.computeIfAbsent(table, t -> new LinkedHashSet<>());
+    }
+
+    /**
+     * Render the plan as readable SQL (one statement per row, literals inlined).
+     * For preview/diagnostics only — execution always uses bound parameters.
+     */
+    public List<String> toSql() {
+        List<String> sql = new ArrayList<>();
+        for (Batch batch : batches()) {
+            for (Object[] row : batch.rows) {
+                sql.add(render(batch.sql, row) + ";");
+            }
+        }
+        return sql;
+    }
+
+    public IntegrationPreviewResponse toPreview() {
+        return new IntegrationPreviewResponse(toSql(), warnings, summary);
+    }
+
+    static String render(String template, Object[] params) {
+        StringBuilder out = new StringBuilder(template.length() + params.length * 8);
+        int p = 0;
+        for (int i = 0; i < template.length(); i++) {
+            char c = template.charAt(i);
+            if (c == '?' && p < params.length) {
+                out.append(literal(params[p++]));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    private static String literal(Object value) {
+        if (value == null) {
+            return "NULL";
+        }
+        if (value instanceof BigDecimal decimal) {
+            return decimal.toPlainString();
+        }
+        if (value instanceof Number) {
+            return value.toString();
+        }
+        if (value instanceof Boolean b) {
+            return b ? "1" : "0";
+        }
+        return "'" + value.toString().replace("'", "''") + "'";
+    }
+
+    // ─────────────────────────────────────────────────────────────
+    // Batch
+    // ─────────────────────────────────────────────────────────────
+
+    public static final class Batch {
+        private final String table;
+        private final String sql;
+        private final List<Object[]> rows = new ArrayList<>();
+
+        private Batch(String table, String sql) {
+            this.table = table;
+            this.sql = sql;
+        }
+
+        public void add(Object... params) {
+            rows.add(params);
+        }
+
+        public String table() {
+            return table;
+        }
+
+        public String sql() {
+            return sql;
+        }
+
+        public List<Object[]> rows() {
+            return Collections.unmodifiableList(rows);
+        }
+
+        public int size() {
+            return rows.size();
+        }
+    }
+}
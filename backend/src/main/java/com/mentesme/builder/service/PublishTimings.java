@@ -0,0 +1,37 @@
+package com.mentesme.builder.service;
+
+import java.util.LinkedHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * Timings map returned in publish results. Every entry is also reported to a progress
+ * listener as it is recorded, so async publish jobs can stream per-phase progress.
+ */
+public class PublishTimings extends LinkedHashMap<String, Long> {
+
+    public static final BiConsumer<String, Long> NO_PROGRESS = (key, value) -> { };
+
+    private final transient BiConsumer<String, Long> listener;
+
+    public PublishTimings(BiConsumer<String, Long> listener) {
+        this.listener = listener == null ? NO_PROGRESS : listener;
+    }
+
+    @Override
+    public Long put(String key, Long value) {
+        Long previous = super.put(key, value);
+        listener.accept(key, value);
+        return previous;
+    }
+
+    /** Summed entries (e.g. retries over several units) are reported with their new total. */
+    @Override
+    public Long merge(String key, Long value, BiFunction<? super Long, ? super Long, ? extends Long> remapping) {
+        Long merged = super.merge(key, value, remapping);
+        if (merged != null) {
+            listener.accept(key, merged);
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,349 @@
+package com.mentesme.builder.service;
+
+import com.mentesme.builder.config.PublishProperties;
+import com.mentesme.builder.model.CleanupResult;
+import com.mentesme.builder.model.PublishEnvironment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Deletes test questionnaires in an ID range from the TEST database without holding long locks.
+ *
+ * The range is walked in chunks of {@code builder.publish.cleanup-chunk-size} questionnaire IDs,
+ * skipping gaps without questionnaire rows. Each chunk runs in its own short transaction: the
+ * child rows are looked up first and deleted by primary key, at most
+ * {@code cleanup-batch-size} keys per statement. Items that another questionnaire outside the
+ * chunk still uses are kept. Between chunks the cleanup pauses for at least
+ * {@code cleanup-pause-ms}, and longer when the chunk itself was slow
+ * ({@code cleanup-throttle-ratio} × its duration), so concurrent publishes and replication keep up.
+ *
+ * Progress is checkpointed per range in {@code builder_cleanup_checkpoints}, in the same
+ * transaction as the chunk: an interrupted cleanup resumes where it stopped when the same range
+ * is requested again.
+ */
+@Service
+public class QuestionnaireCleanupService {
+
+    private static final Logger log = LoggerFactory.getLogger(QuestionnaireCleanupService.class);
+
+    private final PublishProperties properties;
+    private final PublishLockService publishLockService;
+    private final TransactionRetryService transactionRetryService;
+    private final ScoreRecalculationService scoreRecalculationService;
+    private final ScoreTriggerBypassService scoreTriggerBypass;
+    private final MetroIntegrationService metroIntegrationService;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate txTemplate;
+    private final Set<DataSource> ready = ConcurrentHashMap.newKeySet();
+    private final Set<DataSource> unsupported = ConcurrentHashMap.newKeySet();
+
+    public QuestionnaireCleanupService(PublishProperties properties,
+                                       PublishLockService publishLockService,
+                                       TransactionRetryService transactionRetryService,
+                                       ScoreRecalculationService scoreRecalculationService,
+                                       ScoreTriggerBypassService scoreTriggerBypass,
+                                       MetroIntegrationService metroIntegrationService,
+                                       @Qualifier("metroJdbcTemplate") JdbcTemplate jdbcTemplate,
+                                       @Qualifier("metroJdbcTransactionManager") PlatformTransactionManager txManager) {
+        this.properties = properties;
+        this.publishLockService = publishLockService;
+        this.transactionRetryService = transactionRetryService;
+        this.scoreRecalculationService = scoreRecalculationService;
+        this.scoreTriggerBypass = scoreTriggerBypass;
+        this.metroIntegrationService = metroIntegrationService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.txTemplate = new TransactionTemplate(txManager);
+    }
+
+    /**
+     * Delete questionnaires {@code fromId}..{@code toId} (inclusive) with all their rows,
+     * resuming from the checkpoint of an earlier run of the same range unless {@code restart}.
+     * Every progress value is reported to {@code progress} after each chunk.
+     */
+    public CleanupResult cleanup(long fromId, long toId, boolean restart, BiConsumer<String, Long> progress) {
+        checkRange(fromId, toId);
+        String range = fromId + "-" + toId;
+        try (PublishLockService.PublishLock lock = publishLockService.acquire(jdbcTemplate,
+                "opschoning " + range, List.of(PublishLockService.cleanupKey(fromId, toId)), 0)) {
+            long start = System.currentTimeMillis();
+            boolean checkpoints = ensureTable();
+            Checkpoint checkpoint = checkpoints && !restart ? readCheckpoint(range) : null;
+            long resumedFrom = checkpoint != null && !checkpoint.completed() ? checkpoint.nextId() : fromId;
+            long earlier = checkpoint != null && !checkpoint.completed() ? checkpoint.deletedRows() : 0;
+            if (resumedFrom != fromId) {
+                log.info("Resuming cleanup of questionnaires {} at {} ({} rows deleted before)", range, resumedFrom, earlier);
+            }
+
+            MetroLookupRepository repo = new MetroLookupRepository(jdbcTemplate);
+            boolean gated = repo.scoreTriggerGateInstalled();
+
+            Map<String, Long> deleted = new LinkedHashMap<>();
+            Map<String, Long> timings = new LinkedHashMap<>();
+            long cursor = resumedFrom;
+            long total = earlier;
+            int chunks = 0;
+            long pausedMs = 0;
+            boolean interrupted = false;
+            while (cursor <= toId) {
+                Long next = nextQuestionnaireId(cursor, toId);
+                if (next == null) {
+                    cursor = toId + 1;
+                    break;
+                }
+                long chunkFrom = next;
+                long chunkTo = Math.min(toId, chunkFrom + properties.getCleanupChunkSize() - 1);
+                long chunkStart = System.currentTimeMillis();
+                long runningTotal = total;
+                var attempt = transactionRetryService.execute("cleanup " + chunkFrom + "-" + chunkTo,
+                        () -> deleteChunk(repo, gated, chunkFrom, chunkTo, range, runningTotal, checkpoints));
+                attempt.record(timings);
+                long chunkMs = System.currentTimeMillis() - chunkStart;
+                attempt.value().forEach((table, rows) -> deleted.merge(table, rows, Long::sum));
+                // Cached preview lookups may point at the deleted questionnaires
+                metroIntegrationService.evictLookups(repo.databaseKey());
+                total += attempt.value().values().stream().mapToLong(Long::longValue).sum();
+                cursor = chunkTo + 1;
+                chunks++;
+                progress.accept("cleanupNextId", cursor);
+                progress.accept("cleanupDeleted_rows", total);
+                progress.accept("cleanupChunk_ms", chunkMs);
+
+                if (cursor <= toId) {
+                    long pause = Math.max(properties.getCleanupPauseMs(),
+                            Math.round(chunkMs * properties.getCleanupThrottleRatio()));
+                    try {
+                        Thread.sleep(pause);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        interrupted = true;
+                        break;
+                    }
+                    pausedMs += pause;
+                }
+            }
+
+            boolean completed = !interrupted && cursor > toId;
+            if (completed && checkpoints) {
+                writeCheckpoint(range, cursor, total, true);
+            }
+            timings.put("lockWait_ms", lock.waitedMs());
+            timings.put("throttle_ms", pausedMs);
+            timings.put("total_ms", System.currentTimeMillis() - start);
+            log.info("Cleanup of questionnaires {}: {} chunks, {} rows deleted in {}ms (completed={})",
+                    range, chunks, total - earlier, timings.get("total_ms"), completed);
+            return new CleanupResult(fromId, toId, resumedFrom, cursor, completed, chunks, deleted, total, timings);
+        }
+    }
+
+    /** Rejects an empty range or one larger than {@code cleanup-max-range}, before a cleanup is queued. */
+    public void checkRange(long fromId, long toId) {
+        if (toId < fromId) {
+            throw new IllegalArgumentException("toId moet groter dan of gelijk aan fromId zijn.");
+        }
+        if (toId - fromId + 1 > properties.getCleanupMaxRange()) {
+            throw new IllegalArgumentException("Bereik te groot (max " + properties.getCleanupMaxRange() + " IDs).");
+        }
+    }
+
+    /** Checkpoint of a range, or an empty map when it was never cleaned up. */
+    public Map<String, Object> status(long fromId, long toId) {
+        Map<String, Object> status = new LinkedHashMap<>();
+        if (!ensureTable()) {
+            return status;
+        }
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "SELECT range_key, next_id, deleted_rows, completed, updated_at FROM builder_cleanup_checkpoints " +
+                        "WHERE range_key = ?", fromId + "-" + toId);
+        if (!rows.isEmpty()) {
+            status.putAll(rows.get(0));
+        }
+        return status;
+    }
+
+    /**
+     * First questionnaire ID in [{@code from}, {@code to}] that still has rows. Only tables
+     * indexed on the questionnaire ID are probed, so gaps are skipped without scanning.
+     */
+    private Long nextQuestionnaireId(long from, long to) {
+        return jdbcTemplate.queryForObject(
+                "SELECT MIN(id) FROM (" +
+                        "SELECT MIN(id) AS id FROM questionnaires WHERE id BETWEEN ? AND ? " +
+                        "UNION ALL SELECT MIN(questionnaireId) FROM questionnaire_translations WHERE questionnaireId BETWEEN ? AND ? " +
+                        "UNION ALL SELECT MIN(questionnaireId) FROM questionnaire_items WHERE questionnaireId BETWEEN ? AND ? " +
+                        "UNION ALL SELECT MIN(questionnaireId) FROM competence_questions WHERE questionnaireId BETWEEN ? AND ?" +
+                        ") m",
+                Long.class, from, to, from, to, from, to, from, to);
+    }
+
+    /**
+     * Delete one chunk in its own transaction, with the questionnaires locked against publishes.
+     * Without the trigger gate the triggers are dropped for this chunk only, not across the pauses.
+     */
+    private Map<String, Long> deleteChunk(MetroLookupRepository repo, boolean gated, long from, long to,
+                                          String range, long totalBefore, boolean checkpoints) {
+        List<Long> questionnaireIds = jdbcTemplate.queryForList(
+                "SELECT id FROM questionnaires WHERE id BETWEEN ? AND ?", Long.class, from, to);
+        List<String> lockKeys = questionnaireIds.stream().map(PublishLockService::questionnaireKey).toList();
+        PublishLockService.PublishLock lock = publishLockService.acquire(jdbcTemplate,
+                "questionnaire " + from + "-" + to, lockKeys);
+        boolean triggersDropped = false;
+        try {
+            triggersDropped = !gated && hasCompetenceQuestions(from, to) && scoreTriggerBypass.bypass(jdbcTemplate);
+            return txTemplate.execute(status -> {
+                if (gated) {
+                    repo.setScoreTriggerGate(true);
+                }
+                try {
+                    Map<String, Long> deleted = deleteRows(repo, from, to);
+                    if (deleted.get("competence_questions") > 0) {
+                        scoreRecalculationService.markDirty(PublishEnvironment.TEST, "questionnaire cleanup");
+                    }
+                    if (checkpoints) {
+                        long rows = deleted.values().stream().mapToLong(Long::longValue).sum();
+                        writeCheckpoint(range, to + 1, totalBefore + rows, false);
+                    }
+                    return deleted;
+                } finally {
+                    if (gated) {
+                        repo.setScoreTriggerGate(false);
+                    }
+                }
+            });
+        } finally {
+            if (triggersDropped) {
+                scoreTriggerBypass.restore(jdbcTemplate);
+            }
+            lock.close();
+        }
+    }
+
+    private boolean hasCompetenceQuestions(long from, long to) {
+        return !jdbcTemplate.queryForList(
+                "SELECT cq_id FROM competence_questions WHERE questionnaireId BETWEEN ? AND ? LIMIT 1",
+                Long.class, from, to).isEmpty();
+    }
+
+    /** Children before parents; items only when no questionnaire outside the chunk uses them. */
+    private Map<String, Long> deleteRows(MetroLookupRepository repo, long from, long to) {
+        Set<Long> itemIds = new LinkedHashSet<>(jdbcTemplate.queryForList(
+                "SELECT itemId FROM questionnaire_items WHERE questionnaireId BETWEEN ? AND ?", Long.class, from, to));
+        // Locks the items, so a publish reusing one of them cannot link it after this check
+        for (List<Long> batch : batches(new ArrayList<>(itemIds))) {
+            itemIds.removeAll(repo.lockSharedItemIds(batch, from, to));
+        }
+        List<Long> exclusiveItems = new ArrayList<>(itemIds);
+        List<Long> cqIds = jdbcTemplate.queryForList(
+                "SELECT cq_id FROM competence_questions WHERE questionnaireId BETWEEN ? AND ?", Long.class, from, to);
+        List<Object[]> groupLinks = jdbcTemplate.query(
+                "SELECT groupId, questionnaireId FROM group_questionnaires WHERE questionnaireId BETWEEN ? AND ?",
+                (rs, rowNum) -> new Object[]{rs.getLong(1), rs.getLong(2)}, from, to);
+
+        Map<String, Long> deleted = new LinkedHashMap<>();
+        deleted.put("item_translations", deleteByKey("item_translations", "itemId", exclusiveItems));
+        deleted.put("competence_items", deleteByKey("competence_items", "itemId", exclusiveItems));
+        deleted.put("questionnaire_items", (long) jdbcTemplate.update(
+                "DELETE FROM questionnaire_items WHERE questionnaireId BETWEEN ? AND ?", from, to));
+        deleted.put("items", deleteByKey("items", "id", exclusiveItems));
+        deleted.put("competence_questions", deleteByKey("competence_questions", "cq_id", cqIds));
+        long links = 0;
+        for (int n : jdbcTemplate.batchUpdate(
+                "DELETE FROM group_questionnaires WHERE groupId = ? AND questionnaireId = ?", groupLinks)) {
+            links += Math.max(n, 0);
+        }
+        deleted.put("group_questionnaires", links);
+        deleted.put("questionnaire_translations", (long) jdbcTemplate.update(
+                "DELETE FROM questionnaire_translations WHERE questionnaireId BETWEEN ? AND ?", from, to));
+        deleted.put("questionnaires", (long) jdbcTemplate.update(
+                "DELETE FROM questionnaires WHERE id BETWEEN ? AND ?", from, to));
+        return deleted;
+    }
+
+    private long deleteByKey(String table, String column, List<Long> keys) {
+        long deleted = 0;
+        for (List<Long> batch : batches(keys)) {
+            deleted += jdbcTemplate.update("DELETE FROM " + table + " WHERE " + column + " IN (" +
+                    placeholders(batch.size()) + ")", batch.toArray());
+        }
+        return deleted;
+    }
+
+    private List<List<Long>> batches(List<Long> keys) {
+        int size = Math.max(1, properties.getCleanupBatchSize());
+        List<List<Long>> batches = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i += size) {
+            batches.add(keys.subList(i, Math.min(keys.size(), i + size)));
+        }
+        return batches;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private record Checkpoint(long nextId, long deletedRows, boolean completed) {}
+
+    private Checkpoint readCheckpoint(String range) {
+        List<Checkpoint> rows = jdbcTemplate.query(
+                "SELECT next_id, deleted_rows, completed FROM builder_cleanup_checkpoints WHERE range_key = ?",
+                (rs, rowNum) -> new Checkpoint(rs.getLong("next_id"), rs.getLong("deleted_rows"), rs.getBoolean("completed")),
+                range);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    private void writeCheckpoint(String range, long nextId, long deletedRows, boolean completed) {
+        Timestamp now = Timestamp.from(Instant.now());
+        int updated = jdbcTemplate.update(
+                "UPDATE builder_cleanup_checkpoints SET next_id = ?, deleted_rows = ?, completed = ?, updated_at = ? " +
+                        "WHERE range_key = ?", nextId, deletedRows, completed, now, range);
+        if (updated == 0) {
+            jdbcTemplate.update(
+                    "INSERT INTO builder_cleanup_checkpoints (range_key, next_id, deleted_rows, completed, updated_at) " +
+                            "VALUES (?, ?, ?, ?, ?)", range, nextId, deletedRows, completed, now);
+        }
+    }
+
+    private boolean ensureTable() {
+        DataSource dataSource = jdbcTemplate.getDataSource();
+        if (ready.contains(dataSource)) return true;
+        if (unsupported.contains(dataSource)) return false;
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS builder_cleanup_checkpoints (
+                    range_key VARCHAR(64) NOT NULL PRIMARY KEY,
+                    next_id BIGINT NOT NULL,
+                    deleted_rows BIGINT NOT NULL,
+                    completed BOOLEAN NOT NULL,
+                    updated_at TIMESTAMP NOT NULL
+                )
+            """);
+            ready.add(dataSource);
+            return true;
+        } catch (SQLException e) {
+            log.warn("Could not create builder_cleanup_checkpoints, cleanups will not be resumable: {}", e.getMessage());
+            unsupported.add(dataSource);
+            return false;
+        }
+    }
+}
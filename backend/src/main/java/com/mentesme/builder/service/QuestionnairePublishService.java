@@ -1,9 +1,15 @@
 package com.mentesme.builder.service;
 
+import com.mentesme.builder.config.PublishProperties;
 import com.mentesme.builder.model.AssessmentBuildRequest;
-import com.mentesme.builder.model.IntegrationPreviewResponse;
+import com.mentesme.builder.model.BulkPublishItemResult;
+import com.mentesme.builder.model.BulkPublishResult;
+import com.mentesme.builder.model.DryRunResult;
+import com.mentesme.builder.model.DualPublishResult;
 import com.mentesme.builder.model.PublishEnvironment;
+import com.mentesme.builder.model.PublishEstimate;
 import com.mentesme.builder.model.PublishResult;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.ObjectProvider;
@@ -11,12 +17,26 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 @Service
 public class QuestionnairePublishService {
@@ -26,6 +46,13 @@ public class QuestionnairePublishService {
     private final MetroIntegrationService metroIntegrationService;
     private final XmlGenerationService xmlGenerationService;
     private final S3XmlUploadService s3XmlUploadService; // null when S3 is disabled
+    private final ScoreRecalculationService scoreRecalculationService;
+    private final PublishLockService publishLockService;
+    private final PublishProperties publishProperties;
+    private final TransactionRetryService transactionRetryService;
+    private final PublishCostEstimator costEstimator;
+    private final ShadowDryRunService shadowDryRunService;
+    private final ScoreTriggerBypassService scoreTriggerBypass;
 
     // Test environment
     private final TransactionTemplate testTxTemplate;
@@ -35,10 +62,20 @@ public class QuestionnairePublishService {
     private final PlatformTransactionManager prodTxManager;
     private final JdbcTemplate prodJdbcTemplate;
 
+    // Runs the PRODUCTION half of a dual publish next to the TEST half on the calling thread
+    private final ThreadPoolExecutor environmentExecutor;
+
     public QuestionnairePublishService(
             MetroIntegrationService metroIntegrationService,
             XmlGenerationService xmlGenerationService,
             ObjectProvider<S3XmlUploadService> s3XmlUploadServiceProvider,
+            ScoreRecalculationService scoreRecalculationService,
+            PublishLockService publishLockService,
+            PublishProperties publishProperties,
+            TransactionRetryService transactionRetryService,
+            PublishCostEstimator costEstimator,
+            ShadowDryRunService shadowDryRunService,
+            ScoreTriggerBypassService scoreTriggerBypass,
             @Qualifier("metroJdbcTransactionManager") PlatformTransactionManager testTxManager,
             @Qualifier("metroJdbcTemplate") JdbcTemplate testJdbcTemplate,
             @Qualifier("metroProdTransactionManager") ObjectProvider<PlatformTransactionManager> prodTxManagerProvider,
@@ -47,156 +84,569 @@ public class QuestionnairePublishService {
         this.metroIntegrationService = metroIntegrationService;
         this.xmlGenerationService = xmlGenerationService;
         this.s3XmlUploadService = s3XmlUploadServiceProvider.getIfAvailable();
+        this.scoreRecalculationService = scoreRecalculationService;
+        this.publishLockService = publishLockService;
+        this.publishProperties = publishProperties;
+        this.transactionRetryService = transactionRetryService;
+        this.costEstimator = costEstimator;
+        this.shadowDryRunService = shadowDryRunService;
+        this.scoreTriggerBypass = scoreTriggerBypass;
         this.testTxTemplate = new TransactionTemplate(testTxManager);
         this.testJdbcTemplate = testJdbcTemplate;
         this.prodTxManager = prodTxManagerProvider.getIfAvailable();
         this.prodJdbcTemplate = prodJdbcTemplateProvider.getIfAvailable();
+        AtomicInteger threadCount = new AtomicInteger();
+        // Bounded like the job pools; a full pool runs the PRODUCTION half on the caller (sequential, not rejected)
+        this.environmentExecutor = new ThreadPoolExecutor(
+                publishProperties.getDualPublishThreads(), publishProperties.getDualPublishThreads(),
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(publishProperties.getDualPublishThreads()),
+                r -> {
+                    Thread t = new Thread(r, "publish-env-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        environmentExecutor.shutdown();
     }
 
     public PublishResult publish(AssessmentBuildRequest request, PublishEnvironment env) {
-        log.info("Publishing questionnaire '{}' to {}", request.assessmentName(), env);
+        return publish(request, env, PublishTimings.NO_PROGRESS);
+    }
 
-        // Resolve environment-specific resources
-        TransactionTemplate txTemplate;
-        JdbcTemplate jdbcTemplate;
-        String s3Prefix;
+    /**
+     * Publish and report every timing entry to {@code progress} as soon as it is recorded.
+     */
+    public PublishResult publish(AssessmentBuildRequest request, PublishEnvironment env,
+                                 BiConsumer<String, Long> progress) {
+        return publish(request, env, progress, null);
+    }
 
-        if (env == PublishEnvironment.PRODUCTION) {
-            if (prodTxManager == null || prodJdbcTemplate == null) {
-                throw new IllegalStateException(
-                        "Production database is not configured. Set BUILDER_METRO_PROD_ENABLED=true with valid credentials.");
-            }
-            txTemplate = new TransactionTemplate(prodTxManager);
-            jdbcTemplate = prodJdbcTemplate;
-            s3Prefix = "production";
-        } else {
-            txTemplate = testTxTemplate;
-            jdbcTemplate = testJdbcTemplate;
-            s3Prefix = "test";
+    /**
+     * Estimate the cost of publishing {@code request} to {@code env} without executing anything.
+     * Plans like a preview, so the lookups are reused by a publish that follows shortly after.
+     */
+    public PublishEstimate estimate(AssessmentBuildRequest request, PublishEnvironment env) {
+        MetroLookupRepository envRepo = new MetroLookupRepository(target(env).jdbcTemplate());
+        PublishPlan plan = metroIntegrationService.previewPlan(request, envRepo);
+        return costEstimator.estimate(env.name(), PublishCostEstimator.work(plan, envRepo::countRowsToDelete),
+                envRepo.scoreTriggerGateInstalled());
+    }
+
+    /**
+     * Run the publish plan for {@code env} against an in-memory shadow loaded with the rows it
+     * refers to. Reads from the target database only: no locks, no reserved IDs, no writes.
+     */
+    public DryRunResult dryRun(AssessmentBuildRequest request, PublishEnvironment env) {
+        Target target = target(env);
+        PublishPlan plan = metroIntegrationService.previewPlan(request, new MetroLookupRepository(target.jdbcTemplate()));
+        return shadowDryRunService.run(plan, target.jdbcTemplate(), env.name());
+    }
+
+    /**
+     * True when the estimate reaches {@code builder.publish.async-threshold-ms}; synchronous
+     * endpoints then run the publish as a job. Skips the estimate when no threshold is set.
+     */
+    public boolean exceedsAsyncThreshold(AssessmentBuildRequest request, PublishEnvironment env) {
+        return costEstimator.asyncThresholdEnabled() && estimate(request, env).runAsync();
+    }
+
+    /**
+     * Publish one request to TEST and PRODUCTION in parallel. XML is generated once and uploaded
+     * under both prefixes; each environment builds and executes its own plan in its own
+     * transaction. Both outcomes are reported, so one environment can succeed while the other fails.
+     */
+    public DualPublishResult publishBoth(AssessmentBuildRequest request) {
+        if (prodTxManager == null || prodJdbcTemplate == null) {
+            throw new IllegalStateException(
+                    "Production database is not configured. Set BUILDER_METRO_PROD_ENABLED=true with valid credentials.");
         }
+        log.info("Publishing questionnaire '{}' to TEST and PRODUCTION", request.assessmentName());
+        long start = System.currentTimeMillis();
+        Map<String, Long> timings = new LinkedHashMap<>();
 
-        // Execute within environment-specific transaction
-        long totalStart = System.currentTimeMillis();
-        return txTemplate.execute(status -> {
-            Map<String, Long> timings = new LinkedHashMap<>();
+        Map<String, String> xml = null;
+        if (s3XmlUploadService != null) {
+            xml = generateXml(request);
+            timings.put("xmlGeneration_ms", System.currentTimeMillis() - start);
+        }
+        Map<String, String> sharedXml = xml;
 
-            // Create environment-specific repository
-            MetroLookupRepository envRepo = new MetroLookupRepository(jdbcTemplate);
+        CompletableFuture<PublishResult> production = CompletableFuture.supplyAsync(
+                () -> publish(request, PublishEnvironment.PRODUCTION, PublishTimings.NO_PROGRESS, sharedXml),
+                environmentExecutor);
+        Map<String, String> errors = new LinkedHashMap<>();
+        PublishResult testResult = outcome(PublishEnvironment.TEST, errors,
+                () -> publish(request, PublishEnvironment.TEST, PublishTimings.NO_PROGRESS, sharedXml));
+        PublishResult productionResult = outcome(PublishEnvironment.PRODUCTION, errors, production::join);
 
-            // Check autocommit for diagnostics
-            try {
-                boolean autoCommit = jdbcTemplate.execute(
-                        (org.springframework.jdbc.core.ConnectionCallback<Boolean>) conn -> conn.getAutoCommit());
-                timings.put("autoCommit", autoCommit ? 1L : 0L);
-            } catch (Exception e) {
-                log.warn("Could not check autoCommit: {}", e.getMessage());
+        timings.put("total_ms", System.currentTimeMillis() - start);
+        log.info("Dual publish of '{}' finished in {}ms (errors: {})",
+                request.assessmentName(), timings.get("total_ms"), errors.keySet());
+        return new DualPublishResult(errors.isEmpty(), testResult, productionResult, errors, timings);
+    }
+
+    private PublishResult outcome(PublishEnvironment env, Map<String, String> errors, Supplier<PublishResult> publish) {
+        try {
+            return publish.get();
+        } catch (RuntimeException e) {
+            RuntimeException cause = e instanceof CompletionException && e.getCause() instanceof RuntimeException re
+                    ? re : e;
+            log.error("[{}] Dual publish failed: {}", env, cause.getMessage());
+            errors.put(env.name(), errorMessage(cause));
+            return null;
+        }
+    }
+
+    /**
+     * Link an already published questionnaire (and its categories and goals) to additional
+     * groups, without re-publishing it. Uses the same set-based link statements as a publish.
+     */
+    public PublishResult assignGroups(long questionnaireId, List<Long> groupIds, PublishEnvironment env) {
+        Target target = target(env);
+        log.info("Assigning questionnaire {} to groups {} in {}", questionnaireId, groupIds, env);
+        try (PublishLockService.PublishLock lock = publishLockService.acquire(target.jdbcTemplate(),
+                "questionnaire " + questionnaireId, List.of(PublishLockService.questionnaireKey(questionnaireId)))) {
+            long start = System.currentTimeMillis();
+            var attempt = transactionRetryService.execute("questionnaire " + questionnaireId,
+                    () -> target.txTemplate().execute(status -> {
+                        Map<String, Long> timings = new LinkedHashMap<>();
+                        timings.put("lockWait_ms", lock.waitedMs());
+                        MetroLookupRepository envRepo = new MetroLookupRepository(target.jdbcTemplate());
+                        PublishPlan plan = metroIntegrationService.buildGroupAssignmentPlan(questionnaireId, groupIds, envRepo);
+                        var execution = envRepo.executePlan(plan);
+                        costEstimator.recordBatches(env.name(), execution.batches(), false);
+                        timings.put("sqlStatementCount", (long) plan.statementCount());
+                        timings.put("total_ms", System.currentTimeMillis() - start);
+                        return new PublishResult(questionnaireId, true, timings);
+                    }));
+            attempt.record(attempt.value().timings());
+            return attempt.value();
+        }
+    }
+
+    /**
+     * Publish many requests to one environment. Lookups run once over the union of all requests
+     * and one ID block is reserved for the whole batch. Requests execute in chunks of
+     * {@code bulk-chunk-size} per transaction, each in its own savepoint, so a failing
+     * questionnaire is reported without affecting the others. XML for all committed
+     * questionnaires is uploaded concurrently afterwards.
+     */
+    public BulkPublishResult publishBulk(List<AssessmentBuildRequest> requests, PublishEnvironment env) {
+        if (requests == null || requests.isEmpty()) {
+            throw new IllegalArgumentException("Geen questionnaires om te publiceren.");
+        }
+        if (requests.size() > publishProperties.getBulkMaxItems()) {
+            throw new IllegalArgumentException("Maximaal " + publishProperties.getBulkMaxItems()
+                    + " questionnaires per bulkpublicatie (ontvangen: " + requests.size() + ").");
+        }
+        Target target = target(env);
+        log.info("Bulk publishing {} questionnaires to {}", requests.size(), env);
+        long start = System.currentTimeMillis();
+        Map<String, Long> timings = new LinkedHashMap<>();
+        BulkPublishItemResult[] results = new BulkPublishItemResult[requests.size()];
+
+        // XML only depends on the requests: generate everything before taking any locks
+        List<Map<String, String>> xml = null;
+        if (s3XmlUploadService != null) {
+            xml = requests.stream().map(this::generateXml).toList();
+            timings.put("xmlGeneration_ms", System.currentTimeMillis() - start);
+        }
+
+        Set<String> lockKeys = new LinkedHashSet<>();
+        for (AssessmentBuildRequest request : requests) {
+            lockKeys.add(PublishLockService.questionnaireNameKey(request.assessmentName()));
+            if (request.editQuestionnaireId() != null) {
+                lockKeys.add(PublishLockService.questionnaireKey(request.editQuestionnaireId()));
             }
+        }
+        Map<Integer, PublishPlan> committed = new LinkedHashMap<>();
+        MetroLookupRepository envRepo = new MetroLookupRepository(target.jdbcTemplate());
+        try (PublishLockService.PublishLock lock = publishLockService.acquire(target.jdbcTemplate(),
+                requests.size() + " questionnaires", lockKeys)) {
+            timings.put("lockWait_ms", lock.waitedMs());
 
-            // Phase 1a: Generate SQL (includes DB lookups)
             long t0 = System.currentTimeMillis();
-            IntegrationPreviewResponse preview = metroIntegrationService.generatePreview(request, envRepo);
-            long t1 = System.currentTimeMillis();
-            timings.put("generatePreview_ms", t1 - t0);
-            timings.put("sqlStatementCount", (long) preview.sqlStatements().size());
-            log.info("[{}] Phase 1a: generatePreview took {}ms ({} SQL statements, questionnaire ID {})",
-                    env, t1 - t0, preview.sqlStatements().size(), preview.summary().questionnaireId());
+            MetroIntegrationService.BulkPlanning bulk = metroIntegrationService.startBulk(requests, envRepo);
+            timings.put("lookups_ms", System.currentTimeMillis() - t0);
 
-            // Phase 1b: Execute SQL statements one by one (with per-statement timing)
-            var perStmtTimings = envRepo.executeSqlStatements(preview.sqlStatements());
-            long t2 = System.currentTimeMillis();
-            timings.put("executeSql_ms", t2 - t1);
-            // Add top-5 slowest statements to timings
-            if (perStmtTimings != null) {
-                var sorted = perStmtTimings.stream()
-                        .sorted((a, b) -> Long.compare((long) b.get("ms"), (long) a.get("ms")))
-                        .limit(5)
-                        .toList();
-                for (int i = 0; i < sorted.size(); i++) {
-                    var entry = sorted.get(i);
-                    timings.put("slow" + (i + 1) + "_ms", (long) entry.get("ms"));
-                    timings.put("slow" + (i + 1) + "_idx", (long) (int) entry.get("i"));
+            // With the score trigger gate every plan skips the triggers inside its own transaction;
+            // without it, one DDL bypass for the whole batch instead of one per questionnaire
+            boolean gated = envRepo.scoreTriggerGateInstalled();
+            boolean triggersDropped = !gated && scoreTriggerBypass.bypass(target.jdbcTemplate());
+            boolean bypassed = gated || triggersDropped;
+            long t1 = System.currentTimeMillis();
+            try {
+                TransactionTemplate itemTx = new TransactionTemplate(target.txTemplate().getTransactionManager());
+                itemTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+                int chunkSize = Math.max(1, publishProperties.getBulkChunkSize());
+                AtomicBoolean duplicateKey = new AtomicBoolean();
+                for (int from = 0; from < requests.size(); from += chunkSize) {
+                    int to = Math.min(requests.size(), from + chunkSize);
+                    executeChunk(requests, from, to, target, itemTx, envRepo, gated, bypassed, bulk, results, committed,
+                            duplicateKey, timings);
+                }
+                if (duplicateKey.get()) {
+                    // IDs inserted outside the builder; the failed questionnaires succeed when sent again
+                    log.warn("[{}] Bulk publish hit duplicate keys, resyncing ID sequences", env);
+                    metroIntegrationService.resyncIds(envRepo);
+                }
+            } finally {
+                if (triggersDropped) {
+                    scoreTriggerBypass.restore(target.jdbcTemplate());
+                }
+                if (bypassed && !committed.isEmpty()) {
+                    scoreRecalculationService.markDirty(env, "bulk questionnaire publish");
                 }
             }
-            log.info("[{}] Phase 1b: executeSqlStatements took {}ms", env, t2 - t1);
-
-            long questionnaireId = preview.summary().questionnaireId();
-
-            // Phase 2: Generate XML, upload to S3, update translation URLs
-            if (s3XmlUploadService != null) {
-                uploadXmlAndUpdateUrls(request, questionnaireId, envRepo, s3Prefix);
-                long t3 = System.currentTimeMillis();
-                timings.put("xmlAndS3Upload_ms", t3 - t2);
-                log.info("[{}] Phase 2: XML generation + S3 upload took {}ms", env, t3 - t2);
-            } else {
-                log.info("[{}] S3 upload disabled; skipping XML upload for questionnaire {}",
-                        env, questionnaireId);
+            timings.put("executeSql_ms", System.currentTimeMillis() - t1);
+            timings.put("scoreTriggerGate", gated ? 1L : 0L);
+            timings.put("scoreRecalcDeferred", bypassed && !committed.isEmpty() ? 1L : 0L);
+        }
+
+        if (s3XmlUploadService != null && !committed.isEmpty()) {
+            long t2 = System.currentTimeMillis();
+            uploadBulkXml(requests, xml, target, envRepo, committed, results);
+            timings.put("xmlAndS3Upload_ms", System.currentTimeMillis() - t2);
+        }
+
+        int succeeded = (int) Arrays.stream(results).filter(BulkPublishItemResult::published).count();
+        timings.put("total_ms", System.currentTimeMillis() - start);
+        log.info("[{}] Bulk publish finished: {} of {} questionnaires published in {}ms",
+                env, succeeded, requests.size(), timings.get("total_ms"));
+        return new BulkPublishResult(succeeded, requests.size() - succeeded, List.of(results), timings);
+    }
+
+    /**
+     * Execute requests [from, to) in one transaction with a savepoint per request. Names created
+     * by a request only become visible to later requests once its savepoint was released, and
+     * are forgotten again when the chunk as a whole fails to commit. A deadlock aborts the whole
+     * transaction rather than one savepoint, so it retries the chunk from its checkpoint.
+     */
+    private void executeChunk(List<AssessmentBuildRequest> requests, int from, int to, Target target,
+                              TransactionTemplate itemTx, MetroLookupRepository envRepo, boolean gated,
+                              boolean triggersBypassed, MetroIntegrationService.BulkPlanning bulk,
+                              BulkPublishItemResult[] results, Map<Integer, PublishPlan> committed,
+                              AtomicBoolean duplicateKey, Map<String, Long> timings) {
+        MetroIntegrationService.BulkPlanning.Checkpoint checkpoint = bulk.checkpoint();
+        Map<Integer, PublishPlan> chunk = new LinkedHashMap<>();
+        Map<Integer, String> errors = new LinkedHashMap<>();
+        try {
+            var attempt = transactionRetryService.execute("bulk chunk [" + from + ", " + to + ")", () -> {
+                bulk.rollback(checkpoint);
+                chunk.clear();
+                errors.clear();
+                target.txTemplate().executeWithoutResult(status -> {
+                    for (int i = from; i < to; i++) {
+                        AssessmentBuildRequest request = requests.get(i);
+                        try {
+                            PublishPlan plan = itemTx.execute(itemStatus -> {
+                                PublishPlan p = metroIntegrationService.buildPlan(request, envRepo, bulk);
+                                var execution = envRepo.executePlan(p, gated);
+                                costEstimator.recordBatches(target.env().name(), execution.batches(), !triggersBypassed);
+                                return p;
+                            });
+                            bulk.accept(plan);
+                            chunk.put(i, plan);
+                        } catch (RuntimeException e) {
+                            if (TransactionRetryService.isRetriable(e)) {
+                                throw e;
+                            }
+                            log.warn("Bulk publish of questionnaire '{}' failed: {}", request.assessmentName(), e.getMessage());
+                            if (TransactionRetryService.isDuplicateKey(e)) {
+                                duplicateKey.set(true);
+                            }
+                            errors.put(i, errorMessage(e));
+                        }
+                    }
+                });
+                return null;
+            });
+            attempt.record(timings);
+        } catch (RuntimeException e) {
+            log.error("Bulk publish chunk [{}, {}) failed to commit: {}", from, to, e.getMessage());
+            bulk.rollback(checkpoint);
+            for (int i = from; i < to; i++) {
+                results[i] = new BulkPublishItemResult(i, requests.get(i).assessmentName(), false, null,
+                        errors.getOrDefault(i, errorMessage(e)));
             }
+            return;
+        }
+        errors.forEach((i, error) ->
+                results[i] = new BulkPublishItemResult(i, requests.get(i).assessmentName(), false, null, error));
+        chunk.forEach((i, plan) -> {
+            long questionnaireId = plan.summary().questionnaireId();
+            committed.put(i, plan);
+            results[i] = new BulkPublishItemResult(i, requests.get(i).assessmentName(), true, questionnaireId, null);
+        });
+    }
 
-            long totalMs = System.currentTimeMillis() - totalStart;
-            timings.put("total_ms", totalMs);
-            timings.put("questionnaireId", questionnaireId);
-            timings.put("groupCount", (long) request.groupIds().size());
-            log.info("[{}] Questionnaire {} published successfully (total: {}ms)",
-                    env, questionnaireId, totalMs);
-            return new PublishResult(questionnaireId, true, timings);
+    /**
+     * Upload the XML of every committed questionnaire at once, then store the URLs of the ones
+     * that made it in a single transaction. A failed upload leaves that questionnaire without XML
+     * URLs; publishing it again repairs it.
+     */
+    private void uploadBulkXml(List<AssessmentBuildRequest> requests, List<Map<String, String>> xml, Target target,
+                               MetroLookupRepository envRepo, Map<Integer, PublishPlan> committed,
+                               BulkPublishItemResult[] results) {
+        Map<Integer, S3XmlUploadService.PendingUploads> uploads = new LinkedHashMap<>();
+        committed.keySet().forEach(i ->
+                uploads.put(i, startXmlUpload(xml.get(i), requests.get(i).assessmentName(), target.s3Prefix())));
+        List<Integer> uploaded = new ArrayList<>();
+        uploads.forEach((i, pending) -> {
+            try {
+                pending.await();
+                uploaded.add(i);
+            } catch (RuntimeException e) {
+                markXmlFailed(results, i, e);
+            }
         });
+        for (Integer i : uploaded) {
+            try {
+                target.txTemplate().executeWithoutResult(status -> updateTranslationUrls(
+                        requests.get(i).assessmentName(), committed.get(i).summary().questionnaireId(),
+                        envRepo, target.s3Prefix()));
+            } catch (RuntimeException e) {
+                markXmlFailed(results, i, e);
+            }
+        }
     }
 
-    private void uploadXmlAndUpdateUrls(AssessmentBuildRequest request, long questionnaireId,
-                                         MetroLookupRepository envRepo, String s3Prefix) {
-        List<String> warnings = new ArrayList<>();
-        String assessmentName = request.assessmentName();
+    private void markXmlFailed(BulkPublishItemResult[] results, int i, RuntimeException e) {
+        BulkPublishItemResult result = results[i];
+        log.error("XML upload for questionnaire {} failed: {}", result.questionnaireId(), e.getMessage());
+        results[i] = new BulkPublishItemResult(i, result.assessmentName(), false, result.questionnaireId(),
+                "Questionnaire is opgeslagen, maar de XML-upload is mislukt: " + e.getMessage());
+    }
+
+    private static String errorMessage(RuntimeException e) {
+        return e instanceof ResponseStatusException rse && rse.getReason() != null ? rse.getReason() : e.getMessage();
+    }
 
-        // Generate XML for both languages
-        String questionnaireNl = xmlGenerationService.generateQuestionnaireXml(request, "nl", warnings);
-        String reportNl = xmlGenerationService.generateReportXml(request, "nl", warnings);
-        String questionnaireEn = xmlGenerationService.generateQuestionnaireXml(request, "en", warnings);
-        String reportEn = xmlGenerationService.generateReportXml(request, "en", warnings);
+    /**
+     * @param xml pre-generated XML documents ({@link #generateXml}), or null to generate them here
+     */
+    private PublishResult publish(AssessmentBuildRequest request, PublishEnvironment env,
+                                  BiConsumer<String, Long> progress, Map<String, String> xml) {
+        log.info("Publishing questionnaire '{}' to {}", request.assessmentName(), env);
 
-        if (!warnings.isEmpty()) {
-            log.warn("XML generation warnings for questionnaire {}: {}", questionnaireId, warnings);
+        // Resolve environment-specific resources
+        Target target = target(env);
+        JdbcTemplate jdbcTemplate = target.jdbcTemplate();
+
+        // Serialize publishes of the same questionnaire (by name and edit ID), across instances.
+        // Held until the transaction below has committed or rolled back.
+        List<String> lockKeys = new ArrayList<>();
+        lockKeys.add(PublishLockService.questionnaireNameKey(request.assessmentName()));
+        if (request.editQuestionnaireId() != null) {
+            lockKeys.add(PublishLockService.questionnaireKey(request.editQuestionnaireId()));
         }
+        try (PublishLockService.PublishLock lock = publishLockService.acquire(jdbcTemplate,
+                "questionnaire '" + request.assessmentName() + "'", lockKeys)) {
+            try {
+                return publishLocked(request, env, progress, xml, target, lock);
+            } catch (RuntimeException e) {
+                if (!TransactionRetryService.isDuplicateKey(e)) {
+                    throw e;
+                }
+                // Rows inserted outside the builder (Metro itself, imports) do not advance the ID
+                // sequences: move them past MAX(id) and publish once more with a fresh reservation
+                log.warn("[{}] Duplicate key publishing '{}', resyncing ID sequences and retrying: {}",
+                        env, request.assessmentName(), e.getMessage());
+                metroIntegrationService.resyncIds(new MetroLookupRepository(jdbcTemplate));
+                return publishLocked(request, env, progress, xml, target, lock);
+            }
+        }
+    }
 
-        // Track successfully uploaded keys for rollback
-        List<String> uploadedKeys = new ArrayList<>();
+    /** Reserve IDs and run the publish transaction; called with the questionnaire's locks held. */
+    private PublishResult publishLocked(AssessmentBuildRequest request, PublishEnvironment env,
+                                        BiConsumer<String, Long> progress, Map<String, String> xml,
+                                        Target target, PublishLockService.PublishLock lock) {
+        TransactionTemplate txTemplate = target.txTemplate();
+        JdbcTemplate jdbcTemplate = target.jdbcTemplate();
+        String s3Prefix = target.s3Prefix();
 
+        // Execute within environment-specific transaction
+        long totalStart = System.currentTimeMillis();
+        MetroLookupRepository triggerRepo = new MetroLookupRepository(jdbcTemplate);
+        // Without the score trigger gate the triggers are dropped around the transaction, never
+        // inside it: DDL commits implicitly on MySQL and would leave a half-written questionnaire.
+        // The drop affects every writer on the database, so only for a plan that writes
+        // competence_questions (the preview's lookups are reused by the plan below).
+        PublishPlan preview = triggerRepo.scoreTriggerGateInstalled() ? null
+                : metroIntegrationService.previewPlan(request, triggerRepo);
+        boolean dropTriggers = preview != null && preview.touches("competence_questions");
+        // IDs are reserved before the transaction, so it never waits for a second pooled connection
+        MetroIntegrationService.ReservedIds reservedIds = metroIntegrationService.reserveIds(request, triggerRepo);
+        boolean triggersDropped = dropTriggers && scoreTriggerBypass.bypass(jdbcTemplate);
         try {
-            // Upload NL questionnaire — key: test/nl/questionnaire_{slug}_NL.xml
-            String nlQuestionnaireKey = s3XmlUploadService.buildKey(s3Prefix, "nl", assessmentName, "questionnaire");
-            s3XmlUploadService.uploadXml(nlQuestionnaireKey, questionnaireNl);
-            uploadedKeys.add(nlQuestionnaireKey);
-
-            // Upload NL report
-            String nlReportKey = s3XmlUploadService.buildKey(s3Prefix, "nl", assessmentName, "report");
-            s3XmlUploadService.uploadXml(nlReportKey, reportNl);
-            uploadedKeys.add(nlReportKey);
-
-            // Upload EN questionnaire
-            String enQuestionnaireKey = s3XmlUploadService.buildKey(s3Prefix, "en", assessmentName, "questionnaire");
-            s3XmlUploadService.uploadXml(enQuestionnaireKey, questionnaireEn);
-            uploadedKeys.add(enQuestionnaireKey);
-
-            // Upload EN report
-            String enReportKey = s3XmlUploadService.buildKey(s3Prefix, "en", assessmentName, "report");
-            s3XmlUploadService.uploadXml(enReportKey, reportEn);
-            uploadedKeys.add(enReportKey);
-
-            // Update DB with S3 URLs
-            envRepo.updateTranslationUrls(questionnaireId, "nl",
-                    s3XmlUploadService.buildUrl(nlQuestionnaireKey),
-                    s3XmlUploadService.buildUrl(nlReportKey));
-            envRepo.updateTranslationUrls(questionnaireId, "en",
-                    s3XmlUploadService.buildUrl(enQuestionnaireKey),
-                    s3XmlUploadService.buildUrl(enReportKey));
-
-            log.info("XML files uploaded to S3 ({}) and URLs stored for questionnaire {} [keys: {}, {}]",
-                    s3Prefix, questionnaireId, nlQuestionnaireKey, enQuestionnaireKey);
-
-        } catch (RuntimeException ex) {
-            log.error("S3 upload or URL update failed for questionnaire {}; rolling back {} uploaded objects",
-                    questionnaireId, uploadedKeys.size(), ex);
-            s3XmlUploadService.deleteObjects(uploadedKeys);
-            throw ex;
+            // A deadlock or lock-wait timeout reruns the whole unit: the plan is rebuilt from the same IDs
+            var attempt = transactionRetryService.execute("questionnaire '" + request.assessmentName() + "'",
+                    () -> txTemplate.execute(status -> {
+                    Map<String, Long> timings = new PublishTimings(progress);
+                    timings.put("lockWait_ms", lock.waitedMs());
+
+                    // Create environment-specific repository
+                    MetroLookupRepository envRepo = new MetroLookupRepository(jdbcTemplate);
+
+                    // Check autocommit for diagnostics
+                    try {
+                        boolean autoCommit = jdbcTemplate.execute(
+                                (org.springframework.jdbc.core.ConnectionCallback<Boolean>) conn -> conn.getAutoCommit());
+                        timings.put("autoCommit", autoCommit ? 1L : 0L);
+                    } catch (Exception e) {
+                        log.warn("Could not check autoCommit: {}", e.getMessage());
+                    }
+
+                    // Phase 1a: Build publish plan (includes DB lookups)
+                    long t0 = System.currentTimeMillis();
+                    PublishPlan plan = metroIntegrationService.buildPlan(request, envRepo, reservedIds);
+                    long t1 = System.currentTimeMillis();
+                    timings.put("generatePreview_ms", t1 - t0);
+                    timings.put("sqlStatementCount", (long) plan.statementCount());
+                    timings.put("sqlBatchCount", (long) plan.batches().size());
+                    // Lookups cached by this publish's own preview do not count as reused
+                    boolean cacheHit = plan.isLookupsCached() && (preview == null || preview.isLookupsCached());
+                    timings.put("planCacheHit", cacheHit ? 1L : 0L);
+                    log.info("[{}] Phase 1a: buildPlan took {}ms ({} statements in {} batches, questionnaire ID {})",
+                            env, t1 - t0, plan.statementCount(), plan.batches().size(), plan.summary().questionnaireId());
+
+                    long questionnaireId = plan.summary().questionnaireId();
+
+                    // Phase 2 (start): XML only depends on the request, so uploads can run while SQL executes.
+                    // Only overlap for new questionnaires: a re-publish overwrites live keys, and a failing
+                    // Phase 1b would otherwise roll back (delete) the files the current version relies on.
+                    S3XmlUploadService.PendingUploads uploads = null;
+                    if (s3XmlUploadService != null && plan.isNewQuestionnaire()) {
+                        uploads = startXmlUpload(xml != null ? xml : generateXml(request), request.assessmentName(), s3Prefix);
+                        timings.put("s3UploadOverlapped", 1L);
+                    }
+
+                    try {
+                        // Phase 1b: Execute plan as JDBC batches (with per-batch timing)
+                        var execution = envRepo.executePlan(plan);
+                        long t2 = System.currentTimeMillis();
+                        boolean triggersBypassed = execution.triggerGate()
+                                || triggersDropped && plan.touches("competence_questions");
+                        costEstimator.recordBatches(env.name(), execution.batches(), !triggersBypassed);
+                        timings.put("executeSql_ms", t2 - t1);
+                        // Triggers were bypassed: recalculate scores once, deferred and coalesced (after commit)
+                        if (triggersBypassed) {
+                            scoreRecalculationService.markDirty(env, "questionnaire publish");
+                        }
+                        timings.put("scoreRecalcDeferred", triggersBypassed ? 1L : 0L);
+                        timings.put("scoreTriggerGate", execution.triggerGate() ? 1L : 0L);
+                        // Add top-5 slowest batches to timings
+                        if (!execution.batches().isEmpty()) {
+                            var sorted = execution.batches().stream()
+                                    .sorted((a, b) -> Long.compare((long) b.get("ms"), (long) a.get("ms")))
+                                    .limit(5)
+                                    .toList();
+                            for (int i = 0; i < sorted.size(); i++) {
+                                var entry = sorted.get(i);
+                                timings.put("slow" + (i + 1) + "_ms", (long) entry.get("ms"));
+                                timings.put("slow" + (i + 1) + "_idx", (long) (int) entry.get("i"));
+                                timings.put("slow" + (i + 1) + "_rows", (long) (int) entry.get("rows"));
+                            }
+                        }
+                        log.info("[{}] Phase 1b: executePlan took {}ms", env, t2 - t1);
+
+                        // Phase 2: Wait for (or start) the parallel uploads, then update translation URLs
+                        if (s3XmlUploadService != null) {
+                            if (uploads == null) {
+                                uploads = startXmlUpload(xml != null ? xml : generateXml(request), request.assessmentName(), s3Prefix);
+                            }
+                            uploads.await();
+                            updateTranslationUrls(request.assessmentName(), questionnaireId, envRepo, s3Prefix);
+                            long t3 = System.currentTimeMillis();
+                            timings.put("xmlAndS3Upload_ms", t3 - t2);
+                            log.info("[{}] Phase 2: XML generation + S3 upload took {}ms after SQL", env, t3 - t2);
+                        } else {
+                            log.info("[{}] S3 upload disabled; skipping XML upload for questionnaire {}",
+                                    env, questionnaireId);
+                        }
+                    } catch (RuntimeException ex) {
+                        if (uploads != null) {
+                            log.error("[{}] Publish of questionnaire {} failed; rolling back S3 uploads", env, questionnaireId);
+                            uploads.rollback();
+                        }
+                        throw ex;
+                    }
+
+                    long totalMs = System.currentTimeMillis() - totalStart;
+                    timings.put("total_ms", totalMs);
+                    timings.put("questionnaireId", questionnaireId);
+                    timings.put("groupCount", (long) request.groupIds().size());
+                    log.info("[{}] Questionnaire {} published successfully (total: {}ms)",
+                            env, questionnaireId, totalMs);
+                    return new PublishResult(questionnaireId, true, timings);
+                }));
+            attempt.record(attempt.value().timings());
+            return attempt.value();
+        } finally {
+            if (triggersDropped) {
+                scoreTriggerBypass.restore(jdbcTemplate);
+            }
+        }
+    }
+
+    private Target target(PublishEnvironment env) {
+        if (env == PublishEnvironment.PRODUCTION) {
+            if (prodTxManager == null || prodJdbcTemplate == null) {
+                throw new IllegalStateException(
+                        "Production database is not configured. Set BUILDER_METRO_PROD_ENABLED=true with valid credentials.");
+            }
+            return new Target(env, new TransactionTemplate(prodTxManager), prodJdbcTemplate, "production");
+        }
+        return new Target(env, testTxTemplate, testJdbcTemplate, "test");
+    }
+
+    /** Environment-specific resources of a publish. */
+    private record Target(PublishEnvironment env, TransactionTemplate txTemplate, JdbcTemplate jdbcTemplate, String s3Prefix) {}
+
+    /**
+     * Generate the four XML documents, keyed {@code {lang}/{type}}. They depend only on the
+     * request, so one generation can serve several environments.
+     */
+    private Map<String, String> generateXml(AssessmentBuildRequest request) {
+        List<String> warnings = new ArrayList<>();
+        Map<String, String> xml = new LinkedHashMap<>();
+        for (String language : List.of("nl", "en")) {
+            xml.put(language + "/questionnaire", xmlGenerationService.generateQuestionnaireXml(request, language, warnings));
+            xml.put(language + "/report", xmlGenerationService.generateReportXml(request, language, warnings));
+        }
+        if (!warnings.isEmpty()) {
+            log.warn("XML generation warnings for questionnaire '{}': {}", request.assessmentName(), warnings);
+        }
+        return xml;
+    }
+
+    /**
+     * Start uploading the generated XML documents in parallel.
+     */
+    private S3XmlUploadService.PendingUploads startXmlUpload(Map<String, String> xml, String assessmentName,
+                                                              String s3Prefix) {
+        // Key: {prefix}/{lang}/{type}_{slug}_{LANG}.xml — depends only on the name
+        Map<String, String> xmlByKey = new LinkedHashMap<>();
+        xml.forEach((document, content) -> {
+            String[] parts = document.split("/");
+            xmlByKey.put(s3XmlUploadService.buildKey(s3Prefix, parts[0], assessmentName, parts[1]), content);
+        });
+        return s3XmlUploadService.uploadXmlAsync(xmlByKey);
+    }
+
+    private void updateTranslationUrls(String assessmentName, long questionnaireId,
+                                       MetroLookupRepository envRepo, String s3Prefix) {
+        for (String language : List.of("nl", "en")) {
+            envRepo.updateTranslationUrls(questionnaireId, language,
+                    s3XmlUploadService.buildUrl(s3XmlUploadService.buildKey(s3Prefix, language, assessmentName, "questionnaire")),
+                    s3XmlUploadService.buildUrl(s3XmlUploadService.buildKey(s3Prefix, language, assessmentName, "report")));
         }
+        log.info("XML files uploaded to S3 ({}) and URLs stored for questionnaire {}", s3Prefix, questionnaireId);
     }
 }
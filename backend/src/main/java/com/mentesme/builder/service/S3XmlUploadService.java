@@ -1,6 +1,7 @@
 package com.mentesme.builder.service;
 
 import com.mentesme.builder.config.S3Properties;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -11,7 +12,16 @@ import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 @ConditionalOnProperty(name = "builder.s3.enabled", havingValue = "true")
@@ -21,10 +31,29 @@ public class S3XmlUploadService {
 
     private final S3Client s3Client;
     private final S3Properties s3Properties;
+    // Bounded pool for blocking PUTs; when saturated the caller uploads itself
+    private final ThreadPoolExecutor uploadExecutor;
 
     public S3XmlUploadService(S3Client s3Client, S3Properties s3Properties) {
         this.s3Client = s3Client;
         this.s3Properties = s3Properties;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.uploadExecutor = new ThreadPoolExecutor(
+                s3Properties.getUploadThreads(), s3Properties.getUploadThreads(),
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(s3Properties.getUploadThreads() * 4),
+                r -> {
+                    Thread t = new Thread(r, "s3-upload-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.uploadExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        uploadExecutor.shutdown();
     }
 
     /**
@@ -43,6 +72,62 @@ public class S3XmlUploadService {
         log.info("Uploaded s3://{}/{}", s3Properties.getBucket(), key);
     }
 
+    /**
+     * Start uploading several XML files in parallel (key → content).
+     * Returns immediately; use {@link PendingUploads#await()} or {@link PendingUploads#rollback()}.
+     */
+    public PendingUploads uploadXmlAsync(Map<String, String> xmlByKey) {
+        PendingUploads pending = new PendingUploads();
+        xmlByKey.forEach((key, xml) ->
+                pending.uploads.put(key, CompletableFuture.runAsync(() -> uploadXml(key, xml), uploadExecutor)));
+        return pending;
+    }
+
+    /**
+     * Handle for a set of in-flight uploads.
+     */
+    public final class PendingUploads {
+        private final Map<String, CompletableFuture<Void>> uploads = new LinkedHashMap<>();
+
+        private PendingUploads() {
+        }
+
+        /**
+         * Wait until every upload has settled. Throws the first failure, if any.
+         */
+        public void await() {
+            settle();
+            for (CompletableFuture<Void> upload : uploads.values()) {
+                try {
+                    upload.join();
+                } catch (CompletionException e) {
+                    throw e.getCause() instanceof RuntimeException re ? re : e;
+                }
+            }
+        }
+
+        /**
+         * Wait for in-flight uploads to settle, then delete every object that was uploaded.
+         * Best-effort, like {@link #deleteObjects(List)}.
+         */
+        public void rollback() {
+            settle();
+            List<String> uploaded = new ArrayList<>();
+            uploads.forEach((key, upload) -> {
+                if (!upload.isCompletedExceptionally()) {
+                    uploaded.add(key);
+                }
+            });
+            deleteObjects(uploaded);
+        }
+
+        private void settle() {
+            CompletableFuture.allOf(uploads.values().toArray(CompletableFuture[]::new))
+                    .exceptionally(e -> null)
+                    .join();
+        }
+    }
+
     /**
      * Build S3 key matching Metro convention: {prefix}/{lang}/{type}_{slug}_{LANG}.xml
      * Example: test/nl/questionnaire_persoonlijk_leiderschap_NL.xml
@@ -0,0 +1,94 @@
+package com.mentesme.builder.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Optional Metro columns and tables, per datasource.
+ *
+ * Not every Metro database has the columns the builder added later or the user progress
+ * tables. Each datasource is probed once, on first use, with a single
+ * {@code INFORMATION_SCHEMA.COLUMNS} query; the answer is kept until {@link #refresh} is
+ * called after a migration the builder ran itself. Safe to use from concurrent publishes.
+ */
+@Component
+public class SchemaCapabilities {
+
+    private static final Logger log = LoggerFactory.getLogger(SchemaCapabilities.class);
+
+    /** An optional column ({@code column} set) or table ({@code column} null). */
+    public enum Capability {
+        JOURNEY_NAME_EN("learning_journeys", "nameEn"),
+        JOURNEY_DESCRIPTION_EN("learning_journeys", "descriptionEn"),
+        JOURNEY_AI_COACH_ENABLED("learning_journeys", "aiCoachEnabled"),
+        USER_LEARNING_JOURNEY("user_learning_journey", null),
+        USER_STEP("user_step", null),
+        USER_STEP_ANSWER("user_step_answer", null);
+
+        private final String table;
+        private final String column;
+
+        Capability(String table, String column) {
+            this.table = table;
+            this.column = column;
+        }
+    }
+
+    private final Map<DataSource, Set<Capability>> probed = new ConcurrentHashMap<>();
+
+    public boolean has(JdbcTemplate jdbc, Capability capability) {
+        return probed.computeIfAbsent(dataSource(jdbc), ds -> probe(jdbc)).contains(capability);
+    }
+
+    /** Probe the datasource of {@code jdbc} again, e.g. after adding a column. */
+    public void refresh(JdbcTemplate jdbc) {
+        probed.put(dataSource(jdbc), probe(jdbc));
+    }
+
+    private static Set<Capability> probe(JdbcTemplate jdbc) {
+        Set<String> tables = EnumSet.allOf(Capability.class).stream()
+                .map(c -> c.table.toUpperCase(Locale.ROOT))
+                .collect(Collectors.toSet());
+        // Case-insensitive: H2 may store identifiers differently than MySQL.
+        // SCHEMA() is the current database on MySQL and the current schema on H2.
+        Set<String> columns = new HashSet<>();
+        jdbc.query("SELECT TABLE_NAME, COLUMN_NAME FROM INFORMATION_SCHEMA.COLUMNS " +
+                        "WHERE UPPER(TABLE_SCHEMA) = UPPER(SCHEMA()) AND UPPER(TABLE_NAME) IN (" +
+                        tables.stream().map(t -> "?").collect(Collectors.joining(", ")) + ")",
+                rs -> {
+                    String table = rs.getString(1).toUpperCase(Locale.ROOT);
+                    columns.add(table);
+                    columns.add(table + "." + rs.getString(2).toUpperCase(Locale.ROOT));
+                },
+                tables.toArray());
+        Set<Capability> present = EnumSet.noneOf(Capability.class);
+        for (Capability capability : Capability.values()) {
+            String key = capability.table.toUpperCase(Locale.ROOT) +
+                    (capability.column == null ? "" : "." + capability.column.toUpperCase(Locale.ROOT));
+            if (columns.contains(key)) {
+                present.add(capability);
+            }
+        }
+        log.info("Schema capabilities: {}", present);
+        return Set.copyOf(present);
+    }
+
+    private static DataSource dataSource(JdbcTemplate jdbc) {
+        DataSource dataSource = jdbc.getDataSource();
+        if (dataSource == null) {
+            throw new IllegalStateException("JdbcTemplate has no DataSource.");
+        }
+        return dataSource;
+    }
+}
@@ -0,0 +1,324 @@
+package com.mentesme.builder.service;
+
+import com.mentesme.builder.config.ScoreRecalculationProperties;
+import com.mentesme.builder.model.PublishEnvironment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Deferred recalculation of user competence scores.
+ *
+ * Publishing bypasses the competence_questions triggers, which would otherwise call
+ * calculate_user_competence_scores_for_all_assessments() (~10s) for every row.
+ * Instead, publishes enqueue a "scores dirty" marker per environment and a background
+ * worker calls the procedure once per burst: it waits until no new marker arrived for
+ * the quiet period (or the oldest marker reached the max delay), then runs once for
+ * all pending markers.
+ *
+ * Every marker is also written to {@code builder_score_markers} in the target database, in
+ * the publish transaction itself, and deleted once the procedure has run after it. At startup
+ * the rows left behind (a restart or crash before the run) are queued again. If the table
+ * cannot be created (missing privileges), markers are kept in memory only.
+ */
+@Service
+public class ScoreRecalculationService {
+
+    private static final Logger log = LoggerFactory.getLogger(ScoreRecalculationService.class);
+
+    private static final String RECALCULATE_SQL = "CALL calculate_user_competence_scores_for_all_assessments()";
+
+    private final ScoreRecalculationProperties properties;
+    private final JdbcTemplate testJdbcTemplate;
+    private final JdbcTemplate prodJdbcTemplate; // null when not configured
+    private final Map<PublishEnvironment, Queue> queues = new EnumMap<>(PublishEnvironment.class);
+    private final Set<DataSource> ready = ConcurrentHashMap.newKeySet();
+    private final Set<DataSource> unsupported = ConcurrentHashMap.newKeySet();
+
+    public ScoreRecalculationService(
+            ScoreRecalculationProperties properties,
+            @Qualifier("metroJdbcTemplate") JdbcTemplate testJdbcTemplate,
+            @Qualifier("metroProdJdbcTemplate") ObjectProvider<JdbcTemplate> prodJdbcTemplateProvider
+    ) {
+        this.properties = properties;
+        this.testJdbcTemplate = testJdbcTemplate;
+        this.prodJdbcTemplate = prodJdbcTemplateProvider.getIfAvailable();
+        for (PublishEnvironment env : PublishEnvironment.values()) {
+            queues.put(env, new Queue());
+        }
+    }
+
+    /**
+     * Mark the scores of an environment as dirty.
+     * Inside a transaction the marker row is written in that transaction and enqueued after
+     * commit; a rolled-back publish leaves nothing behind.
+     */
+    public void markDirty(PublishEnvironment env, String reason) {
+        persist(env, reason);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(env, reason);
+                }
+            });
+        } else {
+            enqueue(env, reason);
+        }
+    }
+
+    private void enqueue(PublishEnvironment env, String reason) {
+        long depth = queues.get(env).add(System.currentTimeMillis());
+        log.info("[{}] Competence scores marked dirty ({}), queue depth {}", env, reason, depth);
+    }
+
+    private void persist(PublishEnvironment env, String reason) {
+        JdbcTemplate jdbc = jdbcTemplate(env);
+        // The table is created at startup; DDL here would borrow a second connection mid-transaction
+        if (jdbc == null || !ready.contains(jdbc.getDataSource())) {
+            return;
+        }
+        try {
+            jdbc.update("INSERT INTO builder_score_markers (reason, created_at) VALUES (?, ?)",
+                    reason.length() > 64 ? reason.substring(0, 64) : reason, Timestamp.from(Instant.now()));
+        } catch (DataAccessException e) {
+            log.warn("[{}] Could not persist score marker ({}), keeping it in memory only: {}",
+                    env, reason, e.getMessage());
+        }
+    }
+
+    /** Queue the markers a previous run of the application left unprocessed. */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverMarkers() {
+        for (PublishEnvironment env : PublishEnvironment.values()) {
+            JdbcTemplate jdbc = jdbcTemplate(env);
+            if (jdbc == null || !ensureTable(jdbc)) {
+                continue;
+            }
+            try {
+                jdbc.query("SELECT COUNT(*), MIN(created_at) FROM builder_score_markers", rs -> {
+                    long count = rs.getLong(1);
+                    if (count > 0) {
+                        queues.get(env).recover(count, rs.getTimestamp(2).getTime());
+                        log.info("[{}] Recovered {} pending score markers", env, count);
+                    }
+                });
+            } catch (DataAccessException e) {
+                log.warn("[{}] Could not read pending score markers: {}", env, e.getMessage());
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${builder.score-recalculation.poll-interval-ms:5000}")
+    public void scheduledDrain() {
+        if (properties.isEnabled()) {
+            drain(false);
+        }
+    }
+
+    /**
+     * Run the procedure for every environment with pending markers.
+     * Unless forced, only environments whose burst has settled (or waited too long) are run.
+     */
+    public void drain(boolean force) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<PublishEnvironment, Queue> entry : queues.entrySet()) {
+            if (force ? entry.getValue().depth() > 0 : entry.getValue().isDue(now, properties)) {
+                run(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void run(PublishEnvironment env, Queue queue) {
+        if (!queue.runLock.tryLock()) {
+            return; // already running; new markers stay queued for the next run
+        }
+        try {
+            JdbcTemplate jdbc = jdbcTemplate(env);
+            long[] taken = queue.take();
+            if (taken[0] == 0) {
+                return;
+            }
+            if (jdbc == null) {
+                log.warn("[{}] Dropping {} score markers: database is not configured", env, taken[0]);
+                return;
+            }
+            long start = System.currentTimeMillis();
+            try {
+                // Rows committed before the run are covered by it; later ones wait for the next run
+                List<Long> markerIds = ready.contains(jdbc.getDataSource())
+                        ? jdbc.queryForList("SELECT marker_id FROM builder_score_markers", Long.class)
+                        : List.of();
+                jdbc.execute(RECALCULATE_SQL);
+                clearMarkers(env, jdbc, markerIds);
+                long elapsed = System.currentTimeMillis() - start;
+                queue.succeeded(start, elapsed, taken[0]);
+                log.info("[{}] Recalculated competence scores for {} coalesced markers in {}ms (lag {}ms)",
+                        env, taken[0], elapsed, start - taken[1]);
+            } catch (Exception e) {
+                queue.failed(taken, start + properties.getMaxDelayMs(), e.getMessage());
+                log.error("[{}] Competence score recalculation failed, {} markers re-queued: {}",
+                        env, taken[0], e.getMessage());
+            }
+        } finally {
+            queue.runLock.unlock();
+        }
+    }
+
+    private void clearMarkers(PublishEnvironment env, JdbcTemplate jdbc, List<Long> markerIds) {
+        try {
+            for (int i = 0; i < markerIds.size(); i += 500) {
+                List<Long> batch = markerIds.subList(i, Math.min(markerIds.size(), i + 500));
+                jdbc.update("DELETE FROM builder_score_markers WHERE marker_id IN (" +
+                        String.join(",", Collections.nCopies(batch.size(), "?")) + ")", batch.toArray());
+            }
+        } catch (DataAccessException e) {
+            // Left behind, they only cause one extra run after the next restart
+            log.warn("[{}] Could not clear {} score markers: {}", env, markerIds.size(), e.getMessage());
+        }
+    }
+
+    private JdbcTemplate jdbcTemplate(PublishEnvironment env) {
+        return env == PublishEnvironment.PRODUCTION ? prodJdbcTemplate : testJdbcTemplate;
+    }
+
+    private boolean ensureTable(JdbcTemplate jdbc) {
+        DataSource dataSource = jdbc.getDataSource();
+        if (ready.contains(dataSource)) return true;
+        if (unsupported.contains(dataSource)) return false;
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS builder_score_markers (
+                    marker_id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+                    reason VARCHAR(64) NOT NULL,
+                    created_at TIMESTAMP NOT NULL
+                )
+            """);
+            ready.add(dataSource);
+            return true;
+        } catch (SQLException e) {
+            log.warn("Could not create builder_score_markers, score markers are kept in memory only: {}",
+                    e.getMessage());
+            unsupported.add(dataSource);
+            return false;
+        }
+    }
+
+    /**
+     * Queue depth, lag and last run per environment (for diagnostics).
+     */
+    public Map<String, Object> status() {
+        long now = System.currentTimeMillis();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", properties.isEnabled());
+        for (Map.Entry<PublishEnvironment, Queue> entry : queues.entrySet()) {
+            result.put(entry.getKey().name().toLowerCase(Locale.ROOT), entry.getValue().snapshot(now));
+        }
+        return result;
+    }
+
+    // ─────────────────────────────────────────────────────────────
+    // Per-environment queue state
+    // ─────────────────────────────────────────────────────────────
+
+    private static final class Queue {
+        private final ReentrantLock runLock = new ReentrantLock();
+        private long depth;
+        private long oldestMarkerAt;
+        private long newestMarkerAt;
+        private long retryAfter;
+        private long runs;
+        private long lastRunAt;
+        private long lastRunMs = -1;
+        private long lastCoalesced;
+        private String lastError;
+
+        synchronized long add(long now) {
+            if (depth == 0) {
+                oldestMarkerAt = now;
+            }
+            newestMarkerAt = now;
+            return ++depth;
+        }
+
+        synchronized void recover(long count, long oldestAt) {
+            oldestMarkerAt = depth == 0 ? oldestAt : Math.min(oldestMarkerAt, oldestAt);
+            newestMarkerAt = Math.max(newestMarkerAt, oldestAt);
+            depth += count;
+        }
+
+        synchronized long depth() {
+            return depth;
+        }
+
+        synchronized boolean isDue(long now, ScoreRecalculationProperties properties) {
+            if (depth == 0 || now < retryAfter) {
+                return false;
+            }
+            return now - newestMarkerAt >= properties.getQuietPeriodMs()
+                    || now - oldestMarkerAt >= properties.getMaxDelayMs();
+        }
+
+        /** Take all pending markers: returns {count, oldestMarkerAt}. */
+        synchronized long[] take() {
+            long[] taken = {depth, oldestMarkerAt};
+            depth = 0;
+            oldestMarkerAt = 0;
+            return taken;
+        }
+
+        synchronized void succeeded(long startedAt, long elapsed, long coalesced) {
+            runs++;
+            lastRunAt = startedAt;
+            lastRunMs = elapsed;
+            lastCoalesced = coalesced;
+            lastError = null;
+        }
+
+        /** Put taken markers back and hold off retrying until the given time. */
+        synchronized void failed(long[] taken, long retryAt, String error) {
+            oldestMarkerAt = depth == 0 ? taken[1] : Math.min(oldestMarkerAt, taken[1]);
+            depth += taken[0];
+            lastError = error;
+            retryAfter = retryAt;
+        }
+
+        synchronized Map<String, Object> snapshot(long now) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("queueDepth", depth);
+            m.put("lagMs", depth == 0 ? 0 : now - oldestMarkerAt);
+            m.put("runs", runs);
+            m.put("lastRunAt", lastRunAt == 0 ? null : Instant.ofEpochMilli(lastRunAt).toString());
+            m.put("lastRunMs", lastRunMs < 0 ? null : lastRunMs);
+            m.put("lastCoalesced", lastCoalesced);
+            m.put("lastError", lastError);
+            return m;
+        }
+    }
+}
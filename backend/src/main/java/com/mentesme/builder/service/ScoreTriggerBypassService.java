@@ -0,0 +1,93 @@
+package com.mentesme.builder.service;
+
+import com.mentesme.builder.config.PublishProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Drops the competence_questions triggers on a database without the score trigger gate, shared
+ * by every publish and cleanup chunk that needs them gone at the same time.
+ *
+ * Callers are counted per database: the first {@link #bypass} drops the triggers, the last
+ * {@link #restore} recreates them, so one caller finishing never brings the triggers back while
+ * another is still writing without them. Every drop and recreate runs under the global
+ * {@code score-triggers} advisory lock, which also keeps instances sharing the database from
+ * running the DDL concurrently. Callers hold the triggers dropped only around their own
+ * transaction: writes of everyone else on the database skip the recalculation meanwhile.
+ */
+@Service
+public class ScoreTriggerBypassService {
+
+    private static final Logger log = LoggerFactory.getLogger(ScoreTriggerBypassService.class);
+
+    private static final List<String> LOCK_KEYS = List.of(PublishLockService.scoreTriggersKey());
+
+    private final PublishLockService publishLockService;
+    private final PublishProperties properties;
+    private final Map<DataSource, Integer> holders = new HashMap<>(); // guarded by itself
+
+    public ScoreTriggerBypassService(PublishLockService publishLockService, PublishProperties properties) {
+        this.publishLockService = publishLockService;
+        this.properties = properties;
+    }
+
+    /**
+     * Make sure the triggers are dropped for the caller; call outside any transaction. True when
+     * they are, and the caller must {@link #restore} afterwards; false when they could not be
+     * dropped (e.g. missing SUPER privilege on prod) and the triggers simply fire.
+     */
+    public boolean bypass(JdbcTemplate jdbc) {
+        try (PublishLockService.PublishLock lock = publishLockService.tryAcquire(jdbc, LOCK_KEYS,
+                properties.getLockWaitSeconds())) {
+            if (lock == null) {
+                log.warn("Score trigger lock not acquired within {}s, triggers stay active",
+                        properties.getLockWaitSeconds());
+                return false;
+            }
+            synchronized (holders) {
+                int count = holders.getOrDefault(jdbc.getDataSource(), 0);
+                if (count == 0 && !new MetroLookupRepository(jdbc).dropCompetenceQuestionTriggers()) {
+                    return false;
+                }
+                holders.put(jdbc.getDataSource(), count + 1);
+                return true;
+            }
+        }
+    }
+
+    /** Counterpart of a successful {@link #bypass}; the last caller recreates the triggers. Never throws. */
+    public void restore(JdbcTemplate jdbc) {
+        PublishLockService.PublishLock lock = null;
+        try {
+            lock = publishLockService.tryAcquire(jdbc, LOCK_KEYS, properties.getLockWaitSeconds());
+        } catch (RuntimeException e) {
+            log.warn("Score trigger lock failed: {}", e.getMessage());
+        }
+        try {
+            if (lock == null) {
+                // Leaving the triggers dropped is worse than racing another instance's DDL
+                log.warn("Score trigger lock not acquired, restoring triggers without it");
+            }
+            synchronized (holders) {
+                int count = holders.getOrDefault(jdbc.getDataSource(), 1) - 1;
+                if (count > 0) {
+                    holders.put(jdbc.getDataSource(), count);
+                    return;
+                }
+                holders.remove(jdbc.getDataSource());
+                new MetroLookupRepository(jdbc).recreateCompetenceQuestionTriggers();
+            }
+        } finally {
+            if (lock != null) {
+                lock.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.mentesme.builder.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reserves ID blocks from a {@code builder_id_sequences} table in the target database.
+ *
+ * Each reservation runs in its own short transaction on a separate connection: the sequence
+ * rows are locked with {@code SELECT ... FOR UPDATE}, advanced by the block size and committed
+ * immediately, so concurrent publishes (other users, other instances) get disjoint blocks
+ * without waiting for each other's publish transaction. Unused IDs of a block are left as gaps.
+ *
+ * A sequence row is seeded from {@code MAX(id) + 1} the first time it is used; after that neither
+ * reservations nor {@link #peek} scan the Metro tables. Metro itself and manual imports insert rows
+ * without advancing the sequence, so a publish can hit a duplicate key on such an ID; the
+ * publish then calls {@link #resync}, which moves every sequence past {@code MAX(id)}, and tries
+ * again. If the table cannot be created (missing privileges), this falls back to
+ * {@link MaxIdAllocator} behavior.
+ */
+@Component
+@ConditionalOnProperty(name = "builder.publish.id-allocator", havingValue = "sequence", matchIfMissing = true)
+public class SequenceTableIdAllocator implements IdAllocator {
+
+    private static final Logger log = LoggerFactory.getLogger(SequenceTableIdAllocator.class);
+
+    private final MaxIdAllocator fallback = new MaxIdAllocator();
+    private final Set<DataSource> ready = ConcurrentHashMap.newKeySet();
+    private final Set<DataSource> unsupported = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public Map<String, Long> reserve(JdbcTemplate jdbc, Map<String, Integer> counts) {
+        DataSource dataSource = jdbc.getDataSource();
+        if (!ensureTable(jdbc)) {
+            return fallback.reserve(jdbc, counts);
+        }
+        // Separate connection: the lock must not live as long as the caller's publish transaction
+        try (Connection conn = dataSource.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                Map<String, Long> first = new HashMap<>();
+                // Fixed lock order so two reservations cannot deadlock
+                for (Map.Entry<String, Integer> entry : new TreeMap<>(counts).entrySet()) {
+                    if (entry.getValue() <= 0) continue;
+                    long next = lockNext(conn, entry.getKey());
+                    try (PreparedStatement ps = conn.prepareStatement(
+                            "UPDATE builder_id_sequences SET next_id = ? WHERE name = ?")) {
+                        ps.setLong(1, next + entry.getValue());
+                        ps.setString(2, entry.getKey());
+                        ps.executeUpdate();
+                    }
+                    first.put(entry.getKey(), next);
+                }
+                conn.commit();
+                return first;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not reserve IDs: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The sequence rows alone; only sequences that were never used yet read {@code MAX(id)} of
+     * their table. Cheap enough to serve as the plan cache's state token on every publish.
+     */
+    @Override
+    public Map<String, Long> peek(JdbcTemplate jdbc) {
+        if (!ensureTable(jdbc)) {
+            return fallback.peek(jdbc);
+        }
+        Map<String, Long> next = new HashMap<>();
+        jdbc.query("SELECT name, next_id FROM builder_id_sequences", rs -> {
+            next.put(rs.getString("name"), rs.getLong("next_id"));
+        });
+        SEQUENCES.forEach((name, target) -> {
+            if (!next.containsKey(name)) {
+                next.put(name, jdbc.queryForObject(
+                        "SELECT COALESCE(MAX(" + target[1] + "), 0) + 1 FROM " + target[0], Long.class));
+            }
+        });
+        return next;
+    }
+
+    @Override
+    public void resync(JdbcTemplate jdbc) {
+        if (!ensureTable(jdbc)) {
+            return;
+        }
+        // Own connection in autocommit, like a reservation: never part of a publish transaction
+        try (Connection conn = jdbc.getDataSource().getConnection()) {
+            for (Map.Entry<String, String[]> entry : new TreeMap<>(SEQUENCES).entrySet()) {
+                String[] target = entry.getValue();
+                long afterMax;
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "SELECT COALESCE(MAX(" + target[1] + "), 0) + 1 FROM " + target[0]);
+                     ResultSet rs = ps.executeQuery()) {
+                    afterMax = rs.next() ? rs.getLong(1) : 1;
+                }
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "UPDATE builder_id_sequences SET next_id = ? WHERE name = ? AND next_id < ?")) {
+                    ps.setLong(1, afterMax);
+                    ps.setString(2, entry.getKey());
+                    ps.setLong(3, afterMax);
+                    if (ps.executeUpdate() > 0) {
+                        log.warn("ID sequence '{}' was behind {}.{}; moved to {}",
+                                entry.getKey(), target[0], target[1], afterMax);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not resync ID sequences: " + e.getMessage(), e);
+        }
+    }
+
+    private long lockNext(Connection conn, String name) throws SQLException {
+        String[] target = SEQUENCES.get(name);
+        if (target == null) {
+            throw new IllegalArgumentException("Unknown ID sequence: " + name);
+        }
+        Long next = selectForUpdate(conn, name);
+        if (next == null) {
+            // First use: seed from the table. INSERT IGNORE lets a concurrent seeder win.
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT IGNORE INTO builder_id_sequences (name, next_id) " +
+                    "SELECT ?, COALESCE(MAX(" + target[1] + "), 0) + 1 FROM " + target[0])) {
+                ps.setString(1, name);
+                ps.executeUpdate();
+            }
+            next = selectForUpdate(conn, name);
+            log.info("Seeded ID sequence '{}' at {}", name, next);
+        }
+        return next;
+    }
+
+    private Long selectForUpdate(Connection conn, String name) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT next_id FROM builder_id_sequences WHERE name = ? FOR UPDATE")) {
+            ps.setString(1, name);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : null;
+            }
+        }
+    }
+
+    private boolean ensureTable(JdbcTemplate jdbc) {
+        DataSource dataSource = jdbc.getDataSource();
+        if (ready.contains(dataSource)) return true;
+        if (unsupported.contains(dataSource)) return false;
+        // Own connection: DDL commits implicitly on MySQL and must not end the caller's transaction
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS builder_id_sequences (
+                    name VARCHAR(64) NOT NULL PRIMARY KEY,
+                    next_id BIGINT NOT NULL
+                )
+            """);
+            ready.add(dataSource);
+            return true;
+        } catch (SQLException e) {
+            log.warn("Could not create builder_id_sequences, falling back to MAX(id)+1 allocation: {}", e.getMessage());
+            unsupported.add(dataSource);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.mentesme.builder.service;
+
+import com.mentesme.builder.model.DryRunResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Runs a questionnaire publish plan against an in-memory H2 shadow of the target database.
+ *
+ * Every dry run gets a fresh database with the schema from {@code schema-metro-shadow.sql}
+ * (H2 in MySQL mode, like the integration tests). Only the rows the plan refers to are copied
+ * from the target: its groups, categories, goals and competences with their translations and
+ * links, the existing items it links to, and on a re-publish the existing questionnaire with
+ * its items. The plan then runs exactly as a publish would. Nothing is locked, reserved or
+ * written in the target database.
+ *
+ * When the plan fails, the shadow is rolled back and the statements are run one by one, so
+ * every statement that violates a constraint is reported instead of only the first.
+ */
+@Service
+public class ShadowDryRunService {
+
+    private static final Logger log = LoggerFactory.getLogger(ShadowDryRunService.class);
+
+    private static final String SCHEMA = "schema-metro-shadow.sql";
+    /** Stop the diagnostic pass after this many violations; later ones are mostly follow-up errors. */
+    static final int MAX_VIOLATIONS = 50;
+    private static final int MAX_STATEMENT_LENGTH = 300;
+
+    /**
+     * Dry-run {@code plan} (built against {@code source} without reserving IDs) and report
+     * violations, row counts and the measured execution time on the shadow.
+     */
+    public DryRunResult run(PublishPlan plan, JdbcTemplate source, String environment) {
+        Map<String, Long> timings = new LinkedHashMap<>();
+        long start = System.currentTimeMillis();
+        SingleConnectionDataSource shadowDataSource = new SingleConnectionDataSource(
+                "jdbc:h2:mem:shadow-" + UUID.randomUUID() + ";MODE=MYSQL;DATABASE_TO_LOWER=TRUE", "sa", "", true);
+        shadowDataSource.setAutoCommit(false);
+        try {
+            new ResourceDatabasePopulator(new ClassPathResource(SCHEMA)).execute(shadowDataSource);
+            JdbcTemplate shadow = new JdbcTemplate(shadowDataSource);
+            Connection conn = shadowDataSource.getConnection();
+            timings.put("shadowSetup_ms", System.currentTimeMillis() - start);
+
+            long t = System.currentTimeMillis();
+            Map<String, Long> loaded = loadReferenceRows(plan, source, shadow);
+            conn.commit();
+            timings.put("load_ms", System.currentTimeMillis() - t);
+
+            t = System.currentTimeMillis();
+            List<DryRunResult.Violation> violations = new ArrayList<>();
+            List<Map<String, Object>> batches = List.of();
+            try {
+                batches = new MetroLookupRepository(shadow).executePlan(plan, false).batches();
+            } catch (RuntimeException e) {
+                conn.rollback();
+                violations = diagnose(plan, shadow);
+                if (violations.isEmpty()) {
+                    // Failed as a whole but not per statement (e.g. a batch-only driver error)
+                    violations.add(new DryRunResult.Violation(null, null, rootMessage(e)));
+                }
+            }
+            long executeMs = System.currentTimeMillis() - t;
+            timings.put("execute_ms", executeMs);
+
+            boolean ok = violations.isEmpty();
+            Map<String, Long> result = ok ? countRows(shadow, tables(plan, loaded)) : Map.of();
+            conn.rollback();
+            timings.put("total_ms", System.currentTimeMillis() - start);
+            log.info("Dry run against {} shadow: {} statements, ok={}, {} violations in {}ms",
+                    environment, plan.statementCount(), ok, violations.size(), timings.get("total_ms"));
+            return new DryRunResult(environment, ok, violations, loaded, result, plan.statementCount(),
+                    executeMs, batches, timings, plan.warnings());
+        } catch (SQLException e) {
+            throw new IllegalStateException("Shadow database for dry run failed: " + e.getMessage(), e);
+        } finally {
+            shadowDataSource.destroy();
+        }
+    }
+
+    /** Copy the rows the plan refers to, parents before children (the shadow has the test FKs). */
+    private Map<String, Long> loadReferenceRows(PublishPlan plan, JdbcTemplate source, JdbcTemplate shadow) {
+        Map<String, Long> loaded = new LinkedHashMap<>();
+        Set<Long> groupIds = plan.referencedIds("groups");
+        Set<Long> categoryIds = plan.referencedIds("categories");
+        Set<Long> goalIds = plan.referencedIds("goals");
+        Set<Long> competenceIds = plan.referencedIds("competences");
+
+        copy(source, shadow, loaded, "groups", "id", groupIds);
+        copy(source, shadow, loaded, "categories", "id", categoryIds);
+        copy(source, shadow, loaded, "category_translations", "categoryId", categoryIds);
+        copy(source, shadow, loaded, "goals", "id", goalIds);
+        copy(source, shadow, loaded, "goal_translations", "goalId", goalIds);
+        copy(source, shadow, loaded, "competences", "id", competenceIds);
+        copy(source, shadow, loaded, "competence_translations", "competenceId", competenceIds);
+        copy(source, shadow, loaded, "category_competences", "competenceId", competenceIds);
+        copy(source, shadow, loaded, "goal_competences", "competenceId", competenceIds);
+        copy(source, shadow, loaded, "group_categories", "groupId", groupIds);
+        copy(source, shadow, loaded, "group_goals", "groupId", groupIds);
+
+        Long questionnaireId = plan.isNewQuestionnaire() || plan.summary() == null
+                ? null : plan.summary().questionnaireId();
+        // Reused items, plus on a re-publish the questionnaire's own items
+        Set<Long> itemIds = new LinkedHashSet<>(plan.referencedIds("items"));
+        if (questionnaireId != null) {
+            List<Long> questionnaire = List.of(questionnaireId);
+            itemIds.addAll(source.queryForList(
+                    "SELECT itemId FROM questionnaire_items WHERE questionnaireId = ?", Long.class, questionnaireId));
+            copy(source, shadow, loaded, "questionnaires", "id", questionnaire);
+            copy(source, shadow, loaded, "questionnaire_translations", "questionnaireId", questionnaire);
+            copy(source, shadow, loaded, "competence_questions", "questionnaireId", questionnaire);
+            copy(source, shadow, loaded, "group_questionnaires", "questionnaireId", questionnaire);
+        }
+        copy(source, shadow, loaded, "items", "id", itemIds);
+        copy(source, shadow, loaded, "item_translations", "itemId", itemIds);
+        copy(source, shadow, loaded, "competence_items", "itemId", itemIds);
+        // All links of these items, so items shared with other questionnaires are recognized
+        copy(source, shadow, loaded, "questionnaire_items", "itemId", itemIds);
+        return loaded;
+    }
+
+    /**
+     * Copy the rows of {@code table} whose {@code column} is in {@code ids}. Only columns that
+     * exist in both databases are copied, so optional target columns do not break the load.
+     */
+    private static void copy(JdbcTemplate source, JdbcTemplate shadow, Map<String, Long> loaded,
+                             String table, String column, Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            loaded.merge(table, 0L, Long::sum);
+            return;
+        }
+        List<String> shadowColumns = shadow.query("SELECT * FROM `" + table + "` LIMIT 0", rs -> {
+            ResultSetMetaData meta = rs.getMetaData();
+            List<String> columns = new ArrayList<>();
+            for (int i = 1; i <= meta.getColumnCount(); i++) {
+                columns.add(meta.getColumnLabel(i));
+            }
+            return columns;
+        });
+        List<Map<String, Object>> rows = source.queryForList(
+                "SELECT * FROM `" + table + "` WHERE " + column + " IN (" +
+                        String.join(", ", Collections.nCopies(ids.size(), "?")) + ")", ids.toArray());
+        if (!rows.isEmpty()) {
+            // queryForList returns case-insensitive maps
+            List<String> columns = shadowColumns.stream().filter(rows.get(0)::containsKey).toList();
+            String sql = "INSERT INTO `" + table + "` (`" + String.join("`, `", columns) + "`) VALUES (" +
+                    String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+            shadow.batchUpdate(sql, rows.stream()
+                    .map(row -> columns.stream().map(row::get).toArray())
+                    .toList());
+        }
+        loaded.merge(table, (long) rows.size(), Long::sum);
+    }
+
+    /** Run every statement on its own and collect the ones the shadow rejects. */
+    private static List<DryRunResult.Violation> diagnose(PublishPlan plan, JdbcTemplate shadow) {
+        List<DryRunResult.Violation> violations = new ArrayList<>();
+        for (PublishPlan.Batch batch : plan.batches()) {
+            for (Object[] row : batch.rows()) {
+                try {
+                    shadow.update(batch.sql(), row);
+                } catch (DataAccessException e) {
+                    String statement = PublishPlan.render(batch.sql(), row);
+                    if (statement.length() > MAX_STATEMENT_LENGTH) {
+                        statement = statement.substring(0, MAX_STATEMENT_LENGTH) + "...";
+                    }
+                    violations.add(new DryRunResult.Violation(batch.table(), statement, rootMessage(e)));
+                    if (violations.size() >= MAX_VIOLATIONS) {
+                        return violations;
+                    }
+                }
+            }
+        }
+        return violations;
+    }
+
+    private static List<String> tables(PublishPlan plan, Map<String, Long> loaded) {
+        Set<String> tables = new LinkedHashSet<>(loaded.keySet());
+        plan.batches().forEach(batch -> tables.add(batch.table()));
+        return new ArrayList<>(tables);
+    }
+
+    private static Map<String, Long> countRows(JdbcTemplate shadow, List<String> tables) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (String table : tables) {
+            counts.put(table, shadow.queryForObject("SELECT COUNT(*) FROM `" + table + "`", Long.class));
+        }
+        return counts;
+    }
+
+    private static String rootMessage(Throwable e) {
+        Throwable cause = e;
+        while (cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        String message = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+        // H2 appends the full statement and error code after the first line
+        int newline = message.indexOf('\n');
+        return newline > 0 ? message.substring(0, newline).strip() : message;
+    }
+}
@@ -0,0 +1,122 @@
+package com.mentesme.builder.service;
+
+import com.mentesme.builder.config.PublishProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Retries a whole transactional unit when the database aborts it because of lock contention:
+ * deadlocks (MySQL 1213, SQLState 40001) and lock-wait timeouts (1205). Attempts are spaced
+ * with jittered exponential backoff and stop at {@code builder.publish.retry-max-attempts} or
+ * when the next wait would exceed {@code retry-max-total-ms}; then the last failure is rethrown.
+ * Any other failure is rethrown immediately.
+ *
+ * The unit must be safe to run again from scratch: it opens its own transaction and rebuilds
+ * everything derived from database state (plans, lookups) on every attempt. IDs are reserved
+ * once, before the unit, and reused by every attempt; a rolled-back attempt wrote none of them.
+ */
+@Service
+public class TransactionRetryService {
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionRetryService.class);
+
+    // MySQL: ER_LOCK_DEADLOCK, ER_LOCK_WAIT_TIMEOUT
+    private static final Set<Integer> RETRIABLE_ERROR_CODES = Set.of(1213, 1205);
+    // Serialization failure / deadlock (SQL standard, also used by H2)
+    private static final Set<String> RETRIABLE_SQL_STATES = Set.of("40001");
+
+    private final PublishProperties properties;
+
+    public TransactionRetryService(PublishProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Run {@code unit}, retrying it while it fails with a retriable lock conflict.
+     *
+     * @param label used in log messages, e.g. {@code questionnaire 'Teamrollen'}
+     */
+    public <T> Outcome<T> execute(String label, Supplier<T> unit) {
+        int maxAttempts = Math.max(1, properties.getRetryMaxAttempts());
+        long start = System.currentTimeMillis();
+        long waited = 0;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return new Outcome<>(unit.get(), attempt - 1, waited);
+            } catch (RuntimeException e) {
+                if (!isRetriable(e) || attempt >= maxAttempts) {
+                    throw e;
+                }
+                long delay = backoff(attempt);
+                if (System.currentTimeMillis() - start + delay > properties.getRetryMaxTotalMs()) {
+                    log.warn("Giving up on {} after {} attempts: retry budget of {}ms exhausted",
+                            label, attempt, properties.getRetryMaxTotalMs());
+                    throw e;
+                }
+                log.warn("Lock conflict publishing {} (attempt {}/{}), retrying in {}ms: {}",
+                        label, attempt, maxAttempts, delay, e.getMessage());
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                waited += delay;
+            }
+        }
+    }
+
+    /** Exponential backoff with equal jitter: a random wait between half and all of the step. */
+    private long backoff(int attempt) {
+        long step = Math.min(properties.getRetryMaxDelayMs(),
+                properties.getRetryBaseDelayMs() * (1L << Math.min(attempt - 1, 20)));
+        return step / 2 + ThreadLocalRandom.current().nextLong(step / 2 + 1);
+    }
+
+    /** True when {@code e} or one of its causes is a deadlock or lock-wait timeout. */
+    static boolean isRetriable(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof PessimisticLockingFailureException) {
+                return true;
+            }
+            if (t instanceof SQLException sql
+                    && (RETRIABLE_ERROR_CODES.contains(sql.getErrorCode())
+                    || RETRIABLE_SQL_STATES.contains(sql.getSQLState()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** True when {@code e} (or a cause) is a duplicate primary or unique key (MySQL 1062, SQLState 23505). */
+    static boolean isDuplicateKey(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof DuplicateKeyException) {
+                return true;
+            }
+            if (t instanceof SQLException sql && (sql.getErrorCode() == 1062 || "23505".equals(sql.getSQLState()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Result of the successful attempt, with how often and how long it had to wait before. */
+    public record Outcome<T>(T value, int retries, long waitedMs) {
+
+        /** Add the retry count and wait time to {@code timings} (summed over several units). */
+        public void record(Map<String, Long> timings) {
+            timings.merge("txRetries", (long) retries, Long::sum);
+            timings.merge("txRetryWait_ms", waitedMs, Long::sum);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+-- Shadow schema for dry-run publishes (ShadowDryRunService): the Metro tables a questionnaire
+-- publish touches, in H2 MySQL mode. Keep in sync with the assessment tables in
+-- src/test/resources/schema-test.sql.
+
+CREATE TABLE IF NOT EXISTS `groups` (
+  `id` bigint NOT NULL AUTO_INCREMENT,
+  `name` varchar(100) DEFAULT NULL,
+  PRIMARY KEY (`id`)
+);
+
+CREATE TABLE IF NOT EXISTS `questionnaires` (
+  `id` bigint NOT NULL,
+  `name` varchar(30) DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `questionnaires_name` (`name`)
+);
+
+CREATE TABLE IF NOT EXISTS `questionnaire_translations` (
+  `questionnaireId` bigint NOT NULL,
+  `language` varchar(5) NOT NULL,
+  `name` varchar(100) DEFAULT NULL,
+  `questions` varchar(500) DEFAULT NULL,
+  `report` varchar(500) DEFAULT NULL,
+  PRIMARY KEY (`questionnaireId`, `language`)
+);
+
+CREATE TABLE IF NOT EXISTS `categories` (
+  `id` bigint NOT NULL,
+  `name` varchar(255) DEFAULT NULL,
+  PRIMARY KEY (`id`)
+);
+
+CREATE TABLE IF NOT EXISTS `category_translations` (
+  `categoryId` bigint NOT NULL,
+  `language` varchar(5) NOT NULL,
+  `name` varchar(255) DEFAULT NULL,
+  PRIMARY KEY (`categoryId`, `language`)
+);
+
+CREATE TABLE IF NOT EXISTS `goals` (
+  `id` bigint NOT NULL,
+  `name` varchar(255) DEFAULT NULL,
+  PRIMARY KEY (`id`)
+);
+
+CREATE TABLE IF NOT EXISTS `goal_translations` (
+  `goalId` bigint NOT NULL,
+  `language` varchar(5) NOT NULL,
+  `name` varchar(255) DEFAULT NULL,
+  PRIMARY KEY (`goalId`, `language`)
+);
+
+CREATE TABLE IF NOT EXISTS `competences` (
+  `id` bigint NOT NULL,
+  `name` varchar(255) DEFAULT NULL,
+  `description` varchar(1000) DEFAULT NULL,
+  `defaultMinPassScore` int DEFAULT NULL,
+  `defaultMinMentorScore` int DEFAULT NULL,
+  PRIMARY KEY (`id`)
+);
+
+CREATE TABLE IF NOT EXISTS `competence_translations` (
+  `competenceId` bigint NOT NULL,
+  `language` varchar(5) NOT NULL,
+  `name` varchar(255) DEFAULT NULL,
+  `description` varchar(1000) DEFAULT NULL,
+  PRIMARY KEY (`competenceId`, `language`)
+);
+
+CREATE TABLE IF NOT EXISTS `category_competences` (
+  `categoryId` bigint NOT NULL,
+  `competenceId` bigint NOT NULL,
+  PRIMARY KEY (`categoryId`, `competenceId`)
+);
+
+CREATE TABLE IF NOT EXISTS `goal_competences` (
+  `goalId` bigint NOT NULL,
+  `competenceId` bigint NOT NULL,
+  PRIMARY KEY (`goalId`, `competenceId`)
+);
+
+CREATE TABLE IF NOT EXISTS `items` (
+  `id` bigint NOT NULL,
+  `name` varchar(255) NOT NULL,
+  `invertOrder` tinyint DEFAULT 0,
+  PRIMARY KEY (`id`)
+);
+
+CREATE TABLE IF NOT EXISTS `item_translations` (
+  `itemId` bigint NOT NULL,
+  `language` varchar(5) NOT NULL,
+  `leftText` varchar(1000) DEFAULT NULL,
+  `rightText` varchar(1000) DEFAULT NULL,
+  PRIMARY KEY (`itemId`, `language`),
+  CONSTRAINT `item_translations_ibfk_1` FOREIGN KEY (`itemId`) REFERENCES `items` (`id`)
+);
+
+CREATE TABLE IF NOT EXISTS `competence_items` (
+  `competenceId` bigint NOT NULL,
+  `itemId` bigint NOT NULL,
+  PRIMARY KEY (`competenceId`, `itemId`),
+  CONSTRAINT `competence_items_ibfk_1` FOREIGN KEY (`itemId`) REFERENCES `items` (`id`)
+);
+
+CREATE TABLE IF NOT EXISTS `questionnaire_items` (
+  `questionnaireId` bigint NOT NULL,
+  `itemId` bigint NOT NULL,
+  `order` int NOT NULL,
+  PRIMARY KEY (`questionnaireId`, `itemId`),
+  CONSTRAINT `questionnaire_items_ibfk_1` FOREIGN KEY (`itemId`) REFERENCES `items` (`id`)
+);
+
+CREATE TABLE IF NOT EXISTS `competence_questions` (
+  `cq_id` bigint NOT NULL,
+  `competenceId` bigint NOT NULL,
+  `questionnaireId` bigint NOT NULL,
+  `questionId` varchar(20) DEFAULT NULL,
+  PRIMARY KEY (`cq_id`)
+);
+
+CREATE TABLE IF NOT EXISTS `group_questionnaires` (
+  `groupId` bigint NOT NULL,
+  `questionnaireId` bigint NOT NULL,
+  `promoted` int DEFAULT 0,
+  `price` decimal(10,2) DEFAULT 0.00,
+  PRIMARY KEY (`groupId`, `questionnaireId`)
+);
+
+CREATE TABLE IF NOT EXISTS `group_categories` (
+  `id` bigint NOT NULL AUTO_INCREMENT,
+  `groupId` bigint DEFAULT NULL,
+  `categoryId` bigint DEFAULT NULL,
+  PRIMARY KEY (`id`)
+);
+
+CREATE TABLE IF NOT EXISTS `group_goals` (
+  `id` bigint NOT NULL AUTO_INCREMENT,
+  `groupId` bigint DEFAULT NULL,
+  `goalId` bigint DEFAULT NULL,
+  PRIMARY KEY (`id`)
+);
@@ -0,0 +1,48 @@
+-- One-time migration: make the competence_questions score triggers skippable per session (Metro schema)
+-- Run this manually on the metro database as a user that may create triggers (SUPER, or TRIGGER with
+-- log_bin_trust_function_creators=1). Needed once per database (TEST and PRODUCTION).
+--
+-- Publishes then SET @builder_skip_score_recalc = 1 on their own connection instead of dropping and
+-- recreating the triggers, so no DDL runs inside the publish transaction. Scores are recalculated once
+-- afterwards by ScoreRecalculationService. Other sessions never set the variable and keep the
+-- recalculation on every change.
+
+CREATE TABLE IF NOT EXISTS builder_schema_migrations (
+    name VARCHAR(100) NOT NULL PRIMARY KEY,
+    applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+DROP TRIGGER IF EXISTS recalculate_user_competence_scores_on_insert_2;
+DROP TRIGGER IF EXISTS recalculate_user_competence_scores_on_update_2;
+DROP TRIGGER IF EXISTS recalculate_user_competence_scores_on_delete_2;
+
+DELIMITER $$
+
+CREATE TRIGGER recalculate_user_competence_scores_on_insert_2 AFTER INSERT ON competence_questions
+FOR EACH ROW
+BEGIN
+    IF @builder_skip_score_recalc IS NULL THEN
+        CALL metro.calculate_user_competence_scores_for_all_assessments();
+    END IF;
+END$$
+
+CREATE TRIGGER recalculate_user_competence_scores_on_update_2 AFTER UPDATE ON competence_questions
+FOR EACH ROW
+BEGIN
+    IF @builder_skip_score_recalc IS NULL THEN
+        CALL metro.calculate_user_competence_scores_for_all_assessments();
+    END IF;
+END$$
+
+CREATE TRIGGER recalculate_user_competence_scores_on_delete_2 AFTER DELETE ON competence_questions
+FOR EACH ROW
+BEGIN
+    IF @builder_skip_score_recalc IS NULL THEN
+        CALL metro.calculate_user_competence_scores_for_all_assessments();
+    END IF;
+END$$
+
+DELIMITER ;
+
+-- Lets the builder detect the gate (MetroLookupRepository.scoreTriggerGateInstalled)
+INSERT IGNORE INTO builder_schema_migrations (name) VALUES ('score-trigger-gate');
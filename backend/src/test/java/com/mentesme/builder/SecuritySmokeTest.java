@@ -1,8 +1,11 @@
 package com.mentesme.builder;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mentesme.builder.config.PublishProperties;
 import com.mentesme.builder.model.*;
 import com.mentesme.builder.model.StepInput.StepType;
+import com.mentesme.builder.service.PublishJob;
+import com.mentesme.builder.service.PublishJobService;
 import com.mentesme.builder.service.TokenService;
 import org.junit.jupiter.api.*;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,6 +25,7 @@ import org.springframework.test.web.servlet.MvcResult;
 
 import javax.sql.DataSource;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -53,6 +57,8 @@ class SecuritySmokeTest {
 
     @Autowired private MockMvc mvc;
     @Autowired private TokenService tokenService;
+    @Autowired private PublishJobService publishJobService;
+    @Autowired private PublishProperties publishProperties;
     @Autowired private ObjectMapper objectMapper;
     @Autowired @Qualifier("metroJdbcTemplate") private JdbcTemplate jdbc;
 
@@ -340,6 +346,79 @@ class SecuritySmokeTest {
                 "No stack trace in 401 response");
     }
 
+    @Test @Order(16)
+    void test5_3_invalidBulkElement_returns400() throws Exception {
+        // List<@Valid ...> bodies fail via method validation instead of MethodArgumentNotValidException
+        MvcResult result = mvc.perform(post("/api/questionnaires/publish-test/bulk")
+                        .header("Authorization", "Bearer " + tokenFor("ADMIN"))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{}]"))
+                .andExpect(status().isBadRequest())
+                .andReturn();
+
+        String responseBody = result.getResponse().getContentAsString();
+        assertTrue(responseBody.contains("[0].assessmentName"),
+                "400 response should name the invalid element: " + responseBody);
+        assertFalse(responseBody.contains("at com.mentesme"),
+                "No stack trace in 400 response");
+    }
+
+    @Test @Order(17)
+    void test5_4_jobEventStream_endsWithTerminalStatus() throws Exception {
+        java.util.concurrent.CountDownLatch start = new java.util.concurrent.CountDownLatch(1);
+        PublishJob job = publishJobService.submit("questionnaire", PublishEnvironment.TEST, "smoketest-user",
+                progress -> {
+                    try {
+                        start.await(5, java.util.concurrent.TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    for (long i = 0; i < 20; i++) {
+                        progress.accept("step_" + i, i);
+                    }
+                    return Map.of("ok", true);
+                });
+
+        // Occupy every event thread until the job has finished, so the stream's RUNNING event is
+        // delivered after the job already completed
+        java.util.concurrent.CountDownLatch release = new java.util.concurrent.CountDownLatch(1);
+        for (int i = 0; i < publishProperties.getJobEventThreads(); i++) {
+            job.subscribe(new PublishJob.Listener() {
+                @Override
+                public void onProgress(String key, Long value) {
+                }
+
+                @Override
+                public void onStatus(PublishJobStatus status) {
+                    try {
+                        release.await(5, java.util.concurrent.TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        MvcResult stream = mvc.perform(get("/api/publish-jobs/" + job.id() + "/events")
+                        .header("Authorization", "Bearer " + tokenFor("ADMIN")))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        start.countDown();
+        for (int i = 0; i < 100 && !job.isFinished(); i++) {
+            Thread.sleep(50);
+        }
+        release.countDown();
+        mvc.perform(asyncDispatch(stream));
+
+        // Events are delivered asynchronously; the stream must not close before the final status
+        String events = stream.getResponse().getContentAsString();
+        int lastStatus = events.lastIndexOf("event:status");
+        assertTrue(lastStatus >= 0, "No status event: " + events);
+        assertTrue(events.substring(lastStatus).contains("\"SUCCEEDED\""),
+                "Last status event should be terminal: " + events.substring(lastStatus));
+        assertFalse(events.substring(lastStatus).contains("event:progress"),
+                "No progress after the terminal status");
+    }
+
     // ═════════════════════════════════════════════════════════════════
     // Request builders
     // ═════════════════════════════════════════════════════════════════
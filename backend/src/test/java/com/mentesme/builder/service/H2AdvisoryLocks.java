@@ -0,0 +1,36 @@
+package com.mentesme.builder.service;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * H2 stand-ins for MySQL GET_LOCK/RELEASE_LOCK, registered as aliases in schema-test.sql.
+ * Scoped per database (like a MySQL server), but not per connection or re-entrant;
+ * good enough for the publish lock tests.
+ */
+public final class H2AdvisoryLocks {
+
+    private static final Map<String, Semaphore> LOCKS = new ConcurrentHashMap<>();
+
+    private H2AdvisoryLocks() {
+    }
+
+    public static Integer getLock(Connection conn, String name, int timeoutSeconds)
+            throws InterruptedException, SQLException {
+        Semaphore lock = LOCKS.computeIfAbsent(conn.getCatalog() + "/" + name, n -> new Semaphore(1));
+        return lock.tryAcquire(timeoutSeconds, TimeUnit.SECONDS) ? 1 : 0;
+    }
+
+    public static Integer releaseLock(Connection conn, String name) throws SQLException {
+        Semaphore lock = LOCKS.get(conn.getCatalog() + "/" + name);
+        if (lock == null) {
+            return null;
+        }
+        lock.release();
+        return 1;
+    }
+}
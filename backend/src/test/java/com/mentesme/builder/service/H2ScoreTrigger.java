@@ -0,0 +1,16 @@
+package com.mentesme.builder.service;
+
+import org.h2.api.Trigger;
+
+import java.sql.Connection;
+
+/**
+ * H2 stand-in for the MySQL competence_questions score triggers: does nothing, but lets a test
+ * see whether the builder dropped them.
+ */
+public class H2ScoreTrigger implements Trigger {
+
+    @Override
+    public void fire(Connection conn, Object[] oldRow, Object[] newRow) {
+    }
+}
@@ -243,6 +243,65 @@ class LearningJourneyLookupIT {
         assertEquals("Worksheet", enDoc.label());
     }
 
+    // ═══════════════════════════════════════════════════════════════════
+    // Test: labels of re-published steps resolved (identifiers no longer positional)
+    // ═══════════════════════════════════════════════════════════════════
+
+    @Test
+    void labelsOfRepublishedJourneyResolvedPerStep() {
+        LearningJourneyPublishRequest original = buildFullRequest("Republish Test");
+        long ljId = publishService.publish(original, PublishEnvironment.TEST).learningJourneyId();
+
+        // A new step at position 2 takes a suffixed identifier; the moved steps keep theirs
+        StepInput inserted = new StepInput(StepType.substap, "Tussenstap", "Intermediate step",
+                "Nieuwe tekst", "New text", false, false, null,
+                List.of(new QuestionInput("Nieuwe vraag?", "New question?", null)), List.of());
+        List<StepInput> steps = new java.util.ArrayList<>(original.steps());
+        steps.add(1, inserted);
+        publishService.publish(new LearningJourneyPublishRequest(
+                original.name(), original.nameEn(), original.description(), original.descriptionEn(),
+                original.groupIds(), false, steps, ljId), PublishEnvironment.TEST);
+
+        LearningJourneyDetail detail = lookupRepository.findById(ljId).orElseThrow();
+
+        assertEquals(List.of("Introductie", "Tussenstap", "Zelfreflectie", "Verdieping", "Afsluiting"),
+                detail.steps().stream().map(StepDetail::titleNl).toList());
+        StepDetail s2 = detail.steps().get(1);
+        assertEquals("Intermediate step", s2.titleEn());
+        assertEquals("Nieuwe tekst", s2.textContentNl());
+        assertEquals(List.of("Nieuwe vraag?"), s2.questions().stream().map(QuestionDetail::textNl).toList());
+        assertEquals(List.of("What is your strength?", "What do you want to improve?"),
+                detail.steps().get(2).questions().stream().map(QuestionDetail::textEn).toList());
+        assertEquals(List.of("Wat heb je geleerd?"),
+                detail.steps().get(3).questions().stream().map(QuestionDetail::textNl).toList());
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // Test: labels served from the cache until the journey is re-published
+    // ═══════════════════════════════════════════════════════════════════
+
+    @Test
+    void labelsCachedUntilRepublish() {
+        LearningJourneyPublishRequest original = buildFullRequest("Cache Test");
+        long ljId = publishService.publish(original, PublishEnvironment.TEST).learningJourneyId();
+        assertEquals("Introductie", lookupRepository.findById(ljId).orElseThrow().steps().get(0).titleNl());
+
+        // A change outside the builder is not seen while the labels are cached
+        jdbc.update("UPDATE labels SET text = 'Buiten de builder' WHERE identifier = ? AND lang = 'nl'",
+                "LJ_" + ljId + "_STEP_1_TITLE");
+        assertEquals("Introductie", lookupRepository.findById(ljId).orElseThrow().steps().get(0).titleNl());
+
+        // A re-publish rewrites the labels and evicts the journey
+        List<StepInput> steps = new java.util.ArrayList<>(original.steps());
+        StepInput s1 = steps.get(0);
+        steps.set(0, new StepInput(s1.type(), "Welkom", s1.titleEn(), s1.textContent(), s1.textContentEn(),
+                s1.chatboxEnabled(), s1.uploadEnabled(), s1.videoUrl(), s1.questions(), s1.documents()));
+        publishService.publish(new LearningJourneyPublishRequest(
+                original.name(), original.nameEn(), original.description(), original.descriptionEn(),
+                original.groupIds(), false, steps, ljId), PublishEnvironment.TEST);
+        assertEquals("Welkom", lookupRepository.findById(ljId).orElseThrow().steps().get(0).titleNl());
+    }
+
     // ═══════════════════════════════════════════════════════════════════
     // Test: structural types derived correctly from colour + size
     // ═══════════════════════════════════════════════════════════════════
@@ -47,6 +47,9 @@ class LearningJourneyPublishServiceIT {
     @Autowired
     private LearningJourneyPublishService publishService;
 
+    @Autowired
+    private SchemaCapabilities schemaCapabilities;
+
     @Autowired
     @Qualifier("metroJdbcTemplate")
     private JdbcTemplate jdbc;
@@ -464,4 +467,185 @@ class LearningJourneyPublishServiceIT {
         assertEquals("big", steps.get(5).get("size"));
         assertEquals("blue", steps.get(5).get("colour"));
     }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // Test: batched inserts link every question to its own step
+    // ═══════════════════════════════════════════════════════════════════
+
+    @Test
+    void largeJourneyLinksQuestionsToTheirOwnSteps() {
+        List<StepInput> steps = new java.util.ArrayList<>();
+        steps.add(new StepInput(StepType.hoofdstap, "H1", "H1",
+                "Tekst", "Text", false, false, null, List.of(), List.of()));
+        steps.add(new StepInput(StepType.hoofdstap, "H2", "H2",
+                null, null, false, false, null, List.of(), List.of()));
+        for (int i = 1; i <= 38; i++) {
+            steps.add(new StepInput(StepType.substap, "Sub" + i, "Sub" + i + " EN",
+                    null, null, false, false, null,
+                    List.of(new QuestionInput("Vraag " + i, "Question " + i, null)),
+                    List.of()));
+        }
+        steps.add(new StepInput(StepType.afsluiting, "Einde", "End",
+                null, null, false, false, null, List.of(), List.of()));
+
+        LearningJourneyPublishResult result = publishService.publish(new LearningJourneyPublishRequest(
+                "Large Journey", null, null, null, List.of(1L), false, steps, null), PublishEnvironment.TEST);
+
+        assertEquals(41L, jdbc.queryForObject("SELECT COUNT(*) FROM steps", Long.class));
+        assertEquals(2L * 41 + 2L + 2L * 38, jdbc.queryForObject("SELECT COUNT(*) FROM labels", Long.class));
+        List<Map<String, Object>> questions = jdbc.queryForList(
+                "SELECT s.position, sq.question, l.text FROM step_question sq " +
+                "JOIN steps s ON s.id = sq.stepId " +
+                "JOIN labels l ON l.identifier = sq.question AND l.lang = 'nl' " +
+                "WHERE s.learningJourneyId = ? ORDER BY s.position", result.learningJourneyId());
+        assertEquals(38, questions.size());
+        for (Map<String, Object> question : questions) {
+            int position = ((Number) question.get("position")).intValue();
+            assertEquals("LJ_" + result.learningJourneyId() + "_STEP_" + position + "_Q_1", question.get("question"));
+            assertEquals("Vraag " + (position - 2), question.get("text"));
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // Test: schema capabilities probed once, refreshed after a migration
+    // ═══════════════════════════════════════════════════════════════════
+
+    @Test
+    void schemaCapabilitiesReflectOptionalColumnsAndTables() {
+        schemaCapabilities.refresh(jdbc);
+        assertTrue(schemaCapabilities.has(jdbc, SchemaCapabilities.Capability.JOURNEY_NAME_EN));
+        assertTrue(schemaCapabilities.has(jdbc, SchemaCapabilities.Capability.JOURNEY_AI_COACH_ENABLED));
+        assertFalse(schemaCapabilities.has(jdbc, SchemaCapabilities.Capability.USER_STEP));
+
+        jdbc.execute("CREATE TABLE IF NOT EXISTS user_step (id bigint NOT NULL AUTO_INCREMENT, PRIMARY KEY (id))");
+        try {
+            // Cached until refreshed
+            assertFalse(schemaCapabilities.has(jdbc, SchemaCapabilities.Capability.USER_STEP));
+            schemaCapabilities.refresh(jdbc);
+            assertTrue(schemaCapabilities.has(jdbc, SchemaCapabilities.Capability.USER_STEP));
+        } finally {
+            jdbc.execute("DROP TABLE IF EXISTS user_step");
+            schemaCapabilities.refresh(jdbc);
+        }
+
+        // The publish still writes aiCoachEnabled, now without probing INFORMATION_SCHEMA itself
+        LearningJourneyPublishRequest request = buildValidRequest();
+        long ljId = publishService.publish(new LearningJourneyPublishRequest(request.name(), request.nameEn(),
+                request.description(), request.descriptionEn(), request.groupIds(), true, request.steps(), null),
+                PublishEnvironment.TEST).learningJourneyId();
+        assertEquals(1, jdbc.queryForObject("SELECT aiCoachEnabled FROM learning_journeys WHERE id = ?", Integer.class, ljId));
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // Test: re-publish reconciles and keeps step IDs + user progress
+    // ═══════════════════════════════════════════════════════════════════
+
+    @Test
+    void republishKeepsStepIdsAndProgressOfUnchangedSteps() {
+        // Progress tables are not part of schema-test.sql; created here without FKs
+        jdbc.execute("CREATE TABLE IF NOT EXISTS user_step (id bigint NOT NULL AUTO_INCREMENT, " +
+                "userLearningJourneyId bigint, stepId bigint, PRIMARY KEY (id))");
+        jdbc.execute("CREATE TABLE IF NOT EXISTS user_step_answer (id bigint NOT NULL AUTO_INCREMENT, " +
+                "userStepId bigint, answer varchar(100), PRIMARY KEY (id))");
+        schemaCapabilities.refresh(jdbc);
+        try {
+            LearningJourneyPublishRequest original = buildValidRequest();
+            long ljId = publishService.publish(original, PublishEnvironment.TEST).learningJourneyId();
+            Map<String, Long> stepIds = new java.util.HashMap<>();
+            for (Map<String, Object> row : jdbc.queryForList(
+                    "SELECT s.id, l.text FROM steps s JOIN labels l ON l.identifier = s.title AND l.lang = 'nl' " +
+                    "WHERE s.learningJourneyId = ?", ljId)) {
+                long stepId = ((Number) row.get("id")).longValue();
+                stepIds.put((String) row.get("text"), stepId);
+                jdbc.update("INSERT INTO user_step (userLearningJourneyId, stepId) VALUES (1, ?)", stepId);
+                jdbc.update("INSERT INTO user_step_answer (userStepId, answer) " +
+                        "SELECT id, 'antwoord' FROM user_step WHERE stepId = ?", stepId);
+            }
+            Map<String, Object> introTitle = jdbc.queryForMap(
+                    "SELECT l.id, l.identifier FROM labels l JOIN steps s ON s.title = l.identifier " +
+                    "WHERE s.id = ? AND l.lang = 'nl'", stepIds.get("Introductie"));
+            List<Long> step2Questions = jdbc.queryForList(
+                    "SELECT id FROM step_question WHERE stepId = ? ORDER BY `order`", Long.class, stepIds.get("Zelfreflectie"));
+
+            // Title typo fixed in step 2, step 3 replaced by a new substep, steps 1 and 4 unchanged
+            List<StepInput> steps = original.steps();
+            StepInput step2 = steps.get(1);
+            StepInput edited2 = new StepInput(step2.type(), "Zelf-reflectie", step2.titleEn(), step2.textContent(),
+                    step2.textContentEn(), step2.chatboxEnabled(), step2.uploadEnabled(), step2.videoUrl(),
+                    List.of(step2.questions().get(0),
+                            new QuestionInput("Waar loop je tegenaan?", "Which obstacles do you face?", null)),
+                    step2.documents());
+            StepInput oefening = new StepInput(StepType.substap, "Oefening", "Exercise", null, null,
+                    false, false, null, List.of(), List.of());
+            LearningJourneyPublishResult result = publishService.publish(new LearningJourneyPublishRequest(
+                    original.name(), original.nameEn(), original.description(), original.descriptionEn(),
+                    original.groupIds(), false, List.of(steps.get(0), edited2, oefening, steps.get(3)), ljId),
+                    PublishEnvironment.TEST);
+
+            assertEquals(ljId, result.learningJourneyId());
+            assertEquals(3L, result.timings().get("stepsKept"));
+            assertEquals(1L, result.timings().get("stepsInserted"));
+            assertEquals(1L, result.timings().get("stepsDeleted"));
+            // Title NL + question EN updated; only the new step's title labels inserted
+            assertEquals(2L, result.timings().get("labelsUpdated"));
+            assertEquals(2L, result.timings().get("labelCount"));
+
+            List<Map<String, Object>> after = jdbc.queryForList(
+                    "SELECT s.id, s.position, l.text FROM steps s JOIN labels l ON l.identifier = s.title AND l.lang = 'nl' " +
+                    "WHERE s.learningJourneyId = ? ORDER BY s.position", ljId);
+            assertEquals(4, after.size());
+            assertEquals(stepIds.get("Introductie"), ((Number) after.get(0).get("id")).longValue());
+            assertEquals(stepIds.get("Zelfreflectie"), ((Number) after.get(1).get("id")).longValue());
+            assertEquals("Zelf-reflectie", after.get(1).get("text"));
+            assertEquals("Oefening", after.get(2).get("text"));
+            assertFalse(stepIds.containsValue(((Number) after.get(2).get("id")).longValue()));
+            assertEquals(stepIds.get("Samenvatting"), ((Number) after.get(3).get("id")).longValue());
+
+            // Unchanged labels are not rewritten, questions keep their rows
+            assertEquals(introTitle, jdbc.queryForMap(
+                    "SELECT l.id, l.identifier FROM labels l JOIN steps s ON s.title = l.identifier " +
+                    "WHERE s.id = ? AND l.lang = 'nl'", stepIds.get("Introductie")));
+            assertEquals(step2Questions, jdbc.queryForList(
+                    "SELECT id FROM step_question WHERE stepId = ? ORDER BY `order`", Long.class, stepIds.get("Zelfreflectie")));
+            assertEquals("Which obstacles do you face?", jdbc.queryForObject(
+                    "SELECT l.text FROM labels l JOIN step_question sq ON sq.question = l.identifier " +
+                    "WHERE sq.id = ? AND l.lang = 'en'", String.class, step2Questions.get(1)));
+
+            // The removed step's questions, labels, documents and progress are gone; the rest stays
+            assertEquals(2L, jdbc.queryForObject("SELECT COUNT(*) FROM step_question", Long.class));
+            assertEquals(2L * 4 + 2L * 3 + 2L * 2, jdbc.queryForObject("SELECT COUNT(*) FROM labels", Long.class));
+            assertEquals(0L, jdbc.queryForObject("SELECT COUNT(*) FROM learning_journey_documents", Long.class));
+            assertEquals(3L, jdbc.queryForObject("SELECT COUNT(*) FROM user_step", Long.class));
+            assertEquals(0L, jdbc.queryForObject(
+                    "SELECT COUNT(*) FROM user_step WHERE stepId = ?", Long.class, stepIds.get("Verdieping")));
+            assertEquals(3L, jdbc.queryForObject("SELECT COUNT(*) FROM user_step_answer", Long.class));
+        } finally {
+            jdbc.execute("DROP TABLE IF EXISTS user_step_answer");
+            jdbc.execute("DROP TABLE IF EXISTS user_step");
+            schemaCapabilities.refresh(jdbc);
+        }
+    }
+
+    @Test
+    void republishOnlyTouchesChangedGroupLinks() {
+        jdbc.update("MERGE INTO `groups` (`id`, `name`) KEY(`id`) VALUES (3, 'Third Group')");
+        LearningJourneyPublishRequest original = buildValidRequest();
+        long ljId = publishService.publish(new LearningJourneyPublishRequest(
+                original.name(), original.nameEn(), original.description(), original.descriptionEn(),
+                List.of(1L, 2L), false, original.steps(), null), PublishEnvironment.TEST).learningJourneyId();
+        Long keptLinkId = jdbc.queryForObject(
+                "SELECT id FROM group_learning_journey WHERE learningJourneyId = ? AND groupId = 2", Long.class, ljId);
+
+        publishService.publish(new LearningJourneyPublishRequest(
+                original.name(), original.nameEn(), original.description(), original.descriptionEn(),
+                List.of(2L, 3L), false, original.steps(), ljId), PublishEnvironment.TEST);
+
+        // Group 2 keeps its link row, group 1 is unlinked and group 3 is added
+        List<Map<String, Object>> links = jdbc.queryForList(
+                "SELECT id, groupId FROM group_learning_journey WHERE learningJourneyId = ? ORDER BY groupId", ljId);
+        assertEquals(2, links.size());
+        assertEquals(2L, ((Number) links.get(0).get("groupId")).longValue());
+        assertEquals(keptLinkId, ((Number) links.get(0).get("id")).longValue());
+        assertEquals(3L, ((Number) links.get(1).get("groupId")).longValue());
+    }
 }
@@ -0,0 +1,1182 @@
+package com.mentesme.builder.service;
+
+import com.mentesme.builder.config.PublishProperties;
+import com.mentesme.builder.model.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Integration test for QuestionnairePublishService.
+ *
+ * Executes the real publish plan (JDBC batches) against H2 in MySQL compatibility mode.
+ * Schema initialized from schema-test.sql in both the TEST and the PRODUCTION database.
+ * S3 is enabled with a mocked client.
+ */
+@SpringBootTest(properties = {
+        "builder.s3.enabled=true",
+        "builder.publish.lock-wait-seconds=1",
+        "builder.metro-prod.enabled=true",
+        "builder.metro-prod.datasource.url=jdbc:h2:mem:metroprod;MODE=MYSQL;DB_CLOSE_DELAY=-1;DATABASE_TO_LOWER=TRUE",
+        "builder.metro-prod.datasource.username=sa",
+        "builder.metro-prod.datasource.driver-class-name=org.h2.Driver"})
+@ActiveProfiles("test")
+class QuestionnairePublishServiceIT {
+
+    @TestConfiguration
+    static class SchemaInit {
+        @Bean
+        ResourceDatabasePopulator metroSchemaPopulator(
+                @Qualifier("metroDataSource") DataSource dataSource) {
+            ResourceDatabasePopulator populator = new ResourceDatabasePopulator();
+            populator.addScript(new ClassPathResource("schema-test.sql"));
+            populator.setContinueOnError(false);
+            populator.execute(dataSource);
+            return populator;
+        }
+
+        @Bean
+        ResourceDatabasePopulator metroProdSchemaPopulator(
+                @Qualifier("metroProdDataSource") DataSource dataSource) {
+            ResourceDatabasePopulator populator = new ResourceDatabasePopulator();
+            populator.addScript(new ClassPathResource("schema-test.sql"));
+            populator.setContinueOnError(false);
+            populator.execute(dataSource);
+            return populator;
+        }
+    }
+
+    @Autowired
+    private QuestionnairePublishService publishService;
+
+    @Autowired
+    private MetroIntegrationService integrationService;
+
+    @Autowired
+    private MetroLookupRepository lookupRepository;
+
+    @Autowired
+    private ScoreRecalculationService scoreRecalculationService;
+
+    @Autowired
+    private PublishJobService publishJobService;
+
+    @Autowired
+    private IdAllocator idAllocator;
+
+    @Autowired
+    private PublishLockService publishLockService;
+
+    @Autowired
+    private TransactionRetryService transactionRetryService;
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    @Autowired
+    private QuestionnaireCleanupService cleanupService;
+
+    @Autowired
+    private PublishProperties publishProperties;
+
+    @Autowired
+    private OrphanCollectorService orphanCollectorService;
+
+    @Autowired
+    private ScoreTriggerBypassService scoreTriggerBypass;
+
+    @Autowired
+    @Qualifier("metroJdbcTemplate")
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    @Qualifier("metroProdJdbcTemplate")
+    private JdbcTemplate prodJdbc;
+
+    @Autowired
+    @Qualifier("metroJdbcTransactionManager")
+    private PlatformTransactionManager testTxManager;
+
+    @Autowired
+    @Qualifier("metroProdTransactionManager")
+    private PlatformTransactionManager prodTxManager;
+
+    @MockBean
+    private S3Client s3Client;
+
+    @BeforeEach
+    void cleanTables() {
+        reset(s3Client);
+        for (String table : List.of(
+                "group_goals", "group_categories", "group_questionnaires", "competence_questions",
+                "questionnaire_items", "competence_items", "item_translations", "items",
+                "goal_competences", "category_competences", "competence_translations", "competences",
+                "goal_translations", "goals", "category_translations", "categories",
+                "questionnaire_translations", "questionnaires")) {
+            jdbc.execute("DELETE FROM " + table);
+            prodJdbc.execute("DELETE FROM " + table);
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // Helpers
+    // ═══════════════════════════════════════════════════════════════════
+
+    private CompetenceInput competence(String category, String subcategory, String name) {
+        return new CompetenceInput(
+                category, category + " EN", null, null,
+                subcategory, subcategory, null, null,
+                name, name + " EN", "Beschrijving " + name, null,
+                "Niet " + name, null, "Wel " + name, null,
+                true, null);
+    }
+
+    /**
+     * Structure:
+     *   Leiderschap: Motiveren (goal "Team"), Delegeren
+     *   Communicatie: Luisteren
+     */
+    private AssessmentBuildRequest buildRequest(String name) {
+        return new AssessmentBuildRequest(
+                name, name + " EN", null, null, null, null,
+                List.of(1L, 2L),
+                List.of(
+                        competence("Leiderschap", "Team", "Motiveren"),
+                        competence("Leiderschap", null, "Delegeren"),
+                        competence("Communicatie", null, "Luisteren")),
+                null);
+    }
+
+    private long count(String table) {
+        Long n = jdbc.queryForObject("SELECT COUNT(*) FROM " + table, Long.class);
+        return n == null ? 0 : n;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════
+    // Tests
+    // ═══════════════════════════════════════════════════════════════════
+
+    @Test
+    void publishNewQuestionnaireInsertsAllRows() {
+        PublishResult result = publishService.publish(buildRequest("Batch Test"), PublishEnvironment.TEST);
+
+        assertTrue(result.published());
+        assertEquals(1, count("questionnaires"));
+        assertEquals(2, count("questionnaire_translations"));
+        assertEquals(2, count("categories"));
+        assertEquals(4, count("category_translations"));
+        assertEquals(1, count("goals"));
+        assertEquals(3, count("competences"));
+        assertEquals(6, count("competence_translations"));
+        assertEquals(3, count("category_competences"));
+        assertEquals(1, count("goal_competences"));
+        assertEquals(3, count("items"));
+        assertEquals(6, count("item_translations"));
+        assertEquals(3, count("questionnaire_items"));
+        assertEquals(3, count("competence_items"));
+        assertEquals(3, count("competence_questions"));
+        assertEquals(2, count("group_questionnaires"));
+        assertEquals(4, count("group_categories"));
+        assertEquals(2, count("group_goals"));
+
+        // Statements are grouped per table: far fewer batches than statements
+        long statements = result.timings().get("sqlStatementCount");
+        long batches = result.timings().get("sqlBatchCount");
+        assertTrue(batches < statements, "Expected batching: " + batches + " batches for " + statements + " statements");
+
+        // Section numbering follows category order
+        List<String> questionIds = jdbc.queryForList(
+                "SELECT questionId FROM competence_questions ORDER BY cq_id", String.class);
+        assertEquals(List.of("1.1.", "1.2.", "2.1."), questionIds);
+    }
+
+    @Test
+    void publishUploadsXmlInParallelAndStoresUrls() {
+        PublishResult result = publishService.publish(buildRequest("Batch Test"), PublishEnvironment.TEST);
+
+        verify(s3Client, times(4)).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        assertEquals(1L, result.timings().get("s3UploadOverlapped"));
+        String questionsUrl = jdbc.queryForObject(
+                "SELECT questions FROM questionnaire_translations WHERE questionnaireId = ? AND language = 'nl'",
+                String.class, result.questionnaireId());
+        assertTrue(questionsUrl.endsWith("test/nl/questionnaire_batch_test_NL.xml"), questionsUrl);
+    }
+
+    @Test
+    void failedSqlPhaseRollsBackOverlappedUploads() {
+        CompetenceInput tooLong = new CompetenceInput(
+                "Leiderschap", null, null, null, null, null, null, null,
+                "Motiveren", null, null, null,
+                "x".repeat(1001), null, "Wel", null,
+                true, null);
+        AssessmentBuildRequest request = new AssessmentBuildRequest(
+                "Rollback", null, null, null, null, null, List.of(1L), List.of(tooLong), null);
+
+        assertThrows(RuntimeException.class, () -> publishService.publish(request, PublishEnvironment.TEST));
+
+        verify(s3Client, times(4)).deleteObject(any(DeleteObjectRequest.class));
+        assertEquals(0, count("questionnaires"), "SQL phase must be rolled back");
+    }
+
+    @Test
+    void publishBothWritesEachEnvironmentOnce() {
+        DualPublishResult result = publishService.publishBoth(buildRequest("Both"));
+
+        assertTrue(result.published(), "Errors: " + result.errors());
+        assertNotNull(result.test());
+        assertNotNull(result.production());
+        assertEquals(1, count("questionnaires"));
+        assertEquals(1L, prodJdbc.queryForObject("SELECT COUNT(*) FROM questionnaires", Long.class));
+        assertEquals(3L, prodJdbc.queryForObject("SELECT COUNT(*) FROM items", Long.class));
+
+        // Same XML, uploaded under both prefixes
+        verify(s3Client, times(8)).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        String prodUrl = prodJdbc.queryForObject(
+                "SELECT questions FROM questionnaire_translations WHERE language = 'nl'", String.class);
+        assertTrue(prodUrl.contains("production/nl/"), prodUrl);
+    }
+
+    @Test
+    void publishBulkSharesCatalogRowsAndIsolatesFailures() {
+        publishService.publish(buildRequest("Bulk A"), PublishEnvironment.TEST);
+        reset(s3Client);
+        AssessmentBuildRequest unknownGroup = new AssessmentBuildRequest(
+                "Bulk X", "Bulk X EN", null, null, null, null, List.of(999L),
+                List.of(competence("Nieuw", null, "Plannen")), null);
+
+        BulkPublishResult result = publishService.publishBulk(
+                List.of(buildRequest("Bulk A"), unknownGroup, buildRequest("Bulk B"), buildRequest("Bulk C")),
+                PublishEnvironment.TEST);
+
+        assertEquals(3, result.succeeded());
+        assertEquals(1, result.failed());
+        BulkPublishItemResult failed = result.items().get(1);
+        assertFalse(failed.published());
+        assertTrue(failed.error().contains("999"), failed.error());
+        assertEquals(3, count("questionnaires"));
+        assertEquals(2, count("categories"), "Categories are shared across the batch, not duplicated");
+        assertEquals(3, count("competences"));
+        assertEquals(0L, jdbc.queryForObject("SELECT COUNT(*) FROM categories WHERE name = 'Nieuw'", Long.class),
+                "The failed item's savepoint must be rolled back");
+        assertEquals(3, count("items"), "Identical questions link to the same items");
+        assertEquals(9, count("questionnaire_items"));
+
+        // XML for the three committed questionnaires, URLs stored for each
+        verify(s3Client, times(12)).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        assertEquals(0L, jdbc.queryForObject(
+                "SELECT COUNT(*) FROM questionnaire_translations WHERE questions IS NULL", Long.class));
+    }
+
+    @Test
+    void assignGroupsLinksQuestionnaireCatalogRowsOnce() {
+        AssessmentBuildRequest oneGroup = new AssessmentBuildRequest(
+                "Groups", "Groups EN", null, null, null, null, List.of(1L),
+                buildRequest("Groups").competences(), null);
+        PublishResult published = publishService.publish(oneGroup, PublishEnvironment.TEST);
+        assertEquals(1, count("group_questionnaires"));
+        assertEquals(2, count("group_categories"));
+        assertEquals(1, count("group_goals"));
+
+        PublishResult assigned = publishService.assignGroups(
+                published.questionnaireId(), List.of(1L, 2L), PublishEnvironment.TEST);
+        publishService.assignGroups(published.questionnaireId(), List.of(2L), PublishEnvironment.TEST);
+
+        assertEquals(3L, assigned.timings().get("sqlStatementCount"), "One statement per link table");
+        assertEquals(2, count("group_questionnaires"));
+        assertEquals(4, count("group_categories"), "Existing links must not be duplicated");
+        assertEquals(2, count("group_goals"));
+        assertEquals(3, count("items"), "Assigning groups does not re-publish");
+        assertThrows(IllegalArgumentException.class, () -> publishService.assignGroups(
+                published.questionnaireId(), List.of(999L), PublishEnvironment.TEST));
+    }
+
+    @Test
+    void scoreTriggerGateSkipsTriggersWithoutDdl() {
+        prodJdbc.execute("CREATE TABLE IF NOT EXISTS builder_schema_migrations (" +
+                "name VARCHAR(100) PRIMARY KEY, applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+        prodJdbc.update("MERGE INTO builder_schema_migrations (name) KEY(name) VALUES ('score-trigger-gate')");
+
+        PublishResult result = publishService.publish(buildRequest("Gate"), PublishEnvironment.PRODUCTION);
+        assertEquals(1L, result.timings().get("scoreTriggerGate"));
+        assertEquals(1L, result.timings().get("scoreRecalcDeferred"));
+
+        // The session variable is cleared before the connection goes back to the pool
+        new TransactionTemplate(prodTxManager).executeWithoutResult(status -> {
+            MetroLookupRepository repo = new MetroLookupRepository(prodJdbc);
+            var execution = repo.executePlan(integrationService.buildPlan(buildRequest("Gate 2"), repo));
+            assertTrue(execution.triggerGate());
+            assertNull(prodJdbc.queryForObject("SELECT @builder_skip_score_recalc", Object.class));
+        });
+    }
+
+    @Test
+    void triggersAreDroppedOnlyForCompetenceQuestionWritesUntilTheLastHolderIsDone() {
+        publishService.publish(buildRequest("Triggers"), PublishEnvironment.TEST);
+        installScoreTrigger();
+        try {
+            // An unchanged re-publish writes no competence_questions rows: the triggers stay
+            publishService.publish(buildRequest("Triggers"), PublishEnvironment.TEST);
+            assertTrue(scoreTriggerInstalled());
+
+            assertTrue(scoreTriggerBypass.bypass(jdbc));
+            assertFalse(scoreTriggerInstalled());
+            assertTrue(scoreTriggerBypass.bypass(jdbc));
+            scoreTriggerBypass.restore(jdbc);
+
+            // One holder is left, so the triggers count as dropped: a new holder runs no DDL
+            installScoreTrigger();
+            assertTrue(scoreTriggerBypass.bypass(jdbc));
+            assertTrue(scoreTriggerInstalled());
+            scoreTriggerBypass.restore(jdbc);
+            scoreTriggerBypass.restore(jdbc);
+
+            // The last holder is done: the next one drops them again
+            assertTrue(scoreTriggerBypass.bypass(jdbc));
+            assertFalse(scoreTriggerInstalled());
+            scoreTriggerBypass.restore(jdbc);
+        } finally {
+            jdbc.execute("DROP TRIGGER IF EXISTS recalculate_user_competence_scores_on_insert_2");
+        }
+    }
+
+    private void installScoreTrigger() {
+        jdbc.execute("CREATE TRIGGER IF NOT EXISTS recalculate_user_competence_scores_on_insert_2 " +
+                "AFTER INSERT ON competence_questions FOR EACH ROW CALL \"" + H2ScoreTrigger.class.getName() + "\"");
+    }
+
+    private boolean scoreTriggerInstalled() {
+        return jdbc.queryForObject("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TRIGGERS " +
+                "WHERE LOWER(TRIGGER_NAME) = 'recalculate_user_competence_scores_on_insert_2'", Long.class) > 0;
+    }
+
+    @Test
+    void deadlocksAreRetriedOtherFailuresAreNot() {
+        AtomicInteger calls = new AtomicInteger();
+        var outcome = transactionRetryService.execute("test", () -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new RuntimeException("Batch #3 failed",
+                        new SQLException("Deadlock found when trying to get lock", "40001", 1213));
+            }
+            return "ok";
+        });
+        assertEquals("ok", outcome.value());
+        assertEquals(2, outcome.retries());
+        Map<String, Long> reported = new HashMap<>();
+        Map<String, Long> timings = new PublishTimings(reported::put);
+        outcome.record(timings);
+        assertEquals(2L, timings.get("txRetries"));
+        assertTrue(timings.get("txRetryWait_ms") > 0);
+        assertEquals(timings, reported, "Retry timings also reach progress listeners");
+
+        calls.set(0);
+        assertThrows(IllegalArgumentException.class, () -> transactionRetryService.execute("test", () -> {
+            calls.incrementAndGet();
+            throw new IllegalArgumentException("Group(s) with ID [999] do not exist in the target database.");
+        }));
+        assertEquals(1, calls.get(), "Non-retriable failures are not retried");
+
+        PublishResult result = publishService.publish(buildRequest("Retry"), PublishEnvironment.TEST);
+        assertEquals(0L, result.timings().get("txRetries"));
+    }
+
+    @Test
+    void republishUnderNewNameReusesCatalogRows() {
+        publishService.publish(buildRequest("First"), PublishEnvironment.TEST);
+        publishService.publish(buildRequest("Second"), PublishEnvironment.TEST);
+
+        assertEquals(2, count("questionnaires"));
+        assertEquals(2, count("categories"), "Categories are matched by name, not duplicated");
+        assertEquals(1, count("goals"));
+        assertEquals(3, count("competences"), "Competences are matched by name, not duplicated");
+        assertEquals(3, count("items"), "Identical questions link to the existing items");
+        assertEquals(6, count("questionnaire_items"));
+        assertEquals(3, count("competence_items"));
+        assertEquals(4, count("group_categories"), "group_categories must not get duplicate rows");
+        assertEquals(2, count("group_goals"));
+    }
+
+    @Test
+    void sharedItemsAreNeverChangedOrDeletedThroughAnotherQuestionnaire() {
+        long first = publishService.publish(buildRequest("Shared A"), PublishEnvironment.TEST).questionnaireId();
+        long second = publishService.publish(buildRequest("Shared B"), PublishEnvironment.TEST).questionnaireId();
+        assertEquals(3, count("items"));
+
+        // B rewords Motiveren and drops Luisteren; A must keep both items as they were
+        AssessmentBuildRequest changed = new AssessmentBuildRequest(
+                "Shared B", "Shared B EN", null, null, null, null,
+                List.of(1L, 2L),
+                List.of(
+                        new CompetenceInput("Leiderschap", "Leiderschap EN", null, null,
+                                "Team", "Team", null, null,
+                                "Motiveren", "Motiveren EN", "Beschrijving Motiveren", null,
+                                "Anders Motiveren", null, "Wel Motiveren", null, true, null),
+                        competence("Leiderschap", null, "Delegeren")),
+                null);
+        publishService.publish(changed, PublishEnvironment.TEST);
+
+        assertEquals(4, count("items"), "Only the reworded question gets a new item");
+        assertEquals(3L, jdbc.queryForObject(
+                "SELECT COUNT(*) FROM questionnaire_items WHERE questionnaireId = ?", Long.class, first));
+        assertEquals(2L, jdbc.queryForObject(
+                "SELECT COUNT(*) FROM questionnaire_items WHERE questionnaireId = ?", Long.class, second));
+        assertEquals(0L, jdbc.queryForObject(
+                "SELECT COUNT(*) FROM item_translations it JOIN questionnaire_items qi ON qi.itemId = it.itemId " +
+                        "WHERE qi.questionnaireId = ? AND it.leftText = 'Anders Motiveren'", Long.class, first));
+
+        // A full re-publish of B deletes only the item B uses alone
+        publishProperties.setDiffRepublish(false);
+        try {
+            publishService.publish(buildRequest("Shared B"), PublishEnvironment.TEST);
+        } finally {
+            publishProperties.setDiffRepublish(true);
+        }
+        assertEquals(3, count("items"));
+        assertEquals(6, count("questionnaire_items"));
+        assertEquals(6, count("item_translations"));
+    }
+
+    private Map<String, Long> itemIdsByName() {
+        Map<String, Long> ids = new java.util.TreeMap<>();
+        jdbc.query("SELECT id, name FROM items", rs -> {
+            ids.put(rs.getString("name"), rs.getLong("id"));
+        });
+        return ids;
+    }
+
+    @Test
+    void republishWithOneTypoOnlyUpdatesThatTranslation() {
+        PublishResult first = publishService.publish(buildRequest("Diff"), PublishEnvironment.TEST);
+        Map<String, Long> itemIds = itemIdsByName();
+        List<Long> cqIds = jdbc.queryForList("SELECT cq_id FROM competence_questions ORDER BY cq_id", Long.class);
+
+        CompetenceInput typoFixed = new CompetenceInput(
+                "Leiderschap", "Leiderschap EN", null, null, null, null, null, null,
+                "Delegeren", "Delegeren EN", "Beschrijving Delegeren", null,
+                "Niet delegeren", "Niet Delegeren", "Wel Delegeren", null,
+                true, null);
+        AssessmentBuildRequest edited = new AssessmentBuildRequest(
+                "Diff", "Diff EN", null, null, null, null, List.of(1L, 2L),
+                List.of(
+                        competence("Leiderschap", "Team", "Motiveren"),
+                        typoFixed,
+                        competence("Communicatie", null, "Luisteren")),
+                null);
+
+        PublishPlan plan = integrationService.buildPlan(edited, lookupRepository);
+        List<PublishPlan.Batch> itemBatches = plan.batches().stream()
+                .filter(b -> b.table().contains("item") || b.table().startsWith("questionnaire"))
+                .toList();
+        assertEquals(1, itemBatches.size(), "Only the changed translation is written");
+        assertTrue(itemBatches.get(0).sql().startsWith("UPDATE item_translations"));
+        assertEquals(1, itemBatches.get(0).size());
+        assertFalse(plan.touches("competence_questions"), "Unchanged competence_questions must not be touched");
+
+        PublishResult second = publishService.publish(edited, PublishEnvironment.TEST);
+
+        assertEquals(first.questionnaireId(), second.questionnaireId());
+        assertEquals(itemIds, itemIdsByName(), "Item IDs stay stable");
+        assertEquals(cqIds, jdbc.queryForList("SELECT cq_id FROM competence_questions ORDER BY cq_id", Long.class));
+        long itemId = itemIds.get("Delegeren_item");
+        assertEquals("Niet delegeren", jdbc.queryForObject(
+                "SELECT leftText FROM item_translations WHERE itemId = ? AND language = 'nl'", String.class, itemId));
+        assertEquals("Niet Delegeren", jdbc.queryForObject(
+                "SELECT leftText FROM item_translations WHERE itemId = ? AND language = 'en'", String.class, itemId));
+    }
+
+    @Test
+    void republishRemovesDroppedItemsAndGroupsOnly() {
+        publishService.publish(buildRequest("Diff"), PublishEnvironment.TEST);
+        jdbc.update("UPDATE group_questionnaires SET promoted = 1 WHERE groupId = 1");
+        Map<String, Long> itemIds = itemIdsByName();
+
+        AssessmentBuildRequest reduced = new AssessmentBuildRequest(
+                "Diff", "Diff EN", null, null, null, null, List.of(1L),
+                List.of(
+                        competence("Leiderschap", "Team", "Motiveren"),
+                        competence("Leiderschap", null, "Delegeren")),
+                null);
+        publishService.publish(reduced, PublishEnvironment.TEST);
+
+        assertEquals(2, count("items"));
+        assertEquals(4, count("item_translations"));
+        assertEquals(2, count("questionnaire_items"));
+        assertEquals(2, count("competence_items"));
+        assertEquals(List.of("1.1.", "1.2."), jdbc.queryForList(
+                "SELECT questionId FROM competence_questions ORDER BY cq_id", String.class));
+        assertEquals(itemIds.get("Motiveren_item"), itemIdsByName().get("Motiveren_item"));
+        assertEquals(List.of(1L), jdbc.queryForList("SELECT groupId FROM group_questionnaires", Long.class));
+        assertEquals(1, jdbc.queryForObject(
+                "SELECT promoted FROM group_questionnaires WHERE groupId = 1", Integer.class),
+                "Existing group link is kept as is");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void backToBackPublishesShareOneScoreRecalculation() {
+        scoreRecalculationService.drain(true);
+        long runsBefore = (long) ((Map<String, Object>) scoreRecalculationService.status().get("test")).get("runs");
+
+        PublishResult first = publishService.publish(buildRequest("First"), PublishEnvironment.TEST);
+        publishService.publish(buildRequest("Second"), PublishEnvironment.TEST);
+        assertEquals(1L, first.timings().get("scoreRecalcDeferred"));
+
+        Map<String, Object> pending = (Map<String, Object>) scoreRecalculationService.status().get("test");
+        assertEquals(2L, pending.get("queueDepth"));
+
+        scoreRecalculationService.drain(true);
+
+        Map<String, Object> after = (Map<String, Object>) scoreRecalculationService.status().get("test");
+        assertEquals(0L, after.get("queueDepth"));
+        assertEquals(runsBefore + 1, after.get("runs"));
+        assertEquals(2L, after.get("lastCoalesced"));
+        assertNull(after.get("lastError"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void scoreMarkersArePersistedAndRecoveredAfterARestart() {
+        scoreRecalculationService.drain(true);
+        TransactionTemplate tx = new TransactionTemplate(testTxManager);
+        tx.executeWithoutResult(status -> {
+            scoreRecalculationService.markDirty(PublishEnvironment.TEST, "rolled back");
+            status.setRollbackOnly();
+        });
+        assertEquals(0, count("builder_score_markers"), "A rolled-back publish leaves no marker");
+
+        publishService.publish(buildRequest("Marked"), PublishEnvironment.TEST);
+        assertEquals(1, count("builder_score_markers"), "Written in the publish transaction");
+
+        // A restart loses the in-memory queue; the row is still there
+        scoreRecalculationService.drain(true);
+        jdbc.update("INSERT INTO builder_score_markers (reason, created_at) VALUES ('lost', CURRENT_TIMESTAMP)");
+        scoreRecalculationService.recoverMarkers();
+        assertEquals(1L, ((Map<String, Object>) scoreRecalculationService.status().get("test")).get("queueDepth"));
+
+        scoreRecalculationService.drain(true);
+        assertEquals(0, count("builder_score_markers"), "Cleared once the procedure ran");
+    }
+
+    @Test
+    void asyncPublishJobReportsProgressAndResult() throws Exception {
+        List<String> streamed = new java.util.concurrent.CopyOnWriteArrayList<>();
+        PublishJob job = publishJobService.submit("questionnaire", PublishEnvironment.TEST, "7",
+                progress -> publishService.publish(buildRequest("Async"), PublishEnvironment.TEST,
+                        (key, value) -> {
+                            streamed.add(key);
+                            progress.accept(key, value);
+                        }));
+
+        PublishJobStatus status = awaitFinished(job);
+        assertEquals("SUCCEEDED", status.status());
+        assertInstanceOf(PublishResult.class, status.result());
+        assertTrue(status.progress().containsKey("executeSql_ms"));
+        assertEquals(streamed, List.copyOf(status.progress().keySet()), "Progress follows timings order");
+        assertEquals(1, count("questionnaires"));
+    }
+
+    @Test
+    void asyncPublishJobReportsValidationErrorAsBadRequest() throws Exception {
+        AssessmentBuildRequest invalid = new AssessmentBuildRequest(
+                "Invalid", null, null, null, null, null, List.of(999L),
+                List.of(competence("Leiderschap", null, "Motiveren")), null);
+        PublishJob job = publishJobService.submit("questionnaire", PublishEnvironment.TEST, "7",
+                progress -> publishService.publish(invalid, PublishEnvironment.TEST, progress));
+
+        PublishJobStatus status = awaitFinished(job);
+        assertEquals("FAILED", status.status());
+        assertEquals(400, status.errorStatus());
+        assertTrue(status.error().contains("999"));
+    }
+
+    @Test
+    void slowJobListenerDoesNotBlockThePublish() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> received = new java.util.concurrent.CopyOnWriteArrayList<>();
+        CountDownLatch gate = new CountDownLatch(1);
+        PublishJob job = publishJobService.submit("questionnaire", PublishEnvironment.TEST, "7", progress -> {
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return publishService.publish(buildRequest("Slow listener"), PublishEnvironment.TEST, progress);
+        });
+        // Blocks on every event, like an SSE client that stopped reading
+        job.subscribe(new PublishJob.Listener() {
+            @Override
+            public void onProgress(String key, Long value) {
+                await(release);
+                received.add(key);
+            }
+
+            @Override
+            public void onStatus(PublishJobStatus status) {
+                await(release);
+                received.add(status.status());
+            }
+        });
+        gate.countDown();
+
+        assertEquals("SUCCEEDED", awaitFinished(job).status());
+        assertTrue(received.isEmpty());
+        release.countDown();
+        for (int i = 0; i < 100 && !received.contains("SUCCEEDED"); i++) {
+            Thread.sleep(50);
+        }
+        assertEquals("SUCCEEDED", received.get(received.size() - 1), "Queued events are delivered in order");
+        assertTrue(received.contains("executeSql_ms"));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private PublishJobStatus awaitFinished(PublishJob job) throws InterruptedException {
+        for (int i = 0; i < 200 && !job.isFinished(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(job.isFinished(), "Job did not finish in time");
+        return job.snapshot();
+    }
+
+    @Test
+    void concurrentIdReservationsNeverOverlap() throws Exception {
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(4);
+        try {
+            List<java.util.concurrent.Future<Long>> blocks = new java.util.ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                blocks.add(pool.submit(() -> idAllocator.reserve(jdbc, Map.of("items", 5, "cq", 5)).get("items")));
+            }
+            java.util.Set<Long> starts = new java.util.TreeSet<>();
+            for (var block : blocks) {
+                starts.add(block.get());
+            }
+            assertEquals(40, starts.size(), "Every reservation gets its own block");
+            Long previous = null;
+            for (Long start : starts) {
+                if (previous != null) {
+                    assertTrue(start - previous >= 5, "Blocks must not overlap: " + previous + ", " + start);
+                }
+                previous = start;
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void idResyncSkipsRowsInsertedOutsideTheBuilder() {
+        long first = idAllocator.reserve(jdbc, Map.of("goals", 1)).get("goals");
+        // Metro itself inserts with its own IDs, without advancing the sequence
+        jdbc.update("INSERT INTO goals (id, name) VALUES (?, 'Metro doel')", first + 10);
+
+        // Peeks and reservations only read the sequence rows, not MAX(id)
+        assertEquals(first + 1, idAllocator.peek(jdbc).get("goals"));
+        idAllocator.resync(jdbc);
+        assertEquals(first + 11, idAllocator.peek(jdbc).get("goals"));
+        assertEquals(first + 11, idAllocator.reserve(jdbc, Map.of("goals", 1)).get("goals"));
+    }
+
+    @Test
+    void publishOfLockedQuestionnaireFailsFastOthersProceed() throws Exception {
+        // Held by another thread, like a concurrent publish (a thread's own locks share its session)
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            try (PublishLockService.PublishLock held = publishLockService.acquire(jdbc, "test",
+                    List.of(PublishLockService.questionnaireNameKey("Locked")))) {
+                locked.countDown();
+                await(release);
+            }
+        });
+        holder.start();
+        try {
+            assertTrue(locked.await(5, TimeUnit.SECONDS));
+            ResponseStatusException ex = assertThrows(ResponseStatusException.class,
+                    () -> publishService.publish(buildRequest("LOCKED "), PublishEnvironment.TEST));
+            assertEquals(409, ex.getStatusCode().value());
+            assertEquals(0, count("questionnaires"));
+
+            PublishResult other = publishService.publish(buildRequest("Unrelated"), PublishEnvironment.TEST);
+            assertTrue(other.published(), "A different questionnaire is not blocked");
+        } finally {
+            release.countDown();
+            holder.join(5000);
+        }
+
+        PublishResult result = publishService.publish(buildRequest("Locked"), PublishEnvironment.TEST);
+        assertTrue(result.published());
+        assertNotNull(result.timings().get("lockWait_ms"));
+    }
+
+    @Test
+    void locksOfOneThreadShareASessionAndReleaseOnlyTheirOwnNames() throws Exception {
+        String a = PublishLockService.questionnaireKey(901);
+        String b = PublishLockService.questionnaireKey(902);
+        java.util.concurrent.ExecutorService other = java.util.concurrent.Executors.newSingleThreadExecutor();
+        java.util.function.Function<String, Boolean> freeElsewhere = key -> {
+            try {
+                return other.submit(() -> {
+                    PublishLockService.PublishLock lock = publishLockService.tryAcquire(jdbc, List.of(key), 0);
+                    if (lock != null) {
+                        lock.close();
+                    }
+                    return lock != null;
+                }).get(5, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        };
+        try {
+            try (PublishLockService.PublishLock outer = publishLockService.acquire(jdbc, "test", List.of(a))) {
+                // A nested lock joins the session, also for a name it already holds
+                try (PublishLockService.PublishLock inner = publishLockService.acquire(jdbc, "test", List.of(a, b), 0)) {
+                    assertFalse(freeElsewhere.apply(b));
+                }
+                assertTrue(freeElsewhere.apply(b), "The nested lock released its own name");
+                assertFalse(freeElsewhere.apply(a), "The outer lock still holds the shared name");
+            }
+            assertTrue(freeElsewhere.apply(a));
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    @Test
+    void idempotencyKeyReplaysResultAndSerializesDuplicates() throws Exception {
+        AssessmentBuildRequest request = buildRequest("Idempotent");
+        AtomicInteger executions = new AtomicInteger();
+        java.util.function.Supplier<PublishResult> publish = () -> {
+            executions.incrementAndGet();
+            return publishService.publish(request, PublishEnvironment.TEST);
+        };
+
+        // Two concurrent submits: the second waits for the first and replays its result
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(2);
+        try {
+            var first = pool.submit(() -> idempotencyService.execute("key-1", "questionnaire",
+                    PublishEnvironment.TEST, request, PublishResult.class, publish));
+            var second = pool.submit(() -> idempotencyService.execute("key-1", "questionnaire",
+                    PublishEnvironment.TEST, request, PublishResult.class, publish));
+            var a = first.get();
+            var b = second.get();
+            assertEquals(1, executions.get(), "The duplicate must not publish again");
+            assertEquals(a.result().questionnaireId(), b.result().questionnaireId());
+            assertTrue(a.replayed() != b.replayed(), "Exactly one of them is a replay");
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(1, count("questionnaires"));
+
+        var later = idempotencyService.execute("key-1", "questionnaire", PublishEnvironment.TEST,
+                request, PublishResult.class, publish);
+        assertTrue(later.replayed());
+        assertEquals(1, executions.get());
+
+        // The controller checks for a stored result before it estimates the publish
+        assertEquals(later.result().questionnaireId(), idempotencyService.findStored("key-1", "questionnaire",
+                PublishEnvironment.TEST, request, PublishResult.class).questionnaireId());
+        assertNull(idempotencyService.findStored("key-2", "questionnaire", PublishEnvironment.TEST,
+                request, PublishResult.class));
+        assertEquals(422, assertThrows(ResponseStatusException.class, () -> idempotencyService.findStored(
+                "key-1", "questionnaire", PublishEnvironment.TEST, buildRequest("Other"), PublishResult.class))
+                .getStatusCode().value());
+
+        ResponseStatusException reused = assertThrows(ResponseStatusException.class,
+                () -> idempotencyService.execute("key-1", "questionnaire", PublishEnvironment.TEST,
+                        buildRequest("Other"), PublishResult.class, publish));
+        assertEquals(422, reused.getStatusCode().value());
+
+        AssessmentBuildRequest unkeyedRequest = buildRequest("Unkeyed");
+        var unkeyed = idempotencyService.execute(null, "questionnaire", PublishEnvironment.TEST, unkeyedRequest,
+                PublishResult.class, () -> publishService.publish(unkeyedRequest, PublishEnvironment.TEST));
+        assertFalse(unkeyed.replayed());
+        assertEquals(2, count("questionnaires"));
+    }
+
+    @Test
+    void estimateCountsPlannedStatementsAndCalibratesFromPublishes() {
+        AssessmentBuildRequest request = buildRequest("Estimate");
+        PublishEstimate before = publishService.estimate(request, PublishEnvironment.PRODUCTION);
+        assertEquals(0, prodJdbc.queryForObject("SELECT COUNT(*) FROM questionnaires", Long.class),
+                "Estimating must not write");
+        assertTrue(before.statements() > 0);
+        assertEquals(0, before.rowsDeleted(), "A new questionnaire deletes nothing");
+        var cq = before.tables().stream().filter(t -> t.table().equals("competence_questions")).findFirst().orElseThrow();
+        assertEquals(3, cq.rowsWritten(), "One competence_questions row per competence");
+        assertFalse(before.runAsync(), "No async threshold configured");
+
+        PublishResult result = publishService.publish(request, PublishEnvironment.PRODUCTION);
+        assertEquals(before.statements(), result.timings().get("sqlStatementCount"));
+
+        // Another new questionnaire touches the same tables, which now have history
+        PublishEstimate next = publishService.estimate(buildRequest("Estimate 2"), PublishEnvironment.PRODUCTION);
+        assertTrue(next.calibrated(), "Rates are learned from the executed batches: " + next.tables());
+    }
+
+    @Test
+    void estimateCountsExistingRowsOfTemplateDeletesAndAssumesTriggersUntilKnown() {
+        publishService.publish(buildRequest("Estimate Replace"), PublishEnvironment.TEST);
+
+        // A full re-publish deletes every competence_questions row of the questionnaire in one statement
+        publishProperties.setDiffRepublish(false);
+        try {
+            PublishEstimate replace = publishService.estimate(buildRequest("Estimate Replace"), PublishEnvironment.TEST);
+            var cq = replace.tables().stream().filter(t -> t.table().equals("competence_questions")).findFirst().orElseThrow();
+            assertEquals(1, cq.statements() - cq.rowsWritten(), "One template DELETE");
+            assertEquals(3, cq.rowsDeleted(), "The DELETE removes the three existing rows");
+        } finally {
+            publishProperties.setDiffRepublish(true);
+        }
+
+        // Without history and without the gate the triggers are assumed to fire
+        PublishCostEstimator fresh = new PublishCostEstimator(publishProperties);
+        List<PublishCostEstimator.Work> work = List.of(new PublishCostEstimator.Work("competence_questions", 3, 3, 0));
+        assertEquals(3, fresh.estimate("TEST", work, false).triggerFirings());
+        assertEquals(0, fresh.estimate("TEST", work, true).triggerFirings());
+        fresh.recordBatches("TEST", List.of(Map.of("table", "competence_questions", "rows", 3, "ms", 6)), false);
+        assertEquals(0, fresh.estimate("TEST", work, false).triggerFirings());
+    }
+
+    @Test
+    void publishResyncsIdSequencesAfterADuplicateKey() {
+        publishService.publish(buildRequest("Sequence A"), PublishEnvironment.TEST);
+        long next = jdbc.queryForObject(
+                "SELECT next_id FROM builder_id_sequences WHERE name = 'questionnaires'", Long.class);
+        // Metro itself inserts with the next ID without advancing the sequence
+        jdbc.update("INSERT INTO questionnaires (id, name) VALUES (?, 'Metro eigen')", next);
+
+        PublishResult result = publishService.publish(buildRequest("Sequence B"), PublishEnvironment.TEST);
+
+        assertTrue(result.published());
+        assertTrue(result.timings().get("questionnaireId") > next, "The retry skips the ID taken outside the builder");
+        assertTrue(jdbc.queryForObject(
+                "SELECT next_id FROM builder_id_sequences WHERE name = 'questionnaires'", Long.class) > next + 1);
+    }
+
+    @Test
+    void dryRunExecutesPlanOnShadowWithoutWriting() {
+        DryRunResult fresh = publishService.dryRun(buildRequest("Dry Run"), PublishEnvironment.TEST);
+        assertTrue(fresh.ok(), "Unexpected violations: " + fresh.violations());
+        assertEquals(0, count("questionnaires"), "A dry run must not write to the target");
+        assertEquals(2L, fresh.loadedRows().get("groups"));
+        assertEquals(1L, fresh.resultRows().get("questionnaires"));
+        assertEquals(3L, fresh.resultRows().get("competence_questions"));
+        assertEquals(fresh.statements(),
+                fresh.batches().stream().mapToInt(b -> ((Number) b.get("rows")).intValue()).sum());
+
+        // A re-publish loads the existing questionnaire, so its rows are updated instead of duplicated
+        publishService.publish(buildRequest("Dry Run"), PublishEnvironment.TEST);
+        DryRunResult republish = publishService.dryRun(buildRequest("Dry Run"), PublishEnvironment.TEST);
+        assertTrue(republish.ok(), "Unexpected violations: " + republish.violations());
+        assertEquals(1L, republish.loadedRows().get("questionnaires"));
+        assertEquals(3L, republish.loadedRows().get("competences"));
+        assertEquals(1L, republish.resultRows().get("questionnaires"));
+        assertEquals(3L, republish.resultRows().get("items"));
+
+        // Every rejected statement is reported, not just the first
+        String tooLong = "x".repeat(1001);
+        AssessmentBuildRequest invalid = new AssessmentBuildRequest(
+                "Dry Run Invalid", "Dry Run Invalid EN", null, null, null, null,
+                List.of(1L),
+                List.of(new CompetenceInput("Leiderschap", null, null, null, null, null, null, null,
+                        "Lang", null, null, null, tooLong, tooLong, "Wel", "Yes", true, null)),
+                null);
+        DryRunResult failed = publishService.dryRun(invalid, PublishEnvironment.TEST);
+        assertFalse(failed.ok());
+        assertEquals(2, failed.violations().size(), "One violation per language: " + failed.violations());
+        assertEquals("item_translations", failed.violations().get(0).table());
+        assertTrue(failed.resultRows().isEmpty());
+        assertEquals(1, count("questionnaires"), "A failed dry run must not write either");
+    }
+
+    @Test
+    void cleanupDeletesRangeInChunksAndResumesFromCheckpoint() {
+        long first = publishService.publish(buildRequest("Cleanup A"), PublishEnvironment.TEST).questionnaireId();
+        publishService.publish(buildRequest("Cleanup B"), PublishEnvironment.TEST);
+        long last = publishService.publish(buildRequest("Cleanup C"), PublishEnvironment.TEST).questionnaireId();
+        long keep = publishService.publish(buildRequest("Cleanup Keep"), PublishEnvironment.TEST).questionnaireId();
+        int chunkSize = publishProperties.getCleanupChunkSize();
+        long pause = publishProperties.getCleanupPauseMs();
+        publishProperties.setCleanupChunkSize(1);
+        publishProperties.setCleanupPauseMs(0);
+        try {
+            // The first chunk commits together with its checkpoint, then the run is cut off
+            assertThrows(IllegalStateException.class, () -> cleanupService.cleanup(first, last, false, (key, value) -> {
+                if (key.equals("cleanupNextId")) throw new IllegalStateException("interrupted");
+            }));
+            assertEquals(3, count("questionnaires"));
+            assertEquals(first + 1, ((Number) cleanupService.status(first, last).get("next_id")).longValue());
+
+            CleanupResult resumed = cleanupService.cleanup(first, last, false, PublishTimings.NO_PROGRESS);
+            assertTrue(resumed.completed());
+            assertEquals(first + 1, resumed.resumedFromId());
+            assertEquals(2, resumed.chunks());
+            assertEquals(2L, resumed.deleted().get("questionnaires"));
+            assertEquals(6L, resumed.deleted().get("competence_questions"));
+            assertTrue(resumed.totalDeleted() > resumed.deleted().values().stream().mapToLong(Long::longValue).sum(),
+                    "Total includes the rows of the interrupted run");
+
+            assertEquals(1, count("questionnaires"));
+            assertEquals(keep, jdbc.queryForObject("SELECT id FROM questionnaires", Long.class));
+            assertEquals(3, count("items"), "Items of the questionnaire outside the range are kept");
+            assertEquals(3, count("competence_questions"));
+            assertEquals(0, jdbc.queryForObject(
+                    "SELECT COUNT(*) FROM group_questionnaires WHERE questionnaireId <> ?", Long.class, keep));
+        } finally {
+            publishProperties.setCleanupChunkSize(chunkSize);
+            publishProperties.setCleanupPauseMs(pause);
+        }
+    }
+
+    @Test
+    void orphanCollectorDeletesOnlyUnreferencedRowsWithinBudget() {
+        publishService.publish(buildRequest("Orphans"), PublishEnvironment.TEST);
+        long competences = count("competences");
+        long goals = count("goals");
+        long categories = count("categories");
+
+        // A competence left behind by a re-publish, with the goal and category only it used
+        jdbc.update("INSERT INTO competences (id, name) VALUES (9001, 'Verweesd')");
+        jdbc.update("INSERT INTO competence_translations (competenceId, language, name) VALUES (9001, 'en', 'Orphaned')");
+        jdbc.update("INSERT INTO goals (id, name) VALUES (9001, 'Verweesd doel')");
+        jdbc.update("INSERT INTO goal_translations (goalId, language, name) VALUES (9001, 'en', 'Orphaned goal')");
+        jdbc.update("INSERT INTO goal_competences (goalId, competenceId) VALUES (9001, 9001)");
+        jdbc.update("INSERT INTO categories (id, name) VALUES (9001, 'Verweesde categorie')");
+        jdbc.update("INSERT INTO category_competences (categoryId, competenceId) VALUES (9001, 9001)");
+        // Linked to a group by an admin, or referenced by a Metro table without a foreign key: kept
+        jdbc.update("INSERT INTO categories (id, name) VALUES (9002, 'Groepscategorie')");
+        jdbc.update("INSERT INTO category_competences (categoryId, competenceId) VALUES (9002, 9001)");
+        jdbc.update("INSERT INTO group_categories (groupId, categoryId) VALUES (1, 9002)");
+        jdbc.update("INSERT INTO goals (id, name) VALUES (9002, 'Groepsdoel')");
+        jdbc.update("INSERT INTO group_goals (groupId, goalId) VALUES (1, 9002)");
+        jdbc.execute("CREATE TABLE metro_goal_scores (user_id bigint, goal_id bigint)");
+        jdbc.update("INSERT INTO goals (id, name) VALUES (9003, 'Gescoord doel')");
+        jdbc.update("INSERT INTO metro_goal_scores (user_id, goal_id) VALUES (1, 9003)");
+        jdbc.update("INSERT INTO labels (identifier, text, lang, category) VALUES " +
+                "('LJ_99999_STEP_1_TITLE', 'Weg', 'nl', 'Learning_Journey_X'), " +
+                "('METRO_ORPHAN_TEST', 'Blijft', 'nl', 'Metro')");
+        try {
+            OrphanCollectionResult report = orphanCollectorService.collect(PublishEnvironment.TEST, true, 1000);
+            assertEquals(1L, report.orphans().get("competences"));
+            assertEquals(0L, report.orphans().get("goals"), "Goals still linked to the orphaned competence");
+            assertTrue(report.orphans().get("labels") >= 1);
+            assertEquals(0, report.totalDeleted());
+            assertEquals(competences + 1, count("competences"));
+
+            // The budget stops the run after the competence batch
+            OrphanCollectionResult limited = orphanCollectorService.collect(PublishEnvironment.TEST, false, 1);
+            assertTrue(limited.budgetExhausted());
+            assertEquals(1L, limited.deleted().get("competences"));
+            assertEquals(1L, limited.deleted().get("goal_competences"));
+            assertEquals(2L, limited.deleted().get("category_competences"));
+            assertEquals(goals + 3, count("goals"));
+
+            OrphanCollectionResult rest = orphanCollectorService.collect(PublishEnvironment.TEST, false, 1000);
+            assertFalse(rest.budgetExhausted());
+            assertEquals(1L, rest.deleted().get("goals"));
+            assertEquals(1L, rest.deleted().get("categories"));
+            assertFalse(rest.deleted().containsKey("group_categories"), "Group links are references, not dependents");
+            assertEquals(competences, count("competences"));
+            assertEquals(goals + 2, count("goals"));
+            assertEquals(categories + 1, count("categories"));
+            assertEquals(2L, jdbc.queryForObject("SELECT COUNT(*) FROM goals WHERE id IN (9002, 9003)", Long.class));
+            assertEquals(1L, jdbc.queryForObject("SELECT COUNT(*) FROM categories WHERE id = 9002", Long.class));
+            assertEquals(0L, jdbc.queryForObject(
+                    "SELECT COUNT(*) FROM labels WHERE identifier = 'LJ_99999_STEP_1_TITLE'", Long.class));
+            assertEquals(1L, jdbc.queryForObject(
+                    "SELECT COUNT(*) FROM labels WHERE identifier = 'METRO_ORPHAN_TEST'", Long.class),
+                    "Labels outside the journey builder's LJ_ prefix are never collected");
+        } finally {
+            jdbc.update("DELETE FROM labels WHERE identifier = 'METRO_ORPHAN_TEST'");
+            jdbc.execute("DROP TABLE metro_goal_scores");
+        }
+    }
+
+    @Test
+    void orphanCollectorKeepsRowsThatAPublishIsLinking() throws Exception {
+        jdbc.update("INSERT INTO competences (id, name) VALUES (9001, 'Herbruikt')");
+        jdbc.update("INSERT INTO items (id, name, invertOrder) VALUES (9001, 'Herbruikt_item', 0)");
+        MetroLookupRepository repo = new MetroLookupRepository(jdbc);
+        TransactionTemplate tx = new TransactionTemplate(testTxManager);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // A publish that reuses the competence locks it, then links it before committing
+        CompletableFuture<Void> publish = CompletableFuture.runAsync(() -> tx.executeWithoutResult(status -> {
+            assertTrue(repo.lockRows("competences", List.of(9001L)).isEmpty());
+            locked.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            jdbc.update("INSERT INTO competence_items (competenceId, itemId) VALUES (9001, 9001)");
+        }));
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+        CompletableFuture<OrphanCollectionResult> collect = CompletableFuture.supplyAsync(
+                () -> orphanCollectorService.collect(PublishEnvironment.TEST, false, 1000));
+        Thread.sleep(200);
+        release.countDown();
+        publish.get(5, TimeUnit.SECONDS);
+
+        OrphanCollectionResult result = collect.get(10, TimeUnit.SECONDS);
+        assertEquals(1L, result.orphans().get("competences"));
+        assertNull(result.deleted().get("competences"), "Re-check after the lock sees the new link");
+        assertEquals(1L, count("competences"));
+    }
+
+    @Test
+    void itemReusedDuringARepublishIsNotDeletedAsExclusive() throws Exception {
+        jdbc.update("INSERT INTO items (id, name, invertOrder) VALUES (9001, 'Herbruikt_item', 0)");
+        jdbc.update("INSERT INTO questionnaire_items (questionnaireId, itemId, `order`) VALUES (9001, 9001, 1)");
+        MetroLookupRepository repo = new MetroLookupRepository(jdbc);
+        TransactionTemplate tx = new TransactionTemplate(testTxManager);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // A publish of another questionnaire locks the item it reuses, then links it before committing
+        CompletableFuture<Void> publish = CompletableFuture.runAsync(() -> tx.executeWithoutResult(status -> {
+            assertTrue(repo.lockRows("items", List.of(9001L)).isEmpty());
+            locked.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            jdbc.update("INSERT INTO questionnaire_items (questionnaireId, itemId, `order`) VALUES (9002, 9001, 1)");
+        }));
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Set<Long>> shared = CompletableFuture.supplyAsync(() -> tx.execute(
+                status -> repo.lockSharedItemIds(List.of(9001L), 9001, 9001)));
+        Thread.sleep(200);
+        release.countDown();
+        publish.get(5, TimeUnit.SECONDS);
+
+        assertEquals(Set.of(9001L), shared.get(10, TimeUnit.SECONDS), "Check after the lock sees the new link");
+    }
+
+    @Test
+    void resolveNamesMatchesBaseAndTranslationTables() {
+        jdbc.update("INSERT INTO categories (id, name) VALUES (10, 'Leiderschap'), (11, 'Leadership')");
+        jdbc.update("INSERT INTO category_translations (categoryId, language, name) VALUES (10, 'en', 'Leadership')");
+        jdbc.update("INSERT INTO competences (id, name) VALUES (20, 'Motiveren')");
+        jdbc.update("INSERT INTO competence_translations (competenceId, language, name) VALUES (20, 'en', 'Motivating')");
+
+        NameResolution resolved = lookupRepository.resolveNames(
+                List.of("Leiderschap", "Leadership", "Onbekend"),
+                List.of(),
+                List.of("Motivating", " Motiveren "),
+                List.of(20L, 99L));
+
+        assertEquals(10L, resolved.categoryId("leiderschap"));
+        assertEquals(11L, resolved.categoryId("Leadership"), "Base table match wins over translation");
+        assertNull(resolved.categoryId("Onbekend"));
+        assertEquals(20L, resolved.competenceId("Motivating"));
+        assertEquals(20L, resolved.competenceId("Motiveren"));
+        assertTrue(resolved.competenceExists(20L));
+        assertFalse(resolved.competenceExists(99L));
+    }
+
+    @Test
+    void namesMatchLikeTheAccentInsensitiveCollation() {
+        // MySQL returns the stored spelling for a name it matched with utf8mb4_0900_ai_ci
+        NameResolution resolved = NameResolution.empty();
+        resolved.categories().put(NameResolution.key("Creativite"), 10L);
+        resolved.competences().put(NameResolution.key("Zelfreflectie"), 20L);
+
+        assertEquals(10L, resolved.categoryId(" Créativité "));
+        assertEquals(10L, resolved.categoryId("CRÉATIVITÉ"));
+        assertEquals(20L, resolved.competenceId("Zelfreflëctie"));
+        assertNull(resolved.categoryId("Creatief"));
+    }
+
+    @Test
+    void publishReusesPreviewLookupsUntilDatabaseChanges() {
+        AssessmentBuildRequest request = buildRequest("Cached");
+        integrationService.generatePreview(request, lookupRepository);
+        PublishResult first = publishService.publish(request, PublishEnvironment.TEST);
+        assertEquals(1L, first.timings().get("planCacheHit"));
+        assertEquals(1, count("questionnaires"));
+
+        // The publish itself moved the ID sequences: a stale preview is not reused
+        AssessmentBuildRequest other = buildRequest("Other");
+        integrationService.generatePreview(other, lookupRepository);
+        publishService.publish(buildRequest("Third"), PublishEnvironment.TEST);
+        PublishResult second = publishService.publish(other, PublishEnvironment.TEST);
+        assertEquals(0L, second.timings().get("planCacheHit"));
+        assertEquals(3, count("questionnaires"));
+    }
+
+    @Test
+    void publishLooksUpAgainWhenCachedRowsChanged() {
+        publishService.publish(buildRequest("Stale"), PublishEnvironment.TEST);
+        long categories = count("categories");
+        AssessmentBuildRequest republish = buildRequest("Stale");
+        integrationService.generatePreview(republish, lookupRepository);
+
+        // Metro renames a category the preview resolved; the ID sequences do not move
+        jdbc.update("UPDATE categories SET name = 'Hernoemd' WHERE name = 'Leiderschap'");
+        jdbc.update("UPDATE category_translations SET name = 'Hernoemd' WHERE name = 'Leiderschap'");
+        PublishResult renamed = publishService.publish(republish, PublishEnvironment.TEST);
+        assertEquals(0L, renamed.timings().get("planCacheHit"));
+        assertEquals(categories + 1, count("categories"), "'Leiderschap' no longer exists and is created again");
+
+        // Cleanup deletes the questionnaire a preview resolved: the preview is evicted
+        integrationService.generatePreview(republish, lookupRepository);
+        cleanupService.cleanup(renamed.questionnaireId(), renamed.questionnaireId(), true, PublishTimings.NO_PROGRESS);
+        PublishResult recreated = publishService.publish(republish, PublishEnvironment.TEST);
+        assertEquals(0L, recreated.timings().get("planCacheHit"));
+        assertNotEquals(renamed.questionnaireId(), recreated.questionnaireId());
+    }
+
+    @Test
+    void previewRendersPlanAsReadableSql() {
+        AssessmentBuildRequest request = buildRequest("Zelf's beeld");
+        PublishPlan plan = integrationService.buildPlan(request, lookupRepository);
+        IntegrationPreviewResponse preview = integrationService.generatePreview(request, lookupRepository);
+
+        assertEquals(plan.statementCount(), preview.sqlStatements().size());
+        assertTrue(preview.sqlStatements().stream().noneMatch(sql -> sql.contains("?")),
+                "All parameters must be rendered as literals");
+        assertTrue(preview.sqlStatements().stream().anyMatch(sql -> sql.contains("'Zelf''s beeld'")),
+                "String literals must be escaped");
+        assertEquals(3, preview.summary().newCompetences());
+        assertEquals(0, count("questionnaires"), "Preview must not write");
+    }
+}